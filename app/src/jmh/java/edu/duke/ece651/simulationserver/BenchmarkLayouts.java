@@ -0,0 +1,96 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Writes simulation layouts of a given size for the benchmarks.
+ *
+ * A layout is a grid of cells, each made of a smelter factory between two ore mines.
+ * Every building has a coordinate and each factory touches its mines, so loading the
+ * layout does not spend its time searching for roads.
+ */
+final class BenchmarkLayouts {
+  static final String FACTORY_PREFIX = "F";
+
+  private BenchmarkLayouts() {
+  }
+
+  /**
+   * Writes a layout with the given number of buildings to a temporary file.
+   *
+   * @param buildings the number of buildings, at least 3
+   * @return the file, deleted when the JVM exits
+   * @throws IOException if the file cannot be written
+   */
+  static File write(int buildings) throws IOException {
+    if (buildings < 3) {
+      throw new IllegalArgumentException("a layout needs at least 3 buildings");
+    }
+    ObjectMapper mapper = new ObjectMapper();
+    ObjectNode root = mapper.createObjectNode();
+
+    ArrayNode recipes = root.putArray("recipes");
+    ObjectNode ore = recipes.addObject();
+    ore.put("output", "ore");
+    ore.putObject("ingredients");
+    ore.put("latency", 1);
+    ObjectNode ingot = recipes.addObject();
+    ingot.put("output", "ingot");
+    ingot.putObject("ingredients").put("ore", 1);
+    ingot.put("latency", 2);
+
+    ObjectNode smelter = root.putArray("types").addObject();
+    smelter.put("name", "smelter");
+    smelter.putArray("recipes").add("ingot");
+
+    ArrayNode array = root.putArray("buildings");
+    int cells = buildings / 3;
+    int width = (int) Math.ceil(Math.sqrt(cells));
+    for (int i = 0; i < cells; i++) {
+      int row = (i / width) * 2;
+      int col = (i % width) * 4;
+      addMine(array, "M" + i + "a", row, col);
+      ObjectNode factory = array.addObject();
+      factory.put("name", FACTORY_PREFIX + i);
+      factory.put("type", "smelter");
+      factory.putArray("coordinate").add(row).add(col + 1);
+      factory.putArray("sources").add("M" + i + "a").add("M" + i + "b");
+      addMine(array, "M" + i + "b", row, col + 2);
+    }
+    for (int i = 0; i < buildings % 3; i++) {
+      addMine(array, "X" + i, -2, i * 2);
+    }
+
+    File file = File.createTempFile("layout" + buildings + "-", ".json");
+    file.deleteOnExit();
+    mapper.writeValue(file, root);
+    return file;
+  }
+
+  private static void addMine(ArrayNode array, String name, int row, int col) {
+    ObjectNode mine = array.addObject();
+    mine.put("name", name);
+    mine.put("mine", "ore");
+    mine.putArray("coordinate").add(row).add(col);
+    mine.putArray("sources");
+  }
+
+  /**
+   * @param buildings the number of buildings the layout was written with
+   * @return the names of the layout's factories
+   */
+  static List<String> factories(int buildings) {
+    List<String> names = new ArrayList<>();
+    for (int i = 0; i < buildings / 3; i++) {
+      names.add(FACTORY_PREFIX + i);
+    }
+    return names;
+  }
+}
@@ -0,0 +1,91 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Comparator;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import edu.duke.ece651.Controller.CommandController;
+import edu.duke.ece651.dto.CommandRequest;
+import edu.duke.ece651.dto.SessionObject;
+
+/**
+ * A command sent to the CommandController, which runs the command on a durable session
+ * (journaling it) and writes the session's state for the reply.
+ *
+ * The controller is called directly, without a Spring context or a WebSocket, so the
+ * numbers are the server side cost of a command. durableSave is what durability cost before
+ * the journal: the command and a full save of the session. The journal and session file are
+ * written to a temporary directory.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CommandBenchmark {
+  private static final int SESSION = 30001;
+
+  @Param({ "10", "1000" })
+  public int buildings;
+
+  @Param({ "step 1", "set policy request 'sjf' on *" })
+  public String command;
+
+  private File layout;
+  private Path directory;
+  private SessionRegistry sessions;
+  private CommandController controller;
+  private CommandRequest request;
+
+  @Setup(Level.Trial)
+  public void startSession() throws IOException {
+    layout = BenchmarkLayouts.write(buildings);
+    directory = Files.createTempDirectory("journal");
+    sessions = new SessionRegistry(layout.getPath(), directory.toString(), 1000);
+    controller = new CommandController(sessions);
+    request = new CommandRequest();
+    request.setId(SESSION);
+    request.setCommand(command);
+  }
+
+  @TearDown(Level.Trial)
+  public void endSession() throws IOException {
+    sessions.remove(SESSION);
+    layout.delete();
+    try (Stream<Path> files = Files.walk(directory)) {
+      files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+    }
+  }
+
+  @Benchmark
+  public SessionObject execute() {
+    return controller.wsExecuteCommand(SESSION, request);
+  }
+
+  @Benchmark
+  public SimulationSession durableSave() throws IOException {
+    SimulationSession session = sessions.get(SESSION);
+    session.getView().parseCommand(command);
+    session.getView().getSimulation().save(directory.resolve("session.json").toString());
+    return session;
+  }
+}
@@ -0,0 +1,77 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Route search between two buildings a given distance apart, on a map where a given
+ * fraction of the squares between them already are two way roads.
+ *
+ * connect builds the roads of the route it finds; the benchmark removes them again so
+ * every invocation searches the same map.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ConnectorBenchmark {
+  @Param({ "8", "32", "64" })
+  public int distance;
+
+  @Param({ "0.0", "0.25", "0.5" })
+  public double roadDensity;
+
+  private Map<Coordinate, Square> squares;
+  private Building start;
+  private Building end;
+  private Connector connector;
+
+  @Setup(Level.Trial)
+  public void buildMap() {
+    Recipe ore = new Recipe("ore", new HashMap<>(), 1);
+    start = new Mine("A", new ArrayList<>(), ore, new Coordinate(0, 0));
+    end = new Mine("B", new ArrayList<>(), ore, new Coordinate(distance / 2, distance));
+    squares = new HashMap<>();
+    squares.put(start.getCoordinate(), start);
+    squares.put(end.getCoordinate(), end);
+    Random random = new Random(651);
+    for (int row = -distance / 2; row <= distance; row++) {
+      for (int col = -distance / 2; col <= distance + distance / 2; col++) {
+        Coordinate c = new Coordinate(row, col);
+        if (!squares.containsKey(c) && random.nextDouble() < roadDensity) {
+          squares.put(c, new Road(c));
+        }
+      }
+    }
+    connector = new Connector();
+  }
+
+  @Benchmark
+  public GraphPath connect() {
+    List<Road> built = new ArrayList<>();
+    GraphPath path = connector.connect(squares, start, end, built);
+    for (Road road : built) {
+      squares.remove(road.getCoordinate());
+    }
+    return path;
+  }
+}
@@ -0,0 +1,86 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Saving and loading simulations of growing size.
+ *
+ * The saved simulation has a request queued at every factory and has run a few
+ * cycles, so the file holds requests, inventories and roads as well as buildings.
+ * initialize reads the layout in the initializer format, which places the buildings
+ * and connects their sources; load reads the saved format.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PersistenceBenchmark {
+  @Param({ "10", "1000", "10000" })
+  public int buildings;
+
+  private File layout;
+  private File saved;
+  private File scratch;
+  private Simulation simulation;
+
+  @Setup(Level.Trial)
+  public void prepare() throws IOException {
+    Verbosity.bind(new EventLog());
+    layout = BenchmarkLayouts.write(buildings);
+    simulation = new Simulation(layout.getPath());
+    for (String factory : BenchmarkLayouts.factories(buildings)) {
+      simulation.request(factory, "ingot");
+    }
+    simulation.stepN(2);
+    saved = File.createTempFile("saved" + buildings + "-", ".json");
+    simulation.save(saved.getPath());
+    scratch = File.createTempFile("scratch" + buildings + "-", ".json");
+  }
+
+  @TearDown(Level.Trial)
+  public void cleanUp() {
+    layout.delete();
+    saved.delete();
+    scratch.delete();
+  }
+
+  @Benchmark
+  public File save() throws IOException {
+    simulation.save(scratch.getPath());
+    return scratch;
+  }
+
+  @Benchmark
+  public Simulation load() throws IOException {
+    return new Simulation(saved.getPath());
+  }
+
+  @Benchmark
+  public Simulation initialize() throws IOException {
+    return new Simulation(layout.getPath());
+  }
+
+  @Benchmark
+  public Simulation roundTrip() throws IOException {
+    simulation.save(scratch.getPath());
+    return new Simulation(scratch.getPath());
+  }
+}
@@ -0,0 +1,145 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * One source or request selection against deep queues.
+ *
+ * Selecting does not change any queue, so every invocation sees the same state. For
+ * source selection, each of the candidate factories has queueDepth requests, whose
+ * sub-requests sit in the queues of the factories' mines. For request selection, only
+ * the last of queueDepth requests is ready, so policies that look for a ready request
+ * scan the whole queue.
+ */
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class PolicyBenchmark {
+  @State(Scope.Thread)
+  public static class Sources {
+    @Param({ "10", "100", "1000" })
+    public int queueDepth;
+
+    @Param({ "qlen", "simplelat", "recursivelat", "criticalpath" })
+    public String policy;
+
+    @Param({ "4" })
+    public int candidates;
+
+    private Map<Building, GraphPath> sources;
+    private SourceSelectionPolicy selector;
+
+    @Setup(Level.Trial)
+    public void buildQueues() {
+      Verbosity.bind(new EventLog());
+      Map<String, Recipe> recipes = new LinkedHashMap<>();
+      Recipe ore = new Recipe("ore", new HashMap<>(), 1);
+      recipes.put("ore", ore);
+      Recipe ingot = new Recipe("ingot", new HashMap<>(Map.of("ore", 2)), 3);
+      recipes.put("ingot", ingot);
+      FactoryType smelter = new FactoryType("smelter", List.of(ingot));
+
+      sources = new LinkedHashMap<>();
+      for (int i = 0; i < candidates; i++) {
+        List<Building> mines = new ArrayList<>();
+        mines.add(new Mine("M" + i + "a", new ArrayList<>(), ore, new Coordinate(2 * i, 0)));
+        mines.add(new Mine("M" + i + "b", new ArrayList<>(), ore, new Coordinate(2 * i, 2)));
+        Factory factory = new Factory("F" + i, mines, smelter, new Coordinate(2 * i, 1));
+        factory.setSourcePolicy(new QlenPolicy());
+        for (int j = 0; j < queueDepth; j++) {
+          factory.addRequest(new Request(ingot, null, true));
+        }
+        GraphPath path = new GraphPath();
+        path.addNode(factory.getCoordinate(), 0);
+        path.addNode(new Coordinate(2 * i, 5), 2 * i + 4);
+        sources.put(factory, path);
+      }
+      switch (policy) {
+        case "qlen":
+          selector = new QlenPolicy();
+          break;
+        case "simplelat":
+          selector = new SimplelatPolicy();
+          break;
+        case "recursivelat":
+          selector = new RecursiveLatPolicy(recipes);
+          break;
+        case "criticalpath":
+          selector = new CriticalPathPolicy(new RecipeGraph(recipes), CriticalPathPolicy.DEFAULT_RECALIBRATION);
+          break;
+        default:
+          throw new IllegalArgumentException("unknown source policy " + policy);
+      }
+    }
+  }
+
+  @State(Scope.Thread)
+  public static class Requests {
+    @Param({ "10", "100", "1000" })
+    public int queueDepth;
+
+    @Param({ "fifo", "ready", "sjf" })
+    public String policy;
+
+    private Queue<Request> queue;
+    private Map<String, Integer> inventory;
+    private RequestSelectionPolicy selector;
+
+    @Setup(Level.Trial)
+    public void buildQueue() {
+      Recipe ingot = new Recipe("ingot", new HashMap<>(Map.of("ore", 2)), 3);
+      Recipe gear = new Recipe("gear", new HashMap<>(Map.of("ore", 1)), 5);
+      queue = new ArrayDeque<>();
+      for (int j = 1; j < queueDepth; j++) {
+        queue.add(new Request(ingot, null, false));
+      }
+      queue.add(new Request(gear, null, false));
+      inventory = new HashMap<>(Map.of("ore", 1));
+      switch (policy) {
+        case "fifo":
+          selector = new FifoPolicy();
+          break;
+        case "ready":
+          selector = new ReadyPolicy();
+          break;
+        case "sjf":
+          selector = new SjfPolicy();
+          break;
+        default:
+          throw new IllegalArgumentException("unknown request policy " + policy);
+      }
+    }
+  }
+
+  @Benchmark
+  public Building selectSource(Sources state) {
+    return state.selector.selectSource(state.sources, "ingot", new LinkedHashMap<>());
+  }
+
+  @Benchmark
+  public Request selectRequest(Requests state) {
+    return state.selector.selectRequest(state.queue, state.inventory);
+  }
+}
@@ -0,0 +1,70 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Time to simulate a fixed number of cycles on layouts of growing size.
+ *
+ * Each iteration starts from a freshly loaded layout in which every factory has the
+ * same number of user requests queued, so all iterations do the same work.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+@Fork(1)
+public class SimulationStepBenchmark {
+  @Param({ "10", "1000", "10000", "100000" })
+  public int buildings;
+
+  @Param({ "4" })
+  public int requestsPerFactory;
+
+  @Param({ "50" })
+  public int cycles;
+
+  private File layout;
+  private List<String> factories;
+  private Simulation simulation;
+
+  @Setup(Level.Trial)
+  public void writeLayout() throws IOException {
+    Verbosity.bind(new EventLog());
+    layout = BenchmarkLayouts.write(buildings);
+    factories = BenchmarkLayouts.factories(buildings);
+  }
+
+  @Setup(Level.Iteration)
+  public void load() throws IOException {
+    Request.resetIdGenerator();
+    simulation = new Simulation(layout.getPath());
+    for (int i = 0; i < requestsPerFactory; i++) {
+      for (String factory : factories) {
+        simulation.request(factory, "ingot");
+      }
+    }
+  }
+
+  @Benchmark
+  public Simulation stepN() {
+    simulation.stepN(cycles);
+    return simulation;
+  }
+}
@@ -0,0 +1,97 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A generated world's command script run to the end with every factory and storage on
+ * one source policy, to weigh what a policy costs against how soon its choices get the
+ * requests done.
+ *
+ * The time is the CPU cost of a run; the completionCycles counter is the cycle the
+ * simulation finished at, which is the same in every run of a policy. Each invocation
+ * loads the world again, which is not measured. The world's recipes are deep, so
+ * sources differ in the work queued upstream of them, which only recursivelat and
+ * criticalpath look at.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class SourcePolicyBenchmark {
+  @Param({ "30", "120" })
+  public int factories;
+
+  @Param({ "simplelat", "recursivelat", "criticalpath" })
+  public String policy;
+
+  private File config;
+  private String script;
+  private SimulationTextView view;
+
+  /**
+   * The cycle the last run finished at.
+   */
+  @State(Scope.Thread)
+  @AuxCounters(AuxCounters.Type.EVENTS)
+  public static class Completion {
+    private int cycles;
+
+    public int completionCycles() {
+      return cycles;
+    }
+  }
+
+  @Setup(Level.Trial)
+  public void generate() throws IOException {
+    Verbosity.bind(new EventLog());
+    config = File.createTempFile("policy" + factories + "-", ".json");
+    WorldGenerator generator = new WorldGenerator().setSeed(651).setFactories(factories)
+        .setMines(factories / 3).setStorages(factories / 10).setDepth(5).setSourcesPerIngredient(3)
+        .setRequests(factories / 2).setStepsBetweenRequests(2);
+    generator.write(config.getPath(), null);
+    script = "set policy source '" + policy + "' on *\n" + String.join("\n", generator.generateScript());
+  }
+
+  @Setup(Level.Invocation)
+  public void load() throws IOException {
+    Request.resetIdGenerator();
+    view = new SimulationTextView(config.getPath(), new BufferedReader(new StringReader(script)),
+        new PrintStream(OutputStream.nullOutputStream()));
+  }
+
+  @TearDown(Level.Trial)
+  public void cleanUp() throws IOException {
+    Files.delete(config.toPath());
+  }
+
+  @Benchmark
+  public Simulation runScript(Completion completion) throws IOException {
+    view.run();
+    completion.cycles = view.getSimulation().getCurrentCycle();
+    return view.getSimulation();
+  }
+}
@@ -0,0 +1,78 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.StringReader;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * A generated world's command script, run to the end: drones, user requests spread
+ * over time, storages refilling and waste going to disposals, over a road network.
+ *
+ * Each iteration loads the world again; loading searches the routes of all sources,
+ * and is not measured. The script runs like a typed session, so a request a factory
+ * rejects (e.g. because of its waste) is reported and skipped.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class WorldScriptBenchmark {
+  @Param({ "30", "300" })
+  public int factories;
+
+  @Param({ "0.2" })
+  public double roadDensity;
+
+  private File config;
+  private String script;
+  private SimulationTextView view;
+
+  @Setup(Level.Trial)
+  public void generate() throws IOException {
+    config = File.createTempFile("world" + factories + "-", ".json");
+    WorldGenerator generator = new WorldGenerator().setSeed(651).setFactories(factories)
+        .setMines(factories / 3).setStorages(factories / 10).setWasteDisposals(factories / 30)
+        .setDronePorts(factories / 30).setRoadDensity(roadDensity).setRequests(factories / 3);
+    generator.write(config.getPath(), null);
+    script = String.join("\n", generator.generateScript());
+  }
+
+  @Setup(Level.Iteration)
+  public void load() throws IOException {
+    Request.resetIdGenerator();
+    view = new SimulationTextView(config.getPath(), new BufferedReader(new StringReader(script)),
+        new PrintStream(OutputStream.nullOutputStream()));
+  }
+
+  @TearDown(Level.Trial)
+  public void cleanUp() throws IOException {
+    Files.delete(config.toPath());
+  }
+
+  @Benchmark
+  public Simulation runScript() throws IOException {
+    view.run();
+    return view.getSimulation();
+  }
+}
@@ -0,0 +1,23 @@
+package edu.duke.ece651.Config;
+
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+
+import edu.duke.ece651.simulationserver.MicrometerSimulationMetrics;
+import edu.duke.ece651.simulationserver.Simulation;
+import io.micrometer.core.instrument.MeterRegistry;
+
+/**
+ * Connects the simulation engine to the actuator's meter registry, so the engine's
+ * metrics show up under /actuator/metrics and /actuator/prometheus.
+ */
+@Configuration
+public class MetricsConfig {
+
+    @Bean
+    public MicrometerSimulationMetrics simulationMetrics(MeterRegistry registry) {
+        MicrometerSimulationMetrics metrics = new MicrometerSimulationMetrics(registry);
+        Simulation.setMetrics(metrics);
+        return metrics;
+    }
+}
@@ -1,20 +1,37 @@
 package edu.duke.ece651.Config;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.context.annotation.Configuration;
 import org.springframework.messaging.simp.config.MessageBrokerRegistry;
 import org.springframework.web.socket.config.annotation.EnableWebSocketMessageBroker;
 import org.springframework.web.socket.config.annotation.StompEndpointRegistry;
 import org.springframework.web.socket.config.annotation.WebSocketMessageBrokerConfigurer;
+import org.springframework.web.socket.config.annotation.WebSocketTransportRegistration;
 
 @Configuration
 @EnableWebSocketMessageBroker
 public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
 
+    // the largest message a client may send; a loaded configuration is one message
+    @Value("${simulation.websocket.message-size-limit:4194304}")
+    private int messageSizeLimit;
+
+    // the most outbound bytes buffered for one client before it is disconnected as too slow
+    @Value("${simulation.websocket.send-buffer-size-limit:16777216}")
+    private int sendBufferSizeLimit;
+
+    // how long (ms) one send to a client may take before it is disconnected as too slow
+    @Value("${simulation.websocket.send-time-limit:15000}")
+    private int sendTimeLimit;
+
     @Override
     public void configureMessageBroker(MessageBrokerRegistry registry) {
         // 客户端订阅前缀（接收消息）
+        // results are sent to /topic/session/{id}/..., see CommandController
         registry.enableSimpleBroker("/topic");
         // 服务端接收消息前缀（发送消息）
         registry.setApplicationDestinationPrefixes("/app");
+        // a client applies state deltas in order
+        registry.setPreservePublishOrder(true);
     }
 
     @Override
@@ -23,5 +40,14 @@ public class WebSocketConfig implements WebSocketMessageBrokerConfigurer {
         registry.addEndpoint("/ws-command")
                 .setAllowedOriginPatterns("*")// 允许跨域
                 .withSockJS(); // 支持 SockJS 回退
+        // a client's subscription to a session is in place before its first command runs
+        registry.setPreserveReceiveOrder(true);
+    }
+
+    @Override
+    public void configureWebSocketTransport(WebSocketTransportRegistration registration) {
+        registration.setMessageSizeLimit(messageSizeLimit)
+                .setSendBufferSizeLimit(sendBufferSizeLimit)
+                .setSendTimeLimit(sendTimeLimit);
     }
-}
\ No newline at end of file
+}
@@ -3,12 +3,14 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
-import java.nio.file.Paths;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.http.ResponseEntity;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.Header;
 import org.springframework.messaging.handler.annotation.MessageMapping;
 import org.springframework.messaging.handler.annotation.SendTo;
 import org.springframework.web.bind.annotation.CrossOrigin;
@@ -22,37 +24,61 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import edu.duke.ece651.dto.CommandRequest;
 import edu.duke.ece651.dto.SessionObject;
 import edu.duke.ece651.dto.TextualObject;
-import edu.duke.ece651.simulationserver.OutputCapture;
-import edu.duke.ece651.simulationserver.SimulationTextView;
+import edu.duke.ece651.simulationserver.RequestRejectedException;
+import edu.duke.ece651.simulationserver.SessionRegistry;
+import edu.duke.ece651.simulationserver.SimulationSession;
+import edu.duke.ece651.simulationserver.StateTracker;
+
+// Clients send to /app/session/{id}/... and subscribe to /topic/session/{id}/..., so a
+// session's results only go to the clients following that session.
 @RestController
 @RequestMapping("/command")
 @CrossOrigin(origins = "*") // allow cross-origin requests
 public class CommandController {
 
-    private final SimulationTextView simulationTextView;
+    private final SessionRegistry sessions;
+    // the versions sent to each session's clients, so results only carry what changed
+    private final Map<Integer, StateTracker> trackers = new ConcurrentHashMap<>();
 
     @Autowired
-    public CommandController(SimulationTextView simulationTextView) {
-        this.simulationTextView = simulationTextView;
+    public CommandController(SessionRegistry sessions) {
+        this.sessions = sessions;
+    }
+
+    private StateTracker tracker(int id) {
+        return trackers.computeIfAbsent(id, k -> new StateTracker());
+    }
+
+    // the changes since the state last sent, for a session changed by something other than
+    // a client's command (e.g. a job, see JobController)
+    public SessionObject stateUpdate(int id) throws IOException {
+        SessionObject result = new SessionObject();
+        result.setId(id);
+        SimulationSession session = sessions.get(id);
+        result.setJsonData(session.read(s -> tracker(id).update(s.getView().getSimulation())));
+        return result;
     }
 
-    @MessageMapping("/command")
-    @SendTo("/topic/command-result")
-    public SessionObject wsExecuteCommand(CommandRequest request) {
-        int id = request.getId();
+    @MessageMapping("/session/{id}/command")
+    @SendTo("/topic/session/{id}/command-result")
+    public SessionObject wsExecuteCommand(@DestinationVariable int id, @Header("simpSessionId") String client,
+                                          CommandRequest request) {
         SessionObject sessionObject = new SessionObject();
         sessionObject.setId(id);
 
         try {
-            String sessionFile = "session" + id + ".json";
-            simulationTextView.parseCommand("load " + sessionFile);
-            simulationTextView.parseCommand(request.getCommand());
-            simulationTextView.parseCommand("save " + sessionFile);
-
-            ObjectMapper objectMapper = new ObjectMapper();
-            Map<String, Object> jsonMap = objectMapper.readValue(new File(sessionFile), Map.class);
+            // the session journals the command, its state is kept in memory
+            SimulationSession session = sessions.get(id);
+            // only what changed since the version the client has
+            Map<String, Object> update = session.execute(request.getCommand(),
+                s -> tracker(id).update(s.getView().getSimulation(), client, request.getVersion()));
 
-            sessionObject.setJsonData(jsonMap);
+            sessionObject.setJsonData(update);
+            return sessionObject;
+        } catch (RequestRejectedException e) {
+            // over a queue limit: the client is told which, so it can back off
+            Map<String, Object> errorMap = rejectionMap(e);
+            sessionObject.setJsonData(errorMap);
             return sessionObject;
         } catch (IOException | IllegalArgumentException e) {
             Map<String, Object> errorMap = new HashMap<>();
@@ -64,27 +90,37 @@ public class CommandController {
         }
     }
 
-    @MessageMapping("/newBuilding")
-    @SendTo("/topic/newBuilding-result")
-    public SessionObject wsNewBuilding(SessionObject sessionObject) {
-        int id = sessionObject.getId();
+    // the error sent for a request over a queue limit, with which limit it is over
+    private static Map<String, Object> rejectionMap(RequestRejectedException e) {
+        Map<String, Object> errorMap = new HashMap<>();
+        errorMap.put("status", "error");
+        errorMap.put("error", "Request Rejected");
+        errorMap.put("details", e.getMessage());
+        errorMap.put("rejection", e.toMap());
+        return errorMap;
+    }
+
+    @MessageMapping("/session/{id}/newBuilding")
+    @SendTo("/topic/session/{id}/newBuilding-result")
+    public SessionObject wsNewBuilding(@DestinationVariable int id, @Header("simpSessionId") String client,
+                                       SessionObject sessionObject) {
         Map<String, Object> jsonData = sessionObject.getJsonData();
         SessionObject result = new SessionObject();
         result.setId(id);
 
         try {
-            String filename = "newBuilding.json";
+            SimulationSession session = sessions.get(id);
+            // a file of its own, so commands on the session need not wait for each other
+            File file = File.createTempFile("newBuilding" + id + "-", ".json", new File("."));
             ObjectMapper mapper = new ObjectMapper();
-            mapper.writerWithDefaultPrettyPrinter().writeValue(new File(filename), jsonData);
-
-            simulationTextView.parseCommand("create " + filename);
-            Files.deleteIfExists(Paths.get(filename));
-
-            String sessionFile = "session" + id + ".json";
-            simulationTextView.parseCommand("save " + sessionFile);
+            mapper.writerWithDefaultPrettyPrinter().writeValue(file, jsonData);
+            try {
+                result.setJsonData(session.execute("create " + file.getName(),
+                    s -> tracker(id).update(s.getView().getSimulation(), client, sessionObject.getVersion())));
+            } finally {
+                Files.deleteIfExists(file.toPath());
+            }
 
-            Map<String, Object> updatedData = mapper.readValue(new File(sessionFile), Map.class);
-            result.setJsonData(updatedData);
             return result;
         } catch (Exception e) {
             Map<String, Object> errorMap = Map.of(
@@ -96,27 +132,49 @@ public class CommandController {
         }
     }
 
-    @MessageMapping("/loadCommand")
-    @SendTo("/topic/loadCommand-result")
-    public SessionObject wsLoadCommand(SessionObject sessionObject) {
-        int id = sessionObject.getId();
+    @MessageMapping("/session/{id}/loadCommand")
+    @SendTo("/topic/session/{id}/loadCommand-result")
+    public SessionObject wsLoadCommand(@DestinationVariable int id, @Header("simpSessionId") String client,
+                                       SessionObject sessionObject) {
         Map<String, Object> jsonData = sessionObject.getJsonData();
         SessionObject result = new SessionObject();
         result.setId(id);
 
         try {
-            String filename = "loadJsonFile.json";
+            SimulationSession session = sessions.get(id);
+            // a file of its own, so commands on the session need not wait for each other
+            File file = File.createTempFile("loadJsonFile" + id + "-", ".json", new File("."));
             ObjectMapper mapper = new ObjectMapper();
-            mapper.writerWithDefaultPrettyPrinter().writeValue(new File(filename), jsonData);
+            mapper.writerWithDefaultPrettyPrinter().writeValue(file, jsonData);
+            try {
+                // everything changed
+                result.setJsonData(session.execute("load " + file.getName(),
+                    s -> tracker(id).update(s.getView().getSimulation(), client, null)));
+            } finally {
+                Files.deleteIfExists(file.toPath());
+            }
 
-            simulationTextView.parseCommand("load " + filename);
-            Files.deleteIfExists(Paths.get(filename));
+            return result;
+        } catch (Exception e) {
+            Map<String, Object> errorMap = Map.of(
+                "status", "error",
+                "message", e.getMessage()
+            );
+            result.setJsonData(errorMap);
+            return result;
+        }
+    }
 
-            String sessionFile = "session" + id + ".json";
-            simulationTextView.parseCommand("save " + sessionFile);
+    @MessageMapping("/session/{id}/loadSession")
+    @SendTo("/topic/session/{id}/loadSession-result")
+    public SessionObject wsLoadSession(@DestinationVariable int id, @Header("simpSessionId") String client) {
+        SessionObject result = new SessionObject();
+        result.setId(id);
 
-            Map<String, Object> updatedData = mapper.readValue(new File(sessionFile), Map.class);
-            result.setJsonData(updatedData);
+        try {
+            // recovers the session from its journal if it is not open
+            SimulationSession session = sessions.get(id);
+            result.setJsonData(session.read(s -> tracker(id).update(s.getView().getSimulation(), client, null)));
             return result;
         } catch (Exception e) {
             Map<String, Object> errorMap = Map.of(
@@ -128,18 +186,16 @@ public class CommandController {
         }
     }
 
-    @MessageMapping("/loadSession")
-    @SendTo("/topic/loadSession-result")
-    public SessionObject wsLoadSession(int id) {
+    // full state, for a client that missed an update or needs everything (e.g. to save it)
+    @MessageMapping("/session/{id}/sync")
+    @SendTo("/topic/session/{id}/command-result")
+    public SessionObject wsSync(@DestinationVariable int id, @Header("simpSessionId") String client) {
         SessionObject result = new SessionObject();
         result.setId(id);
 
         try {
-            ObjectMapper mapper = new ObjectMapper();
-            String sessionFile = "session" + id + ".json";
-            Map<String, Object> jsonMap = mapper.readValue(new File(sessionFile), Map.class);
-
-            result.setJsonData(jsonMap);
+            SimulationSession session = sessions.get(id);
+            result.setJsonData(session.read(s -> tracker(id).update(s.getView().getSimulation(), client, null)));
             return result;
         } catch (Exception e) {
             Map<String, Object> errorMap = Map.of(
@@ -151,9 +207,27 @@ public class CommandController {
         }
     }
 
-    @MessageMapping("/newSession")
-    @SendTo("/topic/newSession-result")
-    public SessionObject wsNewSession(int id) {
+    // the structure of the session's recipes: critical paths, bills of materials and the
+    // outputs that can't be made, e.g. to check a configuration before using it
+    @MessageMapping("/session/{id}/recipeGraph")
+    @SendTo("/topic/session/{id}/recipeGraph-result")
+    public Map<String, Object> wsRecipeGraph(@DestinationVariable int id) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("sessionID", id);
+        try {
+            SimulationSession session = sessions.get(id);
+            response.put("status", "ok");
+            response.put("recipeGraph", session.getRecipeGraph().toMap());
+        } catch (Exception e) {
+            response.put("status", "error");
+            response.put("message", e.getMessage());
+        }
+        return response;
+    }
+
+    @MessageMapping("/session/{id}/newSession")
+    @SendTo("/topic/session/{id}/newSession-result")
+    public SessionObject wsNewSession(@DestinationVariable int id) {
         SessionObject result = new SessionObject();
         result.setId(id);
 
@@ -161,7 +235,7 @@ public class CommandController {
         File file = new File(sessionFile);
 
         try {
-            if (file.exists()) {
+            if (sessions.exists(id)) {
                 Map<String, Object> errorMap = Map.of(
                     "status", "error",
                     "message", "Session already exists"
@@ -195,35 +269,25 @@ public class CommandController {
 
     
     // textual command endpoint
-    @MessageMapping("/textual/command")
-    @SendTo("/topic/textual/command-result")
-    public Map<String, Object> wsTextualExecuteCommand(CommandRequest request) {
-        int id = request.getId();
+    @MessageMapping("/session/{id}/textual/command")
+    @SendTo("/topic/session/{id}/textual/command-result")
+    public Map<String, Object> wsTextualExecuteCommand(@DestinationVariable int id, CommandRequest request) {
         try {
             Map<String, Object> response = new HashMap<>();
-            OutputCapture capture = new OutputCapture();
-            //load session file
-            String sessionFile = "session" + id + ".json";
-            String loadCommand = "load"+" "+sessionFile;
-            simulationTextView.parseCommand(loadCommand);
-            // execute command logic
-            capture.clearOutput();
-            capture.start();
-            simulationTextView.parseCommand(request.getCommand());
-            capture.stop();
-            String output = capture.getOutput();
-            capture.clearOutput();
-            // session file
-            
-            // save session file
-            String command = "save"+" "+sessionFile;
-            simulationTextView.parseCommand(command);
+            SimulationSession session = sessions.get(id);
+            // execute command logic, only this command's output is returned; the session
+            // journals it
+            String output = session.execute(request.getCommand());
 
             // return output
             response.put("sessionID", id);
             response.put("status", "ok");
             response.put("output", output);
             return response;
+        } catch (RequestRejectedException e) {
+            Map<String, Object> response = rejectionMap(e);
+            response.put("sessionID", id);
+            return response;
         } catch (IOException e) {
             Map<String, Object> response = new HashMap<>();
             response.put("sessionID", id);
@@ -244,28 +308,15 @@ public class CommandController {
     }
 
     // textual WebSocket endpoint for new building creation
-    @MessageMapping("/textual/newBuilding")
-    @SendTo("/topic/textual/newBuilding-result")
-    public Map<String, Object> wsTextualNewBuilding(TextualObject textualObject) {
-        int id = textualObject.getId();
+    @MessageMapping("/session/{id}/textual/newBuilding")
+    @SendTo("/topic/session/{id}/textual/newBuilding-result")
+    public Map<String, Object> wsTextualNewBuilding(@DestinationVariable int id, TextualObject textualObject) {
         try {
             String filename = textualObject.getFileName();
             Map<String, Object> response = new HashMap<>();
-            OutputCapture capture = new OutputCapture();
-    
-            // execute command logic
-            capture.clearOutput();
-            capture.start();
-            simulationTextView.parseCommand("create " + filename);
-            capture.stop();
-            String output = capture.getOutput();
-            capture.clearOutput();
-
-            //session file
-            String sessionFile = "session" + id + ".json";
-            // save
-            String command = "save"+" "+sessionFile;
-            simulationTextView.parseCommand(command);
+            SimulationSession session = sessions.get(id);
+            // execute command logic, the session takes a snapshot after it
+            String output = session.execute("create " + filename);
 
             // return output
             response.put("sessionID", id);
@@ -278,28 +329,15 @@ public class CommandController {
     }
 
     // textual WebSocket endpoint for new building creation
-    @MessageMapping("/textual/loadCommand")
-    @SendTo("/topic/textual/loadCommand-result")
-    public Map<String, Object> wsTextualLoadCommand(TextualObject textualObject) {
-        int id = textualObject.getId();
+    @MessageMapping("/session/{id}/textual/loadCommand")
+    @SendTo("/topic/session/{id}/textual/loadCommand-result")
+    public Map<String, Object> wsTextualLoadCommand(@DestinationVariable int id, TextualObject textualObject) {
         try {
             String filename = textualObject.getFileName();
             Map<String, Object> response = new HashMap<>();
-            OutputCapture capture = new OutputCapture();
-    
-            // execute command logic
-            capture.clearOutput();
-            capture.start();
-            simulationTextView.parseCommand("load " + filename);
-            capture.stop();
-            String output = capture.getOutput();
-            capture.clearOutput();
-
-            //session file
-            String sessionFile = "session" + id + ".json";
-            // save
-            String command = "save"+" "+sessionFile;
-            simulationTextView.parseCommand(command);
+            SimulationSession session = sessions.get(id);
+            // execute command logic, the session takes a snapshot after it
+            String output = session.execute("load " + filename);
 
             // return output
             response.put("sessionID", id);
@@ -312,22 +350,14 @@ public class CommandController {
     }
 
     // textual WebSocket endpoint for new building creation
-    @MessageMapping("/textual/loadSession")
-    @SendTo("/topic/textual/loadSession-result")
-    public Map<String, Object> wsTextualLoadSession(int id) {
-        // load session file
-        String sessionFile = "session" + id + ".json";
+    @MessageMapping("/session/{id}/textual/loadSession")
+    @SendTo("/topic/session/{id}/textual/loadSession-result")
+    public Map<String, Object> wsTextualLoadSession(@DestinationVariable int id) {
         try {
             Map<String, Object> response = new HashMap<>();
-            OutputCapture capture = new OutputCapture();
-    
-            // execute command logic
-            capture.clearOutput();
-            capture.start();
-            simulationTextView.parseCommand("load " + sessionFile);
-            capture.stop();
-            String output = capture.getOutput();
-            capture.clearOutput();
+            // recovers the session from its journal if it is not open
+            sessions.get(id);
+            String output = "";
 
             // return output
             response.put("sessionID", id);
@@ -340,13 +370,13 @@ public class CommandController {
     }
 
     // textual WebSocket endpoint for new building creation
-    @MessageMapping("/textual/newSession")
-    @SendTo("/topic/textual/newSession-result")
-    public Map<String, Object> wsTextualNewSession(int id) {
+    @MessageMapping("/session/{id}/textual/newSession")
+    @SendTo("/topic/session/{id}/textual/newSession-result")
+    public Map<String, Object> wsTextualNewSession(@DestinationVariable int id) {
         String sessionFile = "session" + id + ".json";
         File file = new File(sessionFile);
-        // if the file already exists, return an error message
-        if (file.exists()) {
+        // if the session already exists, return an error message
+        if (sessions.exists(id)) {
             return Map.of(
                 "sessionID", id,
                 "status", "error",
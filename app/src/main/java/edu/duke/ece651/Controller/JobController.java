@@ -0,0 +1,101 @@
+package edu.duke.ece651.Controller;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.messaging.handler.annotation.DestinationVariable;
+import org.springframework.messaging.handler.annotation.MessageMapping;
+import org.springframework.messaging.handler.annotation.SendTo;
+import org.springframework.messaging.simp.SimpMessageSendingOperations;
+import org.springframework.stereotype.Controller;
+
+import edu.duke.ece651.dto.CommandRequest;
+import edu.duke.ece651.simulationserver.JobManager;
+import edu.duke.ece651.simulationserver.SessionRegistry;
+import edu.duke.ece651.simulationserver.SimulationJob;
+import edu.duke.ece651.simulationserver.SimulationSession;
+
+// Long step and finish commands run in the background, see JobManager. A job's progress goes
+// to /topic/session/{id}/job-progress, and the state it leaves the session in to the
+// session's command-result topic, like the result of any other command.
+@Controller
+public class JobController {
+
+    private final SessionRegistry sessions;
+    private final JobManager jobs;
+    private final CommandController commands;
+    private final SimpMessageSendingOperations messaging;
+
+    @Autowired
+    public JobController(SessionRegistry sessions, JobManager jobs, CommandController commands,
+                         SimpMessageSendingOperations messaging) {
+        this.sessions = sessions;
+        this.jobs = jobs;
+        this.commands = commands;
+        this.messaging = messaging;
+    }
+
+    @MessageMapping("/session/{id}/job")
+    @SendTo("/topic/session/{id}/job-result")
+    public Map<String, Object> wsStartJob(@DestinationVariable int id, CommandRequest request) {
+        try {
+            SimulationSession session = sessions.get(id);
+            SimulationJob job = jobs.start(session, request.getCommand(), new SimulationJob.Listener() {
+                @Override
+                public void progress(SimulationJob job) {
+                    messaging.convertAndSend("/topic/session/" + id + "/job-progress", describe(job));
+                }
+
+                @Override
+                public void stopped(SimulationJob job) {
+                    messaging.convertAndSend("/topic/session/" + id + "/job-progress", describe(job));
+                    try {
+                        messaging.convertAndSend("/topic/session/" + id + "/command-result", commands.stateUpdate(id));
+                    } catch (IOException e) {
+                        // clients ask for the full state once they see the job stopped
+                    }
+                }
+            });
+            return describe(job);
+        } catch (IOException | IllegalArgumentException e) {
+            return error(id, e.getMessage());
+        }
+    }
+
+    @MessageMapping("/session/{id}/job/{jobId}/cancel")
+    @SendTo("/topic/session/{id}/job-result")
+    public Map<String, Object> wsCancelJob(@DestinationVariable int id, @DestinationVariable int jobId) {
+        SimulationJob job = jobs.get(jobId);
+        if (job == null || job.getSession().getId() != id) {
+            return error(id, "No job " + jobId + " is running");
+        }
+        jobs.cancel(jobId);
+        return describe(job);
+    }
+
+    private static Map<String, Object> describe(SimulationJob job) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("sessionID", job.getSession().getId());
+        response.put("jobId", job.getId());
+        response.put("command", job.getCommand());
+        response.put("status", job.getStatus().name());
+        response.put("cycle", job.getCycle());
+        response.put("cyclesDone", job.getCyclesDone());
+        response.put("cyclesPerSecond", job.getCyclesPerSecond());
+        response.put("outstandingRequests", job.getOutstandingRequests());
+        if (job.getStatus() != SimulationJob.Status.RUNNING) {
+            response.put("output", job.getOutput());
+        }
+        return response;
+    }
+
+    private static Map<String, Object> error(int id, String details) {
+        Map<String, Object> response = new HashMap<>();
+        response.put("sessionID", id);
+        response.put("status", "error");
+        response.put("error", "Invalid Job");
+        response.put("details", details);
+        return response;
+    }
+}
@@ -3,6 +3,8 @@ package edu.duke.ece651.dto;
 public class CommandRequest {
     private String command;
     private int id;
+    // the state version the client has, null if it needs the full state
+    private Long version;
     public CommandRequest() {}
 
     public String getCommand() {
@@ -17,5 +19,11 @@ public class CommandRequest {
     public void setCommand(String command) {
         this.command = command;
     }
+    public Long getVersion() {
+        return version;
+    }
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
 
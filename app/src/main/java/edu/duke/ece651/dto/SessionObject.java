@@ -5,6 +5,8 @@ import java.util.Map;
 public class SessionObject {
     private int id;
     private Map<String, Object> jsonData;
+    // the state version the client has, null if it needs the full state
+    private Long version;
 
     public SessionObject() {}
 
@@ -23,4 +25,12 @@ public class SessionObject {
     public void setJsonData(Map<String, Object> jsonData) {
         this.jsonData = jsonData;
     }
+
+    public Long getVersion() {
+        return version;
+    }
+
+    public void setVersion(Long version) {
+        this.version = version;
+    }
 }
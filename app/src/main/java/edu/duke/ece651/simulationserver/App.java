@@ -4,8 +4,13 @@
 package edu.duke.ece651.simulationserver;
 
 import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.FileWriter;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
 
 public class App {
   SimulationTextView view;
@@ -19,8 +24,13 @@ public class App {
   // }
 
   public static void main(String[] args) throws IOException {
+    if (args.length >= 4 && args.length <= 5 && args[0].equals("--batch")) {
+      runBatch(args);
+      return;
+    }
     if (args.length != 1) {
       System.err.println("Usage: simulation <jsonInputFile>");
+      System.err.println("       simulation --batch <jsonInputFile> <scriptFile> <sweepFile> [<output.csv|output.jsonl>]");
       return;
       // System.exit(1);
     }
@@ -29,4 +39,24 @@ public class App {
     App app = new App(JsonFile, br);
     app.view.run();
   }
+
+  /**
+   * Runs a parameter sweep headless on all cores, see BatchRunner. The summary goes to the
+   * output file, as CSV if its name ends with .csv and as JSON lines otherwise, or to
+   * standard output as JSON lines.
+   */
+  private static void runBatch(String[] args) throws IOException {
+    BatchRunner runner = BatchRunner.fromFiles(args[1], args[2], args[3]);
+    int threads = Runtime.getRuntime().availableProcessors();
+    System.err.println("Running " + runner.size() + " simulations on " + threads + " threads");
+    if (args.length == 5) {
+      try (Writer out = new BufferedWriter(new FileWriter(args[4], StandardCharsets.UTF_8))) {
+        runner.runAll(threads, out, args[4].endsWith(".csv"));
+      }
+    } else {
+      Writer out = new OutputStreamWriter(System.out, StandardCharsets.UTF_8);
+      runner.runAll(threads, out, false);
+      out.flush();
+    }
+  }
 }
@@ -0,0 +1,452 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Runs a command script headless on every combination of a parameter sweep, each as an
+ * independent simulation, in parallel, and writes one summary per run.
+ *
+ * The sweep is a JSON object whose entries are the dimensions to vary:
+ *
+ * <pre>
+ * {"policies": {"D": {"request": ["fifo", "sjf"], "source": ["qlen", "recursivelat"]},
+ *               "*": {"request": ["fifo", "ready"]}},
+ *  "storage": {"S": [1, 2.5, 5]},
+ *  "drones": {"DP": [0, 2, 4]},
+ *  "maxCycles": 1000000}
+ * </pre>
+ *
+ * "policies" sets request and source policies per building, "*" on every building;
+ * "storage" sets the priority of a storage; "drones" sets the number of drones of a drone
+ * port. Every combination of the values is one run: its settings are applied after the
+ * configuration is loaded, then the script's commands are executed, then the simulation is
+ * stepped until every building has finished, but for at most maxCycles more cycles
+ * (DEFAULT_MAX_CYCLES if not given).
+ *
+ * A run's summary has its settings, whether it completed and at which cycle, and the latency
+ * (cycles from request to completion) of every order the script requested, with its mean,
+ * median, 95th percentile and maximum and the throughput in orders per 1000 cycles. Runs
+ * are written in the order of their combinations, as CSV or as JSON lines.
+ */
+public class BatchRunner {
+  /** the most cycles a run is stepped after its script, unless the sweep says otherwise */
+  public static final int DEFAULT_MAX_CYCLES = 1_000_000;
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private final String configFile;
+  private final List<String> script;
+  private final List<String> keys = new ArrayList<>();
+  private final List<List<Object>> values = new ArrayList<>();
+  private final int maxCycles;
+
+  /**
+   * The outcome of one run.
+   */
+  public static class Result {
+    private final int index;
+    private final Map<String, Object> settings;
+    private final Map<Integer, Integer> latencies = new LinkedHashMap<>();
+    private boolean completed;
+    private int cycles;
+    private String error;
+
+    Result(int index, Map<String, Object> settings) {
+      this.index = index;
+      this.settings = settings;
+    }
+
+    public int getIndex() {
+      return index;
+    }
+
+    public Map<String, Object> getSettings() {
+      return settings;
+    }
+
+    /**
+     * @return true if every building finished within the cycle budget
+     */
+    public boolean isCompleted() {
+      return completed;
+    }
+
+    /**
+     * @return the cycles the run took, from the start of the script to completion or
+     *         until it ran out of cycles
+     */
+    public int getCycles() {
+      return cycles;
+    }
+
+    /**
+     * @return the latency of each completed order, by order id
+     */
+    public Map<Integer, Integer> getLatencies() {
+      return latencies;
+    }
+
+    /**
+     * @return why the run failed, or null
+     */
+    public String getError() {
+      return error;
+    }
+
+    /**
+     * @param fraction 0.5 for the median, 1 for the maximum
+     * @return the latency at the given rank, or 0 if no order completed
+     */
+    public int getLatency(double fraction) {
+      if (latencies.isEmpty()) {
+        return 0;
+      }
+      List<Integer> sorted = new ArrayList<>(latencies.values());
+      Collections.sort(sorted);
+      int rank = (int) Math.ceil(fraction * sorted.size());
+      return sorted.get(Math.max(0, rank - 1));
+    }
+
+    public double getMeanLatency() {
+      return latencies.values().stream().mapToInt(Integer::intValue).average().orElse(0);
+    }
+
+    /**
+     * @return the completed orders per 1000 cycles
+     */
+    public double getThroughput() {
+      return cycles == 0 ? 0 : latencies.size() * 1000.0 / cycles;
+    }
+  }
+
+  /**
+   * Creates a runner.
+   *
+   * @param configFile the configuration every run starts from
+   * @param script the commands every run executes, one per entry; blank lines and lines
+   *        starting with # are skipped
+   * @param sweep the sweep specification
+   * @throws IllegalArgumentException if the sweep is not valid
+   */
+  public BatchRunner(String configFile, List<String> script, JsonNode sweep) {
+    this.configFile = configFile;
+    this.script = new ArrayList<>();
+    for (String line : script) {
+      if (!line.isBlank() && !line.trim().startsWith("#")) {
+        this.script.add(line.trim());
+      }
+    }
+    if (sweep == null || !sweep.isObject()) {
+      throw new IllegalArgumentException("The sweep must be a JSON object");
+    }
+    int max = DEFAULT_MAX_CYCLES;
+    for (Iterator<Map.Entry<String, JsonNode>> it = sweep.fields(); it.hasNext();) {
+      Map.Entry<String, JsonNode> entry = it.next();
+      JsonNode node = entry.getValue();
+      switch (entry.getKey()) {
+        case "policies":
+          for (Iterator<Map.Entry<String, JsonNode>> buildings = node.fields(); buildings.hasNext();) {
+            Map.Entry<String, JsonNode> building = buildings.next();
+            for (Iterator<Map.Entry<String, JsonNode>> kinds = building.getValue().fields(); kinds.hasNext();) {
+              Map.Entry<String, JsonNode> kind = kinds.next();
+              if (!kind.getKey().equals("request") && !kind.getKey().equals("source")) {
+                throw new IllegalArgumentException("Unknown policy kind: " + kind.getKey());
+              }
+              addDimension(building.getKey() + "." + kind.getKey(), kind.getValue());
+            }
+          }
+          break;
+        case "storage":
+          for (Iterator<Map.Entry<String, JsonNode>> buildings = node.fields(); buildings.hasNext();) {
+            Map.Entry<String, JsonNode> building = buildings.next();
+            addDimension(building.getKey() + ".priority", building.getValue());
+          }
+          break;
+        case "drones":
+          for (Iterator<Map.Entry<String, JsonNode>> buildings = node.fields(); buildings.hasNext();) {
+            Map.Entry<String, JsonNode> building = buildings.next();
+            addDimension(building.getKey() + ".drones", building.getValue());
+          }
+          break;
+        case "maxCycles":
+          max = node.asInt();
+          if (max <= 0) {
+            throw new IllegalArgumentException("maxCycles must be positive");
+          }
+          break;
+        default:
+          throw new IllegalArgumentException("Unknown sweep entry: " + entry.getKey());
+      }
+    }
+    this.maxCycles = max;
+  }
+
+  /**
+   * Creates a runner from files.
+   *
+   * @param configFile the configuration every run starts from
+   * @param scriptFile the commands every run executes, one per line
+   * @param sweepFile the sweep specification, as JSON
+   * @return the runner
+   * @throws IOException if the script or the sweep cannot be read
+   */
+  public static BatchRunner fromFiles(String configFile, String scriptFile, String sweepFile) throws IOException {
+    List<String> script = Files.readAllLines(new File(scriptFile).toPath());
+    return new BatchRunner(configFile, script, mapper.readTree(new File(sweepFile)));
+  }
+
+  private void addDimension(String key, JsonNode array) {
+    if (!array.isArray() || array.isEmpty()) {
+      throw new IllegalArgumentException("The values of " + key + " must be a non-empty array");
+    }
+    List<Object> dimension = new ArrayList<>();
+    for (JsonNode value : array) {
+      if (key.endsWith(".priority")) {
+        dimension.add(value.asDouble());
+      } else if (key.endsWith(".drones")) {
+        dimension.add(value.asInt());
+      } else {
+        dimension.add(value.asText());
+      }
+    }
+    keys.add(key);
+    values.add(dimension);
+  }
+
+  /**
+   * @return the number of runs, one per combination of the sweep's values
+   */
+  public int size() {
+    int size = 1;
+    for (List<Object> dimension : values) {
+      size = Math.multiplyExact(size, dimension.size());
+    }
+    return size;
+  }
+
+  /**
+   * @return the names of the settings a run has, e.g. "D.request" or "DP.drones"
+   */
+  public List<String> getKeys() {
+    return keys;
+  }
+
+  /**
+   * Returns the settings of one run; the last dimension varies fastest.
+   *
+   * @param index the run, from 0 to size() - 1
+   * @return the settings by name
+   */
+  public Map<String, Object> getSettings(int index) {
+    Map<String, Object> settings = new LinkedHashMap<>();
+    int rest = index;
+    for (int i = values.size() - 1; i >= 0; i--) {
+      List<Object> dimension = values.get(i);
+      settings.put(keys.get(i), dimension.get(rest % dimension.size()));
+      rest /= dimension.size();
+    }
+    Map<String, Object> ordered = new LinkedHashMap<>();
+    for (String key : keys) {
+      ordered.put(key, settings.get(key));
+    }
+    return ordered;
+  }
+
+  /**
+   * Runs one combination of the sweep on the calling thread.
+   *
+   * @param index the run, from 0 to size() - 1
+   * @return its result; a run whose configuration, settings or script fails has an error
+   */
+  public Result run(int index) {
+    Result result = new Result(index, getSettings(index));
+    try {
+      SimulationTextView view = new SimulationTextView(configFile, null, new PrintStream(OutputStream.nullOutputStream()));
+      EventLog log = view.getEventLog();
+      // nobody reads the text, only completed orders are kept
+      for (EventSink sink : new ArrayList<>(log.getSinks())) {
+        log.removeSink(sink);
+      }
+      Map<Integer, Integer> requested = new LinkedHashMap<>();
+      log.addSink(event -> {
+        if (event.getType() == EventType.ORDER_COMPLETE) {
+          Integer start = requested.get(event.getInt("order"));
+          if (start != null) {
+            result.latencies.put(event.getInt("order"), event.getCycle() - start);
+          }
+        }
+      });
+      Simulation simulation = view.getSimulation();
+      // what the settings report goes to this run's log, not to another run's
+      EventLog previous = Verbosity.bind(log);
+      try {
+        for (Map.Entry<String, Object> setting : result.settings.entrySet()) {
+          apply(simulation, setting.getKey(), setting.getValue());
+        }
+      } finally {
+        log.flush();
+        Verbosity.bind(previous);
+      }
+      int start = simulation.getCurrentCycle();
+      for (String command : script) {
+        int requestId = view.getSimulation().getRequestId();
+        view.parseCommand(command);
+        if (command.startsWith("request")) {
+          // the order is the first request the command made
+          requested.put(requestId, view.getSimulation().getCurrentCycle());
+        }
+      }
+      simulation = view.getSimulation();
+      previous = Verbosity.bind(log);
+      try {
+        result.completed = simulation.finishWithin(maxCycles);
+      } finally {
+        log.flush();
+        Verbosity.bind(previous);
+      }
+      result.cycles = simulation.getCurrentCycle() - start;
+    } catch (IOException | RuntimeException e) {
+      result.error = e.getMessage() == null ? e.toString() : e.getMessage();
+    }
+    return result;
+  }
+
+  private static void apply(Simulation simulation, String key, Object value) {
+    int dot = key.lastIndexOf('.');
+    String building = key.substring(0, dot);
+    String setting = key.substring(dot + 1);
+    switch (setting) {
+      case "request":
+        if (building.equals("*")) {
+          simulation.setRequestAll((String) value);
+        } else {
+          simulation.setRequestPolicy(building, (String) value);
+        }
+        break;
+      case "source":
+        if (building.equals("*")) {
+          simulation.setSourceAll((String) value);
+        } else {
+          simulation.setSourcePolicy(building, (String) value);
+        }
+        break;
+      case "priority":
+        if (!(simulation.getBuilding(building) instanceof Storage)) {
+          throw new IllegalArgumentException("'" + building + "' is not a storage");
+        }
+        ((Storage) simulation.getBuilding(building)).setPriority((Double) value);
+        break;
+      default:
+        if (!(simulation.getBuilding(building) instanceof DronePort)) {
+          throw new IllegalArgumentException("'" + building + "' is not a drone port");
+        }
+        DronePort port = (DronePort) simulation.getBuilding(building);
+        int drones = (Integer) value;
+        if (port.getDrones().size() > drones) {
+          throw new IllegalArgumentException("Drone port '" + building + "' already has "
+              + port.getDrones().size() + " drones");
+        }
+        while (port.getDrones().size() < drones) {
+          simulation.addDrone(building);
+        }
+    }
+  }
+
+  /**
+   * Runs every combination of the sweep and writes their summaries in order, each as soon
+   * as it and the ones before it are done.
+   *
+   * @param threads the number of runs at the same time
+   * @param out receives the summaries
+   * @param csv true to write CSV with a header, false to write JSON lines
+   * @throws IOException if a summary cannot be written
+   */
+  public void runAll(int threads, Writer out, boolean csv) throws IOException {
+    ExecutorService executor = Executors.newFixedThreadPool(threads);
+    try {
+      List<Future<Result>> futures = new ArrayList<>();
+      for (int i = 0; i < size(); i++) {
+        int index = i;
+        futures.add(executor.submit(() -> run(index)));
+      }
+      if (csv) {
+        out.write(csvHeader());
+      }
+      for (Future<Result> future : futures) {
+        Result result = future.get();
+        out.write(csv ? csvLine(result) : jsonLine(result));
+        out.flush();
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IOException("Interrupted", e);
+    } catch (ExecutionException e) {
+      throw new IOException(e.getCause());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private String csvHeader() {
+    StringBuilder sb = new StringBuilder("run");
+    for (String key : keys) {
+      sb.append(',').append(key);
+    }
+    return sb.append(",completed,cycles,orders,meanLatency,p50Latency,p95Latency,maxLatency,throughput,error\n").toString();
+  }
+
+  private static String csvLine(Result result) {
+    StringBuilder sb = new StringBuilder().append(result.index);
+    for (Object value : result.settings.values()) {
+      sb.append(',').append(value);
+    }
+    sb.append(',').append(result.completed).append(',').append(result.cycles)
+        .append(',').append(result.latencies.size())
+        .append(',').append(String.format("%.2f", result.getMeanLatency()))
+        .append(',').append(result.getLatency(0.5))
+        .append(',').append(result.getLatency(0.95))
+        .append(',').append(result.getLatency(1))
+        .append(',').append(String.format("%.3f", result.getThroughput()))
+        .append(',');
+    if (result.error != null) {
+      sb.append('"').append(result.error.replace("\"", "\"\"")).append('"');
+    }
+    return sb.append('\n').toString();
+  }
+
+  private static String jsonLine(Result result) throws IOException {
+    Map<String, Object> line = new LinkedHashMap<>();
+    line.put("run", result.index);
+    line.put("settings", result.settings);
+    line.put("completed", result.completed);
+    line.put("cycles", result.cycles);
+    line.put("orders", result.latencies.size());
+    line.put("meanLatency", result.getMeanLatency());
+    line.put("p50Latency", result.getLatency(0.5));
+    line.put("p95Latency", result.getLatency(0.95));
+    line.put("maxLatency", result.getLatency(1));
+    line.put("throughput", result.getThroughput());
+    line.put("latencies", result.latencies);
+    if (result.error != null) {
+      line.put("error", result.error);
+    }
+    return mapper.writeValueAsString(line) + "\n";
+  }
+}
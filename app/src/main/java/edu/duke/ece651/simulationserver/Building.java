@@ -1,13 +1,16 @@
 package edu.duke.ece651.simulationserver;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.ListIterator;
 import java.util.Map;
 import java.util.Queue;
+import java.util.TreeMap;
 
 /**
  * An abstract building that processes production requests in discrete time
@@ -18,7 +21,7 @@ import java.util.Queue;
 abstract public class Building extends Square {
   protected String name;
   protected Map<Building, GraphPath> sources;
-  protected Queue<Request> requests;
+  protected LinkedList<Request> requests;
   protected Map<String, Integer> inventory;
   
   protected RequestSelectionPolicy requestPolicy;
@@ -29,6 +32,23 @@ abstract public class Building extends Square {
   protected int timeLeft;
   protected Map<Request, Integer> deliveries;
   protected boolean removeMark;
+  protected int busyCycles;
+  protected int observedCycles;
+  // the units of the queued requests beyond one per request, see Request.getQuantity
+  protected int extraUnits;
+  // the latency of the queued units, kept as requests are queued and removed, see getQueuedLatency
+  protected int queuedLatency;
+  // the backlog upstream of each product as CriticalPathPolicy last measured it, {cycle, backlog};
+  // it decides which source is chosen, so forks copy it and saves write it
+  private Map<String, int[]> upstreamBacklogs;
+  // the most units of user requests queued here, 0 for the simulation's limit, see QueueLimits
+  protected int queueLimit;
+  // the units of user requests queued here, and how many of them are waiting, kept as requests
+  // are queued, started and removed, for the queue limits
+  private int userUnits;
+  private int waitingUserUnits;
+  // the simulation the building is in, which counts the user units of all its buildings
+  private Simulation simulation;
   
   /**
    * Constructs a new Building with a name and list of source buildings.
@@ -69,6 +89,38 @@ abstract public class Building extends Square {
     removeMark = false;
   }
   
+  /**
+   * Copies a building's own state for Simulation.fork: its inventory, policies, timing and
+   * flags. What it refers to (sources, requests, deliveries) is left empty, for the fork to
+   * fill in with the forked buildings and requests.
+   *
+   * @param other the building to copy
+   */
+  protected Building(Building other) {
+    super(other.coordinate);
+    name = other.name;
+    sources = new LinkedHashMap<>();
+    requests = new LinkedList<>();
+    inventory = new HashMap<>(other.inventory);
+    requestPolicy = other.requestPolicy;
+    sourcePolicy = other.sourcePolicy;
+    currReq = null;
+    timeLeft = other.timeLeft;
+    defaultRequestPolicy = other.defaultRequestPolicy;
+    defaultSourcePolicy = other.defaultSourcePolicy;
+    deliveries = new LinkedHashMap<>();
+    removeMark = other.removeMark;
+    busyCycles = other.busyCycles;
+    observedCycles = other.observedCycles;
+    queueLimit = other.queueLimit;
+    if (other.upstreamBacklogs != null) {
+      upstreamBacklogs = new TreeMap<>();
+      for (Map.Entry<String, int[]> entry : other.upstreamBacklogs.entrySet()) {
+        upstreamBacklogs.put(entry.getKey(), entry.getValue().clone());
+      }
+    }
+  }
+
   private Map<Building, GraphPath> buildSourcesMap(List<Building> sources) {
     if (sources == null) return new LinkedHashMap<>();
     Map<Building, GraphPath> map = new LinkedHashMap<>();
@@ -106,6 +158,34 @@ abstract public class Building extends Square {
     return currReq;
   }
 
+  /**
+   * Counts one simulated cycle of this building's lifetime, used for utilization.
+   */
+  void countCycle() {
+    observedCycles++;
+  }
+
+  /**
+   * @return the number of cycles this building spent working on a request
+   */
+  public int getBusyCycles() {
+    return busyCycles;
+  }
+
+  /**
+   * @return the number of cycles this building was stepped without working on a request
+   */
+  public int getIdleCycles() {
+    return Math.max(0, observedCycles - busyCycles);
+  }
+
+  /**
+   * @return the fraction of cycles spent working, 0 if the building was never stepped
+   */
+  public double getUtilization() {
+    return observedCycles == 0 ? 0 : (double) busyCycles / observedCycles;
+  }
+
   public int getTimeLeft() {
     return timeLeft;
   }
@@ -143,6 +223,7 @@ abstract public class Building extends Square {
   }
   
   protected void addInventory(String item, int quantity) {
+    Simulation.changed(this);
     inventory.put(item, inventory.getOrDefault(item, 0) + quantity);
   }
 
@@ -153,8 +234,25 @@ abstract public class Building extends Square {
    */
   protected Request selectRequest() {
     Verbosity.recipeSelectionMessage(getName(),requestPolicy.getRequestPolicyName());
+    SimulationMetrics metrics = Simulation.getMetrics();
+    JfrEvents.RequestSelection event = new JfrEvents.RequestSelection();
+    event.begin();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0;
     Request selectedRequest=requestPolicy.selectRequest(requests, inventory);
-    Verbosity.recipeMessage(requests, inventory,selectedRequest);
+    if (metrics.isEnabled()) {
+      metrics.recordRequestSelection(requestPolicy.getRequestPolicyName(), System.nanoTime() - start);
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.building = name;
+      event.policy = requestPolicy.getRequestPolicyName();
+      event.queueLength = requests.size();
+      event.selected = selectedRequest == null ? -1 : selectedRequest.getId();
+      event.commit();
+    }
+    if (Verbosity.isEnabled(EventType.REQUEST_STATUS)) {
+      Verbosity.recipeMessage(requests, inventory,selectedRequest);
+    }
     // return requestPolicy.selectRequest(requests, inventory);
     return selectedRequest;
   }
@@ -164,7 +262,16 @@ abstract public class Building extends Square {
     return requests.isEmpty() && deliveries.isEmpty();
   }
 
+  /**
+   * Whether a cycle leaves the building as it is unless something else gives it work, so
+   * its changes need not be recorded (see Simulation.trackChanges).
+   */
+  boolean isIdle() {
+    return finished();
+  }
+
   protected void work() {
+    busyCycles++;
     timeLeft--;
     if (timeLeft <= 0) {
       currReq.setState(RequestState.READY);
@@ -217,6 +324,7 @@ abstract public class Building extends Square {
           Building requester = r.getRequester();
           if (requester instanceof WasteDisposal) {
             ((WasteDisposal)requester).addCurrentAmount(((wasteRequest)r).getAmount());
+            requester.dequeue(r);
           } else {
             throw new IllegalArgumentException("invalid building type for requester");
           }
@@ -225,6 +333,7 @@ abstract public class Building extends Square {
           requester.addIngredient(r.getRecipe().getOutput());
           Verbosity.orderCompleteMessage(r.getId(), r.getRecipe().getOutput());
         }
+        Simulation.changed(r);
         it.remove();
       }
       else {
@@ -234,7 +343,8 @@ abstract public class Building extends Square {
   }
 
   public void addIngredient(String ingredient) {
-   inventory.put(ingredient, inventory.getOrDefault(ingredient, 0) + 1);
+    Simulation.changed(this);
+    inventory.put(ingredient, inventory.getOrDefault(ingredient, 0) + 1);
   } 
 
   /**
@@ -254,7 +364,9 @@ abstract public class Building extends Square {
         GraphPath path = getPath(currReq.getRequester());
         deliveries.put(currReq, path.getDistance());
         Verbosity.ingredientDeliveredMessage(currReq.getRecipe().getOutput(), name,currReq.getRequester().getName());
-        Verbosity.PrintIsReadyMessage(currReq.getRequester().getInventory(), currReq.getRequester().getRecipes());
+        if (Verbosity.isEnabled(EventType.READY_RECIPES)) {
+          Verbosity.PrintIsReadyMessage(currReq.getRequester().getInventory(), currReq.getRequester().getRecipes());
+        }
       }
     }
     else {
@@ -270,7 +382,7 @@ abstract public class Building extends Square {
         inventory.remove(name);
       }
     }
-    requests.remove(currReq);
+    dequeue(currReq);
     currReq = null;
     timeLeft = -1;
   }
@@ -280,9 +392,23 @@ abstract public class Building extends Square {
 
       throw new IllegalArgumentException("Request not in list");
     }
+    if (request.getQuantity() > 1) {
+      // the unit is queued where the request was, and the request's other units after it
+      Request unit = takeUnit(request);
+      ListIterator<Request> it = requests.listIterator();
+      while (it.next() != request) {
+      }
+      it.previous();
+      it.add(unit);
+      queuedLatency += latencyOf(unit);
+      countUserUnits(unit, 1);
+      request = unit;
+    }
     currReq = request;
     timeLeft = request.getRecipe().getLatency();
+    countUserUnits(request, -1);
     request.setState(RequestState.WORKING);
+    countUserUnits(request, 1);
   }
 
   public void addRequest(Request request) {
@@ -293,15 +419,276 @@ abstract public class Building extends Square {
         throw new IllegalArgumentException(err);
       }
     }
-    requests.add(request);
+    queue(request);
   }
 
   public void onlyAddRequest(Request request) {
+    queue(request);
+  }
+
+  /**
+   * Queues a request, merging it into the request queued last if the two are identical but
+   * for their ids (see Request.merge), so a run of identical waiting requests, as a storage's
+   * refills or a bulk request's sub-requests make, takes a single entry.
+   */
+  private void queue(Request request) {
+    Simulation.changed(this);
+    Simulation.changed(request);
+    Request last = requests.peekLast();
+    if (last != null && last != currReq && last.merge(request)) {
+      queuedLatency += latencyOf(request) * request.getQuantity();
+      extraUnits += request.getQuantity();
+      countUserUnits(request, request.getQuantity());
+      return;
+    }
+    appendRequest(request);
+  }
+
+  /**
+   * Queues a request as its own entry, never merged into the request queued last, e.g. to
+   * rebuild a queue that was copied or saved entry by entry.
+   */
+  void appendRequest(Request request) {
+    queuedLatency += latencyOf(request) * request.getQuantity();
     requests.add(request);
+    extraUnits += request.getQuantity() - 1;
+    countUserUnits(request, request.getQuantity());
   }
-  
+
+  /**
+   * Splits the next unit off a queued request for several units, which stays queued.
+   *
+   * @param request the queued request, for more than one unit
+   * @return the unit, not queued
+   */
+  protected Request takeUnit(Request request) {
+    return takeUnits(request, 1);
+  }
+
+  /**
+   * Splits the next units off a queued request for more units, which stays queued.
+   *
+   * @param request the queued request
+   * @param units   the number of units, fewer than the request's
+   * @return the units, as one request, not queued
+   */
+  protected Request takeUnits(Request request, int units) {
+    Request taken = request.takeUnits(units);
+    Simulation.changed(this);
+    Simulation.changed(taken);
+    extraUnits -= units;
+    queuedLatency -= latencyOf(taken) * units;
+    countUserUnits(request, -units);
+    return taken;
+  }
+
+  /**
+   * Removes a queued request for a single unit.
+   *
+   * @param request the request
+   */
+  protected void dequeue(Request request) {
+    if (requests.remove(request)) {
+      queuedLatency -= latencyOf(request);
+      countUserUnits(request, -1);
+      Simulation.changed(this);
+      Simulation.changed(request);
+    }
+  }
+
+  /**
+   * Counts units of a request added to the queue, or removed from it if negative, if it is a
+   * user request.
+   */
+  private void countUserUnits(Request request, int units) {
+    if (!request.isUserRequest()) {
+      return;
+    }
+    int waiting = request.getState() == RequestState.WAITING ? units : 0;
+    userUnits += units;
+    waitingUserUnits += waiting;
+    if (simulation != null) {
+      simulation.countUserUnits(units, waiting);
+    }
+  }
+
+  /**
+   * Moves the building to a simulation, which counts its user units from then on, or out of
+   * its simulation if null.
+   *
+   * @param simulation the simulation, or null
+   */
+  void attach(Simulation simulation) {
+    if (this.simulation != null) {
+      this.simulation.countUserUnits(-userUnits, -waitingUserUnits);
+    }
+    this.simulation = simulation;
+    if (simulation != null) {
+      simulation.countUserUnits(userUnits, waitingUserUnits);
+    }
+  }
+
+  // a waste request has no recipe, and takes no time here
+  private static int latencyOf(Request request) {
+    return request.getRecipe() == null ? 0 : request.getRecipe().getLatency();
+  }
+
+  /**
+   * @return the number of units queued, which is the number of requests unless some are for
+   *         several units
+   */
   public int getHowManyRequests() {
-    return requests.size();
+    return requests.size() + extraUnits;
+  }
+
+  /**
+   * @return the number of units of user requests queued, which the queue limits apply to
+   */
+  public int getUserUnits() {
+    return userUnits;
+  }
+
+  /**
+   * @return the number of units of user requests queued that have not started, which may be
+   *         shed to make room
+   */
+  public int getWaitingUserUnits() {
+    return waitingUserUnits;
+  }
+
+  /**
+   * @return the oldest user request waiting in the queue, or null if there is none
+   */
+  public Request getOldestWaitingUserRequest() {
+    for (Request request : requests) {
+      if (request.isUserRequest() && request.getState() == RequestState.WAITING) {
+        return request;
+      }
+    }
+    return null;
+  }
+
+  /**
+   * Drops the first unit of a waiting request, to make room for a newer one under a queue
+   * limit. The ingredients requested for it that have not been started are cancelled (see
+   * Factory); those already started still arrive, and stay in the inventory.
+   *
+   * @param request the queued request
+   */
+  public void shedUnit(Request request) {
+    shedUnits(request, 1);
+  }
+
+  /**
+   * Drops the first units of a waiting request at once, as shedUnit drops one.
+   *
+   * @param request the queued request
+   * @param units   the number of units, at most the request's quantity
+   */
+  public void shedUnits(Request request, int units) {
+    removeUnits(request, units);
+    unitsDropped(request.getRecipe(), units);
+  }
+
+  /**
+   * Drops the oldest waiting units of user requests, in the order they are queued, to make
+   * room under a queue limit.
+   *
+   * @param units the most units to drop
+   * @return the number of units dropped
+   */
+  public int shedOldestUnits(int units) {
+    List<Request> entries = new ArrayList<>();
+    int found = 0;
+    Iterator<Request> it = requests.iterator();
+    while (found < units && it.hasNext()) {
+      Request request = it.next();
+      if (request.isUserRequest() && request.getState() == RequestState.WAITING) {
+        entries.add(request);
+        found += request.getQuantity();
+      }
+    }
+    int shed = 0;
+    for (Request request : entries) {
+      int n = Math.min(request.getQuantity(), units - shed);
+      shedUnits(request, n);
+      shed += n;
+    }
+    return shed;
+  }
+
+  // removes the first units of a queued request, or the whole request
+  private void removeUnits(Request request, int units) {
+    if (units < request.getQuantity()) {
+      takeUnits(request, units);
+      return;
+    }
+    if (request.getQuantity() > 1) {
+      takeUnits(request, request.getQuantity() - 1);
+    }
+    dequeue(request);
+  }
+
+  /**
+   * Called once waiting units were shed or cancelled, for what the building keeps for them.
+   *
+   * @param recipe the recipe of the units
+   * @param units  the number of units
+   */
+  protected void unitsDropped(Recipe recipe, int units) {
+  }
+
+  /**
+   * Cancels units a requester asked for that are still waiting here, newest first, e.g.
+   * because the request they were for was shed. Units of the same recipe for the same
+   * requester are alike, so which of them are cancelled does not matter.
+   *
+   * @param requester the building that asked for the units
+   * @param recipe    the recipe of the units
+   * @param units     the most units to cancel
+   * @return the number of units cancelled
+   */
+  int cancelWaitingUnits(Building requester, Recipe recipe, int units) {
+    List<Request> entries = new ArrayList<>();
+    int found = 0;
+    Iterator<Request> it = requests.descendingIterator();
+    while (found < units && it.hasNext()) {
+      Request request = it.next();
+      if (request.getRequester() == requester && request.getRecipe() == recipe
+          && request.getState() == RequestState.WAITING && !request.isUserRequest()) {
+        entries.add(request);
+        found += request.getQuantity();
+      }
+    }
+    int cancelled = 0;
+    for (Request request : entries) {
+      int n = Math.min(request.getQuantity(), units - cancelled);
+      removeUnits(request, n);
+      cancelled += n;
+    }
+    if (cancelled > 0) {
+      unitsDropped(recipe, cancelled);
+    }
+    return cancelled;
+  }
+
+  /**
+   * @return the most units of user requests queued here, 0 for the simulation's limit
+   */
+  public int getQueueLimit() {
+    return queueLimit;
+  }
+
+  /**
+   * @param queueLimit the most units of user requests queued here, 0 for the simulation's
+   *                   limit
+   * @throws IllegalArgumentException if the limit is negative
+   */
+  public void setQueueLimit(int queueLimit) {
+    if (queueLimit < 0) {
+      throw new IllegalArgumentException("A queue limit can't be negative");
+    }
+    this.queueLimit = queueLimit;
   }
 
   public int getQlen() {
@@ -329,14 +716,52 @@ abstract public class Building extends Square {
         totalLatency+=timeLeft;
       }
       else{
-        totalLatency+=request.getRecipe().getLatency();
+        totalLatency+=request.getRecipe().getLatency() * request.getQuantity();
       }
     }
     return totalLatency;
   }
 
+  /**
+   * The same as getTotalLatence, but kept as requests are queued, started and removed rather
+   * than summed over the queue, so it takes constant time. The request in progress is a
+   * single unit in the queue, counted with its remaining latency.
+   *
+   * @return the remaining latency of the request queue
+   */
+  public int getQueuedLatency() {
+    if (currReq == null) {
+      return queuedLatency;
+    }
+    return queuedLatency - latencyOf(currReq) + timeLeft;
+  }
+
   public Integer getSimplelat() {
-    return getTotalLatence();
+    return getQueuedLatency();
+  }
+
+  /**
+   * @return the backlog upstream of each product as CriticalPathPolicy last measured it, by
+   *         product: the cycle it was measured at and the backlog
+   */
+  Map<String, int[]> getUpstreamBacklogs() {
+    return upstreamBacklogs == null ? Collections.emptyMap() : Collections.unmodifiableMap(upstreamBacklogs);
+  }
+
+  /**
+   * Records the backlog upstream of a product as CriticalPathPolicy measured it, or as a save
+   * holds it.
+   *
+   * @param product the product
+   * @param cycle   the cycle it was measured at
+   * @param backlog the backlog
+   */
+  void setUpstreamBacklog(String product, int cycle, int backlog) {
+    if (upstreamBacklogs == null) {
+      upstreamBacklogs = new TreeMap<>();
+    }
+    Simulation.changed(this);
+    upstreamBacklogs.put(product, new int[] { cycle, backlog });
   }
   
   public void addSource(Building source, GraphPath gp) {
@@ -361,6 +786,14 @@ abstract public class Building extends Square {
   
   abstract protected List<Recipe> getRecipes();
 
+  /**
+   * @param product a product
+   * @return the recipe this building makes the product with, or null if it can't make it
+   */
+  protected Recipe recipeFor(String product) {
+    return Factory.findRecipe(getRecipes(), product);
+  }
+
   public Coordinate getRequestLocation(Request r) {
     if (!deliveries.containsKey(r)) {
       throw new IllegalArgumentException("request not in delivery");
@@ -376,6 +809,7 @@ abstract public class Building extends Square {
       throw new IllegalArgumentException("request already in deliveries");
     }
     deliveries.put(r, i);
+    Simulation.changed(this);
   }
 
   public Map<Request, Integer> getDeliveries() {
@@ -0,0 +1,173 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * What a loaded building refers to by name or id: its sources and waste disposals, its
+ * queued and current requests, its deliveries and its drones. A loader notes these while
+ * reading and resolves them once every building and request has been created.
+ */
+class BuildingLinks {
+  /**
+   * A source or waste disposal: the name of the other building, and for a saved route, its
+   * first and last road squares (row, column, row, column). Without a route, one is searched.
+   */
+  static class Connection {
+    final String name;
+    final int[] route;
+
+    Connection(String name, int[] route) {
+      this.name = name;
+      this.route = route;
+    }
+  }
+
+  static class DroneState {
+    final boolean inUse;
+    final Coordinate source;
+    final int requestId;
+    final int currTime;
+
+    DroneState(boolean inUse, Coordinate source, int requestId, int currTime) {
+      this.inUse = inUse;
+      this.source = source;
+      this.requestId = requestId;
+      this.currTime = currTime;
+    }
+  }
+
+  Building building;
+  final List<Connection> sources = new ArrayList<>();
+  final List<Connection> wasteDisposals = new ArrayList<>();
+  final List<Integer> requests = new ArrayList<>();
+  Integer currReq;
+  final List<int[]> deliveries = new ArrayList<>();
+  final List<DroneState> drones = new ArrayList<>();
+
+  /**
+   * Puts the buildings on the map: first those with a coordinate, then the others at
+   * coordinates chosen by CoordinateSetter. A building replaces a road on its square.
+   */
+  static void placeBuildings(Map<String, Building> buildings, Map<Coordinate, Square> squares) {
+    for (Building b : buildings.values()) {
+      if (b.getCoordinate() != null) {
+        squares.put(b.getCoordinate(), b);
+        CoordinateSetter.setMax(b);
+      }
+    }
+    for (Building b : buildings.values()) {
+      if (b.getCoordinate() == null) {
+        CoordinateSetter.setCoordinate(b);
+        squares.put(b.getCoordinate(), b);
+      }
+    }
+  }
+
+  /**
+   * Connects every building to its sources, then every factory to its waste disposals,
+   * following saved routes unless searchRoutes is set.
+   */
+  static void connect(List<BuildingLinks> links, Map<String, Building> buildings, Map<Coordinate, Square> squares,
+                      List<Road> roads, Connector connector, boolean searchRoutes) {
+    for (BuildingLinks link : links) {
+      Building building = link.building;
+      if (!(building instanceof Factory) && !(building instanceof Storage)) {
+        continue;
+      }
+      for (Connection connection : link.sources) {
+        Building source = buildings.get(connection.name);
+        if (source == null) {
+          throw new IllegalArgumentException("Source building '" + connection.name + "' not found");
+        }
+        building.addSource(source, path(connection, source, building, squares, roads, connector, searchRoutes));
+      }
+    }
+    for (BuildingLinks link : links) {
+      if (!(link.building instanceof Factory)) {
+        continue;
+      }
+      for (Connection connection : link.wasteDisposals) {
+        Building wasteDisposal = buildings.get(connection.name);
+        if (wasteDisposal == null) {
+          throw new IllegalArgumentException("wasteDisposal building '" + connection.name + "' not found");
+        }
+        ((Factory) link.building).addWasteDisposal(wasteDisposal,
+            path(connection, wasteDisposal, link.building, squares, roads, connector, searchRoutes));
+      }
+    }
+  }
+
+  private static GraphPath path(Connection connection, Building from, Building to, Map<Coordinate, Square> squares,
+                                List<Road> roads, Connector connector, boolean searchRoutes) {
+    if (connection.route == null || searchRoutes) {
+      return connector.connect(squares, from, to, roads);
+    }
+    Coordinate startCoord = new Coordinate(connection.route[0], connection.route[1]);
+    Coordinate endCoord = new Coordinate(connection.route[2], connection.route[3]);
+    GraphPath path = new GraphPath();
+    path.addNode(from.getCoordinate(), 0);
+    Square startSquare = squares.get(startCoord);
+    Square endSquare = squares.get(endCoord);
+    if (startSquare != null && endSquare != null && startSquare.getClass() == Road.class && endSquare.getClass() == Road.class) {
+      Road curr = (Road) startSquare;
+      while (!curr.getCoordinate().equals(endCoord)) {
+        path.addNode(curr.getCoordinate(), 0);
+        int[] dir = curr.getDirection();
+        if (dir == null) {
+          // a two way road does not tell which way the route went, search it again
+          return connector.connect(squares, from, to, roads);
+        }
+        Coordinate currCoord = curr.getCoordinate();
+        Coordinate nextCoord = new Coordinate(currCoord.getRow() + dir[0], currCoord.getColumn() + dir[1]);
+        Square nextSquare = squares.get(nextCoord);
+        if (nextSquare == null || nextSquare.getClass() != Road.class) {
+          throw new IllegalArgumentException("failed to create path from '" + from.getName() + "' to '" + to.getName() + "'");
+        }
+        curr = (Road) nextSquare;
+      }
+      path.addNode(curr.getCoordinate(), 0);
+    }
+    path.addNode(to.getCoordinate(), 0);
+    return path;
+  }
+
+  /**
+   * Gives every building its queued requests and current request, then its deliveries,
+   * then the drones of every drone port.
+   *
+   * A save lists every unit of a queue as a request of its own, so the units are queued
+   * as they were first queued: a run of identical waiting units is merged into one entry
+   * again.
+   */
+  static void addRequests(List<BuildingLinks> links, Map<Integer, Request> requests) {
+    for (BuildingLinks link : links) {
+      for (int id : link.requests) {
+        link.building.onlyAddRequest(requests.get(id));
+      }
+      if (link.currReq != null) {
+        link.building.setCurrReq(requests.get(link.currReq));
+      }
+    }
+    for (BuildingLinks link : links) {
+      for (int[] delivery : link.deliveries) {
+        link.building.addDelivery(requests.get(delivery[0]), delivery[1]);
+      }
+    }
+    for (BuildingLinks link : links) {
+      if (link.drones.isEmpty()) {
+        continue;
+      }
+      DronePort port = (DronePort) link.building;
+      for (DroneState drone : link.drones) {
+        if (drone.inUse) {
+          port.addDrone(new Drone(port.getCoordinate(), drone.source, requests.get(drone.requestId), drone.currTime));
+        }
+        else {
+          port.addDrone(new Drone(port.getCoordinate()));
+        }
+      }
+    }
+  }
+}
@@ -0,0 +1,304 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * The durable state of one session: a binary snapshot of its simulation, and an append-only
+ * journal of the commands executed since the snapshot was taken. Recovering a session loads
+ * the snapshot and executes the journaled commands again.
+ *
+ * In a directory, session 7 keeps its journal in session7.journal and its snapshot in
+ * session7-N.sim, where N is the sequence number of the last command the snapshot includes.
+ * A journal record is its length, a CRC32, the command's sequence number, the request id
+ * generator when the command started, and the command. A record torn by a crash fails its
+ * check and is dropped, along with anything after it.
+ *
+ * Appending only writes the record; sync makes it durable. Several threads waiting in sync
+ * are covered by one force of the file (group commit), so the cost of durability is a
+ * sequential append, not a rewrite of the session.
+ */
+public class CommandJournal implements Closeable {
+  private static final byte[] MAGIC = { 'S', 'I', 'M', 'J' };
+  private static final int HEADER = MAGIC.length;
+  // length and crc before every record
+  private static final int RECORD_HEADER = 8;
+
+  /**
+   * A journaled command.
+   */
+  public static class Entry {
+    private final long sequence;
+    private final int requestId;
+    private final String command;
+
+    Entry(long sequence, int requestId, String command) {
+      this.sequence = sequence;
+      this.requestId = requestId;
+      this.command = command;
+    }
+
+    public long getSequence() {
+      return sequence;
+    }
+
+    /**
+     * @return the request id generator when the command was first executed
+     */
+    public int getRequestId() {
+      return requestId;
+    }
+
+    public String getCommand() {
+      return command;
+    }
+  }
+
+  private final File directory;
+  private final String prefix;
+  private final FileChannel channel;
+  private final Object syncLock = new Object();
+  private File snapshot;
+  private long snapshotSequence;
+  private List<Entry> entries;
+  private int sinceSnapshot;
+  private long lastSequence;
+  private volatile long durableSequence;
+
+  /**
+   * Opens the journal of a session, creating it if needed, and reads the snapshot and the
+   * commands to execute again on top of it.
+   *
+   * @param directory the directory the session's files are kept in
+   * @param sessionId the session id
+   * @throws IOException if the journal cannot be read or created
+   * @throws IllegalArgumentException if the file is not a journal
+   */
+  public CommandJournal(File directory, int sessionId) throws IOException {
+    this.directory = directory;
+    this.prefix = "session" + sessionId;
+    Files.createDirectories(directory.toPath());
+    findSnapshot();
+    channel = FileChannel.open(new File(directory, prefix + ".journal").toPath(),
+        StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE);
+    try {
+      readEntries();
+    } catch (IOException | RuntimeException e) {
+      channel.close();
+      throw e;
+    }
+    sinceSnapshot = entries.size();
+    durableSequence = lastSequence;
+  }
+
+  private void findSnapshot() {
+    snapshotSequence = -1;
+    File[] files = directory.listFiles((dir, name) -> name.startsWith(prefix + "-") && name.endsWith(".sim"));
+    if (files == null) {
+      return;
+    }
+    for (File file : files) {
+      String name = file.getName();
+      try {
+        long sequence = Long.parseLong(name.substring(prefix.length() + 1, name.length() - 4));
+        if (sequence > snapshotSequence) {
+          snapshotSequence = sequence;
+          snapshot = file;
+        }
+      } catch (NumberFormatException e) {
+        // not one of ours
+      }
+    }
+  }
+
+  private void readEntries() throws IOException {
+    entries = new ArrayList<>();
+    lastSequence = Math.max(snapshotSequence, 0);
+    long size = channel.size();
+    if (size < HEADER) {
+      channel.truncate(0);
+      channel.write(ByteBuffer.wrap(MAGIC), 0);
+      channel.force(false);
+      channel.position(HEADER);
+      return;
+    }
+    ByteBuffer magic = ByteBuffer.allocate(HEADER);
+    channel.read(magic, 0);
+    if (!ByteBuffer.wrap(MAGIC).equals(magic.flip())) {
+      throw new IllegalArgumentException("Invalid journal: " + prefix + ".journal");
+    }
+    long position = HEADER;
+    ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER);
+    CRC32 crc = new CRC32();
+    while (position + RECORD_HEADER <= size) {
+      header.clear();
+      channel.read(header, position);
+      header.flip();
+      int length = header.getInt();
+      int check = header.getInt();
+      if (length < 12 || position + RECORD_HEADER + length > size) {
+        break;
+      }
+      ByteBuffer record = ByteBuffer.allocate(length);
+      channel.read(record, position + RECORD_HEADER);
+      crc.reset();
+      crc.update(record.array());
+      if ((int) crc.getValue() != check) {
+        break;
+      }
+      record.flip();
+      long sequence = record.getLong();
+      int requestId = record.getInt();
+      String command = new String(record.array(), 12, length - 12, StandardCharsets.UTF_8);
+      if (sequence > snapshotSequence) {
+        entries.add(new Entry(sequence, requestId, command));
+      }
+      lastSequence = Math.max(lastSequence, sequence);
+      position += RECORD_HEADER + length;
+    }
+    if (position < size) {
+      // a torn or corrupt tail, left by a crash while appending
+      channel.truncate(position);
+      channel.force(false);
+    }
+    channel.position(position);
+  }
+
+  /**
+   * @return the latest snapshot, or null if none has been taken
+   */
+  public File getSnapshot() {
+    return snapshot;
+  }
+
+  /**
+   * @return the commands that were journaled after the snapshot when the journal was opened,
+   *         in order
+   */
+  public List<Entry> getEntries() {
+    return Collections.unmodifiableList(entries);
+  }
+
+  /**
+   * @return the number of commands journaled since the last snapshot
+   */
+  public synchronized int size() {
+    return sinceSnapshot;
+  }
+
+  /**
+   * Appends a command to the journal, without waiting for it to be durable.
+   *
+   * @param command the command
+   * @param requestId the request id generator when the command started
+   * @return the command's sequence number, to pass to sync
+   * @throws IOException if the record cannot be written
+   */
+  public synchronized long append(String command, int requestId) throws IOException {
+    long sequence = lastSequence + 1;
+    byte[] bytes = command.getBytes(StandardCharsets.UTF_8);
+    ByteBuffer record = ByteBuffer.allocate(RECORD_HEADER + 12 + bytes.length);
+    record.putInt(12 + bytes.length);
+    record.putInt(0);
+    record.putLong(sequence);
+    record.putInt(requestId);
+    record.put(bytes);
+    CRC32 crc = new CRC32();
+    crc.update(record.array(), RECORD_HEADER, 12 + bytes.length);
+    record.putInt(4, (int) crc.getValue());
+    record.flip();
+    while (record.hasRemaining()) {
+      channel.write(record);
+    }
+    lastSequence = sequence;
+    sinceSnapshot++;
+    return sequence;
+  }
+
+  /**
+   * Waits until the command with the given sequence number, and all before it, are on disk.
+   * One thread forces the file for all the commands appended so far while the others wait.
+   *
+   * @param sequence the sequence number returned by append
+   * @throws IOException if the file cannot be forced
+   */
+  public void sync(long sequence) throws IOException {
+    if (durableSequence >= sequence) {
+      return;
+    }
+    synchronized (syncLock) {
+      if (durableSequence >= sequence) {
+        return;
+      }
+      long target;
+      synchronized (this) {
+        target = lastSequence;
+      }
+      channel.force(false);
+      durableSequence = target;
+    }
+  }
+
+  /**
+   * Takes a snapshot of the simulation, which must include every journaled command, and
+   * empties the journal. The snapshot is written to a temporary file and renamed, so a crash
+   * leaves either the old snapshot and journal or the new snapshot.
+   *
+   * @param simulation the session's simulation
+   * @throws IOException if the snapshot cannot be written
+   */
+  public synchronized void snapshot(Simulation simulation) throws IOException {
+    long sequence = lastSequence;
+    File target = new File(directory, prefix + "-" + sequence + ".sim");
+    File temp = new File(directory, prefix + "-" + sequence + ".sim.tmp");
+    try (FileOutputStream file = new FileOutputStream(temp)) {
+      OutputStream out = new BufferedOutputStream(file, 1 << 16);
+      simulation.saveSnapshot(out);
+      out.flush();
+      file.getChannel().force(true);
+    }
+    Files.move(temp.toPath(), target.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    File previous = snapshot;
+    snapshot = target;
+    snapshotSequence = sequence;
+    channel.truncate(HEADER);
+    channel.position(HEADER);
+    channel.force(false);
+    durableSequence = Math.max(durableSequence, sequence);
+    entries = new ArrayList<>();
+    sinceSnapshot = 0;
+    if (previous != null && !previous.equals(target)) {
+      Files.deleteIfExists(previous.toPath());
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+
+  /**
+   * Checks whether a session has been journaled in a directory.
+   *
+   * @param directory the journal directory
+   * @param sessionId the session id
+   * @return true if the session has a journal there
+   */
+  public static boolean exists(File directory, int sessionId) {
+    return new File(directory, "session" + sessionId + ".journal").isFile();
+  }
+}
@@ -9,6 +9,7 @@ import java.util.Set;
 public class Connector {
   private PriorityQueue<GraphPath> pathPQ;
   private Set<Coordinate> visited;
+  private int expansions;
 
   // public Connector(Map<Coordinate, Building> buildingMap, Map<Coordinate, Path> pathMap) {
   //   buildings = buildingMap;
@@ -28,9 +29,43 @@ public class Connector {
     pathPQ.clear();
     pathPQ.add(startPath);
     visited.clear();
+    expansions = 0;
+  }
+
+  /**
+   * @return the number of search nodes the last connect took off its queue
+   */
+  public int getExpansions() {
+    return expansions;
   }
   //public GraphPath connect(Map<Coordinate, Square> squares, Coordinate start, Coordinate end, List<Road> roads) {
   public GraphPath connect(Map<Coordinate, Square> squares, Building startBuilding, Building endBuilding, List<Road> roads) {
+    SimulationMetrics metrics = Simulation.getMetrics();
+    JfrEvents.Route event = new JfrEvents.Route();
+    event.begin();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0;
+    boolean found = false;
+    try {
+      GraphPath path = search(squares, startBuilding, endBuilding, roads);
+      found = true;
+      return path;
+    }
+    finally {
+      if (metrics.isEnabled()) {
+        metrics.recordRoute(System.nanoTime() - start);
+      }
+      event.end();
+      if (event.shouldCommit()) {
+        event.from = startBuilding.getName();
+        event.to = endBuilding.getName();
+        event.expansions = expansions;
+        event.found = found;
+        event.commit();
+      }
+    }
+  }
+
+  private GraphPath search(Map<Coordinate, Square> squares, Building startBuilding, Building endBuilding, List<Road> roads) {
     Coordinate start = startBuilding.getCoordinate();
     Coordinate end = endBuilding.getCoordinate();  
     if (start == null || end == null) {
@@ -40,6 +75,7 @@ public class Connector {
     while (pathPQ.size() > 0) {
       // System.out.println("Q len: " + pathPQ.size());
       GraphPath gp = pathPQ.poll();
+      expansions++;
       // System.out.println("polled gp: " + gp);
       // for (GraphPath p : pathPQ) {
       //   System.out.println("path: " + p + " cost: " + p.getCost());
@@ -0,0 +1,165 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * The CriticalPathPolicy class is an implementation of the SourceSelectionPolicy interface that
+ * selects the source expected to have a unit of the ingredient ready soonest, taking the work
+ * upstream of it into account like RecursiveLatPolicy, but in constant time per candidate.
+ *
+ * A candidate's score is its simple latency (see Building.getSimplelat), which is kept as
+ * requests come and go, plus an estimate of the work upstream of the unit: nothing for a
+ * storage with stock to spare, else the critical latency of the ingredient (see RecipeGraph),
+ * the fewest cycles a unit takes when every source along the way is idle. For a factory the
+ * policy also adds the live backlog of its sources: for each ingredient of its recipe, the
+ * least simple latency of a source that makes it, and the largest of these over the
+ * ingredients. This backlog is measured again once every recalibration interval cycles, and
+ * otherwise taken from the building, so it costs nothing between measurements. The
+ * measurements are part of the building's state: forks copy them and saves hold them, so a
+ * rewound or reloaded simulation chooses the same sources.
+ *
+ * The candidate with the lowest score is chosen, the first one on a tie.
+ */
+public class CriticalPathPolicy implements SourceSelectionPolicy {
+  /** the cycles between measurements of a factory's upstream backlog by default */
+  public static final int DEFAULT_RECALIBRATION = 10;
+
+  private final Map<String, Recipe> recipes;
+  private final int recalibration;
+  private volatile RecipeGraph graph;
+
+  /**
+   * Constructs a policy for a simulation's recipes.
+   *
+   * @param graph         the structure of the recipes
+   * @param recalibration the cycles between measurements of a factory's upstream backlog, 0 to
+   *                      leave it out
+   * @throws IllegalArgumentException if recalibration is negative
+   */
+  public CriticalPathPolicy(RecipeGraph graph, int recalibration) {
+    this(null, graph, recalibration);
+  }
+
+  /**
+   * Constructs a policy for recipes still being loaded: their graph is worked out when the
+   * policy is first used.
+   *
+   * @param recipes the recipes by output
+   */
+  public CriticalPathPolicy(Map<String, Recipe> recipes) {
+    this(recipes, null, DEFAULT_RECALIBRATION);
+  }
+
+  private CriticalPathPolicy(Map<String, Recipe> recipes, RecipeGraph graph, int recalibration) {
+    if (recalibration < 0) {
+      throw new IllegalArgumentException("Invalid recalibration interval: " + recalibration);
+    }
+    this.recipes = recipes;
+    this.graph = graph;
+    this.recalibration = recalibration;
+  }
+
+  private RecipeGraph graph() {
+    if (graph == null) {
+      graph = new RecipeGraph(recipes);
+    }
+    return graph;
+  }
+
+  /**
+   * Selects the source building with the lowest score, see the class description.
+   *
+   * @param sources        the candidate buildings
+   * @param ingredient     the ingredient required
+   * @param chooseStandard a map that will be populated with each candidate's name and its score
+   * @return the capable candidate with the lowest score, or null if no candidate can produce
+   *         the ingredient
+   */
+  @Override
+  public Building selectSource(Map<Building, GraphPath> sources, String ingredient, Map<String, Integer> chooseStandard) {
+    Building selected = null;
+    int bestScore = Integer.MAX_VALUE;
+    for (Building b : sources.keySet()) {
+      if (b.capableOf(ingredient) == null) {
+        int score = score(b, ingredient);
+        chooseStandard.put(b.getName(), score);
+        if (score < bestScore) {
+          bestScore = score;
+          selected = b;
+        }
+      }
+    }
+    return selected;
+  }
+
+  /**
+   * Selects the sources of several units by water-filling the scores, see WaterFilling.
+   */
+  @Override
+  public void selectSources(Map<Building, GraphPath> sources, String ingredient, int units, Consumer<Building> assign) {
+    WaterFilling.fill(sources, ingredient, units, b -> score(b, ingredient), assign);
+  }
+
+  /**
+   * @param source     a source capable of making the ingredient
+   * @param ingredient the ingredient
+   * @return the source's score for a unit of the ingredient
+   */
+  int score(Building source, String ingredient) {
+    int latency = source.getSimplelat();
+    if (source instanceof Storage && source.getQlen() < 0) {
+      // a unit in stock is delivered without waiting for anything upstream
+      return latency;
+    }
+    RecipeGraph recipeGraph = graph();
+    if (!recipeGraph.isReachable(ingredient)) {
+      return latency;
+    }
+    long score = latency + recipeGraph.getCriticalLatency(ingredient);
+    if (source instanceof Factory && recalibration > 0) {
+      score += backlog(source, ingredient);
+    }
+    return (int) Math.min(score, Integer.MAX_VALUE);
+  }
+
+  /**
+   * Returns the live backlog upstream of a factory's product, measured again if it was last
+   * measured a recalibration interval ago or more.
+   */
+  private int backlog(Building factory, String product) {
+    int cycle = Simulation.getCycle();
+    int[] measured = factory.getUpstreamBacklogs().get(product);
+    if (measured != null && cycle >= measured[0] && cycle - measured[0] < recalibration) {
+      return measured[1];
+    }
+    int backlog = 0;
+    Recipe recipe = factory.recipeFor(product);
+    for (Map.Entry<String, Integer> ingredient : recipe.getIngredients().entrySet()) {
+      if (factory.getInventory().getOrDefault(ingredient.getKey(), 0) >= ingredient.getValue()) {
+        continue;
+      }
+      int least = Integer.MAX_VALUE;
+      for (Building source : factory.getSources()) {
+        if (source.mayProduce(ingredient.getKey())) {
+          least = Math.min(least, Math.max(source.getSimplelat(), 0));
+        }
+      }
+      if (least != Integer.MAX_VALUE) {
+        backlog = Math.max(backlog, least);
+      }
+    }
+    factory.setUpstreamBacklog(product, cycle, backlog);
+    return backlog;
+  }
+
+  /**
+   * Returns the name of this source selection policy.
+   *
+   * @return the string "criticalpath"
+   */
+  @Override
+  public String getSourcePolicyName() {
+    return "criticalpath";
+  }
+}
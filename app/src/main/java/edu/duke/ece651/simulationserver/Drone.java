@@ -37,6 +37,27 @@ public class Drone {
     }
   }
 
+  /**
+   * Copies a drone for Simulation.fork, carrying the forked copy of its request.
+   * Coordinates are immutable and shared; target stays the same object as the home,
+   * source or destination it points to.
+   *
+   * @param other the drone to copy
+   * @param request the fork's copy of the drone's request, or null
+   */
+  Drone(Drone other, Request request) {
+    this.speed = other.speed;
+    this.row = other.row;
+    this.column = other.column;
+    this.home = other.home;
+    this.inUse = other.inUse;
+    this.time = other.time;
+    this.target = other.target;
+    this.request = request;
+    this.source = other.source;
+    this.destination = other.destination;
+  }
+
   public int getSpeed() {
     return speed;
   }
@@ -108,6 +129,7 @@ public class Drone {
   }
 
   private void finishUsage() {
+    Simulation.changed(request);
     this.inUse = false;
     this.time = -1;
     this.target = null;
@@ -23,6 +23,17 @@ public class DronePort extends Building {
     this(nameString, null);
   }
 
+  /**
+   * Copies a drone port for Simulation.fork, without its drones and requests.
+   *
+   * @param other the drone port to copy
+   */
+  DronePort(DronePort other) {
+    super(other);
+    limit = other.limit;
+    drones = new ArrayList<>();
+  }
+
   // public DronePort(String nameString, List<Drone> drones) {
   //   this(nameString);
   //   this.drones = drones;
@@ -81,6 +92,11 @@ public class DronePort extends Building {
     return null;
   }
 
+  @Override
+  protected Recipe recipeFor(String product) {
+    return null;
+  }
+
   public String capableOf(String product) {
     return "drone port " + name + " cannot produce anything";
   }
@@ -96,6 +112,7 @@ public class DronePort extends Building {
     for (Drone drone : drones) {
       if (!drone.isInUse()) {
         drone.requestDelivery(source.getCoordinate(), request);
+        Simulation.changed(this);
         return true;
       }
     }
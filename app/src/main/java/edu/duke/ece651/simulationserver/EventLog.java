@@ -0,0 +1,114 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The event stream of a simulation.
+ *
+ * Producers first ask isEnabled for the event type and only then build the event,
+ * so nothing is computed for events the current verbosity discards. Published
+ * events go into a lock-free ring buffer and are handed to the registered sinks when
+ * the log is flushed (or when the ring fills up).
+ */
+public class EventLog {
+  public static final int MAX_VERBOSITY = 2;
+  private static final int DEFAULT_CAPACITY = 1024;
+
+  private final EventRingBuffer ring;
+  private final List<EventSink> sinks;
+  private volatile int verbosity;
+  private volatile int enabledMask;
+
+  public EventLog() {
+    this(DEFAULT_CAPACITY);
+  }
+
+  /**
+   * @param capacity the number of events buffered before a flush is forced
+   */
+  public EventLog(int capacity) {
+    ring = new EventRingBuffer(capacity);
+    sinks = new CopyOnWriteArrayList<>();
+    setVerbosity(0);
+  }
+
+  /**
+   * Sets the verbosity level. Level 0 events are always enabled; level 1 and 2 events
+   * are enabled when the verbosity is between their level and MAX_VERBOSITY.
+   *
+   * @param newVerbosity the new verbosity level
+   */
+  public void setVerbosity(int newVerbosity) {
+    int mask = 0;
+    for (EventType type : EventType.values()) {
+      if (type.getLevel() == 0 || (newVerbosity >= type.getLevel() && newVerbosity <= MAX_VERBOSITY)) {
+        mask |= type.mask();
+      }
+    }
+    verbosity = newVerbosity;
+    enabledMask = mask;
+  }
+
+  public int getVerbosity() {
+    return verbosity;
+  }
+
+  public boolean isEnabled(EventType type) {
+    return (enabledMask & type.mask()) != 0;
+  }
+
+  public void addSink(EventSink sink) {
+    sinks.add(sink);
+  }
+
+  public void removeSink(EventSink sink) {
+    sinks.remove(sink);
+  }
+
+  public List<EventSink> getSinks() {
+    return sinks;
+  }
+
+  /**
+   * Publishes an event. Events of disabled types are dropped; when the ring buffer is
+   * full it is drained to the sinks first.
+   *
+   * @param event the event to publish
+   */
+  public void publish(SimulationEvent event) {
+    if (!isEnabled(event.getType())) {
+      return;
+    }
+    while (!ring.offer(event)) {
+      flush();
+    }
+  }
+
+  /**
+   * Drains every buffered event to the sinks, in publication order, then flushes the sinks.
+   */
+  public synchronized void flush() {
+    SimulationEvent event = ring.poll();
+    if (event == null) {
+      return;
+    }
+    while (event != null) {
+      for (EventSink sink : sinks) {
+        sink.accept(event);
+      }
+      event = ring.poll();
+    }
+    for (EventSink sink : sinks) {
+      sink.flush();
+    }
+  }
+
+  /**
+   * Discards every buffered event without handing it to the sinks.
+   */
+  public synchronized void clear() {
+    while (ring.poll() != null) {
+    }
+  }
+}
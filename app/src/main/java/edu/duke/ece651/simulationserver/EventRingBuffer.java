@@ -0,0 +1,98 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * A bounded, lock-free multi-producer ring buffer of simulation events.
+ *
+ * Each slot carries a sequence number telling producers and the consumer whether
+ * it is free or holds a published element (the classic Vyukov bounded queue). Offers
+ * never block: when the ring is full offer returns false and the caller decides what
+ * to do (EventLog drains it).
+ */
+public class EventRingBuffer {
+  private final int mask;
+  private final AtomicReferenceArray<SimulationEvent> slots;
+  private final AtomicLongArray sequences;
+  private final AtomicLong tail;
+  private final AtomicLong head;
+
+  /**
+   * @param capacity the number of slots, rounded up to a power of two
+   */
+  public EventRingBuffer(int capacity) {
+    if (capacity < 1) {
+      throw new IllegalArgumentException("capacity must be positive");
+    }
+    int size = Integer.highestOneBit(capacity);
+    if (size < capacity) {
+      size <<= 1;
+    }
+    mask = size - 1;
+    slots = new AtomicReferenceArray<>(size);
+    sequences = new AtomicLongArray(size);
+    for (int i = 0; i < size; i++) {
+      sequences.set(i, i);
+    }
+    tail = new AtomicLong();
+    head = new AtomicLong();
+  }
+
+  public int capacity() {
+    return mask + 1;
+  }
+
+  /**
+   * Tries to append an event.
+   *
+   * @param event the event to append
+   * @return true if the event was stored, false if the ring is full
+   */
+  public boolean offer(SimulationEvent event) {
+    while (true) {
+      long pos = tail.get();
+      int idx = (int) (pos & mask);
+      long seq = sequences.get(idx);
+      long diff = seq - pos;
+      if (diff == 0) {
+        if (tail.compareAndSet(pos, pos + 1)) {
+          slots.lazySet(idx, event);
+          sequences.set(idx, pos + 1);
+          return true;
+        }
+      } else if (diff < 0) {
+        return false;
+      }
+    }
+  }
+
+  /**
+   * Removes the oldest event.
+   *
+   * @return the oldest published event, or null if the ring is empty
+   */
+  public SimulationEvent poll() {
+    while (true) {
+      long pos = head.get();
+      int idx = (int) (pos & mask);
+      long seq = sequences.get(idx);
+      long diff = seq - (pos + 1);
+      if (diff == 0) {
+        if (head.compareAndSet(pos, pos + 1)) {
+          SimulationEvent event = slots.get(idx);
+          slots.lazySet(idx, null);
+          sequences.set(idx, pos + mask + 1);
+          return event;
+        }
+      } else if (diff < 0) {
+        return null;
+      }
+    }
+  }
+
+  public boolean isEmpty() {
+    return head.get() >= tail.get();
+  }
+}
@@ -0,0 +1,19 @@
+package edu.duke.ece651.simulationserver;
+
+/**
+ * A destination for simulation events drained from an EventLog.
+ */
+public interface EventSink {
+  /**
+   * Consumes one event. Called from the draining thread only, in publication order.
+   *
+   * @param event the event to consume
+   */
+  void accept(SimulationEvent event);
+
+  /**
+   * Called after a batch of events has been drained.
+   */
+  default void flush() {
+  }
+}
@@ -0,0 +1,40 @@
+package edu.duke.ece651.simulationserver;
+
+/**
+ * The kinds of events the simulation can emit.
+ *
+ * Each type carries the minimum verbosity level at which it is reported. Level 0
+ * events (order completion, end of simulation) are always reported; level 1 and 2
+ * events are only reported when the verbosity is set to at least that level.
+ */
+public enum EventType {
+  ORDER_COMPLETE(0),
+  SIMULATION_COMPLETE(0),
+  INGREDIENT_ASSIGNMENT(1),
+  INGREDIENT_DELIVERED(1),
+  READY_RECIPES(1),
+  SOURCE_SELECTION(2),
+  SOURCE_CANDIDATES(2),
+  RECIPE_SELECTION(2),
+  REQUEST_STATUS(2),
+  MESSAGE(2);
+
+  private final int level;
+
+  EventType(int level) {
+    this.level = level;
+  }
+
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * Returns the bit used for this type in an enabled-types mask.
+   *
+   * @return a mask with only this type's bit set
+   */
+  int mask() {
+    return 1 << ordinal();
+  }
+}
@@ -1,6 +1,8 @@
 package edu.duke.ece651.simulationserver;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
@@ -15,6 +17,9 @@ public class Factory extends Building {
   private FactoryType type;
   private Map<String, Integer> wastes;
   private Map<WasteDisposal, GraphPath> wasteDisposals;
+  // the connected waste disposals that accept each waste, in connection order; null when a
+  // disposal was connected or disconnected since it was built, see disposalsFor
+  private Map<String, List<WasteDisposal>> disposalIndex;
   
   /**
    * Constructs a new Factory with the specified name, list of source buildings,
@@ -45,6 +50,18 @@ public class Factory extends Building {
     this.wasteDisposals = new LinkedHashMap<>();
   }
   
+  /**
+   * Copies a factory for Simulation.fork, without its sources, requests and waste disposals.
+   *
+   * @param other the factory to copy
+   */
+  Factory(Factory other) {
+    super(other);
+    this.type = other.type;
+    this.wastes = new LinkedHashMap<>(other.wastes);
+    this.wasteDisposals = new LinkedHashMap<>();
+  }
+
   public FactoryType getFactoryType() {
     return type;
   }
@@ -60,6 +77,7 @@ public class Factory extends Building {
   public void addWasteDisposal(Building b, GraphPath gp) {
     if (b instanceof WasteDisposal) {
       wasteDisposals.put(((WasteDisposal)b), gp);
+      disposalIndex = null;
     } else {
       throw new IllegalArgumentException("invalid type for disposal");
     }
@@ -68,22 +86,49 @@ public class Factory extends Building {
   public void removeWasteDisposal(Building b) {
     if (b instanceof WasteDisposal) {
       wasteDisposals.remove((WasteDisposal)b);
+      disposalIndex = null;
     } else {
       throw new IllegalArgumentException("invalid type for removeing disposal");
     }
   }
   
+  /**
+   * @return the connected waste disposals that accept the waste
+   */
+  private List<WasteDisposal> disposalsFor(String waste) {
+    if (disposalIndex == null) {
+      disposalIndex = new HashMap<>();
+      for (WasteDisposal disposal : wasteDisposals.keySet()) {
+        for (String accepted : disposal.getAcceptedWastes()) {
+          disposalIndex.computeIfAbsent(accepted, w -> new ArrayList<>()).add(disposal);
+        }
+      }
+    }
+    return disposalIndex.getOrDefault(waste, Collections.emptyList());
+  }
+
+  /**
+   * Sends each waste to the disposal accepting it that has the most room left once the
+   * waste already on its way is counted, if that is enough for it. Wastes no disposal has
+   * room for stay, and are tried again next cycle.
+   */
   private void sendWaste() {
-    for (Map.Entry<String, Integer> w : wastes.entrySet()) {
-      for (Map.Entry<WasteDisposal, GraphPath> d : wasteDisposals.entrySet()) {
-        if (d.getKey().canDispose(w.getKey(), w.getValue())) {
-          wasteRequest r = new wasteRequest(d.getKey(), w.getValue());
-          d.getKey().addRequest(r);
-          addDelivery(r, d.getValue().getDistance());
-          d.getKey().addPredictedAmount(w.getValue());
-          wastes.remove(w.getKey());
-          break;
-        } 
+    Iterator<Map.Entry<String, Integer>> it = wastes.entrySet().iterator();
+    while (it.hasNext()) {
+      Map.Entry<String, Integer> w = it.next();
+      WasteDisposal disposal = null;
+      for (WasteDisposal d : disposalsFor(w.getKey())) {
+        if (d.getRemainingCapacity() >= w.getValue()
+            && (disposal == null || d.getRemainingCapacity() > disposal.getRemainingCapacity())) {
+          disposal = d;
+        }
+      }
+      if (disposal != null) {
+        wasteRequest r = new wasteRequest(disposal, w.getValue());
+        disposal.addRequest(r);
+        addDelivery(r, wasteDisposals.get(disposal).getDistance());
+        disposal.addPredictedAmount(w.getValue());
+        it.remove();
       }
     }
   }
@@ -101,7 +146,9 @@ public class Factory extends Building {
       GraphPath path = getPath(currReq.getRequester());
       deliveries.put(currReq, path.getDistance());
       Verbosity.ingredientDeliveredMessage(currReq.getRecipe().getOutput(), name,currReq.getRequester().getName());
-      Verbosity.PrintIsReadyMessage(currReq.getRequester().getInventory(), currReq.getRequester().getRecipes());
+      if (Verbosity.isEnabled(EventType.READY_RECIPES)) {
+        Verbosity.PrintIsReadyMessage(currReq.getRequester().getInventory(), currReq.getRequester().getRecipes());
+      }
     }
     else {
       Verbosity.orderCompleteMessage(currReq.getId(),currReq.getRecipe().getOutput());
@@ -117,7 +164,7 @@ public class Factory extends Building {
       }
     }
     addWaste(product.getWaste(), product.getWasteAmount());
-    requests.remove(currReq);
+    dequeue(currReq);
     currReq = null;
     timeLeft = -1;
   }
@@ -150,10 +197,14 @@ public class Factory extends Building {
     }
   }
 
-  
+  @Override
+  boolean isIdle() {
+    return finished() && wastes.isEmpty();
+  }
+
   /**
-   * Determines whether this factory can produce the specified ingredient. It checks
-   * all recipes in the associated FactoryType for a matching output name.
+   * Determines whether this factory can produce the specified ingredient, i.e. whether its
+   * FactoryType has a recipe for it.
    *
    * @param product the name of the product (or output) to check
    * @return true if at least one recipe can produce the given ingredient;
@@ -161,13 +212,7 @@ public class Factory extends Building {
    */
   @Override
   public boolean mayProduce(String product) {
-    List<Recipe> recipes = type.getRecipes();
-    for (Recipe r : recipes) {
-      if (r.getOutput().equals(product)) {
-        return true;
-      }
-    }
-    return false;
+    return type.getRecipe(product) != null;
   }
 
   @Override
@@ -178,21 +223,17 @@ public class Factory extends Building {
     if (!wastes.isEmpty()) {
       return "cannot produce '" + product + "' because of waste: " + wastes;
     }
-    List<Recipe> recipes = type.getRecipes();
-    for (Recipe r : recipes) {
-      if (r.getOutput().equals(product)) {
-        Map<String, Integer> ingredients = r.getIngredients();
-        for (Map.Entry<String, Integer> entry : ingredients.entrySet()) {
-          String ingredient = entry.getKey();
-          String msg = hasSourceFor(ingredient);
-          if (msg != null) {
-            return msg;
-          }
-        }
-        return null;
+    Recipe r = type.getRecipe(product);
+    if (r == null) {
+      return "factory '" + name + "' cannot produce '" + product + "'";
+    }
+    for (String ingredient : r.getIngredients().keySet()) {
+      String msg = hasSourceFor(ingredient);
+      if (msg != null) {
+        return msg;
       }
     }
-    return "factory '" + name + "' cannot produce '" + product + "'";
+    return null;
   }
   
   private String hasSourceFor(String ingredient) {
@@ -219,8 +260,25 @@ public class Factory extends Building {
     return type.getRecipes();
   }
 
+  @Override
+  protected Recipe recipeFor(String product) {
+    return type.getRecipe(product);
+  }
+
   /**
    * Allocates sub-requests for each ingredient required by the given Request.
+   *
+   * A source is selected for every unit of every ingredient, in turn, as the sources' queues
+   * grow, and a source factory allocates what the unit needs before the next unit is
+   * selected. A request for several units allocates them unit by unit, as that many requests
+   * would; the sources merge the identical sub-requests into few queue entries.
+   *
+   * The units of an ingredient that are selected in a row (all of them, if the recipe has no
+   * other ingredient) are handed to the source policy at once, which may select them faster
+   * than one by one, see SourceSelectionPolicy.selectSources, but only when no candidate
+   * allocates anything of its own: a source factory's allocation changes the queues further
+   * upstream, which a policy selecting several units at once does not see. Otherwise, and
+   * when the candidates of each selection are logged, they are selected one by one.
    * 
    * @param request the parent Request that needs ingredient sub-requests
    * @throws IllegalArgumentException if no source building is found for a required ingredient
@@ -228,27 +286,125 @@ public class Factory extends Building {
   protected void allocateSubRequest(Request request) {
     Recipe recipe = request.getRecipe();
     Map<String, Integer> ingredients = recipe.getIngredients();
-    int ingredientIndex = 0;
-    for (Map.Entry<String, Integer> ingredient : ingredients.entrySet()) {
-      for (int i = 0; i < ingredient.getValue(); ++i) {
-        Map<String, Integer> chooseStandard = new LinkedHashMap<>();
-        Building source_building = sourcePolicy.selectSource(sources, ingredient.getKey(), chooseStandard);
-        if (source_building == null) {
-          throw new IllegalArgumentException("Can't find source building for " + ingredient.getKey());
+    int units = request.getQuantity();
+    // with a single ingredient, all units of the request select its sources in a row
+    int rounds = ingredients.size() == 1 ? 1 : units;
+    for (int round = 0; round < rounds; ++round) {
+      int ingredientIndex = 0;
+      for (Map.Entry<String, Integer> ingredient : ingredients.entrySet()) {
+        int count = ingredient.getValue() * (units / rounds);
+        if (Verbosity.isEnabled(EventType.SOURCE_CANDIDATES) || allocatesUpstream(ingredient.getKey())) {
+          for (int i = 0; i < count; ++i) {
+            selectSource(request, ingredient.getKey(), ingredientIndex++);
+          }
+        }
+        else {
+          selectSources(ingredient.getKey(), count);
+          ingredientIndex += count;
         }
-        List<Recipe> recipes = source_building.getRecipes();
-        Recipe sub_recipe = findRecipe(recipes, ingredient.getKey());
-        Request sub_request = new Request(sub_recipe, this, false);
-        Verbosity.sourceSelectionMessage(this.getName(), sourcePolicy.getSourcePolicyName(), ingredient.getKey());
-        Verbosity.sourceMessage(this.getName(), request.getRecipe().getOutput(), sourcePolicy.getSourcePolicyName(),
-            ingredientIndex, ingredient.getKey(), getSources(), source_building.getName(), chooseStandard);
-        Verbosity.ingredientAssignmentMessage(ingredient.getKey(), source_building.getName(), this.getName());
-        source_building.addRequest(sub_request);
-        ingredientIndex++;
       }
     }
   }
 
+  /**
+   * @return whether a source that may provide the ingredient is a factory, which allocates
+   *         sub-requests of its own for every unit queued there
+   */
+  private boolean allocatesUpstream(String ingredient) {
+    for (Building source_building : sources.keySet()) {
+      if (source_building instanceof Factory && source_building.mayProduce(ingredient)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Selects the source of one unit of an ingredient and queues it there, logging the
+   * candidates the policy considered.
+   */
+  private void selectSource(Request request, String ingredient, int ingredientIndex) {
+    Map<String, Integer> chooseStandard = new LinkedHashMap<>();
+    SimulationMetrics metrics = Simulation.getMetrics();
+    JfrEvents.SourceSelection event = new JfrEvents.SourceSelection();
+    event.begin();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0;
+    Building source_building = sourcePolicy.selectSource(sources, ingredient, chooseStandard);
+    if (metrics.isEnabled()) {
+      metrics.recordSourceSelection(sourcePolicy.getSourcePolicyName(), System.nanoTime() - start);
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.building = name;
+      event.policy = sourcePolicy.getSourcePolicyName();
+      event.ingredient = ingredient;
+      event.candidates = sources.size();
+      event.units = 1;
+      event.chosen = source_building == null ? null : source_building.getName();
+      event.commit();
+    }
+    if (source_building == null) {
+      throw new IllegalArgumentException("Can't find source building for " + ingredient);
+    }
+    Verbosity.sourceSelectionMessage(this.getName(), sourcePolicy.getSourcePolicyName(), ingredient);
+    if (Verbosity.isEnabled(EventType.SOURCE_CANDIDATES)) {
+      Verbosity.sourceMessage(this.getName(), request.getRecipe().getOutput(), sourcePolicy.getSourcePolicyName(),
+          ingredientIndex, ingredient, getSources(), source_building.getName(), chooseStandard);
+    }
+    queueUnit(ingredient, source_building);
+  }
+
+  /**
+   * Selects the sources of several units of an ingredient in one call to the source policy,
+   * queuing each unit as it is selected. The time spent queuing is not counted as selection
+   * time.
+   */
+  private void selectSources(String ingredient, int units) {
+    SimulationMetrics metrics = Simulation.getMetrics();
+    JfrEvents.SourceSelection event = new JfrEvents.SourceSelection();
+    Building[] first = new Building[1];
+    long[] queuing = new long[1];
+    event.begin();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0;
+    sourcePolicy.selectSources(sources, ingredient, units, source_building -> {
+      if (source_building == null) {
+        throw new IllegalArgumentException("Can't find source building for " + ingredient);
+      }
+      long queued = metrics.isEnabled() ? System.nanoTime() : 0;
+      if (first[0] == null) {
+        first[0] = source_building;
+      }
+      Verbosity.sourceSelectionMessage(this.getName(), sourcePolicy.getSourcePolicyName(), ingredient);
+      queueUnit(ingredient, source_building);
+      if (metrics.isEnabled()) {
+        queuing[0] += System.nanoTime() - queued;
+      }
+    });
+    if (metrics.isEnabled()) {
+      metrics.recordSourceSelection(sourcePolicy.getSourcePolicyName(), System.nanoTime() - start - queuing[0]);
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.building = name;
+      event.policy = sourcePolicy.getSourcePolicyName();
+      event.ingredient = ingredient;
+      event.candidates = sources.size();
+      event.units = units;
+      event.chosen = first[0] == null ? null : first[0].getName();
+      event.commit();
+    }
+  }
+
+  /**
+   * Queues a unit of an ingredient at the selected source.
+   */
+  private void queueUnit(String ingredient, Building source_building) {
+    Verbosity.ingredientAssignmentMessage(ingredient, source_building.getName(), this.getName());
+    Recipe sub_recipe = source_building.recipeFor(ingredient);
+    Request sub_request = new Request(sub_recipe, this, false);
+    source_building.addRequest(sub_request);
+  }
+
   public static Recipe findRecipe(List<Recipe> recipes, String recipe) {
     for (Recipe r : recipes) {
       if (r.match(recipe)) {
@@ -270,4 +426,23 @@ public class Factory extends Building {
     allocateSubRequest(request);
   }
 
+  /**
+   * Cancels what the dropped units asked the sources for and is still waiting there, which
+   * in turn cancels what that asked for.
+   */
+  @Override
+  protected void unitsDropped(Recipe recipe, int units) {
+    for (Map.Entry<String, Integer> ingredient : recipe.getIngredients().entrySet()) {
+      int left = ingredient.getValue() * units;
+      for (Building source : sources.keySet()) {
+        if (left == 0) {
+          break;
+        }
+        if (source.mayProduce(ingredient.getKey())) {
+          left -= source.cancelWaitingUnits(this, source.recipeFor(ingredient.getKey()), left);
+        }
+      }
+    }
+  }
+
 }
@@ -1,7 +1,9 @@
 package edu.duke.ece651.simulationserver;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 /**
  * Represents a type of factory that can produce a specific set of recipes.
@@ -11,6 +13,8 @@ import java.util.List;
 public class FactoryType {
   private final String name;
   private final List<Recipe> recipes;
+  // the recipes by output, the first one for an output if there are several
+  private final Map<String, Recipe> recipesByOutput;
   /**
    * Constructs a new FactoryType with the specified name and list of recipes.
    *
@@ -24,6 +28,10 @@ public class FactoryType {
       throw new IllegalArgumentException("Invalid input for FactoryType: recipes is null");
     }
     this.recipes = new ArrayList<>(recipes); 
+    this.recipesByOutput = new HashMap<>();
+    for (Recipe recipe : this.recipes) {
+      recipesByOutput.putIfAbsent(recipe.getOutput(), recipe);
+    }
   }
 
   public String getName() {
@@ -34,4 +42,12 @@ public class FactoryType {
     return recipes; 
   }
 
+  /**
+   * @param output a product
+   * @return the recipe of this type for the product, or null if it has none
+   */
+  public Recipe getRecipe(String output) {
+    return recipesByOutput.get(output);
+  }
+
  }
@@ -0,0 +1,110 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Copies the mutable state of a simulation for Simulation.fork: its buildings, their
+ * requests and drones. Everything a building refers to is replaced by its copy, so the
+ * copies never touch the original. Recipes, factory types, policies, routes and
+ * coordinates do not change once created, and are shared.
+ */
+class ForkCopier {
+  private final Map<Building, Building> buildings = new IdentityHashMap<>();
+  private final Map<Request, Request> requests = new IdentityHashMap<>();
+
+  /**
+   * Copies the buildings, then connects the copies to each other and to copies of their
+   * requests, in the original order and entry by entry, so the copied queues are the same.
+   *
+   * @param original the buildings by name
+   * @return the copies by name
+   */
+  Map<String, Building> copyBuildings(Map<String, Building> original) {
+    Map<String, Building> copies = new LinkedHashMap<>();
+    for (Building b : original.values()) {
+      Building copy = copyOf(b);
+      buildings.put(b, copy);
+      copies.put(copy.getName(), copy);
+    }
+    for (Building b : original.values()) {
+      link(b, buildings.get(b));
+    }
+    return copies;
+  }
+
+  /**
+   * @return the copy of a building, or the building itself if it is not part of the
+   *         simulation (e.g. the requester of a request to a removed building)
+   */
+  Building building(Building b) {
+    Building copy = buildings.get(b);
+    return copy != null ? copy : b;
+  }
+
+  private static Building copyOf(Building b) {
+    if (b instanceof Factory) {
+      return new Factory((Factory) b);
+    }
+    else if (b instanceof Mine) {
+      return new Mine((Mine) b);
+    }
+    else if (b instanceof Storage) {
+      return new Storage((Storage) b);
+    }
+    else if (b instanceof WasteDisposal) {
+      return new WasteDisposal((WasteDisposal) b);
+    }
+    else if (b instanceof DronePort) {
+      return new DronePort((DronePort) b);
+    }
+    throw new IllegalArgumentException("Cannot fork building '" + b.getName() + "'");
+  }
+
+  private void link(Building b, Building copy) {
+    for (Map.Entry<Building, GraphPath> source : b.getSourceMap().entrySet()) {
+      copy.addSource(building(source.getKey()), source.getValue());
+    }
+    if (b instanceof Factory) {
+      for (Map.Entry<WasteDisposal, GraphPath> disposal : ((Factory) b).getWasteDisposals().entrySet()) {
+        ((Factory) copy).addWasteDisposal(building(disposal.getKey()), disposal.getValue());
+      }
+    }
+    for (Request r : b.getRequests()) {
+      copy.appendRequest(request(r));
+    }
+    copy.setCurrReq(request(b.getCurrRequest()));
+    for (Map.Entry<Request, Integer> delivery : b.getDeliveries().entrySet()) {
+      copy.addDelivery(request(delivery.getKey()), delivery.getValue());
+    }
+    if (b instanceof DronePort) {
+      for (Drone drone : ((DronePort) b).getDrones()) {
+        ((DronePort) copy).addDrone(new Drone(drone, request(drone.getRequest())));
+      }
+    }
+  }
+
+  /**
+   * @return the copy of a request and its sub-requests, made the first time it is seen
+   */
+  Request request(Request r) {
+    if (r == null) {
+      return null;
+    }
+    Request copy = requests.get(r);
+    if (copy != null) {
+      return copy;
+    }
+    if (r instanceof wasteRequest) {
+      copy = new wasteRequest((wasteRequest) r, (WasteDisposal) building(r.getRequester()));
+    } else {
+      copy = new Request(r, building(r.getRequester()));
+    }
+    requests.put(r, copy);
+    for (Request sub : r.getSubRequests()) {
+      copy.addSubRequest(request(sub));
+    }
+    return copy;
+  }
+}
@@ -0,0 +1,185 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.Arrays;
+
+/**
+ * A queue of request ids stored as arithmetic runs: a first id, a step and a count. Units
+ * created in a regular pattern, e.g. by the same allocation repeated for every unit of a
+ * bulk request, take one run however many they are.
+ */
+final class IdRuns {
+  // first id, step, count of each run, from head up to tail
+  private int[] runs = new int[6];
+  private int head;
+  private int tail;
+  private int size;
+
+  IdRuns() {
+  }
+
+  IdRuns(IdRuns other) {
+    this.runs = Arrays.copyOfRange(other.runs, other.head, Math.max(other.tail, other.head + 6));
+    this.tail = other.tail - other.head;
+    this.size = other.size;
+  }
+
+  /**
+   * @return the ids first, first + 1, ..., first + count - 1
+   */
+  static IdRuns range(int first, int count) {
+    IdRuns ids = new IdRuns();
+    ids.runs[0] = first;
+    ids.runs[1] = 1;
+    ids.runs[2] = count;
+    ids.tail = 3;
+    ids.size = count;
+    return ids;
+  }
+
+  void add(int id) {
+    if (tail > head) {
+      int last = tail - 3;
+      if (runs[last + 2] == 1) {
+        runs[last + 1] = id - runs[last];
+        runs[last + 2] = 2;
+        size++;
+        return;
+      }
+      if (id == runs[last] + runs[last + 1] * runs[last + 2]) {
+        runs[last + 2]++;
+        size++;
+        return;
+      }
+    }
+    appendRun(id, 0, 1);
+  }
+
+  private void appendRun(int first, int step, int count) {
+    if (tail == runs.length) {
+      if (head > 0) {
+        System.arraycopy(runs, head, runs, 0, tail - head);
+        tail -= head;
+        head = 0;
+      } else {
+        runs = Arrays.copyOf(runs, 2 * runs.length);
+      }
+    }
+    runs[tail] = first;
+    runs[tail + 1] = step;
+    runs[tail + 2] = count;
+    tail += 3;
+    size += count;
+  }
+
+  void addAll(IdRuns other) {
+    for (int r = other.head; r < other.tail; r += 3) {
+      for (int i = 0; i < other.runs[r + 2]; i++) {
+        add(other.runs[r] + other.runs[r + 1] * i);
+      }
+    }
+  }
+
+  /**
+   * Removes the first id.
+   *
+   * @return the id
+   * @throws IllegalStateException if there is none
+   */
+  int poll() {
+    if (size == 0) {
+      throw new IllegalStateException("No id left");
+    }
+    int id = runs[head];
+    runs[head] += runs[head + 1];
+    if (--runs[head + 2] == 0) {
+      head += 3;
+    }
+    size--;
+    if (size == 0) {
+      head = 0;
+      tail = 0;
+    }
+    return id;
+  }
+
+  /**
+   * Removes the first ids, a run at a time.
+   *
+   * @param count the number of ids
+   * @return the ids removed, in order
+   * @throws IllegalStateException if there are fewer
+   */
+  IdRuns take(int count) {
+    if (count > size) {
+      throw new IllegalStateException("Only " + size + " ids left");
+    }
+    IdRuns taken = new IdRuns();
+    while (count > 0) {
+      int n = Math.min(count, runs[head + 2]);
+      taken.appendRun(runs[head], runs[head + 1], n);
+      runs[head] += runs[head + 1] * n;
+      runs[head + 2] -= n;
+      if (runs[head + 2] == 0) {
+        head += 3;
+      }
+      size -= n;
+      count -= n;
+    }
+    if (size == 0) {
+      head = 0;
+      tail = 0;
+    }
+    return taken;
+  }
+
+  /**
+   * Counts the first ids that are below a bound, a run at a time.
+   *
+   * @param bound the bound
+   * @param max the most ids to count
+   * @return the number of ids before the first one that is not below the bound, at most max
+   */
+  int countBelow(int bound, int max) {
+    int count = 0;
+    for (int r = head; r < tail && count < max; r += 3) {
+      int first = runs[r];
+      int step = runs[r + 1];
+      int n = runs[r + 2];
+      if (first >= bound) {
+        break;
+      }
+      // the ids of a run that does not go up are all at most its first
+      int below = step <= 0 ? n : (int) Math.min(n, ((long) bound - first + step - 1) / step);
+      count += below;
+      if (below < n) {
+        break;
+      }
+    }
+    return Math.min(count, max);
+  }
+
+  int size() {
+    return size;
+  }
+
+  /**
+   * @return the number of runs, which is what the ids take up
+   */
+  int runs() {
+    return (tail - head) / 3;
+  }
+
+  /**
+   * @return the ids, in order
+   */
+  int[] toArray() {
+    int[] ids = new int[size];
+    int n = 0;
+    for (int r = head; r < tail; r += 3) {
+      for (int i = 0; i < runs[r + 2]; i++) {
+        ids[n++] = runs[r] + runs[r + 1] * i;
+      }
+    }
+    return ids;
+  }
+}
@@ -0,0 +1,60 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a simulation from a file: a configuration to start from, or a saved session.
+ */
+public interface Initializer {
+  /**
+   * Reads the file into the given collections, which are expected to be empty.
+   *
+   * @param recipes   receives the recipes by output
+   * @param types     receives the factory types by name
+   * @param buildings receives the buildings by name
+   * @param squares   receives the buildings and roads by coordinate
+   * @param roads     receives the roads
+   * @throws IOException if the file cannot be read
+   * @throws IllegalArgumentException if the file does not describe a valid simulation
+   */
+  void initializeSystem(Map<String, Recipe> recipes,
+                        Map<String, FactoryType> types,
+                        Map<String, Building> buildings,
+                        Map<Coordinate, Square> squares,
+                        List<Road> roads) throws IOException;
+
+  /**
+   * @return the simulation cycle the file was saved at, or 0
+   */
+  int getCycle();
+
+  /**
+   * @return the id the next request gets, as saved with the file, or 0
+   */
+  int getRequestId();
+
+  /**
+   * @return the user requests that were waiting for room under the queue limits, as saved
+   *         with the file, in order
+   */
+  default List<Simulation.PendingRequest> getPendingRequests() {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Opens a file in whichever format it is in: a binary snapshot or JSON.
+   *
+   * @param fileName the file to read
+   * @return an initializer for the file
+   * @throws IOException if the file does not exist or cannot be read
+   */
+  static Initializer forFile(String fileName) throws IOException {
+    if (SnapshotReader.isSnapshot(fileName)) {
+      return new SnapshotReader(fileName);
+    }
+    return new JsonInitializer(fileName);
+  }
+}
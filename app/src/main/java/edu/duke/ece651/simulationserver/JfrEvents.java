@@ -0,0 +1,183 @@
+package edu.duke.ece651.simulationserver;
+
+import jdk.jfr.Category;
+import jdk.jfr.DataAmount;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Threshold;
+
+/**
+ * Java Flight Recorder events emitted by the simulation.
+ *
+ * The events on the per cycle hot paths have a threshold, so a recording only keeps
+ * the slow ones; with JFR off, begin/commit are no-ops the JIT removes. Callers fill
+ * in the fields only when shouldCommit returns true. None of the events record a
+ * stack trace.
+ */
+public final class JfrEvents {
+  private static final String CATEGORY = "Simulation";
+
+  private JfrEvents() {
+  }
+
+  @Name("edu.duke.ece651.simulation.Cycle")
+  @Label("Simulation Cycle")
+  @Description("One simulated cycle of a simulation")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  @Threshold("1 ms")
+  public static class Cycle extends Event {
+    @Label("Cycle")
+    public int cycle;
+
+    @Label("Buildings")
+    public int buildings;
+  }
+
+  @Name("edu.duke.ece651.simulation.BuildingStep")
+  @Label("Building Step")
+  @Description("One building processing one cycle")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  @Threshold("1 ms")
+  public static class BuildingStep extends Event {
+    @Label("Building")
+    public String building;
+
+    @Label("Cycle")
+    public int cycle;
+
+    @Label("Queue Length")
+    public int queueLength;
+  }
+
+  @Name("edu.duke.ece651.simulation.SourceSelection")
+  @Label("Source Selection")
+  @Description("A factory choosing the sources of units of an ingredient")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  @Threshold("1 ms")
+  public static class SourceSelection extends Event {
+    @Label("Building")
+    public String building;
+
+    @Label("Policy")
+    public String policy;
+
+    @Label("Ingredient")
+    public String ingredient;
+
+    @Label("Candidates")
+    public int candidates;
+
+    @Label("Units")
+    public int units;
+
+    @Label("Chosen Source")
+    @Description("The source of the first unit")
+    public String chosen;
+  }
+
+  @Name("edu.duke.ece651.simulation.RequestSelection")
+  @Label("Request Selection")
+  @Description("A building choosing the next request to work on")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  @Threshold("1 ms")
+  public static class RequestSelection extends Event {
+    @Label("Building")
+    public String building;
+
+    @Label("Policy")
+    public String policy;
+
+    @Label("Queue Length")
+    public int queueLength;
+
+    @Label("Selected Request")
+    @Description("Id of the selected request, -1 if none was selected")
+    public int selected;
+  }
+
+  @Name("edu.duke.ece651.simulation.Route")
+  @Label("Route Computation")
+  @Description("A shortest path search between two buildings")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  @Threshold("1 ms")
+  public static class Route extends Event {
+    @Label("From")
+    public String from;
+
+    @Label("To")
+    public String to;
+
+    @Label("Expansions")
+    @Description("Number of search nodes taken off the priority queue")
+    public int expansions;
+
+    @Label("Found")
+    public boolean found;
+  }
+
+  @Name("edu.duke.ece651.simulation.Save")
+  @Label("Simulation Save")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  public static class Save extends Event {
+    @Label("File")
+    public String file;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+  }
+
+  @Name("edu.duke.ece651.simulation.Load")
+  @Label("Simulation Load")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  public static class Load extends Event {
+    @Label("File")
+    public String file;
+
+    @Label("Size")
+    @DataAmount
+    public long bytes;
+
+    @Label("Buildings")
+    public int buildings;
+  }
+
+  @Name("edu.duke.ece651.simulation.Fork")
+  @Label("Simulation Fork")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  public static class Fork extends Event {
+    @Label("Buildings")
+    public int buildings;
+  }
+
+  @Name("edu.duke.ece651.simulation.Command")
+  @Label("Session Command")
+  @Description("A command executed for a server session")
+  @Category(CATEGORY)
+  @StackTrace(false)
+  public static class Command extends Event {
+    @Label("Session")
+    public int session;
+
+    @Label("Command")
+    public String command;
+
+    @Label("Output Size")
+    @DataAmount
+    public long outputBytes;
+
+    @Label("Failed")
+    public boolean failed;
+  }
+}
@@ -0,0 +1,128 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import jakarta.annotation.PreDestroy;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Runs SimulationJobs on a pool of background threads, at most one per session at a time.
+ *
+ * A job is known by its id while it runs, so it can be cancelled; it is forgotten once it
+ * stops.
+ */
+@Component
+public class JobManager {
+  private final long maxCycles;
+  private final long maxMillis;
+  private final long progressInterval;
+  private final ExecutorService executor;
+  private final AtomicInteger nextId = new AtomicInteger();
+  private final ConcurrentMap<Integer, SimulationJob> jobs = new ConcurrentHashMap<>();
+  private final ConcurrentMap<SimulationSession, SimulationJob> running = new ConcurrentHashMap<>();
+
+  /**
+   * @param threads the number of jobs that run at the same time; more wait for a thread
+   * @param maxCycles the most cycles a job may step
+   * @param maxSeconds the most time (s) a job may take
+   * @param progressInterval the least time (ms) between two progress reports of a job
+   */
+  @Autowired
+  public JobManager(@Value("${simulation.jobs.threads:4}") int threads,
+                    @Value("${simulation.jobs.max-cycles:10000000}") long maxCycles,
+                    @Value("${simulation.jobs.max-seconds:600}") long maxSeconds,
+                    @Value("${simulation.jobs.progress-interval:250}") long progressInterval) {
+    if (threads <= 0) {
+      throw new IllegalArgumentException("A job manager needs at least one thread");
+    }
+    this.maxCycles = maxCycles;
+    this.maxMillis = maxSeconds * 1000;
+    this.progressInterval = progressInterval;
+    this.executor = Executors.newFixedThreadPool(threads, runnable -> {
+      Thread thread = new Thread(runnable, "simulation-job");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  /**
+   * Starts a step or finish command in the background.
+   *
+   * @param session the session to execute it on
+   * @param command "step n" or "finish"
+   * @param listener told about the job's progress
+   * @return the job
+   * @throws IllegalArgumentException if the command cannot run as a job, or the session
+   *         already has a job running
+   */
+  public SimulationJob start(SimulationSession session, String command, SimulationJob.Listener listener) {
+    SimulationJob job = new SimulationJob(nextId.incrementAndGet(), session, command, maxCycles, maxMillis,
+        progressInterval, new SimulationJob.Listener() {
+          @Override
+          public void progress(SimulationJob job) {
+            listener.progress(job);
+          }
+
+          @Override
+          public void stopped(SimulationJob job) {
+            jobs.remove(job.getId());
+            running.remove(session, job);
+            listener.stopped(job);
+          }
+        });
+    SimulationJob other = running.putIfAbsent(session, job);
+    if (other != null) {
+      throw new IllegalArgumentException("Session " + session.getId() + " already runs job " + other.getId());
+    }
+    jobs.put(job.getId(), job);
+    executor.execute(job);
+    return job;
+  }
+
+  /**
+   * @param id the job id
+   * @return the running job with that id, or null if there is none
+   */
+  public SimulationJob get(int id) {
+    return jobs.get(id);
+  }
+
+  /**
+   * Asks a running job to stop.
+   *
+   * @param id the job id
+   * @return the job, or null if no job with that id is running
+   */
+  public SimulationJob cancel(int id) {
+    SimulationJob job = jobs.get(id);
+    if (job != null) {
+      job.cancel();
+    }
+    return job;
+  }
+
+  /**
+   * @return the number of jobs running or waiting for a thread
+   */
+  public int size() {
+    return jobs.size();
+  }
+
+  /**
+   * Cancels the running jobs and stops the threads.
+   */
+  @PreDestroy
+  public void shutdown() {
+    for (SimulationJob job : jobs.values()) {
+      job.cancel();
+    }
+    executor.shutdown();
+  }
+}
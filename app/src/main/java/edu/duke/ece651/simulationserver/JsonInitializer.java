@@ -1,61 +1,101 @@
 package edu.duke.ece651.simulationserver;
 
+import java.io.BufferedInputStream;
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.util.ArrayList;
 import java.util.HashMap;
-import java.util.Iterator;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
 
 /**
  * The JsonInitializer class is responsible for reading and parsing a JSON configuration
  * file to initialize the simulation components including recipes, factory types, buildings, and requests.
- * 
- * It implements the Initializer interface and provides methods to construct maps of
- * Recipe, FactoryType, and Building objects as well as the starting simulation cycle.
+ *
+ * The file is read once with a streaming JsonParser, section by section, and the simulation
+ * objects are built as their JSON is read, so no tree of the whole document is kept. What a
+ * building refers to by name or id (sources, waste disposals, requests, deliveries, drones) is
+ * noted while reading and resolved when the whole file has been read. A section that comes
+ * before the sections it depends on (e.g. buildings before recipes, in a hand-written file) is
+ * held as a tree until they have been read.
+ *
  * Additionally, it sets up request and source policies for buildings.
- * 
+ *
  */
-public class JsonInitializer {
-  private JsonNode rootNode;
-  // private Map<String, Recipe> recipes;
-  // private Map<String, FactoryType> types;
-  // private Map<String, Building> buildings;
-  // private Map<Integer, Request> requests;
+public class JsonInitializer implements Initializer {
+  private static final ObjectMapper MAPPER = new ObjectMapper();
+  private final File file;
   private Map<String, RequestSelectionPolicy> requestPolicies;
   private Map<String, SourceSelectionPolicy> sourcePolicies;
   private Connector connector;
   private boolean isInitializer;
-  
+  private int cycle;
+  private int requestId;
+
+  // what is being read, only while initializeSystem runs
+  private Map<String, Recipe> recipes;
+  private Map<String, FactoryType> types;
+  private Map<String, Building> buildings;
+  private Map<Coordinate, Square> squares;
+  private List<Road> roads;
+  private Map<Integer, Request> requests;
+  private List<BuildingLinks> links;
+
   /**
-   * Constructs a newJsonInitializer that reads the simulation configuration from the specified JSON file.
+   * Constructs a new JsonInitializer that reads the simulation configuration from the specified JSON file.
+   * The file is read by initializeSystem.
    *
    * @param jsonFileName the path to the JSON configuration file
-   * @throws IOException if an I/O error occurs while reading the file
+   * @throws IOException if the file does not exist
    */
   public JsonInitializer(String jsonFileName) throws IOException {
     CoordinateSetter.reset();
-    ObjectMapper mapper = new ObjectMapper();
-    FileInputStream fis = new FileInputStream(jsonFileName);
+    file = new File(jsonFileName);
+    // a missing file is reported here, with the JDK's message, rather than once it is read
+    new FileInputStream(file).close();
     connector = new Connector();
-    rootNode = mapper.readTree(fis);
-    isInitializer = false;
+    isInitializer = true;
   }
 
+  @Override
   public void initializeSystem(Map<String, Recipe> recipes,
                                Map<String, FactoryType> types,
                                Map<String, Building> buildings,
                                Map<Coordinate, Square> squares,
-                               List<Road> roads) {
-    initializeRecipes(recipes);
-    initializeTypes(types, recipes);
-    initialRoads(squares, roads);
-    initializeBuildings(recipes, types, buildings, squares, roads);
+                               List<Road> roads) throws IOException {
+    this.recipes = recipes;
+    this.types = types;
+    this.buildings = buildings;
+    this.squares = squares;
+    this.roads = roads;
+    links = new ArrayList<>();
+    requestPolicies = createRequestPolicies();
+    sourcePolicies = createSourcePolicies(recipes);
+    try (InputStream in = new BufferedInputStream(new FileInputStream(file), 1 << 16);
+         JsonParser parser = MAPPER.getFactory().createParser(in)) {
+      readDocument(parser);
+      BuildingLinks.placeBuildings(buildings, squares);
+      BuildingLinks.connect(links, buildings, squares, roads, connector, isInitializer);
+      if (requests != null) {
+        BuildingLinks.addRequests(links, requests);
+      }
+    } finally {
+      this.recipes = null;
+      this.types = null;
+      this.buildings = null;
+      this.squares = null;
+      this.roads = null;
+      requests = null;
+      links = null;
+    }
   }
 
   /**
@@ -81,476 +121,600 @@ public class JsonInitializer {
     policies.put("qlen", new QlenPolicy());
     policies.put("simpleLat", new SimplelatPolicy());
     policies.put("recursiveLat", new RecursiveLatPolicy(recipes));
+    policies.put("criticalpath", new CriticalPathPolicy(recipes));
     return policies;
   }
 
   /**
-   * Initializes the recipes from the JSON configuration.
-   * 
-   * Each recipe is expected to be defined with an "output", "latency", and an "ingredients" object.
-   * The returned map uses recipe outputs as keys.
-   * 
-   *
-   * @return a Map mapping recipe outputs to their corresponding Recipe objects
+   * Reads the top level object. Types need the recipes, buildings need the recipes and
+   * types, and requests need the buildings; a section that comes before what it needs is
+   * kept as a tree and read once the rest of the file has been.
    */
-  private void initializeRecipes(Map<String, Recipe> recipes) {
-    JsonNode recipesNode = rootNode.get("recipes");
-    for (JsonNode recipeNode : recipesNode) {
-      String output = recipeNode.get("output").asText();
-      int latency = recipeNode.get("latency").asInt();
-      LinkedHashMap<String, Integer> ingredients = new LinkedHashMap<>();
-      JsonNode ingredientsNode = recipeNode.get("ingredients");
-      Iterator<String> fieldNames = ingredientsNode.fieldNames();
-      while (fieldNames.hasNext()) {
-        String field = fieldNames.next();
-        ingredients.put(field, ingredientsNode.get(field).asInt());
-      }
-      if (recipeNode.get("waste") == null) {
-        recipes.put(output, new Recipe(output, ingredients, latency));
-      } else {
-        String waste = recipeNode.get("waste").asText();
-        int wasteAmount = recipeNode.get("wasteAmount").asInt();
-        recipes.put(output, new Recipe(output, waste, wasteAmount, ingredients, latency));
+  private void readDocument(JsonParser p) throws IOException {
+    if (p.nextToken() != JsonToken.START_OBJECT) {
+      throw new IllegalArgumentException("Invalid json file: expected an object");
+    }
+    boolean seenRecipes = false;
+    boolean seenTypes = false;
+    boolean seenBuildings = false;
+    JsonNode pendingTypes = null;
+    JsonNode pendingBuildings = null;
+    JsonNode pendingRequests = null;
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String field = p.getCurrentName();
+      p.nextToken();
+      switch (field) {
+        case "requestId":
+          requestId = p.getValueAsInt();
+          break;
+        case "cycle":
+          cycle = p.getValueAsInt();
+          break;
+        case "recipes":
+          readRecipes(p);
+          seenRecipes = true;
+          break;
+        case "types":
+          if (seenRecipes) {
+            readTypes(p);
+          } else {
+            pendingTypes = p.readValueAsTree();
+          }
+          seenTypes = true;
+          break;
+        case "buildings":
+          if (seenRecipes && seenTypes && pendingTypes == null) {
+            readBuildings(p);
+          } else {
+            pendingBuildings = p.readValueAsTree();
+          }
+          seenBuildings = true;
+          break;
+        case "requests":
+          if (seenRecipes && seenBuildings && pendingBuildings == null) {
+            readRequests(p);
+          } else {
+            pendingRequests = p.readValueAsTree();
+          }
+          break;
+        case "roads":
+          isInitializer = false;
+          readRoads(p);
+          break;
+        default:
+          p.skipChildren();
       }
     }
+    if (pendingTypes != null) {
+      readTypes(replay(pendingTypes));
+    }
+    if (pendingBuildings != null) {
+      readBuildings(replay(pendingBuildings));
+    }
+    if (pendingRequests != null) {
+      readRequests(replay(pendingRequests));
+    }
   }
-  
-  /**
-   * Initializes the factory types from the JSON configuration.
-   * 
-   * Each type is defined by a "name" and an array of recipe names. The method looks up
-   * the corresponding Recipe objects from the recipes map.
-   * 
-   *
-   * @return a Map mapping factory type names to their corresponding FactoryType objects
-   */
-  private void initializeTypes(Map<String, FactoryType> types, Map<String, Recipe> recipes) {
-    JsonNode typesNode = rootNode.get("types");
-    for (JsonNode typeNode : typesNode) {
-      String name = typeNode.get("name").asText();
-      //FactoryType type = new FactoryType(name);
-      List<Recipe> recipes_ = new ArrayList<>();
-      JsonNode typeRecipesNode = typeNode.get("recipes");
-      for (JsonNode recipeNode : typeRecipesNode) {
-        String recipeString = recipeNode.asText();
-        recipes_.add(recipes.get(recipeString));
-      }
-      FactoryType type = new FactoryType(name, recipes_);
-      types.put(name, type);
+
+  private JsonParser replay(JsonNode section) throws IOException {
+    JsonParser p = section.traverse(MAPPER);
+    p.nextToken();
+    return p;
+  }
+
+  private void expect(JsonParser p, JsonToken token, String what) {
+    if (p.currentToken() != token) {
+      throw new IllegalArgumentException("Invalid json file: expected " + what + " but found " + p.currentToken());
     }
   }
 
+  private int[] readPair(JsonParser p, String what) throws IOException {
+    expect(p, JsonToken.START_ARRAY, what);
+    p.nextToken();
+    int first = p.getValueAsInt();
+    p.nextToken();
+    int second = p.getValueAsInt();
+    if (p.nextToken() != JsonToken.END_ARRAY) {
+      throw new IllegalArgumentException("invalic building coordinate");
+    }
+    return new int[] { first, second };
+  }
+
+  private Map<String, Integer> readCounts(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_OBJECT, "an object of counts");
+    Map<String, Integer> counts = new LinkedHashMap<>();
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String name = p.getCurrentName();
+      p.nextToken();
+      counts.put(name, p.getValueAsInt());
+    }
+    return counts;
+  }
+
+  private List<String> readNames(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_ARRAY, "an array of names");
+    List<String> names = new ArrayList<>();
+    while (p.nextToken() != JsonToken.END_ARRAY) {
+      names.add(p.getText());
+    }
+    return names;
+  }
+
   /**
-   * Initializes the requests from the JSON configuration.
-   * 
-   * Each request is defined by an "id", "recipe", "requester", "state", and "isUserRequest" flag.
-   * The method also sets the request ID generator to the value specified in the JSON.
-   * 
+   * Reads the recipes. Each recipe is expected to be defined with an "output", "latency",
+   * and an "ingredients" object, and may have a "waste" and its "wasteAmount".
    */
-  private Map<Integer, Request> initializeRequests(Map<String, Building> buildings, Map<String, Recipe> recipes) {
-    Map<Integer, Request> requests = new HashMap<>();
-    JsonNode requestsNode = rootNode.get("requests");
-    for (JsonNode requestNode : requestsNode) {
-      int id = requestNode.get("id").asInt();
-      if (requestNode.get("amount") != null ) {
-        int amount = requestNode.get("amount").asInt();
-        Building requester = buildings.get(requestNode.get("requester").asText());
-        String state = requestNode.get("state").asText();
-        Request request = new wasteRequest(id, (WasteDisposal)requester, state, amount);
-        requests.put(id, request);
-      } else {
-        Recipe recipe = recipes.get(requestNode.get("recipe").asText());
-        Building requester = null;
-        if (requestNode.has("requester")) {
-          requester = buildings.get(requestNode.get("requester").asText());
+  private void readRecipes(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_ARRAY, "an array of recipes");
+    while (p.nextToken() == JsonToken.START_OBJECT) {
+      String output = null;
+      int latency = 0;
+      Map<String, Integer> ingredients = new LinkedHashMap<>();
+      String waste = null;
+      int wasteAmount = 0;
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String field = p.getCurrentName();
+        p.nextToken();
+        switch (field) {
+          case "output":
+            output = p.getText();
+            break;
+          case "latency":
+            latency = p.getValueAsInt();
+            break;
+          case "ingredients":
+            ingredients = readCounts(p);
+            break;
+          case "waste":
+            waste = p.currentToken() == JsonToken.VALUE_NULL ? null : p.getText();
+            break;
+          case "wasteAmount":
+            wasteAmount = p.getValueAsInt();
+            break;
+          default:
+            p.skipChildren();
         }
-        String state = requestNode.get("state").asText();
-        Boolean userRequest = requestNode.get("isUserRequest").asBoolean();
-        Request request = new Request(id, recipe, requester, state, userRequest);
-        requests.put(id, request);
+      }
+      if (waste == null) {
+        recipes.put(output, new Recipe(output, ingredients, latency));
+      } else {
+        recipes.put(output, new Recipe(output, waste, wasteAmount, ingredients, latency));
       }
     }
-    int generatorId = rootNode.get("requestId").asInt();
-    Request.setIdGenerator(generatorId);
-    return requests;
   }
-  
+
   /**
-   * Initializes the buildings from the JSON configuration.
-   * 
-   * For each building defined in the JSON, the building is instantiated either as a Factory or a Mine based on
-   *  whether there is a "type" field or a "mine" field. Optional fields such as "time", "inventory", 
-   * "requestSelectPolicy", "sourceSelectPolicy", "defaultRequestPolicy", and "defaultSourcePolicy" are also processed.
-   * 
-   * After creating the building objects, this method calls helper methods to add source
-   * references and link any requests.
-   * 
-   *
-   * @return a Map mapping building names to their corresponding Building objects
+   * Reads the factory types. Each type is defined by a "name" and an array of recipe
+   * names, which are looked up in the recipes already read.
    */
-  private void initializeBuildings(Map<String, Recipe> recipes,
-                                  Map<String, FactoryType> types,
-                                   Map<String, Building> buildings,
-                                   Map<Coordinate, Square> squares,
-                                   List<Road> roads) {
-    requestPolicies = createRequestPolicies();
-    sourcePolicies = createSourcePolicies(recipes);
-
-    JsonNode buildingsNode = rootNode.get("buildings");
-    for (JsonNode buildingNode : buildingsNode) {
-      String name = buildingNode.get("name").asText();
-      Building building;
-      if (buildingNode.has("type")) {
-        String typeString = buildingNode.get("type").asText();
-        FactoryType type = types.get(typeString);
-        if (type == null) {
-          throw new IllegalArgumentException("Factory Type doesn't exist");
-        }
-        building = new Factory(name, new ArrayList<>(), type);
-        JsonNode wastesNode = buildingNode.get("wastes");
-        if (wastesNode != null && wastesNode.isArray()) {
-          for (JsonNode pair : wastesNode) {
-            if (pair.isArray() && pair.size() == 2) {
-              String wasteType = pair.get(0).asText();
-              int amount = pair.get(1).asInt();
-              ((Factory) building).addWaste(wasteType, amount);
-            }
+  private void readTypes(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_ARRAY, "an array of types");
+    while (p.nextToken() == JsonToken.START_OBJECT) {
+      String name = null;
+      List<Recipe> typeRecipes = new ArrayList<>();
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String field = p.getCurrentName();
+        p.nextToken();
+        if (field.equals("name")) {
+          name = p.getText();
+        } else if (field.equals("recipes")) {
+          for (String recipe : readNames(p)) {
+            typeRecipes.add(recipes.get(recipe));
           }
+        } else {
+          p.skipChildren();
         }
       }
-      else if (buildingNode.has("mine")) {
-        String recipeString = buildingNode.get("mine").asText();
-        building = new Mine(name, new ArrayList<>(), recipes.get(recipeString));
-      }
-      else if (buildingNode.has("stores")) {
-        int capacity = buildingNode.get("capacity").asInt();
-        int remain = buildingNode.get("remain").asInt();
-        double priority = buildingNode.get("priority").asDouble();
-        String storesString = buildingNode.get("stores").asText();
-        building = new Storage(name, recipes.get(storesString), new ArrayList<>(), capacity, remain, priority);
-      } else if (buildingNode.has("interval")) {
-        int capacity = buildingNode.get("capacity").asInt();
-        int disposeAmount = buildingNode.get("disposeAmount").asInt();
-        int disposeInterval = buildingNode.get("disposeInterval").asInt();
-        int interval = buildingNode.get("interval").asInt();
-        int predictedAmount = buildingNode.get("predictedAmount").asInt();
-        int currentAmount = buildingNode.get("currentAmount").asInt();
-        List<Recipe> wasteTypes = new ArrayList<>();
-        JsonNode wasteTypesNode = buildingNode.get("wasteTypes");
-        for (JsonNode r : wasteTypesNode) {
-          String recipeName = r.asText();
-          wasteTypes.add(recipes.get(recipeName));
-        }
-        building = new WasteDisposal(name, capacity, wasteTypes, disposeAmount, disposeInterval, currentAmount, interval, predictedAmount);
-      }
-      // DronePort building
-      else {
-        building = new DronePort(name);
-      }
-      if (buildingNode.has("time")) {
-        JsonNode timeLeftNode = buildingNode.get("time");
-        building.setTimeLeft(timeLeftNode.asInt());
-      }
-      if (buildingNode.has("inventory")) {
-        JsonNode inventoryNode = buildingNode.get("inventory");
-        Map<String, Integer> inventory = new HashMap<>();
-        Iterator<String> fieldNames = inventoryNode.fieldNames();
-        while (fieldNames.hasNext()) {
-          String field = fieldNames.next();
-          inventory.put(field, inventoryNode.get(field).asInt());
-        }
-        building.setInventory(inventory);
-      }
-      if (buildingNode.has("requestPolicy")) {
-        String policyStr = buildingNode.get("requestPolicy").asText();
-        building.setRequestPolicy(requestPolicies.get(policyStr));
-      }
-      if (buildingNode.has("sourcePolicy")) {
-        String policyStr = buildingNode.get("sourcePolicy").asText();
-        building.setSourcePolicy(sourcePolicies.get(policyStr));
-      }
-      if (buildingNode.has("defaultRequestPolicy")) {
-        building.setDefaultRequest(buildingNode.get("defaultRequestPolicy").asBoolean());
-      }
-      if (buildingNode.has("defaultSourcePolicy")) {
-        building.setDefaultSource(buildingNode.get("defaultSourcePolicy").asBoolean());
-      }
-      if (buildingNode.has("removeMark")) {
-        building.setRemoveMark(buildingNode.get("removeMark").asBoolean());
-      }
-      
-      if (buildingNode.has("coordinate")) {
-        JsonNode coordNode = buildingNode.get("coordinate");
-         if (coordNode.isArray() && coordNode.size() == 2) {
-           int row = coordNode.get(0).asInt();
-           int col = coordNode.get(1).asInt();
-           Coordinate coord = new Coordinate(row, col);
-           building.setCoordinate(coord);
-         } else {
-           throw new IllegalArgumentException("invalic building coordinate");
-         }
-      } 
-      buildings.put(name, building);
-    }
-    
-    for (Building b : buildings.values()) {
-      if (b.getCoordinate() != null) {
-        squares.put(b.getCoordinate(), b);
-        CoordinateSetter.setMax(b);
-      }
-    }
-
-    
-    for (Building b : buildings.values()) {
-      if (b.getCoordinate() == null) {
-        CoordinateSetter.setCoordinate(b);
-        squares.put(b.getCoordinate(), b);
-      }
-    }
-    
-    if (isInitializer) {
-      addSources(buildingsNode, buildings, squares, roads);
-    } else {
-      addSourcesAndGraphPath(buildingsNode, buildings, squares);
-      addDisposalsAndGraphPath(buildingsNode, buildings, squares);
-    }
-    
-    if (rootNode.has("requests")) {
-      Map<Integer, Request> requests = initializeRequests(buildings, recipes);
-      addRequests(buildingsNode, buildings, requests); 
-      addDeliveries(buildingsNode, buildings, requests);
-      addDrones(buildingsNode, buildings, requests);
+      types.put(name, new FactoryType(name, typeRecipes));
     }
   }
 
-  private void initialRoads(Map<Coordinate, Square> squares, List<Road> roads) {
-    JsonNode roadsNode = rootNode.get("roads");
-    if (roadsNode == null) {
-      isInitializer = true;
-      return;
-    }
-    for (JsonNode roadNode : roadsNode) {
-      JsonNode coordinateNode = roadNode.get("coordinate");
-      int row = coordinateNode.get(0).asInt();
-      int col = coordinateNode.get(1).asInt();
-      Coordinate coord = new Coordinate(row, col);
-      JsonNode directionNode = roadNode.get("direction");
-      Road road;
-      if (directionNode != null) {
-        int[] direction = new int[] {
-          directionNode.get(0).asInt(),
-          directionNode.get(1).asInt()
-        };
-        road = new Road(coord, direction);
-      } else {
-        road = new Road(coord);
+  private void readRoads(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_ARRAY, "an array of roads");
+    while (p.nextToken() == JsonToken.START_OBJECT) {
+      int[] coordinate = null;
+      int[] direction = null;
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String field = p.getCurrentName();
+        p.nextToken();
+        if (field.equals("coordinate")) {
+          coordinate = readPair(p, "a road coordinate");
+        } else if (field.equals("direction") && p.currentToken() != JsonToken.VALUE_NULL) {
+          direction = readPair(p, "a road direction");
+        } else {
+          p.skipChildren();
+        }
       }
+      if (coordinate == null) {
+        throw new IllegalArgumentException("Invalid json file: road without a coordinate");
+      }
+      Coordinate coord = new Coordinate(coordinate[0], coordinate[1]);
+      Road road = direction == null ? new Road(coord) : new Road(coord, direction);
       roads.add(road);
       squares.put(coord, road);
     }
   }
-  
+
   /**
-   * Helper method to add source references to buildings based on the JSON configuration.
-   * 
-   * For each building that has a "sources" array, this method adds each source (by name) to
-   * the building's source list.
-   *
-   * @param buildingsNode the JSON node representing the array of buildings
+   * Reads the requests. Each request is defined by an "id", "recipe", "requester", "state",
+   * and "isUserRequest" flag; a waste request has an "amount" instead of a recipe.
    */
-  private void addSources(JsonNode buildingsNode, Map<String, Building> buildings, Map<Coordinate, Square> squares, List<Road> roads) {
-    for (JsonNode buildingNode : buildingsNode) {
-      String name = buildingNode.get("name").asText();
-      if (buildingNode.has("type") || buildingNode.has("stores")) {
-        Building building = buildings.get(name);
-        JsonNode sourcesNode = buildingNode.get("sources");
-        for (JsonNode sourceNode : sourcesNode) {
-          Building source = buildings.get(sourceNode.asText());
-          GraphPath gp = connector.connect(squares, source, building, roads);
-          building.addSource(source, gp);
+  private void readRequests(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_ARRAY, "an array of requests");
+    requests = new HashMap<>();
+    while (p.nextToken() == JsonToken.START_OBJECT) {
+      int id = 0;
+      Integer amount = null;
+      String recipe = null;
+      String requester = null;
+      String state = null;
+      boolean userRequest = false;
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String field = p.getCurrentName();
+        p.nextToken();
+        switch (field) {
+          case "id":
+            id = p.getValueAsInt();
+            break;
+          case "amount":
+            amount = p.getValueAsInt();
+            break;
+          case "recipe":
+            recipe = p.getText();
+            break;
+          case "requester":
+            requester = p.getText();
+            break;
+          case "state":
+            state = p.getText();
+            break;
+          case "isUserRequest":
+            userRequest = p.getValueAsBoolean();
+            break;
+          default:
+            p.skipChildren();
         }
       }
+      if (amount != null) {
+        requests.put(id, new wasteRequest(id, (WasteDisposal) buildings.get(requester), state, amount));
+      } else {
+        Building requesterBuilding = requester == null ? null : buildings.get(requester);
+        requests.put(id, new Request(id, recipes.get(recipe), requesterBuilding, state, userRequest));
+      }
     }
   }
 
   /**
-   * Helper method to add requests to buildings based on the JSON configuration.
-   * 
-   * This method iterates over each building node that contains a "requests" array and adds
-   * the corresponding Request objects by ID to the building.
-   * Additionally, if a building node has a "currReq" field, the current request is set accordingly.
-   * 
-   *
-   * @param buildingsNode the JSON node representing the array of buildings
+   * Reads the buildings. Each building is a Factory, Mine, Storage, WasteDisposal or
+   * DronePort depending on whether it has a "type", "mine", "stores" or "interval" field,
+   * or none of them. Optional fields such as "time", "inventory", "requestPolicy",
+   * "sourcePolicy", "defaultRequestPolicy", "defaultSourcePolicy" and "queueLimit" are also
+   * processed.
    */
-  private void addRequests(JsonNode buildingsNode, Map<String, Building> buildings, Map<Integer, Request> requests) {
-    for (JsonNode buildingNode : buildingsNode) {
-      String name = buildingNode.get("name").asText();
-      JsonNode requestsNode = buildingNode.get("requests");
-      for (JsonNode requestNode : requestsNode) {
-        int requestId = requestNode.asInt();
-        buildings.get(name).onlyAddRequest(requests.get(requestId));
+  private void readBuildings(JsonParser p) throws IOException {
+    expect(p, JsonToken.START_ARRAY, "an array of buildings");
+    while (p.nextToken() == JsonToken.START_OBJECT) {
+      readBuilding(p);
+    }
+  }
+
+  private void readBuilding(JsonParser p) throws IOException {
+    BuildingLinks link = new BuildingLinks();
+    String name = null;
+    String type = null;
+    String mine = null;
+    String stores = null;
+    boolean disposal = false;
+    int capacity = 0;
+    int remain = 0;
+    double priority = 0;
+    int disposeAmount = 0;
+    int disposeInterval = 0;
+    int interval = 0;
+    int predictedAmount = 0;
+    int currentAmount = 0;
+    List<String> wasteTypes = new ArrayList<>();
+    Map<String, Integer> wastes = new LinkedHashMap<>();
+    Integer time = null;
+    Map<String, Integer> inventory = null;
+    String requestPolicy = null;
+    String sourcePolicy = null;
+    Boolean defaultRequestPolicy = null;
+    Boolean defaultSourcePolicy = null;
+    Boolean removeMark = null;
+    int queueLimit = 0;
+    Map<String, int[]> upstreamBacklogs = null;
+    int[] coordinate = null;
+    while (p.nextToken() == JsonToken.FIELD_NAME) {
+      String field = p.getCurrentName();
+      p.nextToken();
+      switch (field) {
+        case "name":
+          name = p.getText();
+          break;
+        case "type":
+          type = p.getText();
+          break;
+        case "mine":
+          mine = p.getText();
+          break;
+        case "stores":
+          stores = p.getText();
+          break;
+        case "capacity":
+          capacity = p.getValueAsInt();
+          break;
+        case "remain":
+          remain = p.getValueAsInt();
+          break;
+        case "priority":
+          priority = p.getValueAsDouble();
+          break;
+        case "disposeAmount":
+          disposeAmount = p.getValueAsInt();
+          break;
+        case "disposeInterval":
+          disposeInterval = p.getValueAsInt();
+          break;
+        case "interval":
+          disposal = true;
+          interval = p.getValueAsInt();
+          break;
+        case "predictedAmount":
+          predictedAmount = p.getValueAsInt();
+          break;
+        case "currentAmount":
+          currentAmount = p.getValueAsInt();
+          break;
+        case "wasteTypes":
+          wasteTypes = readNames(p);
+          break;
+        case "wastes":
+          readWastes(p, wastes);
+          break;
+        case "time":
+          time = p.getValueAsInt();
+          break;
+        case "inventory":
+          inventory = new HashMap<>(readCounts(p));
+          break;
+        case "requestPolicy":
+          requestPolicy = p.getText();
+          break;
+        case "sourcePolicy":
+          sourcePolicy = p.getText();
+          break;
+        case "defaultRequestPolicy":
+          defaultRequestPolicy = p.getValueAsBoolean();
+          break;
+        case "defaultSourcePolicy":
+          defaultSourcePolicy = p.getValueAsBoolean();
+          break;
+        case "removeMark":
+          removeMark = p.getValueAsBoolean();
+          break;
+        case "queueLimit":
+          queueLimit = p.getValueAsInt();
+          break;
+        case "upstreamBacklogs":
+          expect(p, JsonToken.START_OBJECT, "an object of backlogs");
+          upstreamBacklogs = new LinkedHashMap<>();
+          while (p.nextToken() == JsonToken.FIELD_NAME) {
+            String product = p.getCurrentName();
+            p.nextToken();
+            upstreamBacklogs.put(product, readPair(p, "a measured backlog"));
+          }
+          break;
+        case "coordinate":
+          coordinate = readPair(p, "a building coordinate");
+          break;
+        case "sources":
+          readConnections(p, link.sources);
+          break;
+        case "wasteDisposals":
+          readConnections(p, link.wasteDisposals);
+          break;
+        case "requests":
+          expect(p, JsonToken.START_ARRAY, "an array of request ids");
+          while (p.nextToken() != JsonToken.END_ARRAY) {
+            link.requests.add(p.getValueAsInt());
+          }
+          break;
+        case "currReq":
+          link.currReq = p.getValueAsInt();
+          break;
+        case "deliveries":
+          readDeliveries(p, link.deliveries);
+          break;
+        case "drones":
+          readDrones(p, link.drones);
+          break;
+        default:
+          p.skipChildren();
+      }
+    }
+
+    Building building;
+    if (type != null) {
+      FactoryType factoryType = types.get(type);
+      if (factoryType == null) {
+        throw new IllegalArgumentException("Factory Type doesn't exist");
+      }
+      building = new Factory(name, new ArrayList<>(), factoryType);
+      for (Map.Entry<String, Integer> waste : wastes.entrySet()) {
+        ((Factory) building).addWaste(waste.getKey(), waste.getValue());
+      }
+    }
+    else if (mine != null) {
+      building = new Mine(name, new ArrayList<>(), recipes.get(mine));
+    }
+    else if (stores != null) {
+      building = new Storage(name, recipes.get(stores), new ArrayList<>(), capacity, remain, priority);
+    } else if (disposal) {
+      List<Recipe> wasteRecipes = new ArrayList<>();
+      for (String recipe : wasteTypes) {
+        wasteRecipes.add(recipes.get(recipe));
       }
-      if (buildingNode.has("currReq")) {
-        JsonNode currReqNode = buildingNode.get("currReq");
-        int currReqId = currReqNode.asInt();
-        buildings.get(name).setCurrReq(requests.get(currReqId));
+      building = new WasteDisposal(name, capacity, wasteRecipes, disposeAmount, disposeInterval, currentAmount, interval, predictedAmount);
+    }
+    // DronePort building
+    else {
+      building = new DronePort(name);
+    }
+    if (time != null) {
+      building.setTimeLeft(time);
+    }
+    if (inventory != null) {
+      building.setInventory(inventory);
+    }
+    if (requestPolicy != null) {
+      building.setRequestPolicy(requestPolicies.get(requestPolicy));
+    }
+    if (sourcePolicy != null) {
+      building.setSourcePolicy(sourcePolicies.get(sourcePolicy));
+    }
+    if (defaultRequestPolicy != null) {
+      building.setDefaultRequest(defaultRequestPolicy);
+    }
+    if (defaultSourcePolicy != null) {
+      building.setDefaultSource(defaultSourcePolicy);
+    }
+    if (removeMark != null) {
+      building.setRemoveMark(removeMark);
+    }
+    building.setQueueLimit(queueLimit);
+    if (upstreamBacklogs != null) {
+      for (Map.Entry<String, int[]> entry : upstreamBacklogs.entrySet()) {
+        building.setUpstreamBacklog(entry.getKey(), entry.getValue()[0], entry.getValue()[1]);
       }
     }
+    if (coordinate != null) {
+      building.setCoordinate(new Coordinate(coordinate[0], coordinate[1]));
+    }
+    if (!link.drones.isEmpty() && !(building instanceof DronePort)) {
+      throw new IllegalArgumentException("Invalid json file: '" + name + "' has 'drones' but is not a drone port building");
+    }
+    buildings.put(name, building);
+    link.building = building;
+    links.add(link);
   }
 
-  private void addDeliveries(JsonNode buildingsNode, Map<String, Building> buildings, Map<Integer, Request> requests) {
-    for (JsonNode buildingNode : buildingsNode) {
-      String name = buildingNode.get("name").asText();
-      JsonNode deliveriesNode = buildingNode.get("deliveries");
-      for (JsonNode deliveryNode : deliveriesNode) {
-        int id = deliveryNode.get("requestID").asInt();
-        int timeLeft = deliveryNode.get("timeleft").asInt();
-        Request r = requests.get(id);
-        buildings.get(name).addDelivery(r, timeLeft);
+  private void readWastes(JsonParser p, Map<String, Integer> wastes) throws IOException {
+    expect(p, JsonToken.START_ARRAY, "an array of wastes");
+    while (p.nextToken() != JsonToken.END_ARRAY) {
+      if (p.currentToken() != JsonToken.START_ARRAY) {
+        p.skipChildren();
+        continue;
+      }
+      List<String> pair = new ArrayList<>();
+      while (p.nextToken() != JsonToken.END_ARRAY) {
+        pair.add(p.getText());
+        p.skipChildren();
+      }
+      if (pair.size() == 2) {
+        wastes.merge(pair.get(0), Integer.parseInt(pair.get(1)), Integer::sum);
       }
     }
   }
 
-  private void addSourcesAndGraphPath(JsonNode buildingsNode, Map<String, Building> buildings, Map<Coordinate, Square> squares) {
-    for (JsonNode buildingNode : buildingsNode) {
-      String name = buildingNode.get("name").asText();
-      if (buildingNode.has("type") || buildingNode.has("stores")) {
-        Building building = buildings.get(name);
-        JsonNode sourcesNode = buildingNode.get("sources");
-        for (JsonNode sourceNode : sourcesNode) {
-          if (!sourceNode.isArray() || sourceNode.size() != 5) {
-            throw new IllegalArgumentException("Each source must be an array of 5 elements");
-          }
-          String sourceName = sourceNode.get(0).asText();
-          int startRow = sourceNode.get(1).asInt();
-          int startCol = sourceNode.get(2).asInt();
-          int endRow = sourceNode.get(3).asInt();
-          int endCol = sourceNode.get(4).asInt();
-          Building source = buildings.get(sourceName);
-          if (source == null) {
-            throw new IllegalArgumentException("Source building '" + sourceName + "' not found");
-          }
-          Coordinate startCoord = new Coordinate(startRow, startCol);
-          Coordinate endCoord = new Coordinate(endRow, endCol);
-          GraphPath path = new GraphPath();
-          path.addNode(source.getCoordinate(), 0);
-          Square startSquare = squares.get(startCoord);
-          Square endSquare = squares.get(endCoord);
-          if (startSquare.getClass() == Road.class && endSquare.getClass() == Road.class) {
-            Road curr = (Road) startSquare;
-            while (!curr.getCoordinate().equals(endCoord)) {
-              path.addNode(curr.getCoordinate(), 0);
-              int[] dir = curr.getDirection();
-              if (dir == null) {
-                throw new IllegalArgumentException("failed to create path from '" + sourceName + "' to '" + name + "'");
-              }
-              Coordinate currCoord = curr.getCoordinate();
-              Coordinate nextCoord = new Coordinate(currCoord.getRow() + dir[0], currCoord.getColumn() + dir[1]);
-              Square nextSquare = squares.get(nextCoord);
-              if (nextSquare == null || nextSquare.getClass() != Road.class) {
-                throw new IllegalArgumentException("failed to create path from '" + sourceName + "' to '" + name + "'");
-              }
-              curr = (Road) nextSquare;
-            }
-            path.addNode(curr.getCoordinate(), 0);
-          }
-          path.addNode(building.getCoordinate(), 0);
-          building.addSource(source, path);
+  /**
+   * A connection is either the name of the other building, in which case a route is
+   * searched when loading, or an array of 5 elements: the name and the first and last
+   * road squares of the saved route.
+   */
+  private void readConnections(JsonParser p, List<BuildingLinks.Connection> connections) throws IOException {
+    expect(p, JsonToken.START_ARRAY, "an array of sources");
+    while (p.nextToken() != JsonToken.END_ARRAY) {
+      if (p.currentToken() == JsonToken.VALUE_STRING) {
+        connections.add(new BuildingLinks.Connection(p.getText(), null));
+      } else {
+        if (p.currentToken() != JsonToken.START_ARRAY) {
+          throw new IllegalArgumentException("Each source must be an array of 5 elements");
+        }
+        List<String> values = new ArrayList<>();
+        while (p.nextToken() != JsonToken.END_ARRAY) {
+          values.add(p.getText());
+          p.skipChildren();
         }
+        if (values.size() != 5) {
+          throw new IllegalArgumentException("Each source must be an array of 5 elements");
+        }
+        int[] route = new int[4];
+        for (int i = 0; i < 4; i++) {
+          route[i] = Integer.parseInt(values.get(i + 1));
+        }
+        connections.add(new BuildingLinks.Connection(values.get(0), route));
       }
     }
   }
 
-  private void addDisposalsAndGraphPath(JsonNode buildingsNode, Map<String, Building> buildings, Map<Coordinate, Square> squares) {
-    for (JsonNode buildingNode : buildingsNode) {
-      String name = buildingNode.get("name").asText();
-      if (buildingNode.has("type")) {
-        Building building = buildings.get(name);
-        JsonNode disposalsNode = buildingNode.get("wasteDisposals");
-        for (JsonNode disposalNode : disposalsNode) {
-          if (!disposalNode.isArray() || disposalNode.size() != 5) {
-            throw new IllegalArgumentException("Each source must be an array of 5 elements");
-          }
-          String disposalName = disposalNode.get(0).asText();
-          int startRow = disposalNode.get(1).asInt();
-          int startCol = disposalNode.get(2).asInt();
-          int endRow = disposalNode.get(3).asInt();
-          int endCol = disposalNode.get(4).asInt();
-          Building wasteDisposal = buildings.get(disposalName);
-          if (wasteDisposal == null) {
-            throw new IllegalArgumentException("wasteDisposal building '" + disposalName + "' not found");
-          }
-          Coordinate startCoord = new Coordinate(startRow, startCol);
-          Coordinate endCoord = new Coordinate(endRow, endCol);
-          GraphPath path = new GraphPath();
-          path.addNode(wasteDisposal.getCoordinate(), 0);
-          Square startSquare = squares.get(startCoord);
-          Square endSquare = squares.get(endCoord);
-          if (startSquare.getClass() == Road.class && endSquare.getClass() == Road.class) {
-            Road curr = (Road) startSquare;
-            while (!curr.getCoordinate().equals(endCoord)) {
-              path.addNode(curr.getCoordinate(), 0);
-              int[] dir = curr.getDirection();
-              if (dir == null) {
-                throw new IllegalArgumentException("failed to create path from '" + disposalName + "' to '" + name + "'");
-              }
-              Coordinate currCoord = curr.getCoordinate();
-              Coordinate nextCoord = new Coordinate(currCoord.getRow() + dir[0], currCoord.getColumn() + dir[1]);
-              Square nextSquare = squares.get(nextCoord);
-              if (nextSquare == null || nextSquare.getClass() != Road.class) {
-                throw new IllegalArgumentException("failed to create path from '" + disposalName + "' to '" + name + "'");
-              }
-              curr = (Road) nextSquare;
-            }
-            path.addNode(curr.getCoordinate(), 0);
-          }
-          path.addNode(building.getCoordinate(), 0);
-          ((Factory) building).addWasteDisposal(wasteDisposal, path);
-        }     
+  private void readDeliveries(JsonParser p, List<int[]> deliveries) throws IOException {
+    expect(p, JsonToken.START_ARRAY, "an array of deliveries");
+    while (p.nextToken() == JsonToken.START_OBJECT) {
+      int[] delivery = new int[2];
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String field = p.getCurrentName();
+        p.nextToken();
+        if (field.equals("requestID")) {
+          delivery[0] = p.getValueAsInt();
+        } else if (field.equals("timeleft")) {
+          delivery[1] = p.getValueAsInt();
+        } else {
+          p.skipChildren();
+        }
       }
+      deliveries.add(delivery);
     }
   }
-  
-  private void addDrones(JsonNode buildingsNode, Map<String, Building> buildings, Map<Integer, Request> requests) {
-    for (JsonNode buildingNode : buildingsNode) {
-      if (buildingNode.has("drones")) {
-        String name = buildingNode.get("name").asText();
-        Building portBuilding = buildings.get(name);
-        if (portBuilding instanceof DronePort) {
-          DronePort port = (DronePort) portBuilding;
-          for (JsonNode droneNode : buildingNode.get("drones")) {
-            boolean inUse = droneNode.get("inUse").asBoolean();
-            if (inUse) {
-              JsonNode sourceNode = droneNode.get("source");
-              int row = sourceNode.get(0).asInt();
-              int col = sourceNode.get(1).asInt();
-              Coordinate source = new Coordinate(row, col);
-              Request request = requests.get(droneNode.get("requestID").asInt());
-              int currTime = droneNode.get("currTime").asInt();
-              port.addDrone(new Drone(port.getCoordinate(), source, request, currTime));
-            }
-            else {
-              port.addDrone(new Drone(port.getCoordinate()));
-            }
-          }
+
+  private void readDrones(JsonParser p, List<BuildingLinks.DroneState> drones) throws IOException {
+    expect(p, JsonToken.START_ARRAY, "an array of drones");
+    while (p.nextToken() == JsonToken.START_OBJECT) {
+      boolean inUse = false;
+      Coordinate source = null;
+      int requestId = 0;
+      int currTime = 0;
+      while (p.nextToken() == JsonToken.FIELD_NAME) {
+        String field = p.getCurrentName();
+        p.nextToken();
+        switch (field) {
+          case "inUse":
+            inUse = p.getValueAsBoolean();
+            break;
+          case "source":
+            int[] pair = readPair(p, "a drone source");
+            source = new Coordinate(pair[0], pair[1]);
+            break;
+          case "requestID":
+            requestId = p.getValueAsInt();
+            break;
+          case "currTime":
+            currTime = p.getValueAsInt();
+            break;
+          default:
+            p.skipChildren();
         }
-        else {
-          throw new IllegalArgumentException("Invalid json file: '" + name + "' has 'drones' but is not a drone port building");
-        }       
       }
+      drones.add(new BuildingLinks.DroneState(inUse, source, requestId, currTime));
     }
   }
-  
+
   /**
    * Retrieves the starting simulation cycle from the JSON configuration.
    * If the JSON does not specify a "cycle" field, this method returns 0.
    * @return the simulation cycle as defined in the JSON, or 0 if not specified
    */
+  @Override
   public int getCycle() {
-    if (rootNode.has("cycle")) {
-      return rootNode.get("cycle").asInt();
-    }
-    return 0;
+    return cycle;
+  }
+
+  /**
+   * Returns the id the next request gets, from the "requestId" field of a saved session.
+   * @return the next request id, or 0 if not specified
+   */
+  @Override
+  public int getRequestId() {
+    return requestId;
   }
 }
@@ -0,0 +1,66 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * An EventSink that writes one JSON object per event, one event per line.
+ *
+ * Each object has a "type" (lower case event type), a "cycle" and the event's
+ * fields, e.g. {"type":"order_complete","cycle":25,"order":0,"item":"door"}.
+ */
+public class JsonLinesEventSink implements EventSink {
+  private final Writer writer;
+  private final JsonGenerator generator;
+
+  /**
+   * Creates a sink writing to the given writer. The writer is not closed by the sink.
+   *
+   * @param writer the destination of the JSON lines
+   */
+  public JsonLinesEventSink(Writer writer) {
+    this.writer = writer;
+    try {
+      JsonFactory factory = new ObjectMapper().getFactory();
+      this.generator = factory.createGenerator(writer);
+      this.generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      this.generator.disable(JsonGenerator.Feature.FLUSH_PASSED_TO_STREAM);
+      this.generator.setRootValueSeparator(null);
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void accept(SimulationEvent event) {
+    try {
+      generator.writeStartObject();
+      generator.writeStringField("type", event.getType().name().toLowerCase());
+      generator.writeNumberField("cycle", event.getCycle());
+      for (Map.Entry<String, Object> field : event.getFields().entrySet()) {
+        generator.writeFieldName(field.getKey());
+        generator.writeObject(field.getValue());
+      }
+      generator.writeEndObject();
+      generator.writeRaw('\n');
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+
+  @Override
+  public void flush() {
+    try {
+      generator.flush();
+      writer.flush();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
+}
@@ -1,24 +1,33 @@
 package edu.duke.ece651.simulationserver;
 
-import java.io.File;
+import java.io.BufferedOutputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
+import java.util.Set;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
-import com.fasterxml.jackson.databind.node.ArrayNode;
-import com.fasterxml.jackson.databind.node.ObjectNode;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
 
 /**
  * The JsonSaver class is responsible for saving the current state of the simulation
  * to a JSON file. It serializes the simulation data including recipes, factory types, buildings,
  * and requests, along with metadata such as the current simulation cycle and the request ID generator value.
  * 
- * This class uses Jackson's ObjectMapper to create a formatted JSON representation of the simulation state.
+ * The state is streamed through a Jackson JsonGenerator as it is read from the simulation, so
+ * saving needs no memory in proportion to the size of the file. The output is compact unless
+ * pretty printing is asked for.
  * 
  */
 public class JsonSaver {
+  private static final JsonFactory FACTORY = new JsonFactory();
+
   private Map<String, Recipe> recipes;
   private Map<String, FactoryType> types;
   private Map<String, Building> buildings;
@@ -33,7 +42,8 @@ public class JsonSaver {
    * @param recipes   a map of recipe outputs to Recipe objects representing the simulation's recipes
    * @param types     a map of factory type names to FactoryType objects used in the simulation
    * @param buildings a map of building names to Building objects representing all buildings in the simulation
-   * @param requests  a list of Request objects representing all the requests in the simulation
+   * @param requests  a list of Request objects representing all the requests in the simulation,
+   *                  each written once per unit
    * @param requestId the current request ID value (used to initialize the request ID generator)
    * @param cycle     the current simulation cycle
    */
@@ -47,339 +57,446 @@ public class JsonSaver {
     this.recipes = recipes;
     this.types = types;
     this.buildings = buildings;
-    this.requests = requests;
+    // a request for several units is saved as a request per unit
+    this.requests = new ArrayList<>();
+    for (Request request : requests) {
+      this.requests.addAll(request.getUnits());
+    }
     this.requestId = requestId;
     this.cycle = cycle;
     this.paths = paths;
   }
 
+  /**
+   * Saves the current simulation state to a compact JSON file with the specified file name.
+   *
+   * @param fileName the name (or path) of the file to save the simulation state to
+   * @throws IOException if an I/O error occurs while writing the file
+   */
+  public void saveToFile(String fileName) throws IOException {
+    saveToFile(fileName, false);
+  }
+
   /**
    * Saves the current simulation state to a JSON file with the specified file name.
    * 
    * The JSON output includes the current request ID, simulation cycle, and arrays for recipes, types,
-   * buildings, and requests. Each building's state (such as its inventory, policies, and current request)
+   * buildings, requests and roads. Each building's state (such as its inventory, policies, and current request)
    * is also included.
    *
    * @param fileName the name (or path) of the file to save the simulation state to
+   * @param pretty   true to indent the output, false for compact output
    * @throws IOException if an I/O error occurs while writing the file
    */
-  public void saveToFile(String fileName) throws IOException {
-    ObjectMapper mapper = new ObjectMapper();
-
-    ObjectNode rootNode = mapper.createObjectNode();
-
-    rootNode.put("requestId", requestId);
-
-    rootNode.put("cycle", cycle);
-    
-    ArrayNode recipesArray = createRecipesArray(mapper);
-    rootNode.set("recipes", recipesArray);
-
-    ArrayNode typesArray = createTypesArray(mapper);
-    rootNode.set("types", typesArray);
-
-    ArrayNode buildingsArray = createBuildingsArray(mapper);
-    rootNode.set("buildings", buildingsArray);
-
-    ArrayNode requestsArray = createRequestsArray(mapper);
-    rootNode.set("requests", requestsArray);
+  public void saveToFile(String fileName, boolean pretty) throws IOException {
+    try (OutputStream out = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16)) {
+      write(out, pretty);
+    }
+  }
 
-    ArrayNode pathsArray = createPathsArray(mapper);
-    rootNode.set("roads", pathsArray);
-    
-    mapper.writerWithDefaultPrettyPrinter().writeValue(new File(fileName), rootNode);
+  /**
+   * Writes the simulation state as JSON to a stream, which is left open.
+   *
+   * @param out    the stream to write to
+   * @param pretty true to indent the output, false for compact output
+   * @throws IOException if an I/O error occurs while writing
+   */
+  public void write(OutputStream out, boolean pretty) throws IOException {
+    try (JsonGenerator g = FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+      g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      if (pretty) {
+        g.useDefaultPrettyPrinter();
+      }
+      g.writeStartObject();
+      g.writeNumberField("requestId", requestId);
+      g.writeNumberField("cycle", cycle);
+      g.writeFieldName("recipes");
+      writeRecipes(g);
+      g.writeFieldName("types");
+      writeTypes(g);
+      g.writeFieldName("buildings");
+      writeBuildings(g);
+      g.writeFieldName("requests");
+      writeRequests(g);
+      g.writeFieldName("roads");
+      writeRoads(g);
+      g.writeEndObject();
+    }
   }
   
   /**
-   * Creates a JSON array representing all recipes in the simulation.
+   * Writes a JSON array representing all recipes in the simulation.
    *
-   * @param mapper the ObjectMapper used for creating JSON nodes
-   * @return an ArrayNode where each element is a JSON object representing a recipe
+   * @param g the generator to write to
    */
-  private ArrayNode createRecipesArray(ObjectMapper mapper) {
-    ArrayNode recipesArray = mapper.createArrayNode();
+  private void writeRecipes(JsonGenerator g) throws IOException {
+    g.writeStartArray();
     for (Recipe recipe : recipes.values()) {
-      ObjectNode recipeNode = mapper.createObjectNode();
-      recipeNode.put("output", recipe.getOutput());
-      recipeNode.put("latency", recipe.getLatency());
-      recipeNode.put("waste", recipe.getWaste());
-      recipeNode.put("wasteAmount", recipe.getWasteAmount());
-      
-      ObjectNode ingredientsNode = mapper.createObjectNode();
+      g.writeStartObject();
+      g.writeStringField("output", recipe.getOutput());
+      g.writeNumberField("latency", recipe.getLatency());
+      g.writeStringField("waste", recipe.getWaste());
+      g.writeNumberField("wasteAmount", recipe.getWasteAmount());
+      g.writeObjectFieldStart("ingredients");
       for (Map.Entry<String, Integer> entry : recipe.getIngredients().entrySet()) {
-        ingredientsNode.put(entry.getKey(), entry.getValue());
+        g.writeNumberField(entry.getKey(), entry.getValue());
       }
-      recipeNode.set("ingredients", ingredientsNode);
-
-      recipesArray.add(recipeNode);
+      g.writeEndObject();
+      g.writeEndObject();
     }
-    return recipesArray;
+    g.writeEndArray();
   }
 
   /**
-   * Creates a JSON array representing all factory types in the simulation.
+   * Writes a JSON array representing all factory types in the simulation, each with
+   * its name and the outputs of its associated recipes.
    *
-   * @param mapper the ObjectMapper used for creating JSON nodes
-   * @return an ArrayNode where each element is a JSON object representing a factory type,
-   *         including its name and the outputs of its associated recipes
+   * @param g the generator to write to
    */
-  private ArrayNode createTypesArray(ObjectMapper mapper) {
-    ArrayNode typesArray = mapper.createArrayNode();
+  private void writeTypes(JsonGenerator g) throws IOException {
+    g.writeStartArray();
     for (FactoryType type : types.values()) {
-      ObjectNode typeNode = mapper.createObjectNode();
-      typeNode.put("name", type.getName());
-      ArrayNode typeRecipesArray = mapper.createArrayNode();
+      g.writeStartObject();
+      g.writeStringField("name", type.getName());
+      g.writeArrayFieldStart("recipes");
       for (Recipe recipe : type.getRecipes()) {
-        typeRecipesArray.add(recipe.getOutput()); 
+        g.writeString(recipe.getOutput());
       }
-      typeNode.set("recipes", typeRecipesArray);
-
-      typesArray.add(typeNode);
+      g.writeEndArray();
+      g.writeEndObject();
     }
-    return typesArray;
+    g.writeEndArray();
   }
 
   /**
-   * Creates a JSON array representing all buildings in the simulation.
+   * Writes a JSON array representing all buildings in the simulation.
    * 
    * For each building, the JSON object includes the building's name, type (or mine output),
    * list of sources, associated requests, inventory, policies, default policy flags, current request,
    * and time left (if applicable).
    *
-   * @param mapper the ObjectMapper used for creating JSON nodes
-   * @return an ArrayNode where each element is a JSON object representing a building
+   * @param g the generator to write to
    */
-  private ArrayNode createBuildingsArray(ObjectMapper mapper) {
-    ArrayNode buildingsArray = mapper.createArrayNode();
+  private void writeBuildings(JsonGenerator g) throws IOException {
+    g.writeStartArray();
     for (Building building : buildings.values()) {
-      ObjectNode buildingNode = mapper.createObjectNode();
-      buildingNode.put("name", building.getName());
-      buildingNode.put("removeMark", building.getRemoveMark());
-      if (building instanceof Factory) {
-        Factory factory = (Factory) building;
-        buildingNode.put("type", factory.getFactoryType().getName());
-        ArrayNode sourcesArray = mapper.createArrayNode();
-        
-        for (Map.Entry<Building, GraphPath> entry : factory.getSourceMap().entrySet()) {
-          Building src = entry.getKey();
-          GraphPath path = entry.getValue();
-          ArrayNode item = mapper.createArrayNode();
-          item.add(src.getName());
-          if (path == null || path.getFirst() == null) continue;
-          item.add(path.getSecond().getRow());
-          item.add(path.getSecond().getColumn());
-          item.add(path.getSecondLast().getRow());
-          item.add(path.getSecondLast().getColumn());
-          sourcesArray.add(item);
-        }
-        buildingNode.set("sources", sourcesArray);
+      writeBuilding(g, building);
+    }
+    g.writeEndArray();
+  }
 
-        ArrayNode wastesArray = mapper.createArrayNode();
-        for (Map.Entry<String, Integer> entry : factory.getWastes().entrySet()) {
-          ArrayNode pair = mapper.createArrayNode();
-          pair.add(entry.getKey());
-          pair.add(entry.getValue());
-          wastesArray.add(pair);
-        }
-        buildingNode.set("wastes", wastesArray);
-        
-        ArrayNode wasteDisposalsArray = mapper.createArrayNode();
-        for (Map.Entry<WasteDisposal, GraphPath> entry : factory.getWasteDisposals().entrySet()) {
-          WasteDisposal src = entry.getKey();
-          GraphPath path = entry.getValue();
-          ArrayNode item = mapper.createArrayNode();
-          item.add(src.getName());
-          if (path == null || path.getFirst() == null) continue;
-          item.add(path.getSecond().getRow());
-          item.add(path.getSecond().getColumn());
-          item.add(path.getSecondLast().getRow());
-          item.add(path.getSecondLast().getColumn());
-          wasteDisposalsArray.add(item);
-        }
-        buildingNode.set("wasteDisposals", wasteDisposalsArray);
-        
-      }
-      else if (building instanceof Mine) { 
-        Mine mine = (Mine) building;
-        buildingNode.put("mine", mine.getRecipe().getOutput());
+  private static void writeBuilding(JsonGenerator g, Building building) throws IOException {
+    g.writeStartObject();
+    g.writeStringField("name", building.getName());
+    g.writeBooleanField("removeMark", building.getRemoveMark());
+    if (building instanceof Factory) {
+      Factory factory = (Factory) building;
+      g.writeStringField("type", factory.getFactoryType().getName());
+      g.writeFieldName("sources");
+      writeConnections(g, factory.getSourceMap());
+
+      g.writeArrayFieldStart("wastes");
+      for (Map.Entry<String, Integer> entry : factory.getWastes().entrySet()) {
+        g.writeStartArray();
+        g.writeString(entry.getKey());
+        g.writeNumber(entry.getValue());
+        g.writeEndArray();
       }
-      else if (building instanceof Storage) {
-        Storage storage = (Storage) building;
-        buildingNode.put("stores", storage.getRecipe().getOutput());
-        buildingNode.put("capacity", storage.getCapacity());
-        buildingNode.put("priority", storage.getPriority());
-        buildingNode.put("frequency", storage.getFreq());
-        buildingNode.put("remain", storage.getRemain());
-        buildingNode.put("amount", storage.getAmount());
-        ArrayNode sourcesArray = mapper.createArrayNode();
-        //for (Building src : storage.getSources()) {
-        // sourcesArray.add(src.getName());
-        //}
-        
-        for (Map.Entry<Building, GraphPath> entry : storage.getSourceMap().entrySet()) {
-          Building src = entry.getKey();
-          GraphPath path = entry.getValue();
-          ArrayNode item = mapper.createArrayNode();
-          item.add(src.getName());
-          if (path == null || path.getFirst() == null) continue;
-          item.add(path.getSecond().getRow());
-          item.add(path.getSecond().getColumn());
-          item.add(path.getSecondLast().getRow());
-          item.add(path.getSecondLast().getColumn());
-          sourcesArray.add(item);
-        }
-        
-        buildingNode.set("sources", sourcesArray);
-      } else if ( building instanceof WasteDisposal) {
-        WasteDisposal disposal = (WasteDisposal) building;
-        buildingNode.put("capacity", disposal.getCapacity()); 
-        buildingNode.put("currentAmount", disposal.getCurrentAmount());
-    
-        ArrayNode wasteTypesArray = mapper.createArrayNode();
-        for (Recipe recipe : disposal.getWasteTypes()) {
-          wasteTypesArray.add(recipe.getOutput()); 
-        }
-        buildingNode.set("wasteTypes", wasteTypesArray);
-        buildingNode.put("disposeAmount", disposal.getDisposeAmount());
-        buildingNode.put("disposeInterval", disposal.getDisposeInterval());
-        buildingNode.put("interval", disposal.getInterval());
-        buildingNode.put("predictedAmount", disposal.getPredictedAmount());
+      g.writeEndArray();
+
+      g.writeFieldName("wasteDisposals");
+      writeConnections(g, factory.getWasteDisposals());
+    }
+    else if (building instanceof Mine) { 
+      Mine mine = (Mine) building;
+      g.writeStringField("mine", mine.getRecipe().getOutput());
+    }
+    else if (building instanceof Storage) {
+      Storage storage = (Storage) building;
+      g.writeStringField("stores", storage.getRecipe().getOutput());
+      g.writeNumberField("capacity", storage.getCapacity());
+      g.writeNumberField("priority", storage.getPriority());
+      g.writeNumberField("frequency", storage.getFreq());
+      g.writeNumberField("remain", storage.getRemain());
+      g.writeNumberField("amount", storage.getAmount());
+      g.writeFieldName("sources");
+      writeConnections(g, storage.getSourceMap());
+    } else if ( building instanceof WasteDisposal) {
+      WasteDisposal disposal = (WasteDisposal) building;
+      g.writeNumberField("capacity", disposal.getCapacity()); 
+      g.writeNumberField("currentAmount", disposal.getCurrentAmount());
+      g.writeArrayFieldStart("wasteTypes");
+      for (Recipe recipe : disposal.getWasteTypes()) {
+        g.writeString(recipe.getOutput()); 
       }
-      // DronePort building
-      else {
-        DronePort dronePort = (DronePort) building;
-        List<Drone> drones = dronePort.getDrones();
-        ArrayNode dronesArray = mapper.createArrayNode();
-        for (Drone drone : drones) {
-          ObjectNode droneNode = mapper.createObjectNode();
-          droneNode.put("inUse", drone.isInUse());
-          if (drone.isInUse()) {
-            ArrayNode srcArray = mapper.createArrayNode();
-            srcArray.add(drone.getSource().getRow());
-            srcArray.add(drone.getSource().getColumn());
-            droneNode.set("source", srcArray);
-            droneNode.put("requestID", drone.getRequest().getId());
-            droneNode.put("currTime", drone.getTime());
-          }
-          ArrayNode coordArray = mapper.createArrayNode();
-          coordArray.add(drone.getRow());
-          coordArray.add(drone.getColumn());
-          droneNode.set("coordinate", coordArray);
-          dronesArray.add(droneNode);
+      g.writeEndArray();
+      g.writeNumberField("disposeAmount", disposal.getDisposeAmount());
+      g.writeNumberField("disposeInterval", disposal.getDisposeInterval());
+      g.writeNumberField("interval", disposal.getInterval());
+      g.writeNumberField("predictedAmount", disposal.getPredictedAmount());
+    }
+    // DronePort building
+    else {
+      DronePort dronePort = (DronePort) building;
+      g.writeArrayFieldStart("drones");
+      for (Drone drone : dronePort.getDrones()) {
+        g.writeStartObject();
+        g.writeBooleanField("inUse", drone.isInUse());
+        if (drone.isInUse()) {
+          g.writeFieldName("source");
+          writeCoordinate(g, drone.getSource().getRow(), drone.getSource().getColumn());
+          g.writeNumberField("requestID", drone.getRequest().getId());
+          g.writeNumberField("currTime", drone.getTime());
         }
-        buildingNode.set("drones", dronesArray);
+        g.writeArrayFieldStart("coordinate");
+        g.writeNumber(drone.getRow());
+        g.writeNumber(drone.getColumn());
+        g.writeEndArray();
+        g.writeEndObject();
       }
+      g.writeEndArray();
+    }
 
-      ArrayNode requestIdsArray = mapper.createArrayNode();
-      Queue<Request> requests_b = building.getRequests();
-      for (Request req : requests_b) {
-        requestIdsArray.add(req.getId());
+    g.writeArrayFieldStart("requests");
+    Queue<Request> requests_b = building.getRequests();
+    for (Request req : requests_b) {
+      for (int unitId : req.getUnitIds()) {
+        g.writeNumber(unitId);
       }
+    }
+    g.writeEndArray();
 
-      buildingNode.set("requests", requestIdsArray);
-      Map<String, Integer> inventory = building.getInventory();
-      ObjectNode inventoryNode = mapper.createObjectNode();
-      for (Map.Entry<String, Integer> entry : inventory.entrySet()) {
-        inventoryNode.put(entry.getKey(), entry.getValue());
-      }
-      buildingNode.set("inventory", inventoryNode);
-      
-      buildingNode.put("requestPolicy",building.getRequestPolicy().getRequestPolicyName());
-      buildingNode.put("sourcePolicy", building.getSourcePolicy().getSourcePolicyName());
+    g.writeObjectFieldStart("inventory");
+    for (Map.Entry<String, Integer> entry : building.getInventory().entrySet()) {
+      g.writeNumberField(entry.getKey(), entry.getValue());
+    }
+    g.writeEndObject();
+    
+    g.writeStringField("requestPolicy",building.getRequestPolicy().getRequestPolicyName());
+    g.writeStringField("sourcePolicy", building.getSourcePolicy().getSourcePolicyName());
 
-      buildingNode.put("defaultRequestPolicy", building.usingDefaultRequestPolicy());
-      buildingNode.put("defaultSourcePolicy", building.usingDefaultSourcePolicy());
-      
-      if (building.getCurrRequest() != null) {
-        buildingNode.put("currReq", building.getCurrRequest().getId());
-        buildingNode.put("time", building.getTimeLeft());
+    g.writeBooleanField("defaultRequestPolicy", building.usingDefaultRequestPolicy());
+    g.writeBooleanField("defaultSourcePolicy", building.usingDefaultSourcePolicy());
+    if (building.getQueueLimit() > 0) {
+      g.writeNumberField("queueLimit", building.getQueueLimit());
+    }
+    if (!building.getUpstreamBacklogs().isEmpty()) {
+      g.writeObjectFieldStart("upstreamBacklogs");
+      for (Map.Entry<String, int[]> entry : building.getUpstreamBacklogs().entrySet()) {
+        g.writeFieldName(entry.getKey());
+        g.writeArray(entry.getValue(), 0, 2);
       }
+      g.writeEndObject();
+    }
+    
+    if (building.getCurrRequest() != null) {
+      g.writeNumberField("currReq", building.getCurrRequest().getId());
+      g.writeNumberField("time", building.getTimeLeft());
+    }
 
-      if (building.getCoordinate() != null) {
-        ArrayNode coordinateArray = mapper.createArrayNode();
-        coordinateArray.add(building.getCoordinate().getRow());
-        coordinateArray.add(building.getCoordinate().getColumn());
-        buildingNode.set("coordinate", coordinateArray);
-      }
+    if (building.getCoordinate() != null) {
+      g.writeFieldName("coordinate");
+      writeCoordinate(g, building.getCoordinate().getRow(), building.getCoordinate().getColumn());
+    }
 
-      Map<Request, Integer> deliveries = building.getDeliveries();
-      ArrayNode deliveriesArray = mapper.createArrayNode();
-      
-      for (Map.Entry<Request, Integer> entry : deliveries.entrySet()) {
-        Request req = entry.getKey();
-        if (req.getRequester() != null) {
-          ObjectNode deliveryNode = mapper.createObjectNode();
-          deliveryNode.put("requestID", req.getId());
-          deliveryNode.put("timeleft", entry.getValue());
-          deliveryNode.put("requester", req.getRequester().getName());
-          Coordinate coord = building.getRequestLocation(req);
-          if (coord != null) {
-            ArrayNode coordArray = mapper.createArrayNode();
-            coordArray.add(coord.getRow());
-            coordArray.add(coord.getColumn());
-            deliveryNode.set("coordinate", coordArray);
-          }
-          deliveriesArray.add(deliveryNode);
+    g.writeArrayFieldStart("deliveries");
+    for (Map.Entry<Request, Integer> entry : building.getDeliveries().entrySet()) {
+      Request req = entry.getKey();
+      if (req.getRequester() != null) {
+        g.writeStartObject();
+        g.writeNumberField("requestID", req.getId());
+        g.writeNumberField("timeleft", entry.getValue());
+        g.writeStringField("requester", req.getRequester().getName());
+        Coordinate coord = building.getRequestLocation(req);
+        if (coord != null) {
+          g.writeFieldName("coordinate");
+          writeCoordinate(g, coord.getRow(), coord.getColumn());
         }
+        g.writeEndObject();
       }
-      
-      buildingNode.set("deliveries", deliveriesArray);
-      
-      buildingsArray.add(buildingNode);
     }
-    return buildingsArray;
+    g.writeEndArray();
+    
+    g.writeEndObject();
+  }
+
+  /**
+   * Writes the sources (or waste disposals) of a building: for each, an array of the
+   * other building's name and the first and last road squares of the route. Connections
+   * without a route are left out.
+   *
+   * @param g           the generator to write to
+   * @param connections the connected buildings and their routes
+   */
+  private static void writeConnections(JsonGenerator g, Map<? extends Building, GraphPath> connections) throws IOException {
+    g.writeStartArray();
+    for (Map.Entry<? extends Building, GraphPath> entry : connections.entrySet()) {
+      GraphPath path = entry.getValue();
+      if (path == null || path.getFirst() == null) continue;
+      g.writeStartArray();
+      g.writeString(entry.getKey().getName());
+      g.writeNumber(path.getSecond().getRow());
+      g.writeNumber(path.getSecond().getColumn());
+      g.writeNumber(path.getSecondLast().getRow());
+      g.writeNumber(path.getSecondLast().getColumn());
+      g.writeEndArray();
+    }
+    g.writeEndArray();
+  }
+
+  private static void writeCoordinate(JsonGenerator g, int row, int column) throws IOException {
+    g.writeStartArray();
+    g.writeNumber(row);
+    g.writeNumber(column);
+    g.writeEndArray();
   }
 
   /**
-   * Creates a JSON array representing all requests in the simulation.
+   * Writes a JSON array representing all requests in the simulation.
    * 
    * Each request JSON object includes the request ID, recipe output, requester (if any),
    * current state, and a flag indicating whether the request was initiated by a user.
    * 
-   * @param mapper the ObjectMapper used for creating JSON nodes
-   * @return an ArrayNode where each element is a JSON object representing a request
+   * @param g the generator to write to
    */
-  private ArrayNode createRequestsArray(ObjectMapper mapper) {
-    ArrayNode requestsArray = mapper.createArrayNode();
+  private void writeRequests(JsonGenerator g) throws IOException {
+    g.writeStartArray();
     for (Request request : requests) {
-      ObjectNode requestNode = mapper.createObjectNode();
-      requestNode.put("id", request.getId());
-      if (request instanceof wasteRequest) {
-        requestNode.put("amount", ((wasteRequest) request).getAmount());
-      } else {
-        requestNode.put("recipe", request.getRecipe().getOutput());
-      }
-
-      if (request.getRequester() != null) {
-        requestNode.put("requester", request.getRequester().getName());
-      }
-      
-      requestNode.put("state", request.getState().name());
+      writeRequest(g, request, request.getId());
+    }
+    g.writeEndArray();
+  }
 
-      requestNode.put("isUserRequest", request.isUserRequest());
+  /**
+   * Writes a request for one unit, or a unit of a request for several.
+   *
+   * @param id the id of the unit
+   */
+  private static void writeRequest(JsonGenerator g, Request request, int id) throws IOException {
+    g.writeStartObject();
+    g.writeNumberField("id", id);
+    if (request instanceof wasteRequest) {
+      g.writeNumberField("amount", ((wasteRequest) request).getAmount());
+    } else {
+      g.writeStringField("recipe", request.getRecipe().getOutput());
+    }
 
-      requestsArray.add(requestNode);
+    if (request.getRequester() != null) {
+      g.writeStringField("requester", request.getRequester().getName());
     }
-    return requestsArray;
+    
+    g.writeStringField("state", request.getState().name());
+
+    g.writeBooleanField("isUserRequest", request.isUserRequest());
+
+    g.writeEndObject();
   }
 
-  private ArrayNode createPathsArray(ObjectMapper mapper) {
-    ArrayNode pathsArray = mapper.createArrayNode();
+  private void writeRoads(JsonGenerator g) throws IOException {
+    g.writeStartArray();
     for (Road path : paths) {
-      ObjectNode pathNode = mapper.createObjectNode();
-      ArrayNode coordinateArray = mapper.createArrayNode();
-      coordinateArray.add(path.getCoordinate().getRow());
-      coordinateArray.add(path.getCoordinate().getColumn());
-      pathNode.set("coordinate", coordinateArray);
-      int[] direction = path.getDirection();
-      if (direction != null) {
-        ArrayNode directionArray = mapper.createArrayNode();
-        directionArray.add(direction[0]);
-        directionArray.add(direction[1]);
-        pathNode.set("direction", directionArray);
+      writeRoad(g, path);
+    }
+    g.writeEndArray();
+  }
+
+  private static void writeRoad(JsonGenerator g, Road path) throws IOException {
+    g.writeStartObject();
+    g.writeFieldName("coordinate");
+    writeCoordinate(g, path.getCoordinate().getRow(), path.getCoordinate().getColumn());
+    int[] direction = path.getDirection();
+    if (direction != null) {
+      g.writeFieldName("direction");
+      writeCoordinate(g, direction[0], direction[1]);
+    }
+    g.writeEndObject();
+  }
+
+  /**
+   * Writes what changed in a simulation as JSON to a stream, which is left open:
+   *
+   * <pre>
+   * {"cycle": 42, "requestId": 310,
+   *  "buildings": [changed or added buildings], "removedBuildings": [names],
+   *  "requests": [changed or added requests], "removedRequests": [ids],
+   *  "roads": [changed or added roads], "removedRoads": [coordinates]}
+   * </pre>
+   *
+   * Buildings, requests and roads are written as a save writes them. Only the changed
+   * buildings are looked at: a request that is still there is held by a building that
+   * changed when the request came to it.
+   *
+   * @param out       the stream to write to
+   * @param changes   what changed
+   * @param buildings the simulation's buildings by name
+   * @param squares   the simulation's squares, its roads among them
+   * @param requestId the id of the next request
+   * @param cycle     the current cycle
+   * @throws IOException if an I/O error occurs while writing
+   */
+  static void writeChanges(OutputStream out, StateChanges changes, Map<String, Building> buildings,
+      Map<Coordinate, Square> squares, int requestId, int cycle) throws IOException {
+    try (JsonGenerator g = FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+      g.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+      g.writeStartObject();
+      g.writeNumberField("cycle", cycle);
+      g.writeNumberField("requestId", requestId);
+
+      List<Building> changed = new ArrayList<>();
+      g.writeArrayFieldStart("buildings");
+      for (String name : changes.getBuildings()) {
+        Building building = buildings.get(name);
+        if (building != null) {
+          changed.add(building);
+          writeBuilding(g, building);
+        }
+      }
+      g.writeEndArray();
+      g.writeArrayFieldStart("removedBuildings");
+      for (String name : changes.getBuildings()) {
+        if (!buildings.containsKey(name)) {
+          g.writeString(name);
+        }
+      }
+      g.writeEndArray();
+
+      Set<Integer> found = new HashSet<>();
+      g.writeArrayFieldStart("requests");
+      for (Building building : changed) {
+        List<Request> held = new ArrayList<>(building.getRequests());
+        held.addAll(building.getDeliveries().keySet());
+        for (Request request : held) {
+          for (int id : request.getUnitIds()) {
+            if (changes.getRequests().contains(id) && found.add(id)) {
+              writeRequest(g, request, id);
+            }
+          }
+        }
+      }
+      g.writeEndArray();
+      g.writeArrayFieldStart("removedRequests");
+      for (int id : changes.getRequests()) {
+        if (!found.contains(id)) {
+          g.writeNumber(id);
+        }
+      }
+      g.writeEndArray();
+
+      g.writeArrayFieldStart("roads");
+      for (Coordinate c : changes.getRoads()) {
+        if (squares.get(c) instanceof Road) {
+          writeRoad(g, (Road) squares.get(c));
+        }
+      }
+      g.writeEndArray();
+      g.writeArrayFieldStart("removedRoads");
+      for (Coordinate c : changes.getRoads()) {
+        if (!(squares.get(c) instanceof Road)) {
+          writeCoordinate(g, c.getRow(), c.getColumn());
+        }
       }
-      pathsArray.add(pathNode);
+      g.writeEndArray();
+      g.writeEndObject();
     }
-    return pathsArray;
   }
 }
@@ -0,0 +1,51 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An EventSink that keeps every event it receives in memory. Mostly useful in tests.
+ */
+public class MemoryEventSink implements EventSink {
+  private final List<SimulationEvent> events = new ArrayList<>();
+
+  @Override
+  public synchronized void accept(SimulationEvent event) {
+    events.add(event);
+  }
+
+  /**
+   * Returns a copy of the events received so far, in order.
+   */
+  public synchronized List<SimulationEvent> getEvents() {
+    return new ArrayList<>(events);
+  }
+
+  /**
+   * Returns the events of the given type received so far, in order.
+   */
+  public synchronized List<SimulationEvent> getEvents(EventType type) {
+    List<SimulationEvent> ans = new ArrayList<>();
+    for (SimulationEvent e : events) {
+      if (e.getType() == type) {
+        ans.add(e);
+      }
+    }
+    return ans;
+  }
+
+  /**
+   * Returns the received events rendered the same way TextEventSink renders them.
+   */
+  public synchronized String getText() {
+    StringBuilder sb = new StringBuilder();
+    for (SimulationEvent e : events) {
+      sb.append(TextEventSink.format(e));
+    }
+    return sb.toString();
+  }
+
+  public synchronized void clear() {
+    events.clear();
+  }
+}
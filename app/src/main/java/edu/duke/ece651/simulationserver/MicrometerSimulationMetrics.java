@@ -0,0 +1,255 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.function.ToDoubleFunction;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.MultiGauge;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+
+/**
+ * SimulationMetrics backed by a Micrometer registry, exported through the actuator
+ * (/actuator/metrics and /actuator/prometheus).
+ *
+ * Timers are recorded on the engine's hot paths. Per building and per session
+ * values are gauges: they are copied from the simulation once per session command
+ * and only read when the registry is scraped, so a scrape never touches a simulation
+ * that is being stepped.
+ */
+public class MicrometerSimulationMetrics implements SimulationMetrics {
+  private final MeterRegistry registry;
+  private final Timer cycleTimer;
+  private final Timer routeTimer;
+  private final Timer saveTimer;
+  private final Timer loadTimer;
+  private final ConcurrentMap<String, Timer> sourceTimers;
+  private final ConcurrentMap<String, Timer> requestTimers;
+  private final ConcurrentMap<String, Counter> rejectionCounters;
+  private final ConcurrentMap<Integer, SessionState> sessions;
+  private final MultiGauge queueLength;
+  private final MultiGauge utilization;
+  private final MultiGauge busyCycles;
+  private final MultiGauge idleCycles;
+  private final MultiGauge inventorySize;
+  private final MultiGauge deliveriesInFlight;
+  private final MultiGauge dronesInFlight;
+  private final MultiGauge currentCycle;
+  private long lastRateCount;
+  private long lastRateTime;
+
+  public MicrometerSimulationMetrics(MeterRegistry registry) {
+    this.registry = registry;
+    cycleTimer = Timer.builder("simulation.cycle")
+        .description("Time to simulate one cycle")
+        .publishPercentileHistogram()
+        .register(registry);
+    routeTimer = Timer.builder("simulation.route")
+        .description("Time to compute a route between two buildings")
+        .register(registry);
+    saveTimer = Timer.builder("simulation.persistence")
+        .description("Time to save or load a simulation")
+        .tags("operation", "save")
+        .register(registry);
+    loadTimer = Timer.builder("simulation.persistence")
+        .description("Time to save or load a simulation")
+        .tags("operation", "load")
+        .register(registry);
+    sourceTimers = new ConcurrentHashMap<>();
+    requestTimers = new ConcurrentHashMap<>();
+    rejectionCounters = new ConcurrentHashMap<>();
+    sessions = new ConcurrentHashMap<>();
+    Gauge.builder("simulation.cycles.rate", this, MicrometerSimulationMetrics::cyclesPerSecond)
+        .description("Cycles simulated per second since the previous read")
+        .register(registry);
+    queueLength = multiGauge("simulation.building.queue.length", "Requests queued at a building", "requests");
+    utilization = multiGauge("simulation.building.utilization", "Fraction of cycles a building spent working", null);
+    busyCycles = multiGauge("simulation.building.busy.cycles", "Cycles a building spent working", "cycles");
+    idleCycles = multiGauge("simulation.building.idle.cycles", "Cycles a building spent idle", "cycles");
+    inventorySize = multiGauge("simulation.building.inventory.size", "Items in a building's inventory", "items");
+    deliveriesInFlight = multiGauge("simulation.deliveries.in.flight", "Products travelling to their requester",
+        "deliveries");
+    dronesInFlight = multiGauge("simulation.drones.in.flight", "Drones carrying a delivery", "drones");
+    currentCycle = multiGauge("simulation.session.cycle", "Current cycle of a session", "cycles");
+  }
+
+  private MultiGauge multiGauge(String name, String description, String baseUnit) {
+    MultiGauge.Builder builder = MultiGauge.builder(name).description(description);
+    if (baseUnit != null) {
+      builder.baseUnit(baseUnit);
+    }
+    return builder.register(registry);
+  }
+
+  @Override
+  public boolean isEnabled() {
+    return true;
+  }
+
+  @Override
+  public void recordCycle(long nanos) {
+    cycleTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordSourceSelection(String policy, long nanos) {
+    policyTimer(sourceTimers, "source", policy).record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordRequestSelection(String policy, long nanos) {
+    policyTimer(requestTimers, "request", policy).record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  private Timer policyTimer(ConcurrentMap<String, Timer> timers, String kind, String policy) {
+    Timer timer = timers.get(policy);
+    if (timer == null) {
+      timer = timers.computeIfAbsent(policy, p -> Timer.builder("simulation.policy.selection")
+          .description("Time a selection policy takes to choose")
+          .tags("kind", kind, "policy", p)
+          .register(registry));
+    }
+    return timer;
+  }
+
+  @Override
+  public void recordRejection(String limit, String outcome, int units) {
+    String key = limit + "/" + outcome;
+    Counter counter = rejectionCounters.get(key);
+    if (counter == null) {
+      counter = rejectionCounters.computeIfAbsent(key, k -> Counter.builder("simulation.requests.rejected")
+          .description("Units of user requests over a queue limit")
+          .baseUnit("requests")
+          .tags("limit", limit, "outcome", outcome)
+          .register(registry));
+    }
+    counter.increment(units);
+  }
+
+  @Override
+  public void recordRoute(long nanos) {
+    routeTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordSave(long nanos) {
+    saveTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void recordLoad(long nanos) {
+    loadTimer.record(nanos, TimeUnit.NANOSECONDS);
+  }
+
+  @Override
+  public void sessionUpdated(SimulationSession session) {
+    Simulation simulation = session.getView().getSimulation();
+    Map<String, double[]> buildings = new LinkedHashMap<>();
+    for (Building b : simulation.getBuildings().values()) {
+      int inventory = 0;
+      for (int amount : b.getInventory().values()) {
+        inventory += amount;
+      }
+      buildings.put(b.getName(), new double[] { b.getQlen(), b.getUtilization(), b.getBusyCycles(),
+          b.getIdleCycles(), inventory });
+    }
+    SessionState state = sessions.computeIfAbsent(session.getId(), SessionState::new);
+    boolean changed = !state.buildings.keySet().equals(buildings.keySet()) || state.cycle < 0;
+    state.buildings = Collections.unmodifiableMap(buildings);
+    state.deliveries = simulation.getDeliveriesInFlight();
+    state.drones = simulation.getDronesInFlight();
+    state.cycle = simulation.getCurrentCycle();
+    if (changed) {
+      registerRows();
+    }
+  }
+
+  /**
+   * Rebuilds the gauge rows after a session or building appeared or disappeared.
+   */
+  private synchronized void registerRows() {
+    List<MultiGauge.Row<?>> queue = new ArrayList<>();
+    List<MultiGauge.Row<?>> util = new ArrayList<>();
+    List<MultiGauge.Row<?>> busy = new ArrayList<>();
+    List<MultiGauge.Row<?>> idle = new ArrayList<>();
+    List<MultiGauge.Row<?>> inventory = new ArrayList<>();
+    List<MultiGauge.Row<?>> deliveries = new ArrayList<>();
+    List<MultiGauge.Row<?>> drones = new ArrayList<>();
+    List<MultiGauge.Row<?>> cycle = new ArrayList<>();
+    for (SessionState state : sessions.values()) {
+      String session = String.valueOf(state.id);
+      for (String building : state.buildings.keySet()) {
+        Tags tags = Tags.of("session", session, "building", building);
+        queue.add(MultiGauge.Row.of(tags, state, buildingValue(building, 0)));
+        util.add(MultiGauge.Row.of(tags, state, buildingValue(building, 1)));
+        busy.add(MultiGauge.Row.of(tags, state, buildingValue(building, 2)));
+        idle.add(MultiGauge.Row.of(tags, state, buildingValue(building, 3)));
+        inventory.add(MultiGauge.Row.of(tags, state, buildingValue(building, 4)));
+      }
+      Tags tags = Tags.of("session", session);
+      deliveries.add(MultiGauge.Row.of(tags, state, s -> s.deliveries));
+      drones.add(MultiGauge.Row.of(tags, state, s -> s.drones));
+      cycle.add(MultiGauge.Row.of(tags, state, s -> s.cycle));
+    }
+    queueLength.register(queue, true);
+    utilization.register(util, true);
+    busyCycles.register(busy, true);
+    idleCycles.register(idle, true);
+    inventorySize.register(inventory, true);
+    deliveriesInFlight.register(deliveries, true);
+    dronesInFlight.register(drones, true);
+    currentCycle.register(cycle, true);
+  }
+
+  private static ToDoubleFunction<SessionState> buildingValue(String building, int index) {
+    return s -> {
+      double[] values = s.buildings.get(building);
+      return values == null ? Double.NaN : values[index];
+    };
+  }
+
+  @Override
+  public void sessionRemoved(int id) {
+    if (sessions.remove(id) != null) {
+      registerRows();
+    }
+  }
+
+  private synchronized double cyclesPerSecond() {
+    long now = System.nanoTime();
+    long count = cycleTimer.count();
+    double rate = 0;
+    if (lastRateTime != 0 && now > lastRateTime) {
+      rate = (count - lastRateCount) * 1e9 / (now - lastRateTime);
+    }
+    lastRateCount = count;
+    lastRateTime = now;
+    return rate;
+  }
+
+  /**
+   * The last values copied from one session.
+   */
+  private static class SessionState {
+    private final int id;
+    private volatile Map<String, double[]> buildings;
+    private volatile double deliveries;
+    private volatile double drones;
+    private volatile double cycle;
+
+    SessionState(int id) {
+      this.id = id;
+      this.buildings = Collections.emptyMap();
+      this.cycle = -1;
+    }
+  }
+}
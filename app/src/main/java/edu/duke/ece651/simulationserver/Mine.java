@@ -32,6 +32,16 @@ public class Mine extends Building {
   }
 
   
+  /**
+   * Copies a mine for Simulation.fork, without its requests.
+   *
+   * @param other the mine to copy
+   */
+  Mine(Mine other) {
+    super(other);
+    this.mineRecipe = other.mineRecipe;
+  }
+
   /**
    * Retrieves the recipe associated with this mine.
    *
@@ -65,6 +75,14 @@ public class Mine extends Building {
     return this.mineRecipe.getOutput().equals(product);
   }
 
+  /**
+   * @return the mine's recipe if it produces the product, or null
+   */
+  @Override
+  protected Recipe recipeFor(String product) {
+    return mayProduce(product) ? mineRecipe : null;
+  }
+
   @Override
   public String capableOf(String product) {
     if (removeMark) {
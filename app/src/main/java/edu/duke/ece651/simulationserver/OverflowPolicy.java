@@ -0,0 +1,38 @@
+package edu.duke.ece651.simulationserver;
+
+/**
+ * What a simulation does with a user request that would take a queue past its limit, see
+ * QueueLimits.
+ */
+public enum OverflowPolicy {
+  /** the request is refused */
+  REJECT("reject"),
+  /** the oldest waiting units of user requests are dropped to make room for it */
+  SHED_OLDEST("shed-oldest"),
+  /** the request waits outside the queues until there is room for it */
+  BLOCK("block");
+
+  private final String name;
+
+  OverflowPolicy(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  /**
+   * @param name "reject", "shed-oldest" or "block"
+   * @return the policy with that name
+   * @throws IllegalArgumentException if there is none
+   */
+  public static OverflowPolicy forName(String name) {
+    for (OverflowPolicy policy : values()) {
+      if (policy.name.equals(name)) {
+        return policy;
+      }
+    }
+    throw new IllegalArgumentException("Invalid overflow policy: " + name);
+  }
+}
@@ -0,0 +1,56 @@
+package edu.duke.ece651.simulationserver;
+
+/**
+ * The limits a simulation puts on the units of user requests it accepts: at most
+ * buildingLimit units queued at the building a request is made at, and at most sessionLimit
+ * units queued at all buildings together. A limit of 0 means none. A building can have its own
+ * limit instead of buildingLimit, see Building.setQueueLimit.
+ *
+ * The limits are checked when a user request is made, against what is queued then, so they
+ * bound what users can add; requests the buildings make for ingredients and refills are not
+ * refused, as a request that cannot be completed would be left behind. What happens to a
+ * request over a limit is decided by the overflow policy.
+ */
+public final class QueueLimits {
+  /** no limits */
+  public static final QueueLimits UNLIMITED = new QueueLimits(0, 0, OverflowPolicy.REJECT);
+
+  private final int buildingLimit;
+  private final int sessionLimit;
+  private final OverflowPolicy overflow;
+
+  /**
+   * @param buildingLimit the most units queued at a building, 0 for no limit
+   * @param sessionLimit  the most units queued at all buildings, 0 for no limit
+   * @param overflow      what to do with a request over a limit
+   * @throws IllegalArgumentException if a limit is negative
+   */
+  public QueueLimits(int buildingLimit, int sessionLimit, OverflowPolicy overflow) {
+    if (buildingLimit < 0 || sessionLimit < 0) {
+      throw new IllegalArgumentException("A queue limit can't be negative");
+    }
+    this.buildingLimit = buildingLimit;
+    this.sessionLimit = sessionLimit;
+    this.overflow = overflow;
+  }
+
+  public int getBuildingLimit() {
+    return buildingLimit;
+  }
+
+  public int getSessionLimit() {
+    return sessionLimit;
+  }
+
+  public OverflowPolicy getOverflow() {
+    return overflow;
+  }
+
+  /**
+   * @param building a building
+   * @return the building's own limit if it has one, else buildingLimit; 0 for no limit
+   */
+  public int limitOf(Building building) {
+    return building.getQueueLimit() > 0 ? building.getQueueLimit() : buildingLimit;
+  }
+}
@@ -0,0 +1,245 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * The structure of a simulation's recipes, worked out once when they are loaded: which outputs
+ * can be made, how many units of everything a unit of an output takes, and its critical path.
+ * These depend only on the recipes, so policies, estimates and clients can ask for them
+ * instead of walking the buildings.
+ *
+ * An output can be made if it has a recipe and all its ingredients can be made. It can't if
+ * one of them, at any depth, has no recipe, or if it is on a cycle, i.e. needed to make
+ * itself; such outputs are unreachable and have no bill of materials or critical path.
+ *
+ * The critical path of an output is the chain of recipes from it down to a raw resource with
+ * the largest total latency, which is the fewest cycles a unit can take however many
+ * buildings make its ingredients at once, deliveries aside.
+ */
+public final class RecipeGraph {
+  private final Map<String, Recipe> recipes;
+  // the outputs that can be made, each after its ingredients
+  private final List<String> order = new ArrayList<>();
+  // the position of each output in order
+  private final Map<String, Integer> positions = new HashMap<>();
+  private final Set<String> unreachable = new LinkedHashSet<>();
+  private final Set<String> cyclic = new LinkedHashSet<>();
+  private final Set<String> missing = new LinkedHashSet<>();
+  private final Map<String, Long> latencies = new HashMap<>();
+  // the ingredient the critical path of each output goes on with, absent for raw resources
+  private final Map<String, String> criticalIngredients = new HashMap<>();
+  // bills of materials, worked out the first time they are asked for; forks share the graph
+  private final Map<String, Map<String, Long>> bills = new ConcurrentHashMap<>();
+
+  /**
+   * @param recipes the recipes by output
+   */
+  public RecipeGraph(Map<String, Recipe> recipes) {
+    this.recipes = recipes;
+    Map<String, Boolean> visited = new HashMap<>();
+    List<String> stack = new ArrayList<>();
+    for (String output : recipes.keySet()) {
+      visit(output, visited, stack);
+    }
+  }
+
+  /**
+   * Visits an output and its ingredients, depth first.
+   *
+   * @param visited whether each output visited so far can be made, null while it is on the stack
+   * @param stack   the outputs being visited
+   * @return whether the output can be made
+   */
+  private boolean visit(String output, Map<String, Boolean> visited, List<String> stack) {
+    if (visited.containsKey(output)) {
+      Boolean reachable = visited.get(output);
+      if (reachable == null) {
+        // back on the stack: everything from there up is on a cycle
+        cyclic.addAll(stack.subList(stack.indexOf(output), stack.size()));
+        return false;
+      }
+      return reachable;
+    }
+    Recipe recipe = recipes.get(output);
+    if (recipe == null) {
+      missing.add(output);
+      visited.put(output, false);
+      return false;
+    }
+    visited.put(output, null);
+    stack.add(output);
+    boolean reachable = true;
+    for (String ingredient : recipe.getIngredients().keySet()) {
+      // every ingredient is visited, so all the cycles are found
+      reachable &= visit(ingredient, visited, stack);
+    }
+    stack.remove(stack.size() - 1);
+    visited.put(output, reachable);
+    if (!reachable) {
+      unreachable.add(output);
+      return false;
+    }
+    long latency = 0;
+    for (String ingredient : recipe.getIngredients().keySet()) {
+      if (latencies.get(ingredient) > latency) {
+        latency = latencies.get(ingredient);
+        criticalIngredients.put(output, ingredient);
+      }
+    }
+    latencies.put(output, recipe.getLatency() + latency);
+    positions.put(output, order.size());
+    order.add(output);
+    return true;
+  }
+
+  /**
+   * @param output an output
+   * @return whether the output has a recipe and all its ingredients can be made
+   */
+  public boolean isReachable(String output) {
+    return positions.containsKey(output);
+  }
+
+  /**
+   * @return the outputs with a recipe that can't be made
+   */
+  public Set<String> getUnreachable() {
+    return Collections.unmodifiableSet(unreachable);
+  }
+
+  /**
+   * @return the outputs on a cycle, which are unreachable too
+   */
+  public Set<String> getCyclic() {
+    return Collections.unmodifiableSet(cyclic);
+  }
+
+  /**
+   * @return the ingredients used by a recipe that have no recipe themselves
+   */
+  public Set<String> getMissing() {
+    return Collections.unmodifiableSet(missing);
+  }
+
+  /**
+   * @param output an output that can be made
+   * @return the total latency of the output's critical path
+   * @throws IllegalArgumentException if the output can't be made
+   */
+  public long getCriticalLatency(String output) {
+    checkReachable(output);
+    return latencies.get(output);
+  }
+
+  /**
+   * @param output an output that can be made
+   * @return the outputs on the output's critical path, from it down to a raw resource
+   * @throws IllegalArgumentException if the output can't be made
+   */
+  public List<String> getCriticalPath(String output) {
+    checkReachable(output);
+    List<String> path = new ArrayList<>();
+    for (String item = output; item != null; item = criticalIngredients.get(item)) {
+      path.add(item);
+    }
+    return path;
+  }
+
+  /**
+   * Returns the bill of materials of an output: the units of every ingredient, at any depth,
+   * that go into one unit of it, from the output's own ingredients down to raw resources.
+   * Counts too large for a long are given as Long.MAX_VALUE.
+   *
+   * @param output an output that can be made
+   * @return the units of each ingredient
+   * @throws IllegalArgumentException if the output can't be made
+   */
+  public Map<String, Long> getBillOfMaterials(String output) {
+    checkReachable(output);
+    return bills.computeIfAbsent(output, this::billOf);
+  }
+
+  /**
+   * @param output an output that can be made
+   * @return the units of each raw resource that go into one unit of the output
+   * @throws IllegalArgumentException if the output can't be made
+   */
+  public Map<String, Long> getRawMaterials(String output) {
+    Map<String, Long> raw = new LinkedHashMap<>();
+    for (Map.Entry<String, Long> entry : getBillOfMaterials(output).entrySet()) {
+      if (recipes.get(entry.getKey()).isRawResource()) {
+        raw.put(entry.getKey(), entry.getValue());
+      }
+    }
+    return raw;
+  }
+
+  private Map<String, Long> billOf(String output) {
+    // an item is done once everything using it is, and those come after it in order
+    Map<String, Long> units = new HashMap<>();
+    units.put(output, 1L);
+    Map<String, Long> bill = new LinkedHashMap<>();
+    for (int i = positions.get(output); i >= 0; i--) {
+      String item = order.get(i);
+      Long needed = units.get(item);
+      if (needed == null) {
+        continue;
+      }
+      if (i < positions.get(output)) {
+        bill.put(item, needed);
+      }
+      for (Map.Entry<String, Integer> ingredient : recipes.get(item).getIngredients().entrySet()) {
+        long more = multiply(needed, ingredient.getValue());
+        units.merge(ingredient.getKey(), more, RecipeGraph::add);
+      }
+    }
+    return Collections.unmodifiableMap(bill);
+  }
+
+  private static long multiply(long a, long b) {
+    long product = a * b;
+    return (a != 0 && product / a != b) || product < 0 ? Long.MAX_VALUE : product;
+  }
+
+  private static long add(long a, long b) {
+    long sum = a + b;
+    return sum < 0 ? Long.MAX_VALUE : sum;
+  }
+
+  private void checkReachable(String output) {
+    if (!isReachable(output)) {
+      throw new IllegalArgumentException("'" + output + "' can't be made");
+    }
+  }
+
+  /**
+   * @return the graph, e.g. for a client to show: each output that can be made with its
+   *         critical path, its latency and its bill of materials, and the outputs that can't
+   */
+  public Map<String, Object> toMap() {
+    Map<String, Object> outputs = new LinkedHashMap<>();
+    for (String output : recipes.keySet()) {
+      if (isReachable(output)) {
+        Map<String, Object> info = new LinkedHashMap<>();
+        info.put("criticalPath", getCriticalPath(output));
+        info.put("criticalLatency", getCriticalLatency(output));
+        info.put("billOfMaterials", getBillOfMaterials(output));
+        outputs.put(output, info);
+      }
+    }
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("outputs", outputs);
+    map.put("unreachable", new ArrayList<>(unreachable));
+    map.put("cyclic", new ArrayList<>(cyclic));
+    map.put("missing", new ArrayList<>(missing));
+    return map;
+  }
+}
@@ -74,7 +74,7 @@ public class RecursiveLatPolicy implements SourceSelectionPolicy {
           UsageInfo usage = new UsageInfo();
           Path path = new Path();
           int timeEst = estimate(req, source, usage, path);
-          totalTimeEst += timeEst;
+          totalTimeEst += timeEst * req.getQuantity();
         }
       }
       chooseStandard.put(source.getName(), totalTimeEst);
@@ -170,9 +170,10 @@ public class RecursiveLatPolicy implements SourceSelectionPolicy {
         for (Building src : candidates) {
           Path newPath = path.cloneWith(src);
           UsageInfo newUsage = usage.clonePartial();
-          // Create a new request for one unit of the ingredient.
+          // Create a new request for one unit of the ingredient. It is only estimated, so it
+          // takes no id from the simulation's requests.
           Recipe ingRecipe = findRecipeFor(ingredint);
-          Request subReq = new Request(ingRecipe, src, false);
+          Request subReq = new Request(-1, ingRecipe, src, RequestState.WAITING.name(), false);
           int est = estimate(subReq, src, newUsage, newPath);
           candidateEstimates.add(new Pair<>(src, est));
         }
@@ -1,6 +1,7 @@
 package edu.duke.ece651.simulationserver;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.atomic.AtomicInteger;
@@ -9,28 +10,49 @@ import java.util.concurrent.atomic.AtomicInteger;
  * This class represents a production request in the simulation.
  * A request contains a recipe, a reference to the building that requested it,
  * its current state, and a list of any sub-requests required to fulfill it.
+ *
+ * A request may be for several units of its recipe, either asked for at once or merged from
+ * identical waiting requests queued one after another (see merge). It is one entry in its
+ * building's queue that is drawn down unit by unit: each unit the building starts is split
+ * off as a request of its own, until the last unit, which is the request itself. Every unit
+ * keeps the id it got when it was requested; the request's id is that of its next unit, and
+ * the ids of the others are kept as runs, see IdRuns.
  */
 public class Request {
-  protected static final AtomicInteger idGenerator = new AtomicInteger(0);
+  // ids of requests made while no simulation is current, e.g. in unit tests
+  private static final AtomicInteger defaultIds = new AtomicInteger(0);
+
+  /**
+   * Each simulation numbers its requests on its own (see Simulation.getRequestId), so
+   * simulations running side by side get the same ids as when run alone. The static
+   * accessors below refer to the calling thread's current simulation.
+   */
+  private static AtomicInteger idGenerator() {
+    Simulation simulation = Simulation.current();
+    return simulation == null ? defaultIds : simulation.requestIds();
+  }
 
   public static void resetIdGenerator() {
-    idGenerator.set(0);
+    idGenerator().set(0);
   }
 
   public static int getIdGenerator() {
-    return idGenerator.get();
+    return idGenerator().get();
   }
 
   public static void setIdGenerator(int newId) {
-    idGenerator.set(newId);
+    idGenerator().set(newId);
   }
 
-  protected final int id;
+  protected int id;
   protected final Recipe recipe;
   protected final Building requester;
   protected RequestState state;
   protected final List<Request> subRequests;
   protected final boolean isUserRequest;
+  // the units not yet started, and the ids of those after the next one
+  protected int quantity = 1;
+  private IdRuns unitIds;
 
   /**
    * Constructs a new Request.
@@ -43,7 +65,7 @@ public class Request {
     if (recipe == null) {
       throw new IllegalArgumentException("Recipe can not be null!");
     }
-    this.id = idGenerator.getAndIncrement();
+    this.id = idGenerator().getAndIncrement();
     this.recipe = recipe;
     this.requester = requester;
     this.state = RequestState.WAITING;
@@ -51,8 +73,27 @@ public class Request {
     this.isUserRequest = isUserRequest;
   }
 
+  /**
+   * Constructs a new Request for several units, which get consecutive ids.
+   *
+   * @param recipe        the Recipe to produce
+   * @param requester     the Building that requested the production
+   * @param isUserRequest whether this request was directly initiated by a user
+   * @param quantity      the number of units, at least 1
+   */
+  public Request(Recipe recipe, Building requester, boolean isUserRequest, int quantity) {
+    this(recipe, requester, isUserRequest);
+    if (quantity <= 0) {
+      throw new IllegalArgumentException("The quantity must be positive");
+    }
+    if (quantity > 1) {
+      this.unitIds = IdRuns.range(idGenerator().getAndAdd(quantity - 1), quantity - 1);
+      this.quantity = quantity;
+    }
+  }
+
   public Request(Building requester, boolean isUserRequest) {
-    this.id = idGenerator.getAndIncrement();
+    this.id = idGenerator().getAndIncrement();
     this.recipe = null;
     this.requester = requester;
     this.state = RequestState.WAITING;
@@ -82,8 +123,23 @@ public class Request {
     this.isUserRequest = isUserRequest;
   }
 
-  
-  
+  /**
+   * Copies a request for Simulation.fork, keeping its id. Sub-requests are added by the fork.
+   *
+   * @param other     the request to copy
+   * @param requester the fork's copy of the requester
+   */
+  Request(Request other, Building requester) {
+    this.id = other.id;
+    this.recipe = other.recipe;
+    this.requester = requester;
+    this.state = other.state;
+    this.subRequests = new ArrayList<>();
+    this.isUserRequest = other.isUserRequest;
+    this.quantity = other.quantity;
+    this.unitIds = other.unitIds == null ? null : new IdRuns(other.unitIds);
+  }
+
   // Getter
   public int getId() {
     return id;
@@ -102,6 +158,7 @@ public class Request {
   }
 
   public void setState(RequestState state) {
+    Simulation.changed(this);
     this.state = state;
   }
 
@@ -117,6 +174,138 @@ public class Request {
     return isUserRequest;
   }
 
+  /**
+   * @return the number of units not yet started
+   */
+  public int getQuantity() {
+    return quantity;
+  }
+
+  /**
+   * @return the ids of the units not yet started, in the order they start
+   */
+  public int[] getUnitIds() {
+    if (unitIds == null) {
+      return new int[] { id };
+    }
+    int[] ids = new int[quantity];
+    ids[0] = id;
+    System.arraycopy(unitIds.toArray(), 0, ids, 1, quantity - 1);
+    return ids;
+  }
+
+  /**
+   * Expands this request into its units, e.g. for a save, which lists every unit as a request
+   * of its own.
+   *
+   * @return this request if it is for one unit, or else a request per unit, in order
+   */
+  public List<Request> getUnits() {
+    if (quantity == 1) {
+      return Collections.singletonList(this);
+    }
+    List<Request> units = new ArrayList<>(quantity);
+    for (int unitId : getUnitIds()) {
+      units.add(new Request(unitId, recipe, requester, state.name(), isUserRequest));
+    }
+    return units;
+  }
+
+  /**
+   * Whether another request is identical to this one but for its ids, so its units can be
+   * added to this one: both are plain waiting requests for the same recipe and requester,
+   * without sub-requests.
+   */
+  boolean canMerge(Request other) {
+    return getClass() == Request.class && other.getClass() == Request.class
+        && state == RequestState.WAITING && other.state == RequestState.WAITING
+        && recipe == other.recipe && requester == other.requester && isUserRequest == other.isUserRequest
+        && subRequests.isEmpty() && other.subRequests.isEmpty();
+  }
+
+  /**
+   * Adds the units of an identical request, queued right after this one, to this one.
+   *
+   * @param other the request
+   * @return true if the units were added, false if the requests are not identical
+   */
+  boolean merge(Request other) {
+    if (!canMerge(other)) {
+      return false;
+    }
+    if (unitIds == null) {
+      unitIds = new IdRuns();
+    }
+    unitIds.add(other.id);
+    if (other.unitIds != null) {
+      unitIds.addAll(other.unitIds);
+    }
+    quantity += other.quantity;
+    return true;
+  }
+
+  /**
+   * Splits the next unit off a request for several units; this request goes on with the
+   * units after it.
+   *
+   * @return a new request for the unit, with its id
+   * @throws IllegalStateException if only one unit is left, which is this request itself
+   */
+  Request takeUnit() {
+    if (quantity <= 1) {
+      throw new IllegalStateException("Request " + id + " has no unit to split off");
+    }
+    Request unit = new Request(id, recipe, requester, state.name(), isUserRequest);
+    id = unitIds.poll();
+    quantity--;
+    if (quantity == 1) {
+      unitIds = null;
+    }
+    return unit;
+  }
+
+  /**
+   * Splits the next units off a request for more units; this request goes on with the units
+   * after them.
+   *
+   * @param units the number of units
+   * @return a new request for the units, with their ids
+   * @throws IllegalStateException if the request is not for more units
+   */
+  Request takeUnits(int units) {
+    if (units == 1) {
+      return takeUnit();
+    }
+    if (units <= 0 || quantity <= units) {
+      throw new IllegalStateException("Request " + id + " has no " + units + " units to split off");
+    }
+    Request taken = new Request(id, recipe, requester, state.name(), isUserRequest);
+    taken.quantity = units;
+    taken.unitIds = unitIds.take(units - 1);
+    id = unitIds.poll();
+    quantity -= units;
+    if (quantity == 1) {
+      unitIds = null;
+    }
+    return taken;
+  }
+
+  /**
+   * Counts the next units whose ids are below a bound, e.g. to tell how many come before a
+   * request made later.
+   *
+   * @param bound the bound
+   * @param max   the most units to count
+   * @return the number of units before the first one whose id is not below the bound, at
+   *         most max
+   */
+  int countUnitsBelow(int bound, int max) {
+    if (id >= bound || max <= 0) {
+      return 0;
+    }
+    return unitIds == null ? 1 : 1 + unitIds.countBelow(bound, max - 1);
+  }
+
   /**
    * Determines if this request is ready to be processed based on the current inventory.
    * 
@@ -129,10 +318,13 @@ public class Request {
    * @return true if the request is ready or false otherwise
    */
   public boolean isReady(Map<String, Integer> inventory) {
-    // If any sub-request is not yet redy, we can't start this request
-    for (Request subReq : subRequests) {
-      if (subReq.getState() != RequestState.READY) {
-        return false;
+    // If any sub-request is not yet redy, we can't start this request; the next unit of a
+    // request for several units only waits for its own ingredients
+    if (quantity == 1) {
+      for (Request subReq : subRequests) {
+        if (subReq.getState() != RequestState.READY) {
+          return false;
+        }
       }
     }
 
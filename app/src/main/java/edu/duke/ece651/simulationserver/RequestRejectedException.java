@@ -0,0 +1,93 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Thrown by Simulation.request when a request would take a queue past its limit and the
+ * overflow policy can't make room for it, see QueueLimits.
+ */
+public class RequestRejectedException extends IllegalArgumentException {
+  private static final long serialVersionUID = 1L;
+
+  /**
+   * The limit a request was rejected by.
+   */
+  public enum Limit {
+    BUILDING, SESSION
+  }
+
+  private final String building;
+  private final String output;
+  private final int quantity;
+  private final Limit limit;
+  private final int capacity;
+  private final int queued;
+  private final OverflowPolicy policy;
+
+  /**
+   * @param building the building the request was made at
+   * @param output   the requested output
+   * @param quantity the requested units
+   * @param limit    the limit the request would have exceeded
+   * @param capacity the value of that limit
+   * @param queued   the units queued within that limit when the request was made
+   * @param policy   the overflow policy in effect
+   */
+  public RequestRejectedException(String building, String output, int quantity, Limit limit, int capacity,
+      int queued, OverflowPolicy policy) {
+    super("request for " + quantity + " '" + output + "' at '" + building + "' rejected: "
+        + (limit == Limit.BUILDING ? "building" : "session") + " queue limit is " + capacity + ", "
+        + queued + " queued (" + policy.getName() + ")");
+    this.building = building;
+    this.output = output;
+    this.quantity = quantity;
+    this.limit = limit;
+    this.capacity = capacity;
+    this.queued = queued;
+    this.policy = policy;
+  }
+
+  public String getBuilding() {
+    return building;
+  }
+
+  public String getOutput() {
+    return output;
+  }
+
+  public int getQuantity() {
+    return quantity;
+  }
+
+  public Limit getLimit() {
+    return limit;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getQueued() {
+    return queued;
+  }
+
+  public OverflowPolicy getPolicy() {
+    return policy;
+  }
+
+  /**
+   * @return the rejection's details, e.g. for a client to show
+   */
+  public Map<String, Object> toMap() {
+    Map<String, Object> map = new LinkedHashMap<>();
+    map.put("building", building);
+    map.put("output", output);
+    map.put("quantity", quantity);
+    map.put("limit", limit.name().toLowerCase());
+    map.put("capacity", capacity);
+    map.put("queued", queued);
+    map.put("policy", policy.getName());
+    return map;
+  }
+}
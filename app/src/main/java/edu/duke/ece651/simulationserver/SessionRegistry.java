@@ -0,0 +1,141 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+/**
+ * Keeps one SimulationSession per session id.
+ *
+ * Sessions are created lazily the first time their id is used. Different sessions do
+ * not share any output stream, so their commands can run concurrently.
+ *
+ * With a journal directory, sessions are durable: they are recovered from their snapshot
+ * and journal in that directory when first used (see SimulationSession).
+ *
+ * Every session gets the same queue limits, which bound the requests its users can queue.
+ */
+@Component
+public class SessionRegistry {
+  private final String configFile;
+  private final File journalDirectory;
+  private final int snapshotInterval;
+  private final QueueLimits queueLimits;
+  private final ConcurrentMap<Integer, SimulationSession> sessions;
+
+  /**
+   * Creates a registry of sessions that are kept in memory only.
+   *
+   * @param configFile the configuration new sessions start from
+   */
+  public SessionRegistry(String configFile) {
+    this(configFile, "", 1);
+  }
+
+  /**
+   * Creates a registry of durable sessions.
+   *
+   * @param configFile the configuration new sessions start from
+   * @param journalDirectory the directory of the sessions' journals and snapshots, or empty
+   *                         to keep sessions in memory only
+   * @param snapshotInterval the number of journaled commands between snapshots
+   */
+  public SessionRegistry(String configFile, String journalDirectory, int snapshotInterval) {
+    this(configFile, journalDirectory, snapshotInterval, 0, 0, "reject");
+  }
+
+  /**
+   * Creates a registry of durable sessions whose users can only queue so many requests, see
+   * QueueLimits.
+   *
+   * @param configFile the configuration new sessions start from
+   * @param journalDirectory the directory of the sessions' journals and snapshots, or empty
+   *                         to keep sessions in memory only
+   * @param snapshotInterval the number of journaled commands between snapshots
+   * @param buildingLimit the most units queued at a building of a session, 0 for no limit
+   * @param sessionLimit the most units queued at all buildings of a session, 0 for no limit
+   * @param overflow "reject", "shed-oldest" or "block", what to do with a request over a limit
+   * @throws IllegalArgumentException if a limit is negative or the overflow policy unknown
+   */
+  @Autowired
+  public SessionRegistry(@Value("${simulation.config-file}") String configFile,
+                         @Value("${simulation.journal-dir:journal}") String journalDirectory,
+                         @Value("${simulation.snapshot-interval:1000}") int snapshotInterval,
+                         @Value("${simulation.queues.building-limit:0}") int buildingLimit,
+                         @Value("${simulation.queues.session-limit:0}") int sessionLimit,
+                         @Value("${simulation.queues.overflow:reject}") String overflow) {
+    this.configFile = configFile;
+    this.journalDirectory = journalDirectory.isEmpty() ? null : new File(journalDirectory);
+    this.snapshotInterval = snapshotInterval;
+    this.queueLimits = new QueueLimits(buildingLimit, sessionLimit, OverflowPolicy.forName(overflow));
+    this.sessions = new ConcurrentHashMap<>();
+  }
+
+  /**
+   * Returns the session with the given id, creating it if needed.
+   *
+   * @param id the session id
+   * @return the session
+   * @throws IOException if a new session's configuration cannot be read
+   */
+  public SimulationSession get(int id) throws IOException {
+    SimulationSession session = sessions.get(id);
+    if (session != null) {
+      return session;
+    }
+    if (journalDirectory == null) {
+      SimulationSession created = new SimulationSession(id, configFile, queueLimits);
+      session = sessions.putIfAbsent(id, created);
+      return session != null ? session : created;
+    }
+    // a journal must only be opened once
+    synchronized (this) {
+      session = sessions.get(id);
+      if (session == null) {
+        session = new SimulationSession(id, configFile, journalDirectory, snapshotInterval, queueLimits);
+        sessions.put(id, session);
+      }
+      return session;
+    }
+  }
+
+  /**
+   * Checks whether a session has been used: it is open, has been journaled, or has a
+   * session file.
+   *
+   * @param id the session id
+   * @return true if the session exists
+   */
+  public boolean exists(int id) {
+    return sessions.containsKey(id)
+        || (journalDirectory != null && CommandJournal.exists(journalDirectory, id))
+        || new File("session" + id + ".json").isFile();
+  }
+
+  /**
+   * Forgets a session and closes its journal; its saved files are left untouched.
+   *
+   * @param id the session id
+   */
+  public void remove(int id) {
+    SimulationSession session = sessions.remove(id);
+    if (session != null) {
+      Simulation.getMetrics().sessionRemoved(id);
+      try {
+        session.close();
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+  }
+
+  public int size() {
+    return sessions.size();
+  }
+}
@@ -2,6 +2,7 @@ package edu.duke.ece651.simulationserver;
 
 import java.util.List;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * The SimplelatPolicy class is an implementation of the SourceSelectionPolicy
@@ -42,6 +43,15 @@ public class SimplelatPolicy implements SourceSelectionPolicy {
     }
     return selected;
   }
+
+  /**
+   * Selects the sources of several units by water-filling the simple latencies, see
+   * WaterFilling.
+   */
+  @Override
+  public void selectSources(Map<Building, GraphPath> sources, String ingredient, int units, Consumer<Building> assign) {
+    WaterFilling.fill(sources, ingredient, units, Building::getSimplelat, assign);
+  }
   
   /**
    * Returns the name of this source selection policy.
@@ -1,15 +1,22 @@
 package edu.duke.ece651.simulationserver;
 
+import java.io.File;
 import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.util.AbstractMap;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
 import java.util.LinkedHashMap;
+import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.PriorityQueue;
 import java.util.Queue;
 import java.util.Set;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
@@ -18,38 +25,74 @@ import com.fasterxml.jackson.databind.ObjectMapper;
  * The Simulation class encapsulates the entire state and behavior of the production simulation.
  * 
  * It initializes the simulation components (buildings, recipes, factory types, policies, etc.) from a JSON
- * configuration file using a JsonInitializer. The simulation runs in discrete time cycles, during which
+ * configuration file using a JsonInitializer, or from a binary snapshot using a SnapshotReader. The simulation runs in discrete time cycles, during which
  * each building processes its queued requests. Users can advance the simulation by a given number of cycles,
  * issue production requests, and change selection policies. The simulation state (including the current cycle)
  * can be saved to a file.
  * 
  *  */
 public class Simulation {
-  private static int currentCycle = 0;
+  private static final ThreadLocal<Simulation> current = new ThreadLocal<>();
+  private static volatile SimulationMetrics metrics = SimulationMetrics.NOOP;
+  private int currentCycle;
+  // the id of the next request made in this simulation
+  private final AtomicInteger requestIds;
   private Map<String, Building> buildings;
   private Map<String, Recipe> recipes;
+  // the structure of the recipes, which do not change once loaded
+  private RecipeGraph recipeGraph;
   private Map<String, FactoryType> types;
-  private JsonInitializer systemInitializer;
+  private Initializer systemInitializer;
   private Map<String, RequestSelectionPolicy> requestPolicies;
   private Map<String, SourceSelectionPolicy> sourcePolicies;
   private Map<Coordinate, Square> squares;
   private List<Road> roads;
   private Connector connector;
   private final PlacementRuleChecker placementChecker;
-  private static List<DronePort> dronePorts = new ArrayList<>();
+  private final List<DronePort> dronePorts;
+  private QueueLimits queueLimits = QueueLimits.UNLIMITED;
+  // user requests deferred by the block overflow policy, in the order they were made
+  private final Queue<PendingRequest> pendingRequests;
+  private int pendingUnits;
+  // the units of user requests queued at the buildings, and how many of them are waiting,
+  // which the buildings count as they queue and remove them (see Building.attach)
+  private int userUnits;
+  private int waitingUserUnits;
+  // what changed since a tracker last took the changes, null while they are not tracked
+  private StateChanges changes;
+
+  /**
+   * A user request waiting for room under the queue limits. It takes its request ids when it
+   * is queued. Snapshots hold these (see SnapshotWriter).
+   */
+  static final class PendingRequest {
+    final String building;
+    final String output;
+    final int quantity;
+
+    PendingRequest(String building, String output, int quantity) {
+      this.building = building;
+      this.output = output;
+      this.quantity = quantity;
+    }
+  }
   
   /**
-   * Constructs a new Simulation by loading its configuration from the specified JSON file.
+   * Constructs a new Simulation by loading its configuration from the specified JSON file,
+   * or a session saved as JSON or as a binary snapshot.
    * 
    * The JSON configuration is parsed to initialize the recipes, factory types, and buildings.
    * The simulation's current cycle is set based on the configuration, and default request and source policies
    * are created.
    *
-   * @param fileName the path to the JSON configuration file
+   * @param fileName the path to the JSON configuration file or saved session
    * @throws IOException if an error occurs while reading or parsing the configuration file
    */
   public Simulation(String fileName) throws IOException {
-    systemInitializer = new JsonInitializer(fileName);
+    JfrEvents.Load event = new JfrEvents.Load();
+    event.begin();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0;
+    systemInitializer = Initializer.forFile(fileName);
     // recipes = systemInitializer.initializeRecipes();
     // types = systemInitializer.initializeTypes();
     // buildings = systemInitializer.initializeBuildings();
@@ -59,12 +102,87 @@ public class Simulation {
     squares = new LinkedHashMap<>();
     roads = new ArrayList<>();
     systemInitializer.initializeSystem(recipes, types, buildings, squares, roads);
+    recipeGraph = new RecipeGraph(recipes);
     currentCycle = systemInitializer.getCycle();
+    requestIds = new AtomicInteger(systemInitializer.getRequestId());
     requestPolicies = createRequestPolicies();
     sourcePolicies = createSourcePolicies();
     connector = new Connector();
     placementChecker = new NoCollisionRuleChecker(null);
+    dronePorts = new ArrayList<>();
     initDronePorts();
+    for (Building b : buildings.values()) {
+      b.attach(this);
+    }
+    pendingRequests = new LinkedList<>(systemInitializer.getPendingRequests());
+    for (PendingRequest pending : pendingRequests) {
+      pendingUnits += pending.quantity;
+    }
+    if (metrics.isEnabled()) {
+      metrics.recordLoad(System.nanoTime() - start);
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.file = fileName;
+      event.bytes = new File(fileName).length();
+      event.buildings = buildings.size();
+      event.commit();
+    }
+  }
+
+  /**
+   * Creates a fork of a simulation; see fork.
+   */
+  private Simulation(Simulation other) {
+    JfrEvents.Fork event = new JfrEvents.Fork();
+    event.begin();
+    currentCycle = other.currentCycle;
+    requestIds = new AtomicInteger(other.requestIds.get());
+    recipes = other.recipes;
+    recipeGraph = other.recipeGraph;
+    types = other.types;
+    requestPolicies = other.requestPolicies;
+    sourcePolicies = other.sourcePolicies;
+    ForkCopier copier = new ForkCopier();
+    buildings = copier.copyBuildings(other.buildings);
+    squares = new LinkedHashMap<>(other.squares);
+    for (Map.Entry<Coordinate, Square> square : squares.entrySet()) {
+      if (square.getValue() instanceof Building) {
+        square.setValue(copier.building((Building) square.getValue()));
+      }
+    }
+    roads = new ArrayList<>(other.roads);
+    connector = new Connector();
+    placementChecker = new NoCollisionRuleChecker(null);
+    dronePorts = new ArrayList<>();
+    initDronePorts();
+    for (Building b : buildings.values()) {
+      b.attach(this);
+    }
+    queueLimits = other.queueLimits;
+    pendingRequests = new LinkedList<>(other.pendingRequests);
+    pendingUnits = other.pendingUnits;
+    event.end();
+    if (event.shouldCommit()) {
+      event.buildings = buildings.size();
+      event.commit();
+    }
+  }
+
+  /**
+   * Forks the simulation for a what-if run: the fork starts in the same state, at the same
+   * cycle, and then runs on its own, so stepping, requesting, changing policies or adding
+   * buildings in one does not affect the other.
+   *
+   * The fork copies the buildings, their requests and drones, the queue limits and the
+   * requests waiting for room under them, and shares everything that does not change once
+   * created: recipes and their graph, factory types, policies, roads and routes. Like a
+   * loaded simulation, it is only current while it is stepped or requested from.
+   *
+   * @return the fork
+   */
+  public Simulation fork() {
+    return new Simulation(this);
   }
 
   /**
@@ -86,7 +204,7 @@ public class Simulation {
   /**
    * Creates a mapping of source selection policies available for the simulation.
    * 
-   * The returned map uses policy names (e.g., "qlen", "simpleLat", "recursiveLat") as keys.
+   * The returned map uses policy names (e.g., "qlen", "simplelat", "recursivelat", "criticalpath") as keys.
    *
    * @return a Map of policy names to SourceSelectionPolicy objects
    */
@@ -95,18 +213,156 @@ public class Simulation {
     policies.put("qlen", new QlenPolicy());
     policies.put("simplelat", new SimplelatPolicy());
     policies.put("recursivelat", new RecursiveLatPolicy(recipes));
+    policies.put("criticalpath", new CriticalPathPolicy(recipeGraph, CriticalPathPolicy.DEFAULT_RECALIBRATION));
     return policies;
   }
 
   /**
-   * Returns the current simulation cycle.
+   * Makes this simulation the current one of the calling thread, which is the one the
+   * static accessors (getCycle, getDronePorts) refer to, until the simulation returned is
+   * restored with restoreCurrent. A simulation is current while it is stepped or requested
+   * from, so several simulations can run side by side on different threads, and a pooled
+   * thread does not keep one alive once it is done with it.
    *
-   * @return the current cycle number
+   * @return the simulation that was current before, or null if there was none
    */
-  public static int getCycle() {
+  public Simulation makeCurrent() {
+    Simulation previous = current.get();
+    current.set(this);
+    return previous;
+  }
+
+  /**
+   * Makes a simulation current again, typically the one makeCurrent returned, in a finally
+   * block.
+   *
+   * @param previous the simulation, or null to leave the calling thread without one
+   */
+  public static void restoreCurrent(Simulation previous) {
+    if (previous == null) {
+      current.remove();
+    } else {
+      current.set(previous);
+    }
+  }
+
+  /**
+   * Starts recording what changes in the simulation, see StateChanges, e.g. for a session
+   * whose clients are sent only what changed.
+   */
+  public void trackChanges() {
+    if (changes == null) {
+      changes = new StateChanges();
+    }
+  }
+
+  /**
+   * @return what changed since the changes were last taken, or since they are tracked
+   * @throws IllegalStateException if the changes are not tracked
+   */
+  public StateChanges takeChanges() {
+    if (changes == null) {
+      throw new IllegalStateException("The simulation's changes are not tracked");
+    }
+    StateChanges taken = changes;
+    changes = new StateChanges();
+    return taken;
+  }
+
+  private void recordChange(Building building) {
+    if (changes != null) {
+      changes.building(building);
+    }
+  }
+
+  /**
+   * Records that a building of the calling thread's current simulation changed, if its
+   * changes are tracked.
+   */
+  static void changed(Building building) {
+    Simulation simulation = current.get();
+    if (simulation != null) {
+      simulation.recordChange(building);
+    }
+  }
+
+  /**
+   * Records that a request of the calling thread's current simulation changed, came or went,
+   * if its changes are tracked.
+   */
+  static void changed(Request request) {
+    Simulation simulation = current.get();
+    if (simulation != null && simulation.changes != null) {
+      simulation.changes.request(request);
+    }
+  }
+
+  /**
+   * Returns the current simulation of the calling thread.
+   *
+   * @return the current simulation, or null if this thread has not used one
+   */
+  public static Simulation current() {
+    return current.get();
+  }
+
+  /**
+   * @return this simulation's cycle, whichever simulation is current
+   */
+  public int getCurrentCycle() {
     return currentCycle;
   }
 
+  /**
+   * @return the id the next request made in this simulation gets
+   */
+  public int getRequestId() {
+    return requestIds.get();
+  }
+
+  /**
+   * Sets the id the next request made in this simulation gets, e.g. to make the same
+   * requests again when a command is replayed.
+   *
+   * @param requestId the next request id
+   */
+  public void setRequestId(int requestId) {
+    requestIds.set(requestId);
+  }
+
+  /**
+   * @return the generator Request takes this simulation's request ids from
+   */
+  AtomicInteger requestIds() {
+    return requestIds;
+  }
+
+  /**
+   * @return the metrics all simulations report to
+   */
+  public static SimulationMetrics getMetrics() {
+    return metrics;
+  }
+
+  /**
+   * Installs the metrics all simulations report to.
+   *
+   * @param newMetrics the metrics implementation, or null to stop recording
+   */
+  public static void setMetrics(SimulationMetrics newMetrics) {
+    metrics = newMetrics == null ? SimulationMetrics.NOOP : newMetrics;
+  }
+
+  /**
+   * Returns the cycle of the calling thread's current simulation.
+   *
+   * @return the current cycle number, 0 if there is no current simulation
+   */
+  public static int getCycle() {
+    Simulation simulation = current.get();
+    return simulation == null ? 0 : simulation.currentCycle;
+  }
+
   /**
    * Advances the simulation by one cycle.
    * 
@@ -114,13 +370,45 @@ public class Simulation {
    * 
    */
   private void step() {
+    JfrEvents.Cycle cycleEvent = new JfrEvents.Cycle();
+    cycleEvent.begin();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0;
     currentCycle++;
+    admitPendingRequests();
+    if (changes != null) {
+      // what a building does on its own in a cycle, e.g. counting down a delivery, is not
+      // recorded where it happens; a building that gets work during the cycle is
+      for (Building building : buildings.values()) {
+        if (!building.isIdle()) {
+          changes.building(building);
+        }
+      }
+    }
     for (Building building : buildings.values()) {
+      building.countCycle();
+      JfrEvents.BuildingStep stepEvent = new JfrEvents.BuildingStep();
+      stepEvent.begin();
       building.step();
+      stepEvent.end();
+      if (stepEvent.shouldCommit()) {
+        stepEvent.building = building.getName();
+        stepEvent.cycle = currentCycle;
+        stepEvent.queueLength = building.getQlen();
+        stepEvent.commit();
+      }
     }
     for (Building building : buildings.values()) {
       building.deliver();
     }
+    if (metrics.isEnabled()) {
+      metrics.recordCycle(System.nanoTime() - start);
+    }
+    cycleEvent.end();
+    if (cycleEvent.shouldCommit()) {
+      cycleEvent.cycle = currentCycle;
+      cycleEvent.buildings = buildings.size();
+      cycleEvent.commit();
+    }
   }
 
   /**
@@ -133,8 +421,14 @@ public class Simulation {
     if (n <= 0) {
       throw new IllegalArgumentException("step number should be larger than 0");
     }
-    for (int i = 0; i < n; i++) {
-      step();
+    Simulation previous = makeCurrent();
+    try {
+      for (int i = 0; i < n; i++) {
+        step();
+      }
+      Verbosity.flush();
+    } finally {
+      restoreCurrent(previous);
     }
   }
 
@@ -146,21 +440,59 @@ public class Simulation {
    * </p>
    */
   public void finish() {
-    while (true) {
-      Boolean finished = true;
-      for (Building building : buildings.values()) {
-        if (!building.finished()) {
-          finished = false;
-          break;
-        }
+    Simulation previous = makeCurrent();
+    try {
+      while (!isFinished()) {
+        step();
       }
-      if (!finished) {
+      Verbosity.FinalMessage();
+      Verbosity.flush();
+    } finally {
+      restoreCurrent(previous);
+    }
+  }
+
+  /**
+   * Runs the simulation like finish, but for at most the given number of cycles, e.g. when
+   * a request may never become ready.
+   *
+   * @param maxCycles the most cycles to step
+   * @return true if every building finished, in which case the final message was printed
+   */
+  public boolean finishWithin(int maxCycles) {
+    Simulation previous = makeCurrent();
+    try {
+      for (int i = 0; i < maxCycles && !isFinished(); i++) {
         step();
-        continue;
+      }
+      Verbosity.flush();
+      if (!isFinished()) {
+        return false;
       }
       Verbosity.FinalMessage();
-      return;
+      Verbosity.flush();
+      return true;
+    } finally {
+      restoreCurrent(previous);
+    }
+  }
+
+  /**
+   * Checks whether every building has finished processing its requests, i.e. whether finish
+   * would return without stepping.
+   *
+   * @return true if no building has work left and no request waits for room in the queues
+   */
+  public boolean isFinished() {
+    if (!pendingRequests.isEmpty()) {
+      return false;
+    }
+    for (Building building : buildings.values()) {
+      if (!building.finished()) {
+        return false;
+      }
     }
+    return true;
   }
 
   /**
@@ -171,6 +503,39 @@ public class Simulation {
    * @throws IllegalArgumentException if the building or recipe is not found
    */
   public void request(String buildingName, String outputName) {
+    request(buildingName, outputName, 1);
+  }
+
+  /**
+   * Processes a user request for several units of an output, queued as one request that the
+   * building works off unit by unit.
+   *
+   * The request is checked against the queue limits first. If it would exceed one, the
+   * overflow policy decides: reject refuses it, shed-oldest drops as many of the oldest
+   * waiting units of user requests as it takes to make room, and block defers it until
+   * there is room (see QueueLimits).
+   *
+   * @param buildingName the name of the building to produce the output
+   * @param outputName   the output product to be produced
+   * @param quantity     the number of units
+   * @throws IllegalArgumentException if the building or recipe is not found, or the quantity
+   *                                  is not positive
+   * @throws RequestRejectedException if the request is over a queue limit and the overflow
+   *                                  policy can't make room for it
+   */
+  public void request(String buildingName, String outputName, int quantity) {
+    Simulation previous = makeCurrent();
+    try {
+      queueRequest(buildingName, outputName, quantity);
+    } finally {
+      restoreCurrent(previous);
+    }
+  }
+
+  private void queueRequest(String buildingName, String outputName, int quantity) {
+    if (quantity <= 0) {
+      throw new IllegalArgumentException("request quantity must be positive");
+    }
     Building target = buildings.get(buildingName);
     Recipe recipe = recipes.get(outputName);
     if (target == null) {
@@ -184,8 +549,197 @@ public class Simulation {
     if (capableMsg != null) {
       throw new IllegalArgumentException("request failed because: " + capableMsg);
     }
-    Request request = new Request(recipe, null, true);
-    target.addRequest(request);
+    if (admit(target, outputName, quantity)) {
+      Request request = new Request(recipe, null, true, quantity);
+      target.addRequest(request);
+    }
+  }
+
+  /**
+   * Checks a user request against the queue limits, applying the overflow policy if it
+   * exceeds one.
+   *
+   * @return true if the request may be queued now, false if it was deferred
+   * @throws RequestRejectedException if it can't be made room for
+   */
+  private boolean admit(Building target, String outputName, int quantity) {
+    int buildingLimit = queueLimits.limitOf(target);
+    int sessionLimit = queueLimits.getSessionLimit();
+    OverflowPolicy overflow = queueLimits.getOverflow();
+    int buildingQueued = target.getUserUnits();
+    int sessionQueued = userUnits;
+    int buildingExcess = buildingLimit > 0 ? buildingQueued + quantity - buildingLimit : 0;
+    int sessionExcess = sessionLimit > 0 ? sessionQueued + quantity - sessionLimit : 0;
+    if (buildingExcess <= 0 && sessionExcess <= 0 && (overflow != OverflowPolicy.BLOCK || pendingRequests.isEmpty())) {
+      return true;
+    }
+    // a request larger than a limit never fits
+    if (buildingLimit > 0 && quantity > buildingLimit) {
+      throw reject(target, outputName, quantity, RequestRejectedException.Limit.BUILDING, buildingLimit, buildingQueued);
+    }
+    if (sessionLimit > 0 && quantity > sessionLimit) {
+      throw reject(target, outputName, quantity, RequestRejectedException.Limit.SESSION, sessionLimit, sessionQueued);
+    }
+    if (overflow == OverflowPolicy.SHED_OLDEST) {
+      shedOldest(target, outputName, quantity, buildingExcess, sessionExcess, buildingLimit, sessionLimit);
+      return true;
+    }
+    if (overflow == OverflowPolicy.BLOCK) {
+      // the deferred requests are bounded too, by the limit they wait on
+      int capacity = sessionLimit > 0 ? sessionLimit : buildingLimit;
+      if (pendingUnits + quantity > capacity) {
+        RequestRejectedException.Limit limit = sessionLimit > 0 ? RequestRejectedException.Limit.SESSION
+            : RequestRejectedException.Limit.BUILDING;
+        throw reject(target, outputName, quantity, limit, capacity, pendingUnits);
+      }
+      pendingRequests.add(new PendingRequest(target.getName(), outputName, quantity));
+      pendingUnits += quantity;
+      metrics.recordRejection(buildingExcess > 0 ? "building" : "session", "deferred", quantity);
+      return false;
+    }
+    if (buildingExcess > 0) {
+      throw reject(target, outputName, quantity, RequestRejectedException.Limit.BUILDING, buildingLimit, buildingQueued);
+    }
+    throw reject(target, outputName, quantity, RequestRejectedException.Limit.SESSION, sessionLimit, sessionQueued);
+  }
+
+  private RequestRejectedException reject(Building target, String outputName, int quantity,
+      RequestRejectedException.Limit limit, int capacity, int queued) {
+    metrics.recordRejection(limit.name().toLowerCase(), "rejected", quantity);
+    return new RequestRejectedException(target.getName(), outputName, quantity, limit, capacity, queued,
+        queueLimits.getOverflow());
+  }
+
+  /**
+   * Makes room for a request by dropping the oldest waiting units of user requests: first at
+   * the target building, as many as it is over its limit, then anywhere, as many as the
+   * session is still over. Nothing is dropped unless that makes enough room.
+   */
+  private void shedOldest(Building target, String outputName, int quantity, int buildingExcess,
+      int sessionExcess, int buildingLimit, int sessionLimit) {
+    if (buildingExcess > 0 && target.getWaitingUserUnits() < buildingExcess) {
+      throw reject(target, outputName, quantity, RequestRejectedException.Limit.BUILDING, buildingLimit,
+          target.getUserUnits());
+    }
+    if (sessionExcess > 0 && waitingUserUnits < sessionExcess) {
+      throw reject(target, outputName, quantity, RequestRejectedException.Limit.SESSION, sessionLimit, userUnits);
+    }
+    if (buildingExcess > 0) {
+      target.shedOldestUnits(buildingExcess);
+    }
+    int left = sessionExcess - Math.max(buildingExcess, 0);
+    if (left > 0) {
+      shedOldestInSession(left);
+    }
+    int shed = Math.max(Math.max(buildingExcess, sessionExcess), 0);
+    metrics.recordRejection(buildingExcess > 0 ? "building" : "session", "shed", shed);
+  }
+
+  /**
+   * Drops the oldest waiting units of user requests wherever they are, by id. The buildings
+   * with such units are kept in a heap by the id of their oldest one, and each time the one
+   * on top drops the units of its oldest request that come before the next building's.
+   *
+   * @param units the number of units to drop, at most the waiting units
+   */
+  private void shedOldestInSession(int units) {
+    PriorityQueue<Map.Entry<Integer, Building>> heads = new PriorityQueue<>(Map.Entry.comparingByKey());
+    for (Building b : buildings.values()) {
+      if (b.getWaitingUserUnits() > 0) {
+        heads.add(new AbstractMap.SimpleEntry<>(b.getOldestWaitingUserRequest().getId(), b));
+      }
+    }
+    while (units > 0) {
+      Building oldest = heads.poll().getValue();
+      Request request = oldest.getOldestWaitingUserRequest();
+      int bound = heads.isEmpty() ? Integer.MAX_VALUE : heads.peek().getKey();
+      int n = request.countUnitsBelow(bound, units);
+      oldest.shedUnits(request, n);
+      units -= n;
+      if (oldest.getWaitingUserUnits() > 0) {
+        heads.add(new AbstractMap.SimpleEntry<>(oldest.getOldestWaitingUserRequest().getId(), oldest));
+      }
+    }
+  }
+
+  /**
+   * Queues the deferred requests there is room for now, in the order they were made. One
+   * whose building can no longer make its output is dropped.
+   */
+  private void admitPendingRequests() {
+    while (!pendingRequests.isEmpty()) {
+      PendingRequest pending = pendingRequests.peek();
+      Building target = buildings.get(pending.building);
+      if (target != null && target.capableOf(pending.output) == null) {
+        int buildingLimit = queueLimits.limitOf(target);
+        int sessionLimit = queueLimits.getSessionLimit();
+        if ((buildingLimit > 0 && target.getUserUnits() + pending.quantity > buildingLimit)
+            || (sessionLimit > 0 && userUnits + pending.quantity > sessionLimit)) {
+          return;
+        }
+        target.addRequest(new Request(recipes.get(pending.output), null, true, pending.quantity));
+      } else {
+        metrics.recordRejection("building", "dropped", pending.quantity);
+      }
+      pendingRequests.remove();
+      pendingUnits -= pending.quantity;
+    }
+  }
+
+  /**
+   * @return the limits user requests are checked against
+   */
+  public QueueLimits getQueueLimits() {
+    return queueLimits;
+  }
+
+  /**
+   * Sets the limits user requests are checked against from now on; requests already queued or
+   * deferred stay.
+   *
+   * @param queueLimits the limits
+   */
+  public void setQueueLimits(QueueLimits queueLimits) {
+    this.queueLimits = queueLimits;
+  }
+
+  /**
+   * Sets a building's own limit on the units of user requests queued at it.
+   *
+   * @param buildingName the name of the building
+   * @param limit        the limit, or 0 to use the simulation's building limit
+   * @throws IllegalArgumentException if the building is not found or the limit is negative
+   */
+  public void setQueueLimit(String buildingName, int limit) {
+    Building target = buildings.get(buildingName);
+    if (target == null) {
+      throw new IllegalArgumentException("invalid building name");
+    }
+    target.setQueueLimit(limit);
+    recordChange(target);
+  }
+
+  /**
+   * Counts units of user requests a building queued or removed, see Building.attach.
+   */
+  void countUserUnits(int units, int waiting) {
+    userUnits += units;
+    waitingUserUnits += waiting;
+  }
+
+  /**
+   * @return the number of units of user requests queued at the buildings, which the session
+   *         limit applies to
+   */
+  public int getUserUnits() {
+    return userUnits;
+  }
+
+  /**
+   * @return the number of units of user requests deferred until there is room for them
+   */
+  public int getPendingRequests() {
+    return pendingUnits;
   }
 
   /**
@@ -206,6 +760,7 @@ public class Simulation {
     }
     target.setRequestPolicy(policy);
     target.setDefaultRequest(false);
+    recordChange(target);
   }
 
   /**
@@ -226,6 +781,7 @@ public class Simulation {
     }
     target.setSourcePolicy(policy);
     target.setDefaultSource(false);
+    recordChange(target);
   }
 
   /**
@@ -242,6 +798,7 @@ public class Simulation {
     for (Map.Entry<String, Building> buildingSet : buildings.entrySet()) {
       buildingSet.getValue().setSourcePolicy(policy);
       buildingSet.getValue().setDefaultSource(false);
+      recordChange(buildingSet.getValue());
     }
   }
 
@@ -259,6 +816,7 @@ public class Simulation {
     for (Map.Entry<String, Building> buildingSet : buildings.entrySet()) {
       buildingSet.getValue().setRequestPolicy(policy);
       buildingSet.getValue().setDefaultRequest(false);
+      recordChange(buildingSet.getValue());
     }
   }
 
@@ -279,6 +837,7 @@ public class Simulation {
       Building b = buildingSet.getValue();
       if (b.usingDefaultRequestPolicy()) {
         b.setRequestPolicy(policy);
+        recordChange(b);
       }
     }
   }
@@ -301,6 +860,7 @@ public class Simulation {
       Building b = buildingSet.getValue();
       if (b.usingDefaultSourcePolicy()) {
         b.setSourcePolicy(policy);
+        recordChange(b);
       }
     }
   }
@@ -315,20 +875,106 @@ public class Simulation {
   }
 
   /**
-   * Saves the current simulation state to a JSON file. 
+   * Saves the current simulation state to a compact JSON file. 
    *
    * @param fileName the name (or path) of the file to save the simulation state to
    * @throws IOException if an error occurs while writing the file
    */
   public void save(String fileName) throws IOException  {
+    save(fileName, false);
+  }
+
+  /**
+   * Saves the current simulation state to a JSON file. 
+   *
+   * @param fileName the name (or path) of the file to save the simulation state to
+   * @param pretty   true to indent the file for reading, false for compact output
+   * @throws IOException if an error occurs while writing the file
+   */
+  public void save(String fileName, boolean pretty) throws IOException  {
+    writeSession(fileName, pretty, false);
+  }
+
+  /**
+   * Saves the current simulation state to a binary snapshot, which is smaller and faster
+   * to load than JSON. The snapshot is loaded like a JSON file, by the constructor.
+   *
+   * @param fileName the name (or path) of the file to save the simulation state to
+   * @throws IOException if an error occurs while writing the file
+   */
+  public void saveSnapshot(String fileName) throws IOException  {
+    writeSession(fileName, false, true);
+  }
+
+  /**
+   * Writes the current simulation state as JSON to a stream, which is left open.
+   *
+   * @param out    the stream to write to
+   * @param pretty true to indent the JSON for reading, false for compact output
+   * @throws IOException if an error occurs while writing
+   */
+  public void save(OutputStream out, boolean pretty) throws IOException {
+    new JsonSaver(recipes, types, buildings, savedRequests(), requestIds.get(), currentCycle, roads).write(out, pretty);
+  }
+
+  /**
+   * Writes the current simulation state as a binary snapshot to a stream, which is left open.
+   *
+   * @param out the stream to write to
+   * @throws IOException if an error occurs while writing
+   */
+  public void saveSnapshot(OutputStream out) throws IOException {
+    new SnapshotWriter(recipes, types, buildings, savedRequests(), requestIds.get(), currentCycle, roads,
+        pendingRequests).write(out);
+  }
+
+  /**
+   * Writes what changed in the simulation as JSON to a stream, which is left open: the cycle
+   * and the request id generator, the changed buildings, requests and roads as a save writes
+   * them, and the keys of those that are gone. It takes time in proportion to the changes,
+   * not to the whole state.
+   *
+   * @param out     the stream to write to
+   * @param changes what changed, e.g. as taken from this simulation
+   * @throws IOException if an error occurs while writing
+   */
+  public void saveChanges(OutputStream out, StateChanges changes) throws IOException {
+    JsonSaver.writeChanges(out, changes, buildings, squares, requestIds.get(), currentCycle);
+  }
+
+  /**
+   * @return the requests a save includes: those queued at or travelling from the buildings
+   */
+  private List<Request> savedRequests() {
     ArrayList<Request> requests = new ArrayList<>();
     for (Map.Entry<String, Building> buildingSet : buildings.entrySet()) {
       Building b = buildingSet.getValue();
       requests.addAll(b.getRequests());
       requests.addAll(b.getDeliveries().keySet());
     }
-    JsonSaver saver = new JsonSaver(recipes, types, buildings, requests, Request.getIdGenerator(), currentCycle, roads);
-    saver.saveToFile(fileName);
+    return requests;
+  }
+
+  private void writeSession(String fileName, boolean pretty, boolean snapshot) throws IOException  {
+    JfrEvents.Save event = new JfrEvents.Save();
+    event.begin();
+    long start = metrics.isEnabled() ? System.nanoTime() : 0;
+    if (snapshot) {
+      new SnapshotWriter(recipes, types, buildings, savedRequests(), requestIds.get(), currentCycle, roads,
+          pendingRequests).saveToFile(fileName);
+    } else {
+      JsonSaver saver = new JsonSaver(recipes, types, buildings, savedRequests(), requestIds.get(), currentCycle, roads);
+      saver.saveToFile(fileName, pretty);
+    }
+    if (metrics.isEnabled()) {
+      metrics.recordSave(System.nanoTime() - start);
+    }
+    event.end();
+    if (event.shouldCommit()) {
+      event.file = fileName;
+      event.bytes = new File(fileName).length();
+      event.commit();
+    }
   }
   
   /**
@@ -350,6 +996,13 @@ public class Simulation {
     return recipes;
   }
 
+  /**
+   * @return the structure of the simulation's recipes, worked out when they were loaded
+   */
+  public RecipeGraph getRecipeGraph() {
+    return recipeGraph;
+  }
+
   /**
    * Returns the map of factory types used in the simulation.
    *
@@ -378,8 +1031,18 @@ public class Simulation {
 
     if (src instanceof Factory && dest instanceof WasteDisposal) {
       ((Factory)src).addWasteDisposal(dest, gp);
+      recordChange(src);
     } else {
       dest.addSource(src, gp);
+      recordChange(dest);
+    }
+    if (changes != null) {
+      // the roads laid or turned are on the route
+      for (Coordinate c : gp.getCoordinates()) {
+        if (squares.get(c) instanceof Road) {
+          changes.road(c);
+        }
+      }
     }
   }
 
@@ -422,6 +1085,8 @@ public class Simulation {
     
     buildings.put(name, b);
     squares.put(b.getCoordinate(), b);
+    b.attach(this);
+    recordChange(b);
   }
   
   private WasteDisposal createDisposal(String name, JsonNode info) {
@@ -666,12 +1331,17 @@ public class Simulation {
     }
     if (source instanceof Factory && dest instanceof WasteDisposal) {
       ((Factory)source).removeWasteDisposal(dest);
+      recordChange(source);
     } else {
       dest.removeSource(source);
+      recordChange(dest);
     }
     for (Road r : roads_) {
       this.roads.remove(r);
       this.squares.remove(r.getCoordinate());
+      if (changes != null) {
+        changes.road(r.getCoordinate());
+      }
     }
   }
 
@@ -688,8 +1358,51 @@ public class Simulation {
     }
   }
   
+  /**
+   * Returns the drone ports of the calling thread's current simulation.
+   *
+   * @return the drone ports, empty if there is no current simulation
+   */
   public static List<DronePort> getDronePorts() {
-    return dronePorts;
+    Simulation simulation = current.get();
+    return simulation == null ? Collections.emptyList() : simulation.dronePorts;
+  }
+
+  /**
+   * @return the number of finished products currently travelling to their requester
+   */
+  public int getDeliveriesInFlight() {
+    int count = 0;
+    for (Building b : buildings.values()) {
+      count += b.getDeliveries().size();
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of units requested at all buildings and not yet worked off
+   */
+  public int getOutstandingRequests() {
+    int count = 0;
+    for (Building b : buildings.values()) {
+      count += b.getHowManyRequests();
+    }
+    return count;
+  }
+
+  /**
+   * @return the number of drones currently carrying a delivery
+   */
+  public int getDronesInFlight() {
+    int count = 0;
+    for (DronePort port : dronePorts) {
+      for (Drone drone : port.getDrones()) {
+        if (drone.isInUse()) {
+          count++;
+        }
+      }
+    }
+    return count;
   }
 
   public void addDrone(String dronePortName) {
@@ -701,6 +1414,7 @@ public class Simulation {
     if (!dronePort.addDrone()) {
       throw new IllegalArgumentException("Drone Port '" + dronePort.getName() + "' is full");
     }
+    recordChange(dronePort);
   }
   
   public void tryRemoveBuilding(String building) {
@@ -713,6 +1427,7 @@ public class Simulation {
       removeBuilding(building);
     } else {
       b.setRemoveMark(true);
+      recordChange(b);
       //throw new IllegalArgumentException("cannot remove building " + b.getName() + " now. Set removeMark.");
     }
   }
@@ -747,5 +1462,7 @@ public class Simulation {
 
     buildings.remove(b.getName());
     squares.remove(b.getCoordinate());
+    b.attach(null);
+    recordChange(b);
   }
 }
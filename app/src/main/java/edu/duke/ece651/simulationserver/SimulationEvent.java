@@ -0,0 +1,144 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A single structured event emitted by the simulation.
+ *
+ * An event has a type, the cycle at which it happened and an ordered set of named
+ * fields. Events are created through the typed factory methods below so that every
+ * event of a given type always carries the same fields; sinks decide how to render
+ * them (plain text, JSON lines, ...).
+ */
+public final class SimulationEvent {
+  private final EventType type;
+  private final int cycle;
+  private final Map<String, Object> fields;
+
+  private SimulationEvent(EventType type, int cycle, Map<String, Object> fields) {
+    this.type = type;
+    this.cycle = cycle;
+    this.fields = Collections.unmodifiableMap(fields);
+  }
+
+  public EventType getType() {
+    return type;
+  }
+
+  public int getCycle() {
+    return cycle;
+  }
+
+  public Map<String, Object> getFields() {
+    return fields;
+  }
+
+  public Object get(String field) {
+    return fields.get(field);
+  }
+
+  public String getString(String field) {
+    Object value = fields.get(field);
+    return value == null ? null : value.toString();
+  }
+
+  public int getInt(String field) {
+    return ((Number) fields.get(field)).intValue();
+  }
+
+  public static SimulationEvent orderComplete(int cycle, int orderId, String item) {
+    Map<String, Object> f = new LinkedHashMap<>();
+    f.put("order", orderId);
+    f.put("item", item);
+    return new SimulationEvent(EventType.ORDER_COMPLETE, cycle, f);
+  }
+
+  public static SimulationEvent simulationComplete(int cycle) {
+    return new SimulationEvent(EventType.SIMULATION_COMPLETE, cycle, new LinkedHashMap<>());
+  }
+
+  public static SimulationEvent ingredientAssignment(int cycle, String ingredient, String source, String building) {
+    Map<String, Object> f = new LinkedHashMap<>();
+    f.put("ingredient", ingredient);
+    f.put("source", source);
+    f.put("building", building);
+    return new SimulationEvent(EventType.INGREDIENT_ASSIGNMENT, cycle, f);
+  }
+
+  public static SimulationEvent ingredientDelivered(int cycle, String ingredient, String source, String building) {
+    Map<String, Object> f = new LinkedHashMap<>();
+    f.put("ingredient", ingredient);
+    f.put("source", source);
+    f.put("building", building);
+    return new SimulationEvent(EventType.INGREDIENT_DELIVERED, cycle, f);
+  }
+
+  /**
+   * @param readyOutputs outputs of the recipes that are ready, in recipe order
+   */
+  public static SimulationEvent readyRecipes(int cycle, List<String> readyOutputs) {
+    Map<String, Object> f = new LinkedHashMap<>();
+    f.put("ready", Collections.unmodifiableList(new ArrayList<>(readyOutputs)));
+    return new SimulationEvent(EventType.READY_RECIPES, cycle, f);
+  }
+
+  public static SimulationEvent sourceSelection(int cycle, String building, String policy, String ingredient) {
+    Map<String, Object> f = new LinkedHashMap<>();
+    f.put("building", building);
+    f.put("policy", policy);
+    f.put("ingredient", ingredient);
+    return new SimulationEvent(EventType.SOURCE_SELECTION, cycle, f);
+  }
+
+  /**
+   * @param candidates the score each candidate source got from the policy, in candidate order
+   */
+  public static SimulationEvent sourceCandidates(int cycle, String building, String output, String policy,
+      int ingredientIndex, String ingredient, Map<String, Integer> candidates, String selected) {
+    Map<String, Object> f = new LinkedHashMap<>();
+    f.put("building", building);
+    f.put("output", output);
+    f.put("policy", policy);
+    f.put("index", ingredientIndex);
+    f.put("ingredient", ingredient);
+    f.put("candidates", Collections.unmodifiableMap(new LinkedHashMap<>(candidates)));
+    f.put("selected", selected);
+    return new SimulationEvent(EventType.SOURCE_CANDIDATES, cycle, f);
+  }
+
+  public static SimulationEvent recipeSelection(int cycle, String building, String policy) {
+    Map<String, Object> f = new LinkedHashMap<>();
+    f.put("building", building);
+    f.put("policy", policy);
+    return new SimulationEvent(EventType.RECIPE_SELECTION, cycle, f);
+  }
+
+  /**
+   * @param ready    for each queued request in order, whether it is ready
+   * @param waiting  for each queued request in order, the missing ingredients
+   * @param selected the index of the selected request, or -1 if none was selected
+   */
+  public static SimulationEvent requestStatus(int cycle, List<Boolean> ready, List<Map<String, Integer>> waiting,
+      int selected) {
+    Map<String, Object> f = new LinkedHashMap<>();
+    f.put("ready", Collections.unmodifiableList(new ArrayList<>(ready)));
+    f.put("waiting", Collections.unmodifiableList(new ArrayList<>(waiting)));
+    f.put("selected", selected);
+    return new SimulationEvent(EventType.REQUEST_STATUS, cycle, f);
+  }
+
+  public static SimulationEvent message(int cycle, String text) {
+    Map<String, Object> f = new LinkedHashMap<>();
+    f.put("text", text);
+    return new SimulationEvent(EventType.MESSAGE, cycle, f);
+  }
+
+  @Override
+  public String toString() {
+    return type + "@" + cycle + fields;
+  }
+}
@@ -0,0 +1,240 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.IOException;
+
+/**
+ * A step or finish command run in the background, so the thread that started it does not
+ * wait for it.
+ *
+ * The job executes the command as a series of shorter "step k" or "finish k" commands on its
+ * session, each journaled and recorded in the timeline like any other step. Chunks are sized
+ * to take about a time slice, so commands from other clients of the session run in between,
+ * the job can be cancelled, and its budget is checked. A finish chunk stops on the cycle no
+ * building has work left and prints the final message, so the job ends on the same cycle as
+ * a finish run at once.
+ *
+ * A job stops when its command is done, when it is cancelled, when it used up its budget of
+ * cycles or time (e.g. a finish whose requests can never be completed), or when a step fails.
+ * Its listener is told its progress at most once per progress interval, and once when it
+ * stops.
+ */
+public class SimulationJob implements Runnable {
+  /**
+   * What a job is doing, or why it stopped.
+   */
+  public enum Status {
+    RUNNING, DONE, CANCELLED, OUT_OF_BUDGET, FAILED
+  }
+
+  /**
+   * Told about a job's progress, on the thread running it.
+   */
+  public interface Listener {
+    void progress(SimulationJob job);
+
+    void stopped(SimulationJob job);
+  }
+
+  /** the time (ms) a chunk of steps should take */
+  public static final long TIME_SLICE = 50;
+
+  private final int id;
+  private final SimulationSession session;
+  private final String command;
+  private final int cycles;
+  private final long maxCycles;
+  private final long maxMillis;
+  private final long progressInterval;
+  private final Listener listener;
+  private volatile boolean cancelled;
+  private volatile Status status = Status.RUNNING;
+  private volatile int cycle;
+  private volatile long cyclesDone;
+  private volatile double cyclesPerSecond;
+  private volatile int outstandingRequests;
+  private volatile String output = "";
+  // what the last chunk left, read with the session locked
+  private boolean finished;
+  private int endCycle;
+
+  /**
+   * Creates a job; it starts when it is run.
+   *
+   * @param id the job id
+   * @param session the session the command is executed on
+   * @param command "step n" or "finish"
+   * @param maxCycles the most cycles the job may step
+   * @param maxMillis the most time (ms) the job may take
+   * @param progressInterval the least time (ms) between two progress reports
+   * @param listener told about the job's progress
+   * @throws IllegalArgumentException if the command is not a step or finish, or a limit is
+   *         not positive
+   */
+  public SimulationJob(int id, SimulationSession session, String command, long maxCycles, long maxMillis,
+      long progressInterval, Listener listener) {
+    if (maxCycles <= 0 || maxMillis <= 0) {
+      throw new IllegalArgumentException("A job's budget must be positive");
+    }
+    String[] tokens = command.trim().split("\\s+");
+    if (tokens.length == 1 && tokens[0].equals("finish")) {
+      this.cycles = -1;
+    } else if (tokens.length == 2 && tokens[0].equals("step")) {
+      try {
+        this.cycles = Integer.parseInt(tokens[1]);
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid step number: " + tokens[1]);
+      }
+      if (cycles <= 0) {
+        throw new IllegalArgumentException("step number should be larger than 0");
+      }
+    } else {
+      throw new IllegalArgumentException("Only step and finish can run as a job: " + command);
+    }
+    this.id = id;
+    this.session = session;
+    this.command = String.join(" ", tokens);
+    this.maxCycles = maxCycles;
+    this.maxMillis = maxMillis;
+    this.progressInterval = progressInterval;
+    this.listener = listener;
+  }
+
+  @Override
+  public void run() {
+    long start = System.nanoTime();
+    Status result;
+    try {
+      result = runChunks(start);
+    } catch (IOException | RuntimeException e) {
+      output = e.getMessage();
+      result = Status.FAILED;
+    }
+    stop(result, start);
+  }
+
+  private Status runChunks(long start) throws IOException {
+    long lastReport = start;
+    int chunk = 1;
+    int chunkCycle = session.read(s -> s.getView().getSimulation().getCurrentCycle());
+    while (true) {
+      if (cancelled) {
+        return Status.CANCELLED;
+      }
+      if (finished || cyclesDone == cycles) {
+        return Status.DONE;
+      }
+      if (cyclesDone >= maxCycles || System.nanoTime() - start >= maxMillis * 1_000_000) {
+        return Status.OUT_OF_BUDGET;
+      }
+      long left = maxCycles - cyclesDone;
+      if (cycles > 0) {
+        left = Math.min(left, cycles - cyclesDone);
+      }
+      int k = (int) Math.min(chunk, left);
+      long chunkStart = System.nanoTime();
+      output = session.execute((cycles < 0 ? "finish " : "step ") + k, s -> {
+        Simulation simulation = s.getView().getSimulation();
+        finished = cycles < 0 && simulation.isFinished();
+        endCycle = simulation.getCurrentCycle();
+        return s.getOutput();
+      });
+      long now = System.nanoTime();
+      // a finish chunk stops on the cycle every building finished
+      cyclesDone += finished ? Math.min(k, Math.max(0, endCycle - chunkCycle)) : k;
+      chunkCycle = endCycle;
+      chunk = nextChunk(k, now - chunkStart);
+      if (now - lastReport >= progressInterval * 1_000_000) {
+        update(start, now);
+        listener.progress(this);
+        lastReport = now;
+      }
+    }
+  }
+
+  /**
+   * Sizes the next chunk from how long the last one took, aiming at a time slice: it at
+   * most doubles, so a sudden burst of work does not hold the session for long.
+   */
+  static int nextChunk(int chunk, long nanos) {
+    long slice = TIME_SLICE * 1_000_000;
+    long next = nanos <= 0 ? 2L * chunk : chunk * slice / nanos;
+    return (int) Math.max(1, Math.min(next, Math.min(2L * chunk, Integer.MAX_VALUE)));
+  }
+
+  private void update(long start, long now) throws IOException {
+    session.read(s -> {
+      Simulation simulation = s.getView().getSimulation();
+      cycle = simulation.getCurrentCycle();
+      outstandingRequests = simulation.getOutstandingRequests();
+      return null;
+    });
+    cyclesPerSecond = now > start ? cyclesDone * 1e9 / (now - start) : 0;
+  }
+
+  private void stop(Status result, long start) {
+    try {
+      update(start, System.nanoTime());
+    } catch (IOException e) {
+      output = e.getMessage();
+      result = Status.FAILED;
+    }
+    status = result;
+    listener.stopped(this);
+  }
+
+  /**
+   * Asks the job to stop; it does so before its next chunk of steps.
+   */
+  public void cancel() {
+    cancelled = true;
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  public SimulationSession getSession() {
+    return session;
+  }
+
+  public String getCommand() {
+    return command;
+  }
+
+  public Status getStatus() {
+    return status;
+  }
+
+  /**
+   * @return the session's cycle at the last progress report
+   */
+  public int getCycle() {
+    return cycle;
+  }
+
+  /**
+   * @return the number of cycles the job has stepped
+   */
+  public long getCyclesDone() {
+    return cyclesDone;
+  }
+
+  public double getCyclesPerSecond() {
+    return cyclesPerSecond;
+  }
+
+  /**
+   * @return the number of requests queued at the session's buildings at the last progress
+   *         report
+   */
+  public int getOutstandingRequests() {
+    return outstandingRequests;
+  }
+
+  /**
+   * @return what the last command printed, or why the job failed
+   */
+  public String getOutput() {
+    return output;
+  }
+}
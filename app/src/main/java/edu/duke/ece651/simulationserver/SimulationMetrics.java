@@ -0,0 +1,66 @@
+package edu.duke.ece651.simulationserver;
+
+/**
+ * Receives timing and state measurements from the simulation engine.
+ *
+ * The engine only measures when isEnabled returns true, so with the default NOOP
+ * implementation the instrumented code paths cost a single virtual call. Durations
+ * are in nanoseconds.
+ */
+public interface SimulationMetrics {
+  /**
+   * Metrics implementation that records nothing.
+   */
+  SimulationMetrics NOOP = new SimulationMetrics() {
+  };
+
+  default boolean isEnabled() {
+    return false;
+  }
+
+  /**
+   * Called once per simulated cycle.
+   */
+  default void recordCycle(long nanos) {
+  }
+
+  default void recordSourceSelection(String policy, long nanos) {
+  }
+
+  default void recordRequestSelection(String policy, long nanos) {
+  }
+
+  /**
+   * Called once per Connector.connect route search.
+   */
+  default void recordRoute(long nanos) {
+  }
+
+  /**
+   * Called when user requests go over a queue limit, see QueueLimits.
+   *
+   * @param limit   "building" or "session"
+   * @param outcome "rejected", "shed" (units dropped to make room), "deferred", or "dropped"
+   *                (deferred units whose building went away)
+   * @param units   the number of units
+   */
+  default void recordRejection(String limit, String outcome, int units) {
+  }
+
+  default void recordSave(long nanos) {
+  }
+
+  default void recordLoad(long nanos) {
+  }
+
+  /**
+   * Called after a command of a session has finished, with the session lock held.
+   *
+   * @param session the session whose simulation may have changed
+   */
+  default void sessionUpdated(SimulationSession session) {
+  }
+
+  default void sessionRemoved(int id) {
+  }
+}
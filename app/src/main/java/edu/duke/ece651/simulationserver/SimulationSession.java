@@ -0,0 +1,286 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * One client session of the simulation server.
+ *
+ * A session owns its own SimulationTextView whose output goes to a private buffer,
+ * so the output of a command can be read back directly instead of capturing
+ * System.out. Callers that need to read the state a command left, before any other command
+ * runs, pass a Reader to execute; a Reader passed to read sees the state between commands.
+ *
+ * A session opened with a journal directory is durable: every command that changes the
+ * simulation is appended to a CommandJournal before execute returns, and a snapshot is taken
+ * every snapshotInterval commands. Commands that read a file (load, create) are not journaled,
+ * since the file may be gone when the session is recovered; a snapshot is taken after them
+ * instead. So is a rewind, since the history it replays from is only kept in memory; a
+ * recovered session can be rewound as far back as its snapshot.
+ */
+public class SimulationSession implements Closeable {
+  private final int id;
+  private final ByteArrayOutputStream buffer;
+  private final SimulationTextView view;
+  private final CommandJournal journal;
+  private final int snapshotInterval;
+
+  /**
+   * Creates a session whose simulation starts from the given configuration.
+   *
+   * @param id the session id
+   * @param configFile the JSON configuration the session's simulation is initialized from
+   * @throws IOException if the configuration cannot be read
+   */
+  public SimulationSession(int id, String configFile) throws IOException {
+    this(id, configFile, QueueLimits.UNLIMITED);
+  }
+
+  /**
+   * Creates a session whose simulation starts from the given configuration, with limits on
+   * the requests its users can queue.
+   *
+   * @param id the session id
+   * @param configFile the JSON configuration the session's simulation is initialized from
+   * @param queueLimits the queue limits of the session's simulations
+   * @throws IOException if the configuration cannot be read
+   */
+  public SimulationSession(int id, String configFile, QueueLimits queueLimits) throws IOException {
+    this.id = id;
+    this.buffer = new ByteArrayOutputStream();
+    this.view = new SimulationTextView(configFile, null, new PrintStream(buffer, true, StandardCharsets.UTF_8));
+    this.view.setQueueLimits(queueLimits);
+    this.journal = null;
+    this.snapshotInterval = 0;
+  }
+
+  /**
+   * Opens a durable session, recovering it from its latest snapshot and the commands
+   * journaled after it. A session without a snapshot starts from its session file if there
+   * is one, otherwise from the configuration, and a first snapshot is taken.
+   *
+   * Recovery executes the journaled commands again, each with the request id generator it
+   * first ran with, so they create the same requests. Only commands that succeeded are
+   * journaled, but one that fails again (e.g. because a file it writes can't be written now)
+   * is skipped, whatever it fails with, and the rest are executed.
+   *
+   * @param id the session id
+   * @param configFile the JSON configuration a new session's simulation is initialized from
+   * @param journalDirectory the directory the session's journal and snapshots are kept in
+   * @param snapshotInterval the number of journaled commands between snapshots
+   * @throws IOException if the session cannot be read or its journal cannot be written
+   */
+  public SimulationSession(int id, String configFile, File journalDirectory, int snapshotInterval) throws IOException {
+    this(id, configFile, journalDirectory, snapshotInterval, QueueLimits.UNLIMITED);
+  }
+
+  /**
+   * Opens a durable session with limits on the requests its users can queue; see above.
+   * The limits apply to the journaled commands executed again too.
+   *
+   * @param id the session id
+   * @param configFile the JSON configuration a new session's simulation is initialized from
+   * @param journalDirectory the directory the session's journal and snapshots are kept in
+   * @param snapshotInterval the number of journaled commands between snapshots
+   * @param queueLimits the queue limits of the session's simulations
+   * @throws IOException if the session cannot be read or its journal cannot be written
+   */
+  public SimulationSession(int id, String configFile, File journalDirectory, int snapshotInterval,
+      QueueLimits queueLimits) throws IOException {
+    if (snapshotInterval <= 0) {
+      throw new IllegalArgumentException("The snapshot interval must be positive");
+    }
+    this.id = id;
+    this.buffer = new ByteArrayOutputStream();
+    this.snapshotInterval = snapshotInterval;
+    this.journal = new CommandJournal(journalDirectory, id);
+    try {
+      File snapshot = journal.getSnapshot();
+      String start = snapshot != null ? snapshot.getPath()
+          : new File(getSessionFile()).isFile() ? getSessionFile() : configFile;
+      this.view = new SimulationTextView(start, null, new PrintStream(buffer, true, StandardCharsets.UTF_8));
+      view.setQueueLimits(queueLimits);
+      for (CommandJournal.Entry entry : journal.getEntries()) {
+        view.getSimulation().setRequestId(entry.getRequestId());
+        try {
+          view.parseCommand(entry.getCommand());
+        } catch (IOException | RuntimeException e) {
+          // the state it leaves is the state the next command ran on before
+        }
+      }
+      buffer.reset();
+      if (snapshot == null || journal.size() >= snapshotInterval) {
+        journal.snapshot(view.getSimulation());
+      }
+    } catch (IOException | RuntimeException e) {
+      journal.close();
+      throw e;
+    }
+  }
+
+  public int getId() {
+    return id;
+  }
+
+  /**
+   * @return the file the session's state is saved to between commands
+   */
+  public String getSessionFile() {
+    return "session" + id + ".json";
+  }
+
+  public SimulationTextView getView() {
+    return view;
+  }
+
+  /**
+   * Executes a command, discarding whatever it prints.
+   *
+   * @param command the command to execute
+   * @throws IOException if the command fails to read or write a file
+   */
+  public void parseCommand(String command) throws IOException {
+    execute(command);
+  }
+
+  /**
+   * Reads something from a session while no command runs on it.
+   */
+  @FunctionalInterface
+  public interface Reader<T> {
+    T read(SimulationSession session) throws IOException;
+  }
+
+  /**
+   * Executes a command and returns the output it produced.
+   *
+   * @param command the command to execute
+   * @return everything the command printed
+   * @throws IOException if the command fails to read or write a file
+   */
+  public String execute(String command) throws IOException {
+    return execute(command, SimulationSession::getOutput);
+  }
+
+  /**
+   * @return what the command running now printed, for a reader passed to execute
+   */
+  public String getOutput() {
+    return buffer.toString(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Executes a command, then reads the state it left before any other command runs, e.g. to
+   * send it to a client. The command is journaled, and the journal forced, with the session
+   * unlocked, so commands arriving meanwhile share the force.
+   *
+   * @param command the command to execute
+   * @param reader reads the session after the command, if it succeeded
+   * @return what the reader read
+   * @throws IOException if the command fails to read or write a file, or the reader fails
+   */
+  public <T> T execute(String command, Reader<T> reader) throws IOException {
+    long sequence = 0;
+    try {
+      synchronized (this) {
+        JfrEvents.Command event = new JfrEvents.Command();
+        event.begin();
+        buffer.reset();
+        boolean failed = true;
+        int requestId = view.getSimulation().getRequestId();
+        try {
+          view.parseCommand(command);
+          failed = false;
+          return reader.read(this);
+        }
+        finally {
+          event.end();
+          if (event.shouldCommit()) {
+            event.session = id;
+            event.command = command;
+            event.outputBytes = buffer.size();
+            event.failed = failed;
+            event.commit();
+          }
+          buffer.reset();
+          // a command that failed is not journaled, so recovery does not run it again
+          if (journal != null && !failed) {
+            sequence = journal(command, requestId);
+          }
+          Simulation.getMetrics().sessionUpdated(this);
+        }
+      }
+    }
+    finally {
+      if (sequence > 0) {
+        journal.sync(sequence);
+      }
+    }
+  }
+
+  /**
+   * Journals an executed command, or takes a snapshot instead.
+   *
+   * @return the sequence number to sync, or 0 if there is nothing to wait for
+   */
+  private long journal(String command, int requestId) throws IOException {
+    String type = command.trim().split(" ", 2)[0];
+    if (type.equals("save")) {
+      return 0;
+    }
+    if (type.equals("load") || type.equals("create") || type.equals("rewind")) {
+      journal.snapshot(view.getSimulation());
+      return 0;
+    }
+    long sequence = journal.append(command, requestId);
+    if (journal.size() >= snapshotInterval) {
+      journal.snapshot(view.getSimulation());
+      return 0;
+    }
+    return sequence;
+  }
+
+  /**
+   * Reads something from the session between two commands.
+   *
+   * @param reader reads the session
+   * @return what the reader read
+   * @throws IOException if the reader fails
+   */
+  public synchronized <T> T read(Reader<T> reader) throws IOException {
+    return reader.read(this);
+  }
+
+  /**
+   * @return the structure of the recipes of the session's simulation, see RecipeGraph
+   */
+  public synchronized RecipeGraph getRecipeGraph() {
+    return view.getSimulation().getRecipeGraph();
+  }
+
+  /**
+   * @return the session's simulation state as compact JSON, as a save would write it
+   * @throws IOException if the state cannot be written
+   */
+  public synchronized byte[] toJson() throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    view.getSimulation().save(out, false);
+    return out.toByteArray();
+  }
+
+  /**
+   * Closes the session's journal, if it has one.
+   *
+   * @throws IOException if the journal cannot be closed
+   */
+  @Override
+  public synchronized void close() throws IOException {
+    if (journal != null) {
+      journal.close();
+    }
+  }
+}
@@ -4,8 +4,10 @@ import java.io.BufferedReader;
 import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStreamReader;
+import java.io.PrintStream;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Set;
 
 
 import org.springframework.beans.factory.annotation.Autowired;
@@ -20,12 +22,24 @@ import org.springframework.stereotype.Component;
  * production requests, simulation stepping, finishing the simulation, setting verbosity, saving and loading state,
  * and setting selection policies.
  * 
+ * Everything the view and its simulation print goes to the view's own output stream
+ * and event log, so several views can run side by side without sharing System.out.
+ *
+ * The view keeps a Timeline of its simulation, so "rewind CYCLE" can go back to any cycle
+ * since the simulation was loaded.
  */
 @Component
 public class SimulationTextView {
+  // commands that change the simulation without stepping it or reading a file, which a
+  // rewind executes again
+  private static final Set<String> RECORDED = Set.of("request", "set", "connect", "disconnect", "add_drone", "remove");
   private Simulation simulation;
   BufferedReader bufferedReader;
   Boolean finished;
+  private final PrintStream out;
+  private final EventLog eventLog;
+  private Timeline timeline;
+  private QueueLimits queueLimits = QueueLimits.UNLIMITED;
 
   /**
    * Constructs a new SimulationTextView by initializing a Simulation from the given JSON configuration
@@ -36,16 +50,81 @@ public class SimulationTextView {
    * @throws IOException if an error occurs during simulation initialization
    */
   public SimulationTextView(String fileName, BufferedReader br) throws IOException {
+    this(fileName, br, null);
+  }
+
+  /**
+   * Constructs a new SimulationTextView that writes its output to the given stream.
+   *
+   * @param fileName the path to the JSON configuration file used to initialize the simulation
+   * @param br a BufferedReader from which user commands will be read
+   * @param out the stream all output is written to, or null to write to System.out
+   * @throws IOException if an error occurs during simulation initialization
+   */
+  public SimulationTextView(String fileName, BufferedReader br, PrintStream out) throws IOException {
+    this.out = out;
+    eventLog = new EventLog();
+    eventLog.addSink(new TextEventSink(out));
     simulation = new Simulation(fileName);
+    timeline = new Timeline();
+    timeline.reset(simulation);
     bufferedReader = br;
     finished = false;
   }
 
   @Autowired
   public SimulationTextView(@Value("${simulation.config-file}")String fileName) throws IOException {
-    simulation = new Simulation(fileName);
-    bufferedReader = new BufferedReader(new InputStreamReader(System.in));
-    finished = false;
+    this(fileName, new BufferedReader(new InputStreamReader(System.in)));
+  }
+
+  public Simulation getSimulation() {
+    return simulation;
+  }
+
+  /**
+   * @return the history of this view's simulation
+   */
+  public Timeline getTimeline() {
+    return timeline;
+  }
+
+  /**
+   * Replaces the history of this view's simulation, e.g. to change how often checkpoints
+   * are taken. The new timeline starts from the simulation's current state.
+   *
+   * @param timeline the timeline
+   */
+  public void setTimeline(Timeline timeline) {
+    this.timeline = timeline;
+    timeline.reset(simulation);
+  }
+
+  /**
+   * @return the queue limits every simulation of this view gets
+   */
+  public QueueLimits getQueueLimits() {
+    return queueLimits;
+  }
+
+  /**
+   * Sets the queue limits of this view's simulation, and of every simulation it loads later.
+   *
+   * @param queueLimits the limits
+   */
+  public void setQueueLimits(QueueLimits queueLimits) {
+    this.queueLimits = queueLimits;
+    simulation.setQueueLimits(queueLimits);
+  }
+
+  /**
+   * @return the event log this view's simulation reports to
+   */
+  public EventLog getEventLog() {
+    return eventLog;
+  }
+
+  private PrintStream getOut() {
+    return out != null ? out : System.out;
   }
 
 
@@ -59,7 +138,7 @@ public class SimulationTextView {
    * @throws IOException if an error occurs during reading from the bufferedReader
    */
   public void run() throws IOException {
-    System.out.print(Simulation.getCycle() + "> ");
+    getOut().print(simulation.getCurrentCycle() + "> ");
     String line = bufferedReader.readLine();
     while (line != null) {
       try {
@@ -69,14 +148,14 @@ public class SimulationTextView {
         }
       }
       catch (IllegalArgumentException e) {
-        System.out.println(e.getMessage());
+        getOut().println(e.getMessage());
       }
       catch (FileNotFoundException e) {
-        System.out.println(e.getMessage());
+        getOut().println(e.getMessage());
       }
       finally {
         if (!finished) {
-          System.out.print(Simulation.getCycle() + "> ");
+          getOut().print(simulation.getCurrentCycle() + "> ");
           line = bufferedReader.readLine();
         }
       }
@@ -87,17 +166,41 @@ public class SimulationTextView {
    * Parses and executes a single command.
    * 
    * The command is tokenized by splitting on spaces and then processed based on the first token.
-   * Supported command types include: "request", "step", "finish", "verbose", "save", "load", and "set".
+   * Supported command types include: "request", "step", "finish", "verbose", "save", "load", "set"
+   * and "rewind".
    *
    * @param input the full command string entered by the user
    * @throws IOException if an error occurs during command processing (e.g., while saving or loading)
    * @throws IllegalArgumentException if the command is not recognized or is improperly formatted
    */
   public void parseCommand(String input) throws IOException {
+    ArrayList<String> tokens = tokenize(input);
+    EventLog previous = Verbosity.bind(eventLog);
+    Simulation previousSimulation = simulation.makeCurrent();
+    try {
+      int requestId = simulation.getRequestId();
+      execute(tokens);
+      if (RECORDED.contains(tokens.get(0))) {
+        timeline.record(input, simulation.getCurrentCycle(), requestId);
+      }
+    }
+    finally {
+      // events are buffered, make sure everything this command produced is printed
+      eventLog.flush();
+      Verbosity.bind(previous);
+      Simulation.restoreCurrent(previousSimulation);
+    }
+  }
+
+  private ArrayList<String> tokenize(String input) {
     ArrayList<String> tokens = splitCommand(input);
     ArrayList<String> removeList = new ArrayList<>();
     removeList.add("");
     tokens.removeAll(removeList);
+    return tokens;
+  }
+
+  private void execute(ArrayList<String> tokens) throws IOException {
     String commandType = tokens.get(0);
     switch (commandType) {
       case "request":
@@ -136,6 +239,9 @@ public class SimulationTextView {
       case "remove":
         parseRemoveCommand(tokens);
         break;
+      case "rewind":
+        parseRewindCommand(tokens);
+        break;
     default:
         throw new IllegalArgumentException("Invalid command4");
     }
@@ -199,26 +305,36 @@ public class SimulationTextView {
   }
 
   /**
-   * Parses and executes a "request" command.
+   * Parses and executes a "request" command, {@code request [quantity] 'output' from 'building'}.
    *
    * @param tokens the tokenized command string
    * @throws IllegalArgumentException if the command is not in the expected format
    */
   private void parseRequestCommand(ArrayList<String> tokens) {
-    if (tokens.size() != 4) {
+    // request [quantity] 'output' from 'building'
+    int at = tokens.size() - 4;
+    if (at != 0 && at != 1) {
       throw new IllegalArgumentException("Invalid command");
     }
-    if (!tokens.get(2).equals("from")) {
+    int quantity = 1;
+    if (at == 1) {
+      try {
+        quantity = Integer.parseInt(tokens.get(1));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid request quantity: " + tokens.get(1));
+      }
+    }
+    if (!tokens.get(at + 2).equals("from")) {
       throw new IllegalArgumentException("Invalid command");
     }
-    String outputString = tokens.get(1);
-    String buildingString = tokens.get(3);
+    String outputString = tokens.get(at + 1);
+    String buildingString = tokens.get(at + 3);
     if (!(quoted(outputString) && quoted(buildingString))) {
       throw new IllegalArgumentException("Invalid command");
     }
     outputString = unquote(outputString);
     buildingString = unquote(buildingString);
-    simulation.request(buildingString, outputString);
+    simulation.request(buildingString, outputString, quantity);
   }
 
   /**
@@ -231,34 +347,56 @@ public class SimulationTextView {
     if (tokens.size() != 2) {
       throw new IllegalArgumentException("Invalid command");
     }
-    simulation.stepN(Integer.valueOf(tokens.get(1)));
+    timeline.step(simulation, Integer.valueOf(tokens.get(1)));
   }
 
   /**
    * Parses and executes a "finish" command.
    * 
-   * The expected format is simply: {@code finish}. This command instructs the simulation to continue
-   * processing until all requests have been completed. Once finished, the finished flag is set to true.
+   * The expected format is {@code finish}, or {@code finish n}. This command instructs the simulation to continue
+   * processing until all requests have been completed, for at most n cycles if given. Once finished, the finished
+   * flag is set to true.
    * 
    *
    * @param tokens the tokenized command string
-   * @throws IllegalArgumentException if the command does not have exactly one token
+   * @throws IllegalArgumentException if the command has more than two tokens or n is not a positive number
    */
   private void parseFinishCommand(ArrayList<String> tokens) {
-    if (tokens.size() != 1) {
+    if (tokens.size() == 2) {
+      int n;
+      try {
+        n = Integer.parseInt(tokens.get(1));
+      } catch (NumberFormatException e) {
+        throw new IllegalArgumentException("Invalid command");
+      }
+      if (n <= 0) {
+        throw new IllegalArgumentException("Invalid command");
+      }
+      if (!timeline.finish(simulation, n)) {
+        return;
+      }
+    }
+    else if (tokens.size() == 1) {
+      timeline.finish(simulation);
+    }
+    else {
       throw new IllegalArgumentException("Invalid command");
     }
-    simulation.finish();
+    timeline.checkpoint(simulation);
     finished = true;
   }
 
   /**
-   * Parses and executes a "set" command to change a policy.
+   * Parses and executes a "set" command to change a policy, or a building's queue limit.
    * 
    * @param tokens the tokenized command string
    * @throws IllegalArgumentException if the command format is invalid
    */
   private void parseSetPolicyCommand(ArrayList<String> tokens) {
+    if (tokens.size() > 1 && tokens.get(1).equals("limit")) {
+      parseSetLimitCommand(tokens);
+      return;
+    }
     // System.out.println("set policy command tokens: " + tokens);
     if (tokens.size() != 6) {
       throw new IllegalArgumentException("Invalid command");
@@ -308,6 +446,26 @@ public class SimulationTextView {
     }
   }
 
+  /**
+   * Parses and executes a "set limit N on 'BUILDING'" command, which limits the units of
+   * user requests queued at the building to N, or with N = 0 to the simulation's limit.
+   *
+   * @param tokens the tokenized command string
+   * @throws IllegalArgumentException if the command format is invalid
+   */
+  private void parseSetLimitCommand(ArrayList<String> tokens) {
+    if (tokens.size() != 5 || !tokens.get(3).equals("on") || !quoted(tokens.get(4))) {
+      throw new IllegalArgumentException("Invalid command");
+    }
+    int limit;
+    try {
+      limit = Integer.parseInt(tokens.get(2));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException("Invalid queue limit: " + tokens.get(2));
+    }
+    simulation.setQueueLimit(unquote(tokens.get(4)), limit);
+  }
+
   /**
    * Parses and executes a "verbose" command.
    *
@@ -326,18 +484,24 @@ public class SimulationTextView {
   }
 
   /**
-   * Parses and executes a "save" command.
+   * Parses and executes a "save" command: save FILE, save FILE pretty for an
+   * indented file, or save FILE binary for a binary snapshot.
    *
    * @param tokens the tokenized command string
    * @throws IOException if an error occurs while saving the simulation state
-   * @throws IllegalArgumentException if the command does not have exactly 2 tokens
+   * @throws IllegalArgumentException if the command is not one of the forms above
    */
   private void parseSaveCommand(ArrayList<String> tokens) throws IOException {
-    if (tokens.size() != 2) {
+    String format = tokens.size() == 3 ? tokens.get(2) : "";
+    if (tokens.size() < 2 || tokens.size() > 3 || !(format.isEmpty() || format.equals("pretty") || format.equals("binary"))) {
       throw new IllegalArgumentException("Invalid command");
     }
     String fileName = tokens.get(1);
-    simulation.save(fileName);
+    if (format.equals("binary")) {
+      simulation.saveSnapshot(fileName);
+    } else {
+      simulation.save(fileName, format.equals("pretty"));
+    }
   }
 
   /**
@@ -353,6 +517,8 @@ public class SimulationTextView {
     }
     String fileName = tokens.get(1);
     simulation = new Simulation(fileName);
+    simulation.setQueueLimits(queueLimits);
+    timeline.reset(simulation);
   }
 
    /**
@@ -397,6 +563,8 @@ public class SimulationTextView {
     }
     String fileName = tokens.get(1);
     simulation.createBuilding(fileName);
+    // the file may be gone by the time of a rewind
+    timeline.checkpoint(simulation);
   }
   
   /**
@@ -437,4 +605,37 @@ public class SimulationTextView {
     simulation.tryRemoveBuilding(unquote(buildingName));
   }
   
+  /**
+   * Parses and executes a "rewind" command: rewind CYCLE goes back to a past cycle, and
+   * forgets everything after it.
+   *
+   * @param tokens the tokenized command string
+   * @throws IOException if a replayed command fails to read or write a file
+   * @throws IllegalArgumentException if the command does not have exactly 2 tokens, or the
+   *         cycle is in the future or before the start of the timeline
+   */
+  private void parseRewindCommand(ArrayList<String> tokens) throws IOException {
+    if (tokens.size() != 2) {
+      throw new IllegalArgumentException("Invalid command");
+    }
+    int cycle = Integer.valueOf(tokens.get(1));
+    if (cycle > simulation.getCurrentCycle()) {
+      throw new IllegalArgumentException("Cannot rewind to cycle " + cycle + ", the simulation is at cycle " + simulation.getCurrentCycle());
+    }
+    Simulation original = simulation;
+    // the replay repeats what was already printed, so it reports to a log nobody reads
+    EventLog previous = Verbosity.bind(new EventLog());
+    try {
+      simulation = timeline.rewind(cycle, (replayed, command) -> {
+        simulation = replayed;
+        execute(tokenize(command));
+      });
+    } catch (IOException | RuntimeException e) {
+      simulation = original;
+      throw e;
+    } finally {
+      Verbosity.bind(previous);
+    }
+  }
+
 }
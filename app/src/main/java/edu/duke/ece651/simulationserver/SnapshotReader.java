@@ -0,0 +1,464 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads a binary snapshot written by SnapshotWriter. A snapshot always holds a saved
+ * session, so the routes of sources and waste disposals are followed rather than searched
+ * again, as when JsonInitializer reads a saved session.
+ *
+ * Initializer.forFile tells a snapshot from a JSON file by its first bytes.
+ */
+public class SnapshotReader implements Initializer {
+  static final byte[] MAGIC = { 'S', 'I', 'M', 'S' };
+  static final int VERSION = 3;
+
+  // building kinds
+  static final int FACTORY = 0;
+  static final int MINE = 1;
+  static final int STORAGE = 2;
+  static final int WASTE_DISPOSAL = 3;
+  static final int DRONE_PORT = 4;
+
+  // building flags
+  static final int REMOVE_MARK = 1;
+  static final int DEFAULT_REQUEST_POLICY = 2;
+  static final int DEFAULT_SOURCE_POLICY = 4;
+  static final int CURRENT_REQUEST = 8;
+  static final int COORDINATE = 16;
+  static final int QUEUE_LIMIT = 32;
+  static final int UPSTREAM_BACKLOGS = 64;
+
+  // which way a run of roads goes: right, left, down, up
+  static final int[][] STEPS = { { 0, 1 }, { 0, -1 }, { 1, 0 }, { -1, 0 } };
+
+  // request flags
+  static final int WASTE_REQUEST = 1;
+  static final int HAS_REQUESTER = 2;
+  static final int USER_REQUEST = 4;
+
+  private final File file;
+  private Connector connector;
+  private int cycle;
+  private int requestId;
+  private List<Simulation.PendingRequest> pendingRequests = Collections.emptyList();
+
+  // what is being read, only while initializeSystem runs
+  private DataInputStream in;
+  private List<String> strings;
+  private Map<String, RequestSelectionPolicy> requestPolicies;
+  private Map<String, SourceSelectionPolicy> sourcePolicies;
+
+  /**
+   * Constructs a new SnapshotReader for the specified file, which is read by initializeSystem.
+   *
+   * @param fileName the path to the snapshot
+   * @throws IOException if the file does not exist
+   */
+  public SnapshotReader(String fileName) throws IOException {
+    CoordinateSetter.reset();
+    file = new File(fileName);
+    // a missing file is reported here, with the JDK's message, rather than once it is read
+    new FileInputStream(file).close();
+    connector = new Connector();
+  }
+
+  /**
+   * Checks whether a file is a binary snapshot, by its first bytes.
+   *
+   * @param fileName the file to check
+   * @return true if the file starts like a snapshot, false if not or if it cannot be read
+   */
+  public static boolean isSnapshot(String fileName) {
+    try (InputStream stream = new FileInputStream(fileName)) {
+      byte[] start = stream.readNBytes(MAGIC.length);
+      return Arrays.equals(start, MAGIC);
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  /**
+   * Encodes a road direction in a byte: 0 for a two way road, otherwise one of the eight
+   * neighbouring squares.
+   */
+  static int directionCode(int[] direction) {
+    if (direction == null) {
+      return 0;
+    }
+    return (direction[0] + 1) * 3 + (direction[1] + 1) + 1;
+  }
+
+  /**
+   * @return the index in STEPS of a step to a neighbouring square, or -1 if it is not one
+   */
+  static int step(int rowDelta, int columnDelta) {
+    for (int i = 0; i < STEPS.length; i++) {
+      if (STEPS[i][0] == rowDelta && STEPS[i][1] == columnDelta) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static int[] direction(int code) {
+    if (code == 0) {
+      return null;
+    }
+    if (code < 1 || code > 9) {
+      throw new IllegalArgumentException("Invalid snapshot: road direction " + code);
+    }
+    return new int[] { (code - 1) / 3 - 1, (code - 1) % 3 - 1 };
+  }
+
+  @Override
+  public void initializeSystem(Map<String, Recipe> recipes,
+                               Map<String, FactoryType> types,
+                               Map<String, Building> buildings,
+                               Map<Coordinate, Square> squares,
+                               List<Road> roads) throws IOException {
+    requestPolicies = new HashMap<>();
+    requestPolicies.put("fifo", new FifoPolicy());
+    requestPolicies.put("ready", new ReadyPolicy());
+    requestPolicies.put("sjf", new SjfPolicy());
+    sourcePolicies = new HashMap<>();
+    sourcePolicies.put("qlen", new QlenPolicy());
+    sourcePolicies.put("simpleLat", new SimplelatPolicy());
+    sourcePolicies.put("recursiveLat", new RecursiveLatPolicy(recipes));
+    sourcePolicies.put("criticalpath", new CriticalPathPolicy(recipes));
+    strings = new ArrayList<>();
+    try (DataInputStream stream = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16))) {
+      in = stream;
+      byte[] magic = new byte[MAGIC.length];
+      in.readFully(magic);
+      if (!Arrays.equals(magic, MAGIC)) {
+        throw new IllegalArgumentException("Invalid snapshot: " + file.getName() + " is not a snapshot");
+      }
+      int version = readVarint();
+      // version 1 had no pending requests; versions 1 and 2 never set UPSTREAM_BACKLOGS
+      if (version < 1 || version > VERSION) {
+        throw new IllegalArgumentException("Unsupported snapshot version " + version);
+      }
+      requestId = readVarint();
+      cycle = readSigned();
+      readRecipes(recipes);
+      readTypes(recipes, types);
+      List<BuildingLinks> links = readBuildings(recipes, types, buildings);
+      Map<Integer, Request> requests = readRequests(recipes, buildings);
+      readRoads(squares, roads);
+      if (version > 1) {
+        readPendingRequests(buildings);
+      }
+
+      BuildingLinks.placeBuildings(buildings, squares);
+      BuildingLinks.connect(links, buildings, squares, roads, connector, false);
+      BuildingLinks.addRequests(links, requests);
+    } catch (EOFException e) {
+      throw new IllegalArgumentException("Invalid snapshot: " + file.getName() + " ends too early");
+    } finally {
+      in = null;
+      strings = null;
+      requestPolicies = null;
+      sourcePolicies = null;
+    }
+  }
+
+  @Override
+  public int getCycle() {
+    return cycle;
+  }
+
+  @Override
+  public int getRequestId() {
+    return requestId;
+  }
+
+  @Override
+  public List<Simulation.PendingRequest> getPendingRequests() {
+    return pendingRequests;
+  }
+
+  private int readVarint() throws IOException {
+    int value = 0;
+    for (int shift = 0; shift < 35; shift += 7) {
+      int b = in.readUnsignedByte();
+      value |= (b & 0x7f) << shift;
+      if ((b & 0x80) == 0) {
+        return value;
+      }
+    }
+    throw new IllegalArgumentException("Invalid snapshot: malformed number");
+  }
+
+  private int readSigned() throws IOException {
+    int value = readVarint();
+    return (value >>> 1) ^ -(value & 1);
+  }
+
+  private String readString() throws IOException {
+    int ref = readVarint();
+    if (ref == 0) {
+      return null;
+    }
+    if (ref == 1) {
+      byte[] bytes = new byte[readVarint()];
+      in.readFully(bytes);
+      String value = new String(bytes, StandardCharsets.UTF_8);
+      strings.add(value);
+      return value;
+    }
+    if (ref - 2 >= strings.size()) {
+      throw new IllegalArgumentException("Invalid snapshot: unknown string " + (ref - 2));
+    }
+    return strings.get(ref - 2);
+  }
+
+  private void readRecipes(Map<String, Recipe> recipes) throws IOException {
+    int count = readVarint();
+    for (int i = 0; i < count; i++) {
+      String output = readString();
+      int latency = readVarint();
+      String waste = readString();
+      int wasteAmount = readSigned();
+      Map<String, Integer> ingredients = new LinkedHashMap<>();
+      int ingredientCount = readVarint();
+      for (int j = 0; j < ingredientCount; j++) {
+        String ingredient = readString();
+        ingredients.put(ingredient, readSigned());
+      }
+      if (waste == null) {
+        recipes.put(output, new Recipe(output, ingredients, latency));
+      } else {
+        recipes.put(output, new Recipe(output, waste, wasteAmount, ingredients, latency));
+      }
+    }
+  }
+
+  private void readTypes(Map<String, Recipe> recipes, Map<String, FactoryType> types) throws IOException {
+    int count = readVarint();
+    for (int i = 0; i < count; i++) {
+      String name = readString();
+      List<Recipe> typeRecipes = new ArrayList<>();
+      int recipeCount = readVarint();
+      for (int j = 0; j < recipeCount; j++) {
+        typeRecipes.add(recipes.get(readString()));
+      }
+      types.put(name, new FactoryType(name, typeRecipes));
+    }
+  }
+
+  private List<BuildingLinks> readBuildings(Map<String, Recipe> recipes, Map<String, FactoryType> types,
+                                            Map<String, Building> buildings) throws IOException {
+    int count = readVarint();
+    List<BuildingLinks> links = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      BuildingLinks link = new BuildingLinks();
+      String name = readString();
+      int kind = in.readUnsignedByte();
+      int flags = in.readUnsignedByte();
+      Building building;
+      switch (kind) {
+        case FACTORY:
+          FactoryType type = types.get(readString());
+          if (type == null) {
+            throw new IllegalArgumentException("Factory Type doesn't exist");
+          }
+          Factory factory = new Factory(name, new ArrayList<>(), type);
+          readConnections(link.sources);
+          int wasteCount = readVarint();
+          for (int j = 0; j < wasteCount; j++) {
+            String waste = readString();
+            factory.addWaste(waste, readSigned());
+          }
+          readConnections(link.wasteDisposals);
+          building = factory;
+          break;
+        case MINE:
+          building = new Mine(name, new ArrayList<>(), recipes.get(readString()));
+          break;
+        case STORAGE:
+          Recipe stores = recipes.get(readString());
+          int capacity = readSigned();
+          int remain = readSigned();
+          double priority = in.readDouble();
+          building = new Storage(name, stores, new ArrayList<>(), capacity, remain, priority);
+          readConnections(link.sources);
+          break;
+        case WASTE_DISPOSAL:
+          int disposalCapacity = readSigned();
+          int currentAmount = readSigned();
+          List<Recipe> wasteTypes = new ArrayList<>();
+          int typeCount = readVarint();
+          for (int j = 0; j < typeCount; j++) {
+            wasteTypes.add(recipes.get(readString()));
+          }
+          int disposeAmount = readSigned();
+          int disposeInterval = readSigned();
+          int interval = readSigned();
+          int predictedAmount = readSigned();
+          building = new WasteDisposal(name, disposalCapacity, wasteTypes, disposeAmount, disposeInterval,
+              currentAmount, interval, predictedAmount);
+          break;
+        case DRONE_PORT:
+          building = new DronePort(name);
+          int droneCount = readVarint();
+          for (int j = 0; j < droneCount; j++) {
+            if (in.readBoolean()) {
+              Coordinate source = new Coordinate(readSigned(), readSigned());
+              int requestId = readVarint();
+              link.drones.add(new BuildingLinks.DroneState(true, source, requestId, readSigned()));
+            } else {
+              link.drones.add(new BuildingLinks.DroneState(false, null, 0, 0));
+            }
+          }
+          break;
+        default:
+          throw new IllegalArgumentException("Invalid snapshot: unknown building kind " + kind);
+      }
+
+      int requestCount = readVarint();
+      for (int j = 0; j < requestCount; j++) {
+        link.requests.add(readVarint());
+      }
+      Map<String, Integer> inventory = new LinkedHashMap<>();
+      int itemCount = readVarint();
+      for (int j = 0; j < itemCount; j++) {
+        String item = readString();
+        inventory.put(item, readSigned());
+      }
+      building.setInventory(inventory);
+      String requestPolicy = readString();
+      if (requestPolicy != null) {
+        building.setRequestPolicy(requestPolicies.get(requestPolicy));
+      }
+      String sourcePolicy = readString();
+      if (sourcePolicy != null) {
+        building.setSourcePolicy(sourcePolicies.get(sourcePolicy));
+      }
+      building.setDefaultRequest((flags & DEFAULT_REQUEST_POLICY) != 0);
+      building.setDefaultSource((flags & DEFAULT_SOURCE_POLICY) != 0);
+      building.setRemoveMark((flags & REMOVE_MARK) != 0);
+      if ((flags & CURRENT_REQUEST) != 0) {
+        link.currReq = readVarint();
+        building.setTimeLeft(readSigned());
+      }
+      if ((flags & COORDINATE) != 0) {
+        building.setCoordinate(new Coordinate(readSigned(), readSigned()));
+      }
+      if ((flags & QUEUE_LIMIT) != 0) {
+        building.setQueueLimit(readVarint());
+      }
+      if ((flags & UPSTREAM_BACKLOGS) != 0) {
+        int backlogCount = readVarint();
+        for (int j = 0; j < backlogCount; j++) {
+          String product = readString();
+          int cycle = readSigned();
+          building.setUpstreamBacklog(product, cycle, readSigned());
+        }
+      }
+      int deliveryCount = readVarint();
+      for (int j = 0; j < deliveryCount; j++) {
+        int id = readVarint();
+        link.deliveries.add(new int[] { id, readSigned() });
+      }
+      buildings.put(name, building);
+      link.building = building;
+      links.add(link);
+    }
+    return links;
+  }
+
+  private void readConnections(List<BuildingLinks.Connection> connections) throws IOException {
+    int count = readVarint();
+    for (int i = 0; i < count; i++) {
+      String name = readString();
+      int[] route = new int[4];
+      for (int j = 0; j < route.length; j++) {
+        route[j] = readSigned();
+      }
+      connections.add(new BuildingLinks.Connection(name, route));
+    }
+  }
+
+  private Map<Integer, Request> readRequests(Map<String, Recipe> recipes, Map<String, Building> buildings)
+      throws IOException {
+    int count = readVarint();
+    Map<Integer, Request> requests = new HashMap<>();
+    RequestState[] states = RequestState.values();
+    for (int i = 0; i < count; i++) {
+      int id = readVarint();
+      int flags = in.readUnsignedByte();
+      int amount = 0;
+      Recipe recipe = null;
+      if ((flags & WASTE_REQUEST) != 0) {
+        amount = readSigned();
+      } else {
+        recipe = recipes.get(readString());
+      }
+      Building requester = (flags & HAS_REQUESTER) != 0 ? buildings.get(readString()) : null;
+      int state = in.readUnsignedByte();
+      if (state >= states.length) {
+        throw new IllegalArgumentException("Invalid snapshot: unknown request state " + state);
+      }
+      if ((flags & WASTE_REQUEST) != 0) {
+        requests.put(id, new wasteRequest(id, (WasteDisposal) requester, states[state].name(), amount));
+      } else {
+        requests.put(id, new Request(id, recipe, requester, states[state].name(), (flags & USER_REQUEST) != 0));
+      }
+    }
+    return requests;
+  }
+
+  private void readPendingRequests(Map<String, Building> buildings) throws IOException {
+    int count = readVarint();
+    pendingRequests = new ArrayList<>(count);
+    for (int i = 0; i < count; i++) {
+      String building = readString();
+      String output = readString();
+      int quantity = readVarint();
+      if (!buildings.containsKey(building) || quantity <= 0) {
+        throw new IllegalArgumentException("Invalid snapshot: invalid pending request for " + building);
+      }
+      pendingRequests.add(new Simulation.PendingRequest(building, output, quantity));
+    }
+  }
+
+  private void readRoads(Map<Coordinate, Square> squares, List<Road> roads) throws IOException {
+    int runs = readVarint();
+    int row = 0;
+    int column = 0;
+    for (int i = 0; i < runs; i++) {
+      row += readSigned();
+      column += readSigned();
+      int length = readVarint();
+      int code = in.readUnsignedByte();
+      if ((code >> 4) >= STEPS.length) {
+        throw new IllegalArgumentException("Invalid snapshot: road run " + code);
+      }
+      int[] step = STEPS[code >> 4];
+      for (int j = 0; j < length; j++) {
+        Coordinate coord = new Coordinate(row + step[0] * j, column + step[1] * j);
+        int[] direction = direction(code & 0xf);
+        Road road = direction == null ? new Road(coord) : new Road(coord, direction);
+        roads.add(road);
+        squares.put(coord, road);
+      }
+      row += step[0] * (length - 1);
+      column += step[1] * (length - 1);
+    }
+  }
+}
@@ -0,0 +1,435 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Saves a simulation as a binary snapshot, the compact alternative to JsonSaver. It holds
+ * the same state as the JSON a JsonSaver writes, and is read back by SnapshotReader.
+ *
+ * The file starts with the magic bytes "SIMS" and a format version, followed by the
+ * request id generator, the cycle, and the recipes, types, buildings, requests and roads,
+ * then the user requests waiting for room under the queue limits, which a JSON save leaves
+ * out; a session's journal recovers from snapshots, and must not lose them.
+ * Counts, ids and other integers are varints (signed ones zigzag encoded), so small
+ * numbers take a byte. Names are written once: the first time a string appears its bytes
+ * follow, and later it is referred to by its index in the string table. Roads are stored
+ * in order, as runs of squares in a straight line with the same direction.
+ *
+ * Like JsonSaver, the snapshot is written in one pass as it is read from the simulation.
+ */
+public class SnapshotWriter {
+  private final Map<String, Recipe> recipes;
+  private final Map<String, FactoryType> types;
+  private final Map<String, Building> buildings;
+  private final List<Request> requests;
+  private final int requestId;
+  private final int cycle;
+  private final List<Road> paths;
+  private final Collection<Simulation.PendingRequest> pendingRequests;
+
+  private DataOutputStream out;
+  private Map<String, Integer> strings;
+
+  /**
+   * Constructs a new SnapshotWriter with the given simulation data, as for JsonSaver.
+   *
+   * @param recipes   the simulation's recipes by output
+   * @param types     the simulation's factory types by name
+   * @param buildings the simulation's buildings by name
+   * @param requests  all the requests queued at or travelling from the buildings, each written
+   *                  once per unit
+   * @param requestId the current request ID value
+   * @param cycle     the current simulation cycle
+   * @param paths     the roads
+   */
+  public SnapshotWriter(Map<String, Recipe> recipes,
+                        Map<String, FactoryType> types,
+                        Map<String, Building> buildings,
+                        List<Request> requests,
+                        int requestId,
+                        int cycle,
+                        List<Road> paths) {
+    this(recipes, types, buildings, requests, requestId, cycle, paths, Collections.emptyList());
+  }
+
+  /**
+   * Constructs a new SnapshotWriter for a simulation with user requests waiting for room.
+   *
+   * @param pendingRequests the user requests waiting for room under the queue limits, in order
+   */
+  SnapshotWriter(Map<String, Recipe> recipes,
+                 Map<String, FactoryType> types,
+                 Map<String, Building> buildings,
+                 List<Request> requests,
+                 int requestId,
+                 int cycle,
+                 List<Road> paths,
+                 Collection<Simulation.PendingRequest> pendingRequests) {
+    this.recipes = recipes;
+    this.types = types;
+    this.buildings = buildings;
+    // a request for several units is saved as a request per unit
+    this.requests = new ArrayList<>();
+    for (Request request : requests) {
+      this.requests.addAll(request.getUnits());
+    }
+    this.requestId = requestId;
+    this.cycle = cycle;
+    this.paths = paths;
+    this.pendingRequests = pendingRequests;
+  }
+
+  /**
+   * Saves the snapshot to the file with the specified name.
+   *
+   * @param fileName the name (or path) of the file to save to
+   * @throws IOException if an I/O error occurs while writing the file
+   */
+  public void saveToFile(String fileName) throws IOException {
+    try (OutputStream file = new BufferedOutputStream(new FileOutputStream(fileName), 1 << 16)) {
+      write(file);
+    }
+  }
+
+  /**
+   * Writes the snapshot to a stream, which is flushed but left open.
+   *
+   * @param stream the stream to write to
+   * @throws IOException if an I/O error occurs while writing
+   */
+  public void write(OutputStream stream) throws IOException {
+    out = new DataOutputStream(stream);
+    strings = new HashMap<>();
+    try {
+      out.write(SnapshotReader.MAGIC);
+      writeVarint(SnapshotReader.VERSION);
+      writeVarint(requestId);
+      writeSigned(cycle);
+      writeRecipes();
+      writeTypes();
+      writeBuildings();
+      writeRequests();
+      writeRoads();
+      writePendingRequests();
+      out.flush();
+    } finally {
+      out = null;
+      strings = null;
+    }
+  }
+
+  private void writeVarint(int value) throws IOException {
+    while ((value & ~0x7f) != 0) {
+      out.writeByte((value & 0x7f) | 0x80);
+      value >>>= 7;
+    }
+    out.writeByte(value);
+  }
+
+  private void writeSigned(int value) throws IOException {
+    writeVarint((value << 1) ^ (value >> 31));
+  }
+
+  /**
+   * Writes a string as 0 for null, 1 and its bytes the first time it appears, or its index
+   * in the string table plus 2.
+   */
+  private void writeString(String value) throws IOException {
+    if (value == null) {
+      writeVarint(0);
+      return;
+    }
+    Integer index = strings.get(value);
+    if (index != null) {
+      writeVarint(index + 2);
+      return;
+    }
+    strings.put(value, strings.size());
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    writeVarint(1);
+    writeVarint(bytes.length);
+    out.write(bytes);
+  }
+
+  private void writeRecipes() throws IOException {
+    writeVarint(recipes.size());
+    for (Recipe recipe : recipes.values()) {
+      writeString(recipe.getOutput());
+      writeVarint(recipe.getLatency());
+      writeString(recipe.getWaste());
+      writeSigned(recipe.getWasteAmount());
+      writeVarint(recipe.getIngredients().size());
+      for (Map.Entry<String, Integer> entry : recipe.getIngredients().entrySet()) {
+        writeString(entry.getKey());
+        writeSigned(entry.getValue());
+      }
+    }
+  }
+
+  private void writeTypes() throws IOException {
+    writeVarint(types.size());
+    for (FactoryType type : types.values()) {
+      writeString(type.getName());
+      writeVarint(type.getRecipes().size());
+      for (Recipe recipe : type.getRecipes()) {
+        writeString(recipe.getOutput());
+      }
+    }
+  }
+
+  private void writeBuildings() throws IOException {
+    writeVarint(buildings.size());
+    for (Building building : buildings.values()) {
+      writeString(building.getName());
+      int flags = 0;
+      if (building.getRemoveMark()) {
+        flags |= SnapshotReader.REMOVE_MARK;
+      }
+      if (building.usingDefaultRequestPolicy()) {
+        flags |= SnapshotReader.DEFAULT_REQUEST_POLICY;
+      }
+      if (building.usingDefaultSourcePolicy()) {
+        flags |= SnapshotReader.DEFAULT_SOURCE_POLICY;
+      }
+      if (building.getCurrRequest() != null) {
+        flags |= SnapshotReader.CURRENT_REQUEST;
+      }
+      if (building.getCoordinate() != null) {
+        flags |= SnapshotReader.COORDINATE;
+      }
+      if (building.getQueueLimit() > 0) {
+        flags |= SnapshotReader.QUEUE_LIMIT;
+      }
+      if (!building.getUpstreamBacklogs().isEmpty()) {
+        flags |= SnapshotReader.UPSTREAM_BACKLOGS;
+      }
+      if (building instanceof Factory) {
+        Factory factory = (Factory) building;
+        out.writeByte(SnapshotReader.FACTORY);
+        out.writeByte(flags);
+        writeString(factory.getFactoryType().getName());
+        writeConnections(factory.getSourceMap());
+        writeVarint(factory.getWastes().size());
+        for (Map.Entry<String, Integer> entry : factory.getWastes().entrySet()) {
+          writeString(entry.getKey());
+          writeSigned(entry.getValue());
+        }
+        writeConnections(factory.getWasteDisposals());
+      }
+      else if (building instanceof Mine) {
+        out.writeByte(SnapshotReader.MINE);
+        out.writeByte(flags);
+        writeString(((Mine) building).getRecipe().getOutput());
+      }
+      else if (building instanceof Storage) {
+        Storage storage = (Storage) building;
+        out.writeByte(SnapshotReader.STORAGE);
+        out.writeByte(flags);
+        writeString(storage.getRecipe().getOutput());
+        writeSigned(storage.getCapacity());
+        writeSigned(storage.getRemain());
+        out.writeDouble(storage.getPriority());
+        writeConnections(storage.getSourceMap());
+      }
+      else if (building instanceof WasteDisposal) {
+        WasteDisposal disposal = (WasteDisposal) building;
+        out.writeByte(SnapshotReader.WASTE_DISPOSAL);
+        out.writeByte(flags);
+        writeSigned(disposal.getCapacity());
+        writeSigned(disposal.getCurrentAmount());
+        writeVarint(disposal.getWasteTypes().size());
+        for (Recipe recipe : disposal.getWasteTypes()) {
+          writeString(recipe.getOutput());
+        }
+        writeSigned(disposal.getDisposeAmount());
+        writeSigned(disposal.getDisposeInterval());
+        writeSigned(disposal.getInterval());
+        writeSigned(disposal.getPredictedAmount());
+      }
+      else {
+        DronePort port = (DronePort) building;
+        out.writeByte(SnapshotReader.DRONE_PORT);
+        out.writeByte(flags);
+        writeVarint(port.getDrones().size());
+        for (Drone drone : port.getDrones()) {
+          out.writeBoolean(drone.isInUse());
+          if (drone.isInUse()) {
+            writeSigned(drone.getSource().getRow());
+            writeSigned(drone.getSource().getColumn());
+            writeVarint(drone.getRequest().getId());
+            writeSigned(drone.getTime());
+          }
+        }
+      }
+
+      int units = 0;
+      for (Request request : building.getRequests()) {
+        units += request.getQuantity();
+      }
+      writeVarint(units);
+      for (Request request : building.getRequests()) {
+        for (int unitId : request.getUnitIds()) {
+          writeVarint(unitId);
+        }
+      }
+      writeVarint(building.getInventory().size());
+      for (Map.Entry<String, Integer> entry : building.getInventory().entrySet()) {
+        writeString(entry.getKey());
+        writeSigned(entry.getValue());
+      }
+      writeString(building.getRequestPolicy().getRequestPolicyName());
+      writeString(building.getSourcePolicy().getSourcePolicyName());
+      if (building.getCurrRequest() != null) {
+        writeVarint(building.getCurrRequest().getId());
+        writeSigned(building.getTimeLeft());
+      }
+      if (building.getCoordinate() != null) {
+        writeSigned(building.getCoordinate().getRow());
+        writeSigned(building.getCoordinate().getColumn());
+      }
+      if (building.getQueueLimit() > 0) {
+        writeVarint(building.getQueueLimit());
+      }
+      if (!building.getUpstreamBacklogs().isEmpty()) {
+        writeVarint(building.getUpstreamBacklogs().size());
+        for (Map.Entry<String, int[]> entry : building.getUpstreamBacklogs().entrySet()) {
+          writeString(entry.getKey());
+          writeSigned(entry.getValue()[0]);
+          writeSigned(entry.getValue()[1]);
+        }
+      }
+      int deliveries = 0;
+      for (Request request : building.getDeliveries().keySet()) {
+        if (request.getRequester() != null) {
+          deliveries++;
+        }
+      }
+      writeVarint(deliveries);
+      for (Map.Entry<Request, Integer> entry : building.getDeliveries().entrySet()) {
+        if (entry.getKey().getRequester() != null) {
+          writeVarint(entry.getKey().getId());
+          writeSigned(entry.getValue());
+        }
+      }
+    }
+  }
+
+  /**
+   * Writes the connections that have a route: the other building's name and the first
+   * and last road squares of the route.
+   */
+  private void writeConnections(Map<? extends Building, GraphPath> connections) throws IOException {
+    int count = 0;
+    for (GraphPath path : connections.values()) {
+      if (path != null && path.getFirst() != null) {
+        count++;
+      }
+    }
+    writeVarint(count);
+    for (Map.Entry<? extends Building, GraphPath> entry : connections.entrySet()) {
+      GraphPath path = entry.getValue();
+      if (path == null || path.getFirst() == null) {
+        continue;
+      }
+      writeString(entry.getKey().getName());
+      writeSigned(path.getSecond().getRow());
+      writeSigned(path.getSecond().getColumn());
+      writeSigned(path.getSecondLast().getRow());
+      writeSigned(path.getSecondLast().getColumn());
+    }
+  }
+
+  private void writeRequests() throws IOException {
+    writeVarint(requests.size());
+    for (Request request : requests) {
+      writeVarint(request.getId());
+      int flags = 0;
+      if (request instanceof wasteRequest) {
+        flags |= SnapshotReader.WASTE_REQUEST;
+      }
+      if (request.getRequester() != null) {
+        flags |= SnapshotReader.HAS_REQUESTER;
+      }
+      if (request.isUserRequest()) {
+        flags |= SnapshotReader.USER_REQUEST;
+      }
+      out.writeByte(flags);
+      if (request instanceof wasteRequest) {
+        writeSigned(((wasteRequest) request).getAmount());
+      } else {
+        writeString(request.getRecipe().getOutput());
+      }
+      if (request.getRequester() != null) {
+        writeString(request.getRequester().getName());
+      }
+      out.writeByte(request.getState().ordinal());
+    }
+  }
+
+  private void writePendingRequests() throws IOException {
+    writeVarint(pendingRequests.size());
+    for (Simulation.PendingRequest pending : pendingRequests) {
+      writeString(pending.building);
+      writeString(pending.output);
+      writeVarint(pending.quantity);
+    }
+  }
+
+  /**
+   * Writes the roads, in order, as runs: roads that each continue the one before in a
+   * straight line and share a direction, as roads built along a route do. A run is its first
+   * square relative to the end of the run before, its length, its direction, and which way
+   * it goes.
+   */
+  private void writeRoads() throws IOException {
+    List<int[]> runs = new ArrayList<>();
+    int[] run = null;
+    for (Road road : paths) {
+      int row = road.getCoordinate().getRow();
+      int column = road.getCoordinate().getColumn();
+      int direction = SnapshotReader.directionCode(road.getDirection());
+      if (run != null && run[4] == direction) {
+        // the last square of the run
+        int[] step = SnapshotReader.STEPS[run[3]];
+        int lastRow = run[0] + step[0] * (run[2] - 1);
+        int lastColumn = run[1] + step[1] * (run[2] - 1);
+        if (run[2] == 1) {
+          int next = SnapshotReader.step(row - lastRow, column - lastColumn);
+          if (next >= 0) {
+            run[3] = next;
+            run[2]++;
+            continue;
+          }
+        } else if (row == lastRow + step[0] && column == lastColumn + step[1]) {
+          run[2]++;
+          continue;
+        }
+      }
+      run = new int[] { row, column, 1, 0, direction };
+      runs.add(run);
+    }
+    writeVarint(runs.size());
+    int row = 0;
+    int column = 0;
+    for (int[] r : runs) {
+      writeSigned(r[0] - row);
+      writeSigned(r[1] - column);
+      writeVarint(r[2]);
+      out.writeByte(r[4] | r[3] << 4);
+      int[] step = SnapshotReader.STEPS[r[3]];
+      row = r[0] + step[0] * (r[2] - 1);
+      column = r[1] + step[1] * (r[2] - 1);
+    }
+  }
+}
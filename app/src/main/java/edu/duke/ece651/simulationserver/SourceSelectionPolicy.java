@@ -1,6 +1,8 @@
 package edu.duke.ece651.simulationserver;
 
+import java.util.LinkedHashMap;
 import java.util.Map;
+import java.util.function.Consumer;
 
 /**
  * This is an interface for selecting an appropriate source Building to supply a needed ingredient.
@@ -14,5 +16,26 @@ public interface SourceSelectionPolicy {
      * @return the selected Building that can supply the ingredient, or null if none is available
      */
   Building selectSource(Map<Building, GraphPath> sources, String ingredient,Map<String,Integer> chooseStandard);
+
+  /**
+   * Selects the sources of several units of an ingredient, one after another: each unit is
+   * queued at its source by assign before the next is selected, as if selectSource were called
+   * for every unit. A policy may do so faster than one selectSource call per unit.
+   *
+   * @param sources the list of source buildings from the factory
+   * @param ingredient the name of the ingredient required
+   * @param units the number of units
+   * @param assign queues a unit at the selected source; given null if none is available
+   */
+  default void selectSources(Map<Building, GraphPath> sources, String ingredient, int units, Consumer<Building> assign) {
+    for (int i = 0; i < units; i++) {
+      Building source = selectSource(sources, ingredient, new LinkedHashMap<>());
+      assign.accept(source);
+      if (source == null) {
+        return;
+      }
+    }
+  }
+
     String getSourcePolicyName();
 }
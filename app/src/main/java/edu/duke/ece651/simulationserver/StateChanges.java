@@ -0,0 +1,73 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+/**
+ * The buildings, requests and roads of a simulation that changed since its changes were last
+ * taken, by the keys a save writes them under: building names, request ids and road
+ * coordinates. A simulation records them as it runs once its changes are tracked (see
+ * Simulation.trackChanges), so a client can be sent just those instead of the whole state.
+ *
+ * Anything a save writes of a recorded building, request or road may have changed; one that
+ * is not recorded did not change. Those that are gone, e.g. finished requests, are recorded
+ * too, so clients can drop them.
+ */
+public class StateChanges {
+  private final Set<String> buildings = new LinkedHashSet<>();
+  private final Set<Integer> requests = new HashSet<>();
+  private final Set<Coordinate> roads = new LinkedHashSet<>();
+
+  void building(Building building) {
+    buildings.add(building.getName());
+  }
+
+  void request(Request request) {
+    for (int id : request.getUnitIds()) {
+      requests.add(id);
+    }
+  }
+
+  void road(Coordinate coordinate) {
+    roads.add(coordinate);
+  }
+
+  /**
+   * Adds the changes recorded in another set to this one, e.g. to send a client everything
+   * that changed since the version it has.
+   *
+   * @param other the changes to add
+   */
+  public void addAll(StateChanges other) {
+    buildings.addAll(other.buildings);
+    requests.addAll(other.requests);
+    roads.addAll(other.roads);
+  }
+
+  /**
+   * @return the names of the buildings that changed
+   */
+  public Set<String> getBuildings() {
+    return Collections.unmodifiableSet(buildings);
+  }
+
+  /**
+   * @return the ids of the requests that changed, one per unit
+   */
+  public Set<Integer> getRequests() {
+    return Collections.unmodifiableSet(requests);
+  }
+
+  /**
+   * @return the coordinates of the roads that changed
+   */
+  public Set<Coordinate> getRoads() {
+    return Collections.unmodifiableSet(roads);
+  }
+
+  public boolean isEmpty() {
+    return buildings.isEmpty() && requests.isEmpty() && roads.isEmpty();
+  }
+}
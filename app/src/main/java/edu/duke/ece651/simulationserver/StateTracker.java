@@ -0,0 +1,146 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tracks the versions of a session's state sent to its clients, so that after a command only
+ * what changed has to be sent instead of the whole session.
+ *
+ * Every update has a version. The tracker keeps what changed in each of the last HISTORY
+ * versions, as the simulation recorded it while commands ran (see StateChanges), so it never
+ * writes or compares the whole state to find out. A client sends back the version it has,
+ * and the update is a delta from that version:
+ *
+ * <pre>
+ * {"version": 8, "base": 5, "cycle": 42, "requestId": 310,
+ *  "buildings": [changed or added buildings], "removedBuildings": [names],
+ *  "requests": [changed or added requests], "removedRequests": [ids],
+ *  "roads": [changed or added roads], "removedRoads": [coordinates]}
+ * </pre>
+ *
+ * Buildings, requests and roads are written as a save writes them, so a building's
+ * inventory, queue, deliveries and drones travel with it. A delta holds everything that
+ * changed after its base, so it brings any version from its base on up to date: clients that
+ * see an update sent for another client apply it if its base is not after the version they
+ * have, and ask for the full state otherwise. When the client has no version, its version is
+ * older than the history, or the session's simulation was replaced (e.g. by a load or a
+ * rewind), the update is the full saved state with "full": true and its version.
+ *
+ * The tracker remembers the version last sent to each client, so an update no client asked
+ * for (e.g. after a job) is a delta from the oldest of them.
+ */
+public class StateTracker {
+  /** the number of versions whose changes are kept */
+  public static final int HISTORY = 64;
+
+  private static final ObjectMapper mapper = new ObjectMapper();
+
+  private long version;
+  // the oldest version a delta can start from
+  private long oldest;
+  private Simulation simulation;
+  // what changed in each version after the oldest, oldest first
+  private final ArrayDeque<StateChanges> history = new ArrayDeque<>();
+  private final Map<String, Long> clients = new HashMap<>();
+
+  /**
+   * @return the version of the state last sent
+   */
+  public synchronized long getVersion() {
+    return version;
+  }
+
+  /**
+   * @return the version last sent to each client
+   */
+  public synchronized Map<String, Long> getClientVersions() {
+    return Collections.unmodifiableMap(new HashMap<>(clients));
+  }
+
+  /**
+   * Computes the update that brings a client from the version it has to the simulation's
+   * state, and remembers that the client has the new version. The simulation must not change
+   * meanwhile, e.g. the session is locked.
+   *
+   * @param simulation the session's simulation
+   * @param client the client the update is for
+   * @param clientVersion the version the client has, or null if it has none and needs the
+   *        full state
+   * @return the update, as a JSON object
+   * @throws IOException if the state cannot be written
+   */
+  public synchronized Map<String, Object> update(Simulation simulation, String client, Long clientVersion)
+      throws IOException {
+    Map<String, Object> update = update(simulation, clientVersion);
+    clients.put(client, version);
+    return update;
+  }
+
+  /**
+   * Computes an update for all the session's clients, from the oldest version last sent to
+   * any of them, e.g. after a job changed the session.
+   *
+   * @param simulation the session's simulation
+   * @return the update, as a JSON object
+   * @throws IOException if the state cannot be written
+   */
+  public synchronized Map<String, Object> update(Simulation simulation) throws IOException {
+    long base = version;
+    for (long clientVersion : clients.values()) {
+      base = Math.min(base, clientVersion);
+    }
+    return update(simulation, (Long) base);
+  }
+
+  private Map<String, Object> update(Simulation simulation, Long base) throws IOException {
+    if (simulation != this.simulation) {
+      // a new simulation, whose changes are tracked from here on
+      this.simulation = simulation;
+      simulation.trackChanges();
+      history.clear();
+      oldest = ++version;
+      clients.clear();
+      return full(simulation);
+    }
+    history.addLast(simulation.takeChanges());
+    version++;
+    if (history.size() > HISTORY) {
+      history.removeFirst();
+      oldest++;
+      clients.values().removeIf(clientVersion -> clientVersion < oldest);
+    }
+    if (base == null || base < oldest || base >= version) {
+      return full(simulation);
+    }
+    StateChanges changes = new StateChanges();
+    Iterator<StateChanges> newest = history.descendingIterator();
+    for (long v = version; v > base; v--) {
+      changes.addAll(newest.next());
+    }
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    simulation.saveChanges(out, changes);
+    @SuppressWarnings("unchecked")
+    Map<String, Object> update = mapper.readValue(out.toByteArray(), Map.class);
+    update.put("base", base);
+    update.put("version", version);
+    return update;
+  }
+
+  private Map<String, Object> full(Simulation simulation) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    simulation.save(out, false);
+    @SuppressWarnings("unchecked")
+    Map<String, Object> update = mapper.readValue(out.toByteArray(), Map.class);
+    update.put("full", true);
+    update.put("version", version);
+    return update;
+  }
+}
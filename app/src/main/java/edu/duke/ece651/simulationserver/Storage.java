@@ -5,13 +5,28 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+/**
+ * A building that keeps a stock of one item, refilling it from its sources and serving
+ * requests for it from the stock.
+ *
+ * The storage refills every frequency cycles, where the frequency depends on its stock
+ * (amount), its free room (remain) and its priority. Rather than working this out every
+ * cycle, it schedules the cycle of the next refill when one of them changes, so a storage
+ * that has nothing to do costs a comparison per cycle.
+ */
 public class Storage extends Building {
+  // nextRefill values: the refill must be scheduled again, or there is none
+  private static final int STALE = -1;
+  private static final int NEVER = Integer.MAX_VALUE;
+
   private Recipe stores;
   private int capacity;
   private double priority;
   private int frequency;
   private int remain;
   private int amount;
+  // the cycle the storage refills next, see schedule
+  private int nextRefill = STALE;
 
   public Storage(String nameString, Recipe storesRecipe, List<Building> sourcesList, int cap, double pri) {
     this(nameString, storesRecipe, sourcesList, cap, pri, null);
@@ -42,6 +57,22 @@ public class Storage extends Building {
   }
 
   
+  /**
+   * Copies a storage for Simulation.fork, without its sources and requests.
+   *
+   * @param other the storage to copy
+   */
+  Storage(Storage other) {
+    super(other);
+    stores = other.stores;
+    capacity = other.capacity;
+    priority = other.priority;
+    frequency = other.frequency;
+    remain = other.remain;
+    amount = other.amount;
+    nextRefill = other.nextRefill;
+  }
+
   private static int getFreq(int amount, int remain, double priority) {
     if (remain == 0 || priority == 0) {
       return -1;
@@ -52,8 +83,28 @@ public class Storage extends Building {
     return (int)ans;
   }
 
+  /**
+   * Called whenever amount, remain or priority changes: works out the new frequency, and
+   * leaves the next refill to be scheduled by the next step.
+   */
   private void updateFreq() {
     frequency = getFreq(amount, remain, priority);
+    nextRefill = STALE;
+  }
+
+  /**
+   * Schedules the next refill at the first cycle from the given one that is a multiple of
+   * the frequency, every cycle for a frequency of 0, or never for a negative one.
+   */
+  private void schedule(int cycle) {
+    if (frequency < 0) {
+      nextRefill = NEVER;
+    } else if (frequency == 0) {
+      nextRefill = cycle;
+    } else {
+      long next = ((long) cycle + frequency - 1) / frequency * frequency;
+      nextRefill = (int) Math.min(next, NEVER);
+    }
   }
 
   private void makeRequest() {
@@ -65,7 +116,9 @@ public class Storage extends Building {
     }
     Request request = new Request(stores, this, false);
     source_building.addRequest(request);
+    Simulation.changed(this);
     remain--;
+    updateFreq();
   }
 
   // @Override
@@ -82,15 +135,27 @@ public class Storage extends Building {
 
   @Override
   public void step() {
-    updateFreq();
-    if (frequency >= 0 && (frequency == 0 || Simulation.getCycle() % frequency == 0)) {
+    int cycle = Simulation.getCycle();
+    if (nextRefill == STALE) {
+      schedule(cycle);
+    }
+    if (cycle == nextRefill) {
+      // when no source is found nothing changes, and the refill is tried again a period later
+      nextRefill = frequency == 0 ? cycle + 1 : cycle + frequency;
       makeRequest();
     }
-    while ((!finished()) && (amount > 0)) {
+    // the stock only changes, and the refill is only scheduled again, when something is served
+    while (!requests.isEmpty() && amount > 0) {
       amount--;
-      Request request = requests.remove();
+      updateFreq();
+      Request request = requests.peek();
+      if (request.getQuantity() > 1) {
+        request = takeUnit(request);
+      } else {
+        dequeue(request);
+      }
       if (!request.isUserRequest()) {
-        GraphPath path = getPath(currReq.getRequester());
+        GraphPath path = getPath(request.getRequester());
         deliveries.put(request, path.getDistance());
       }
     }
@@ -99,7 +164,14 @@ public class Storage extends Building {
   @Override
   public void addRequest(Request request) {
     super.addRequest(request);
-    remain++;
+    remain += request.getQuantity();
+    updateFreq();
+  }
+
+  @Override
+  protected void unitsDropped(Recipe recipe, int units) {
+    remain -= units;
+    updateFreq();
   }
 
   @Override
@@ -109,6 +181,11 @@ public class Storage extends Building {
     return ans;
   }
 
+  @Override
+  protected Recipe recipeFor(String product) {
+    return mayProduce(product) ? stores : null;
+  }
+
   @Override
   public boolean mayProduce(String product) {
     return product.equals(stores.getOutput());
@@ -157,7 +234,9 @@ public class Storage extends Building {
     if (!ingredient.equals(stores.getOutput())) {
       throw new IllegalArgumentException("adding invalid product");
     }
+    Simulation.changed(this);
     amount++;
+    updateFreq();
   }
 
   public int getCapacity() {
@@ -167,6 +246,16 @@ public class Storage extends Building {
   public double getPriority() {
     return priority;
   }
+
+  /**
+   * Changes how eagerly the storage refills, e.g. to compare priorities in a sweep.
+   *
+   * @param pri the new priority
+   */
+  public void setPriority(double pri) {
+    priority = pri;
+    updateFreq();
+  }
   
   public int getFreq() {
     return frequency;
@@ -191,6 +280,6 @@ public class Storage extends Building {
 
   @Override
   public Integer getSimplelat() {
-    return getTotalLatence() - amount * stores.getLatency();
+    return getQueuedLatency() - amount * stores.getLatency();
   }
 }
@@ -0,0 +1,154 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.PrintStream;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * An EventSink that renders events in the same human readable format the
+ * simulation has always printed.
+ *
+ * Lines are accumulated and written to the stream once per drained batch instead
+ * of one println per line, which is what makes verbose runs expensive on a console.
+ */
+public class TextEventSink implements EventSink {
+  private static final int MAX_PENDING = 8192;
+  private static final String NL = System.lineSeparator();
+
+  private final PrintStream out;
+  private final StringBuilder pending;
+
+  /**
+   * Creates a sink that writes to whatever System.out is at the time of each flush.
+   */
+  public TextEventSink() {
+    this(null);
+  }
+
+  /**
+   * Creates a sink that writes to the given stream.
+   *
+   * @param out the stream to write to, or null to follow System.out
+   */
+  public TextEventSink(PrintStream out) {
+    this.out = out;
+    this.pending = new StringBuilder();
+  }
+
+  @Override
+  public void accept(SimulationEvent event) {
+    render(event, pending);
+    if (pending.length() >= MAX_PENDING) {
+      flush();
+    }
+  }
+
+  @Override
+  public void flush() {
+    if (pending.length() == 0) {
+      return;
+    }
+    PrintStream target = out != null ? out : System.out;
+    target.print(pending);
+    target.flush();
+    pending.setLength(0);
+  }
+
+  /**
+   * Renders one event as one or more lines of text.
+   *
+   * @param event the event to render
+   * @return the rendered lines, each terminated by a line separator
+   */
+  public static String format(SimulationEvent event) {
+    StringBuilder sb = new StringBuilder();
+    render(event, sb);
+    return sb.toString();
+  }
+
+  @SuppressWarnings("unchecked")
+  private static void render(SimulationEvent e, StringBuilder sb) {
+    switch (e.getType()) {
+    case ORDER_COMPLETE:
+      line(sb, "[order complete] Order " + e.get("order") + " completed (" + e.get("item") + ") at time "
+          + e.getCycle());
+      break;
+    case SIMULATION_COMPLETE:
+      line(sb, "Simulation completed at time-step " + e.getCycle());
+      break;
+    case INGREDIENT_ASSIGNMENT:
+      line(sb, "[ingredient assignment]: " + e.get("ingredient") + " assigned to " + e.get("source")
+          + " to deliver to " + e.get("building"));
+      break;
+    case INGREDIENT_DELIVERED:
+      line(sb, "[ingredient delivered]: " + e.get("ingredient") + " to " + e.get("building") + " from "
+          + e.get("source") + " on cycle " + e.getCycle());
+      break;
+    case READY_RECIPES: {
+      int index = 0;
+      for (String output : (List<String>) e.get("ready")) {
+        line(sb, "    " + index + ": " + output + " is ready");
+        index++;
+      }
+      break;
+    }
+    case SOURCE_SELECTION:
+      line(sb, "[source selection]: " + e.get("building") + " (" + e.get("policy") + ") has request for "
+          + e.get("ingredient") + " on " + e.getCycle());
+      break;
+    case SOURCE_CANDIDATES:
+      line(sb, "[" + e.get("building") + ":" + e.get("output") + ":" + e.get("index") + "] For ingredient "
+          + e.get("ingredient"));
+      for (Map.Entry<String, Integer> entry : ((Map<String, Integer>) e.get("candidates")).entrySet()) {
+        line(sb, "    " + entry.getKey() + ": " + entry.getValue());
+      }
+      line(sb, "    Selecting " + e.get("selected"));
+      break;
+    case RECIPE_SELECTION:
+      line(sb, "[recipe selection]: " + e.get("building") + " has " + e.get("policy") + " on cycle " + e.getCycle());
+      break;
+    case REQUEST_STATUS: {
+      List<Boolean> ready = (List<Boolean>) e.get("ready");
+      List<Map<String, Integer>> waiting = (List<Map<String, Integer>>) e.get("waiting");
+      for (int index = 0; index < ready.size(); index++) {
+        if (ready.get(index)) {
+          line(sb, "    " + index + ": is ready");
+        } else {
+          line(sb, "    " + index + ": is not ready, waiting on " + formatLack(waiting.get(index)));
+        }
+      }
+      int selected = e.getInt("selected");
+      if (selected >= 0) {
+        line(sb, "    Selecting " + selected);
+      }
+      break;
+    }
+    case MESSAGE:
+      line(sb, e.getString("text"));
+      break;
+    default:
+      line(sb, e.toString());
+    }
+  }
+
+  private static String formatLack(Map<String, Integer> lack) {
+    StringBuilder sb = new StringBuilder("{");
+    Iterator<Map.Entry<String, Integer>> iterator = lack.entrySet().iterator();
+    while (iterator.hasNext()) {
+      Map.Entry<String, Integer> entry = iterator.next();
+      if (entry.getValue() > 1) {
+        sb.append(entry.getValue()).append("x ");
+      }
+      sb.append(entry.getKey());
+      if (iterator.hasNext()) {
+        sb.append(", ");
+      }
+    }
+    return sb.append("}").toString();
+  }
+
+  private static void line(StringBuilder sb, String s) {
+    sb.append(s).append(NL);
+  }
+}
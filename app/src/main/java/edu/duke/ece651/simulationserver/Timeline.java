@@ -0,0 +1,291 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * The history of a simulation, kept so that it can be rewound to any past cycle.
+ *
+ * A timeline holds checkpoints, which are forks of the simulation taken every interval
+ * cycles, and the commands that changed the simulation between them. Rewinding restores the
+ * latest checkpoint at or before the target cycle, then steps forward, executing the recorded
+ * commands again at the cycles they first ran at. Stepping is deterministic and every command
+ * runs with the request id generator it first ran with, so the replay ends in the state the
+ * simulation was in at the target cycle.
+ *
+ * At most capacity checkpoints are kept. When one more is taken, the checkpoint whose removal
+ * leaves the smallest gap for its age is dropped, so recent cycles stay densely covered and
+ * the spacing grows roughly exponentially into the past. The first checkpoint is never
+ * dropped, so every cycle since the timeline started can be reached, and a rewind replays at
+ * most one gap.
+ */
+public class Timeline {
+  public static final int DEFAULT_INTERVAL = 100;
+  public static final int DEFAULT_CAPACITY = 32;
+
+  /**
+   * Executes a recorded command again during a rewind.
+   */
+  public interface Replayer {
+    /**
+     * @param simulation the simulation being replayed
+     * @param command the command, as it was recorded
+     * @throws IOException if the command fails to read or write a file
+     */
+    void replay(Simulation simulation, String command) throws IOException;
+  }
+
+  /**
+   * A fork of the simulation at some cycle.
+   */
+  public static class Checkpoint {
+    private final Simulation simulation;
+    private final int cycle;
+    private final int requestId;
+    // the number of commands recorded before the checkpoint was taken
+    private final int commands;
+
+    Checkpoint(Simulation simulation, int cycle, int requestId, int commands) {
+      this.simulation = simulation;
+      this.cycle = cycle;
+      this.requestId = requestId;
+      this.commands = commands;
+    }
+
+    public int getCycle() {
+      return cycle;
+    }
+  }
+
+  /**
+   * A command that changed the simulation.
+   */
+  private static class Command {
+    private final int cycle;
+    private final int requestId;
+    private final String command;
+
+    Command(int cycle, int requestId, String command) {
+      this.cycle = cycle;
+      this.requestId = requestId;
+      this.command = command;
+    }
+  }
+
+  private final int interval;
+  private final int capacity;
+  private final List<Checkpoint> checkpoints;
+  private final List<Command> commands;
+
+  /**
+   * Creates a timeline with a checkpoint every DEFAULT_INTERVAL cycles and room for
+   * DEFAULT_CAPACITY checkpoints.
+   */
+  public Timeline() {
+    this(DEFAULT_INTERVAL, DEFAULT_CAPACITY);
+  }
+
+  /**
+   * Creates a timeline.
+   *
+   * @param interval the number of cycles between checkpoints
+   * @param capacity the largest number of checkpoints kept, which bounds the memory used
+   * @throws IllegalArgumentException if the interval is not positive or the capacity is
+   *         less than 2
+   */
+  public Timeline(int interval, int capacity) {
+    if (interval <= 0) {
+      throw new IllegalArgumentException("The checkpoint interval must be positive");
+    }
+    if (capacity < 2) {
+      throw new IllegalArgumentException("A timeline needs room for at least 2 checkpoints");
+    }
+    this.interval = interval;
+    this.capacity = capacity;
+    this.checkpoints = new ArrayList<>();
+    this.commands = new ArrayList<>();
+  }
+
+  /**
+   * @return the checkpoints kept, oldest first
+   */
+  public List<Checkpoint> getCheckpoints() {
+    return Collections.unmodifiableList(checkpoints);
+  }
+
+  /**
+   * @return the earliest cycle the simulation can be rewound to
+   */
+  public int getStart() {
+    return checkpoints.isEmpty() ? 0 : checkpoints.get(0).cycle;
+  }
+
+  /**
+   * Forgets the history and starts again from the simulation's current state, e.g. after
+   * another simulation was loaded.
+   *
+   * @param simulation the simulation
+   */
+  public void reset(Simulation simulation) {
+    checkpoints.clear();
+    commands.clear();
+    checkpoint(simulation);
+  }
+
+  /**
+   * Takes a checkpoint of the simulation's current state. A checkpoint taken at the same
+   * cycle as the latest one replaces it.
+   *
+   * @param simulation the simulation
+   */
+  public void checkpoint(Simulation simulation) {
+    int cycle = simulation.getCurrentCycle();
+    Checkpoint checkpoint = new Checkpoint(simulation.fork(), cycle, simulation.getRequestId(), commands.size());
+    int last = checkpoints.size() - 1;
+    if (last >= 0 && checkpoints.get(last).cycle == cycle) {
+      checkpoints.set(last, checkpoint);
+      return;
+    }
+    checkpoints.add(checkpoint);
+    if (checkpoints.size() > capacity) {
+      thin(cycle);
+    }
+  }
+
+  /**
+   * Drops the checkpoint whose removal leaves the smallest gap relative to how long ago it
+   * was taken. Neither the first nor the latest checkpoint is dropped.
+   */
+  private void thin(int now) {
+    int drop = 1;
+    double best = Double.MAX_VALUE;
+    for (int i = 1; i < checkpoints.size() - 1; i++) {
+      int previous = checkpoints.get(i - 1).cycle;
+      double gap = (double) (checkpoints.get(i + 1).cycle - previous) / Math.max(1, now - previous);
+      if (gap < best) {
+        best = gap;
+        drop = i;
+      }
+    }
+    checkpoints.remove(drop);
+  }
+
+  /**
+   * Records a command that changed the simulation without stepping it, so a rewind can
+   * execute it again.
+   *
+   * @param command the command
+   * @param cycle the cycle it was executed at
+   * @param requestId the request id generator when it started
+   */
+  public void record(String command, int cycle, int requestId) {
+    commands.add(new Command(cycle, requestId, command));
+  }
+
+  /**
+   * Steps the simulation, taking a checkpoint at every multiple of the interval on the way.
+   *
+   * @param simulation the simulation
+   * @param n the number of cycles to step
+   * @throws IllegalArgumentException if n is not positive
+   */
+  public void step(Simulation simulation, int n) {
+    int target = simulation.getCurrentCycle() + n;
+    do {
+      int cycle = simulation.getCurrentCycle();
+      int next = (cycle / interval + 1) * interval;
+      simulation.stepN(Math.min(target, next) - cycle);
+      if (simulation.getCurrentCycle() == next) {
+        checkpoint(simulation);
+      }
+    } while (simulation.getCurrentCycle() < target);
+  }
+
+  /**
+   * Finishes the simulation like Simulation.finishWithin, taking a checkpoint at every
+   * multiple of the interval on the way.
+   *
+   * @param simulation the simulation
+   * @param n the most cycles to step
+   * @return true if every building finished
+   */
+  public boolean finish(Simulation simulation, int n) {
+    int target = simulation.getCurrentCycle() + n;
+    while (true) {
+      int cycle = simulation.getCurrentCycle();
+      int next = (cycle / interval + 1) * interval;
+      boolean finished = simulation.finishWithin(Math.min(target, next) - cycle);
+      if (simulation.getCurrentCycle() == next) {
+        checkpoint(simulation);
+      }
+      if (finished || simulation.getCurrentCycle() >= target) {
+        return finished;
+      }
+    }
+  }
+
+  /**
+   * Finishes the simulation like Simulation.finish, taking a checkpoint at every multiple of
+   * the interval on the way, however long it runs.
+   *
+   * @param simulation the simulation
+   */
+  public void finish(Simulation simulation) {
+    while (!finish(simulation, interval)) {
+    }
+  }
+
+  /**
+   * Rewinds to a past cycle: restores the latest checkpoint at or before it, and replays the
+   * steps and commands from there. The history after the cycle is forgotten.
+   *
+   * @param cycle the cycle to rewind to
+   * @param replayer executes the recorded commands again
+   * @return a new simulation in the state the simulation was in at that cycle
+   * @throws IOException if a replayed command fails to read or write a file
+   * @throws IllegalArgumentException if the cycle is before the start of the timeline
+   */
+  public Simulation rewind(int cycle, Replayer replayer) throws IOException {
+    Checkpoint start = null;
+    for (Checkpoint checkpoint : checkpoints) {
+      if (checkpoint.cycle > cycle) {
+        break;
+      }
+      start = checkpoint;
+    }
+    if (start == null) {
+      throw new IllegalArgumentException("Cannot rewind to cycle " + cycle + ", the history starts at cycle " + getStart());
+    }
+    Simulation simulation = start.simulation.fork();
+    simulation.setRequestId(start.requestId);
+    for (int i = start.commands; i < commands.size() && commands.get(i).cycle <= cycle; i++) {
+      Command command = commands.get(i);
+      stepTo(simulation, command.cycle);
+      simulation.setRequestId(command.requestId);
+      replayer.replay(simulation, command.command);
+    }
+    stepTo(simulation, cycle);
+    truncate(cycle);
+    return simulation;
+  }
+
+  private static void stepTo(Simulation simulation, int cycle) {
+    if (simulation.getCurrentCycle() < cycle) {
+      simulation.stepN(cycle - simulation.getCurrentCycle());
+    }
+  }
+
+  /**
+   * Forgets the checkpoints and commands after a cycle.
+   */
+  private void truncate(int cycle) {
+    while (checkpoints.get(checkpoints.size() - 1).cycle > cycle) {
+      checkpoints.remove(checkpoints.size() - 1);
+    }
+    while (!commands.isEmpty() && commands.get(commands.size() - 1).cycle > cycle) {
+      commands.remove(commands.size() - 1);
+    }
+  }
+}
@@ -1,156 +1,185 @@
 package edu.duke.ece651.simulationserver;
 
+import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 
-import java.util.*;
-
+/**
+ * Entry point the simulation uses to report what it is doing.
+ *
+ * Every message is turned into a typed SimulationEvent and published on the event
+ * log; nothing is printed directly. Callers that need to do work to build a message's
+ * arguments should check isEnabled first, the message methods themselves return
+ * immediately when their event type is disabled.
+ *
+ * Messages go to the event log bound to the calling thread (see bind), or to the
+ * shared default log when none is bound, so each session can have its own output.
+ */
 public class Verbosity {
-  private static int verbosity = 0;
+  private static EventLog eventLog = createDefaultLog();
+  private static final ThreadLocal<EventLog> boundLog = new ThreadLocal<>();
+
+  private static EventLog createDefaultLog() {
+    EventLog log = new EventLog();
+    log.addSink(new TextEventSink());
+    return log;
+  }
 
   public static void changeVerbosity(int newVerbosity) {
-    verbosity = newVerbosity;
+    current().setVerbosity(newVerbosity);
+  }
+
+  public static EventLog getEventLog() {
+    return eventLog;
+  }
+
+  /**
+   * Replaces the default event log, used by threads that have not bound their own.
+   *
+   * @param log the new event log
+   */
+  public static void setEventLog(EventLog log) {
+    eventLog = log;
+  }
+
+  /**
+   * Routes the calling thread's messages to the given log.
+   *
+   * @param log the event log of the calling thread, or null to use the default log again
+   * @return the log that was bound before (possibly null), so it can be restored with bind
+   */
+  public static EventLog bind(EventLog log) {
+    EventLog previous = boundLog.get();
+    if (log == null) {
+      boundLog.remove();
+    } else {
+      boundLog.set(log);
+    }
+    return previous;
+  }
+
+  /**
+   * @return the event log messages of the calling thread are published on
+   */
+  public static EventLog current() {
+    EventLog log = boundLog.get();
+    return log != null ? log : eventLog;
+  }
+
+  public static boolean isEnabled(EventType type) {
+    return current().isEnabled(type);
+  }
+
+  /**
+   * Hands every buffered event of the calling thread's log to the sinks.
+   */
+  public static void flush() {
+    current().flush();
   }
 
   public static void orderCompleteMessage(int orderIndex, String ingredient) {
-    String s = "[order complete] Order " + orderIndex + " completed (" + ingredient + ") at time "
-        + Simulation.getCycle();
-    System.out.println(s);
+    if (isEnabled(EventType.ORDER_COMPLETE)) {
+      current().publish(SimulationEvent.orderComplete(Simulation.getCycle(), orderIndex, ingredient));
+    }
   }
 
   public static void FinalMessage() {
-    String s = "Simulation completed at time-step " + Simulation.getCycle();
-    System.out.println(s);
+    if (isEnabled(EventType.SIMULATION_COMPLETE)) {
+      current().publish(SimulationEvent.simulationComplete(Simulation.getCycle()));
+    }
   }
 
   public static void ingredientAssignmentMessage(String ingredient, String source_building, String building) {
-    if (verbosity == 1 || verbosity == 2) {
-      String s = "[ingredient assignment]: " + ingredient + " assigned to " + source_building + " to deliver to "
-          + building;
-      System.out.println(s);
+    if (isEnabled(EventType.INGREDIENT_ASSIGNMENT)) {
+      current().publish(SimulationEvent.ingredientAssignment(Simulation.getCycle(), ingredient, source_building,
+          building));
     }
   }
 
   public static void ingredientDeliveredMessage(String ingredient, String source_building, String building) {
-    if (verbosity == 1 || verbosity == 2) {
-      String s = "[ingredient delivered]: " + ingredient + " to " + building + " from " + source_building + " on cycle "
-          + Simulation.getCycle();
-      System.out.println(s);
+    if (isEnabled(EventType.INGREDIENT_DELIVERED)) {
+      current().publish(SimulationEvent.ingredientDelivered(Simulation.getCycle(), ingredient, source_building,
+          building));
     }
   }
 
   public static void PrintIsReadyMessage(Map<String, Integer> inventory, List<Recipe> recipes) {
-    if (verbosity == 1 || verbosity == 2) {
-      int index = 0;
-      for (Recipe recipe : recipes) {
-        Map<String, Integer> reqIngredients = recipe.getIngredients();
-        boolean isReady = true;
-        for (Map.Entry<String, Integer> entry : reqIngredients.entrySet()) {
-          String ingName = entry.getKey();
-          int reqAmount = entry.getValue();
-          int inStock = inventory.getOrDefault(ingName, 0);
-          if (inStock < reqAmount) {
-            isReady = false;
-          }
-        }
-        if (isReady) {
-          String s = "    " + index + ": " + recipe.getOutput() + " is ready";
-          System.out.println(s);
-          index++;
-        }
+    if (!isEnabled(EventType.READY_RECIPES)) {
+      return;
+    }
+    List<String> ready = new ArrayList<>();
+    for (Recipe recipe : recipes) {
+      if (findLackIngredients(recipe, inventory).isEmpty()) {
+        ready.add(recipe.getOutput());
       }
     }
+    current().publish(SimulationEvent.readyRecipes(Simulation.getCycle(), ready));
   }
 
   public static void SelectMessage(String s) {
-    if (verbosity == 2)
-      System.out.println(s);
+    if (isEnabled(EventType.MESSAGE)) {
+      current().publish(SimulationEvent.message(Simulation.getCycle(), s));
+    }
   }
 
   public static void sourceSelectionMessage(String building, String sourcePolicyName, String ingredient) {
-    if (verbosity == 2) {
-      String s = "[source selection]: " + building + " (" + sourcePolicyName + ") has request for " + ingredient
-          + " on " + Simulation.getCycle();
-      System.out.println(s);
+    if (isEnabled(EventType.SOURCE_SELECTION)) {
+      current().publish(SimulationEvent.sourceSelection(Simulation.getCycle(), building, sourcePolicyName,
+          ingredient));
     }
   }
 
   public static void sourceMessage(String building, String output, String sourcePolicyName, int ingredientIndex,
       String ingredient, List<Building> sources, String source_building, Map<String, Integer> chooseStandard) {
-    if (verbosity == 2) {
-      String s = "[" + building + ":" + output + ":" + ingredientIndex + "] " + "For ingredient " + ingredient;
-      System.out.println(s);
-      for (Map.Entry<String, Integer> entry : chooseStandard.entrySet()) {
-        String key = entry.getKey();
-        Integer value = entry.getValue();
-        System.out.println("    " + key + ": " + value);
-      }
-      System.out.println("    Selecting " + source_building);
+    if (isEnabled(EventType.SOURCE_CANDIDATES)) {
+      current().publish(SimulationEvent.sourceCandidates(Simulation.getCycle(), building, output, sourcePolicyName,
+          ingredientIndex, ingredient, chooseStandard, source_building));
     }
   }
 
   public static void recipeSelectionMessage(String building, String requestSelection) {
-    if (verbosity == 2) {
-      String s = "[recipe selection]: " + building + " has " + requestSelection + " on cycle " + Simulation.getCycle();
-      System.out.println(s);
+    if (isEnabled(EventType.RECIPE_SELECTION)) {
+      current().publish(SimulationEvent.recipeSelection(Simulation.getCycle(), building, requestSelection));
     }
   }
 
   public static void recipeMessage(Queue<Request> requests, Map<String, Integer> inventory, Request selectedRequest) {
-    if (verbosity == 2) {
-      int requestIndex = 0;
-      for (Request request : requests) {
-        if (request.isReady(inventory)) {
-          String s = "    " + requestIndex + ": is ready";
-          System.out.println(s);
-        } else {
-          String s = "    " + requestIndex + ": is not ready, waiting on ";
-          Map<String, Integer> lackIngredients = findLackIngredients(request, inventory);
-          String lackMessage = "{";
-          Iterator<Map.Entry<String, Integer>> iterator = lackIngredients.entrySet().iterator();
-          while (iterator.hasNext()) {
-            Map.Entry<String, Integer> entry = iterator.next();
-            String key = entry.getKey();
-            Integer value = entry.getValue();
-            if (value > 1) {
-              lackMessage += value + "x " + key;
-            } else {
-              lackMessage += key;
-            }
-
-            if (iterator.hasNext()) {
-              lackMessage += ", ";
-            }
-          }
-          lackMessage += "}";
-          s += lackMessage;
-          System.out.println(s);
-        }
-        requestIndex++;
+    if (!isEnabled(EventType.REQUEST_STATUS)) {
+      return;
+    }
+    List<Boolean> ready = new ArrayList<>();
+    List<Map<String, Integer>> waiting = new ArrayList<>();
+    int selected = -1;
+    int index = 0;
+    for (Request request : requests) {
+      boolean isReady = request.isReady(inventory);
+      Map<String, Integer> lacking = isReady ? new LinkedHashMap<>() : findLackIngredients(request, inventory);
+      if (selected < 0 && request.equals(selectedRequest)) {
+        selected = index;
       }
-      if (selectedRequest != null) {
-        int index = 0;
-        for (Request request : requests) {
-          if (request.equals(selectedRequest)) {
-            break;
-          }
-          index++;
-        }
-        String selectMessage = "    " + "Selecting " + index;
-        System.out.println(selectMessage);
+      // a request for several units is listed once per unit
+      for (int unit = 0; unit < request.getQuantity(); unit++) {
+        ready.add(isReady);
+        waiting.add(unit == 0 ? lacking : new LinkedHashMap<>(lacking));
+        index++;
       }
     }
+    if (selectedRequest != null && selected < 0) {
+      selected = index;
+    }
+    current().publish(SimulationEvent.requestStatus(Simulation.getCycle(), ready, waiting, selected));
   }
 
   public static Map<String, Integer> findLackIngredients(Request request, Map<String, Integer> inventory) {
+    return findLackIngredients(request.getRecipe(), inventory);
+  }
+
+  private static Map<String, Integer> findLackIngredients(Recipe recipe, Map<String, Integer> inventory) {
     // Check the building's inventory against the recipe's required ingredients
     Map<String, Integer> lackIngredients = new LinkedHashMap<>();
-    ;
-    Recipe recipe = request.getRecipe();
-    Map<String, Integer> reqIngredients = recipe.getIngredients();
-    for (Map.Entry<String, Integer> entry : reqIngredients.entrySet()) {
+    for (Map.Entry<String, Integer> entry : recipe.getIngredients().entrySet()) {
       String ingName = entry.getKey();
       int reqAmount = entry.getValue();
       int inStock = inventory.getOrDefault(ingName, 0);
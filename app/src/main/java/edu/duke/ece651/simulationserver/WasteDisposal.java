@@ -1,8 +1,12 @@
 package edu.duke.ece651.simulationserver;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 public class WasteDisposal extends Building {
   private int capacity;
@@ -12,6 +16,10 @@ public class WasteDisposal extends Building {
   private int disposeInterval;
   private int interval;
   private int predictedAmount;
+  // the wastes of the wasteTypes recipes, which are the wastes it accepts
+  private final Set<String> acceptedWastes;
+  // the wasteTypes recipes by output, the first one for an output if there are several
+  private final Map<String, Recipe> recipesByOutput;
     
   public WasteDisposal(String nameString, int capacity, List<Recipe> wasteTypes, int disposeAmount, int disposeInterval) {
     super(nameString, null);
@@ -22,6 +30,8 @@ public class WasteDisposal extends Building {
     this.interval = 0;
     this.predictedAmount = 0;
     this.wasteTypes = wasteTypes;
+    this.acceptedWastes = acceptedWastes(wasteTypes);
+    this.recipesByOutput = recipesByOutput(wasteTypes);
   }
 
   public WasteDisposal(String nameString, int capacity, List<Recipe> wasteTypes, int disposeAmount, int disposeInterval, int currentAmount, int interval, int predictedAmount) {
@@ -33,6 +43,8 @@ public class WasteDisposal extends Building {
     this.interval = interval;
     this.predictedAmount = predictedAmount;
     this.wasteTypes = wasteTypes;
+    this.acceptedWastes = acceptedWastes(wasteTypes);
+    this.recipesByOutput = recipesByOutput(wasteTypes);
   }
 
   
@@ -45,6 +57,26 @@ public class WasteDisposal extends Building {
     this.interval = 0;
     this.predictedAmount = 0;
     this.wasteTypes = wasteTypes;
+    this.acceptedWastes = acceptedWastes(wasteTypes);
+    this.recipesByOutput = recipesByOutput(wasteTypes);
+  }
+
+  /**
+   * Copies a waste disposal for Simulation.fork, without its requests.
+   *
+   * @param other the waste disposal to copy
+   */
+  WasteDisposal(WasteDisposal other) {
+    super(other);
+    this.capacity = other.capacity;
+    this.currentAmount = other.currentAmount;
+    this.disposeAmount = other.disposeAmount;
+    this.disposeInterval = other.disposeInterval;
+    this.interval = other.interval;
+    this.predictedAmount = other.predictedAmount;
+    this.wasteTypes = other.wasteTypes;
+    this.acceptedWastes = other.acceptedWastes;
+    this.recipesByOutput = other.recipesByOutput;
   }
 
   public WasteDisposal(int capacity, List<Recipe> wasteTypes, int disposeAmount, int disposeInterval, Coordinate c) {
@@ -56,6 +88,28 @@ public class WasteDisposal extends Building {
     this.interval = 0;
     this.predictedAmount = 0;
     this.wasteTypes = wasteTypes;
+    this.acceptedWastes = acceptedWastes(wasteTypes);
+    this.recipesByOutput = recipesByOutput(wasteTypes);
+  }
+
+  private static Set<String> acceptedWastes(List<Recipe> wasteTypes) {
+    Set<String> wastes = new HashSet<>();
+    for (Recipe r : wasteTypes) {
+      if (r != null && r.getWaste() != null) {
+        wastes.add(r.getWaste());
+      }
+    }
+    return Collections.unmodifiableSet(wastes);
+  }
+
+  private static Map<String, Recipe> recipesByOutput(List<Recipe> wasteTypes) {
+    Map<String, Recipe> recipes = new HashMap<>();
+    for (Recipe r : wasteTypes) {
+      if (r != null) {
+        recipes.putIfAbsent(r.getOutput(), r);
+      }
+    }
+    return recipes;
   }
 
   public int getCapacity() {
@@ -87,35 +141,49 @@ public class WasteDisposal extends Building {
   }
   
   public void addCurrentAmount(int waste) {
+    Simulation.changed(this);
     currentAmount += waste;
   }
 
   public void addPredictedAmount(int waste) {
+    Simulation.changed(this);
     predictedAmount += waste;
   }
   
+  /**
+   * @return the wastes this disposal accepts
+   */
+  public Set<String> getAcceptedWastes() {
+    return acceptedWastes;
+  }
+
+  /**
+   * @return the waste this disposal can still take, once the waste on its way is counted
+   */
+  public int getRemainingCapacity() {
+    return capacity - predictedAmount;
+  }
+
   public boolean canDispose(String waste) {
-    for (Recipe r : wasteTypes) {
-      if (r.getWaste().equals(waste)) {
-        return true;
-      }
-    }
-    return false;
+    return acceptedWastes.contains(waste);
   }
 
   public boolean canDispose(String waste, int amount) {
-    if (predictedAmount + amount > capacity) {
-      return false;
-    }
-    
-    for (Recipe r : wasteTypes) {
-      if (r.getWaste().equals(waste)) {
-        return true;
-      }
-    }
-    return false;
+    return predictedAmount + amount <= capacity && acceptedWastes.contains(waste);
   }
 
+  @Override
+  boolean isIdle() {
+    return finished() && currentAmount == 0;
+  }
+
+  /**
+   * Counts the cycles the disposal holds waste, and disposes of disposeAmount every
+   * disposeInterval of them. The count pauses while the disposal is empty, and is saved as
+   * interval, so it is kept here rather than scheduled at a cycle ahead of time as a
+   * storage's refill is: the simulation steps every building every cycle either way, and the
+   * count costs a comparison per cycle, or an increment while there is waste.
+   */
   @Override
   public void step() {
     if (currentAmount == 0) {
@@ -137,14 +205,14 @@ public class WasteDisposal extends Building {
     return wasteTypes;
   }
 
+  @Override
+  protected Recipe recipeFor(String product) {
+    return recipesByOutput.get(product);
+  }
+
   @Override
   public boolean mayProduce(String product) {
-    for (Recipe r : wasteTypes) {
-      if (r.getOutput().equals(product)) {
-        return true;
-      }
-    }
-    return false;
+    return recipesByOutput.containsKey(product);
   }
 
   @Override
@@ -0,0 +1,66 @@
+package edu.duke.ece651.simulationserver;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.function.Consumer;
+import java.util.function.ToIntFunction;
+
+/**
+ * Selects the sources of several units of an ingredient at once for a policy that picks the
+ * capable source with the least load, the first one on a tie.
+ *
+ * The candidates are kept in a heap by load, so a unit costs a heap operation and a look at
+ * the chosen source's load, rather than a scan of all sources. Queuing a unit only ever adds
+ * to loads, also of other candidates (e.g. a factory asked for the unit allocates its own
+ * ingredients), so a candidate whose load grew since it was pushed is pushed again before it
+ * may be chosen. The units are thus assigned exactly as if the policy selected each in turn.
+ */
+final class WaterFilling {
+  private WaterFilling() {
+  }
+
+  /**
+   * @param sources    the factory's sources
+   * @param ingredient the ingredient
+   * @param units      the number of units
+   * @param load       the policy's load of a source
+   * @param assign     queues a unit at the selected source; given null once if no source is
+   *                   capable
+   */
+  static void fill(Map<Building, GraphPath> sources, String ingredient, int units, ToIntFunction<Building> load,
+      Consumer<Building> assign) {
+    List<Building> candidates = new ArrayList<>();
+    for (Building source : sources.keySet()) {
+      if (source.capableOf(ingredient) == null) {
+        candidates.add(source);
+      }
+    }
+    if (candidates.isEmpty()) {
+      if (units > 0) {
+        assign.accept(null);
+      }
+      return;
+    }
+    // {load, index}, ordered as the policies scan: least load, then first source
+    PriorityQueue<int[]> levels = new PriorityQueue<>(
+        (a, b) -> a[0] != b[0] ? Integer.compare(a[0], b[0]) : Integer.compare(a[1], b[1]));
+    for (int i = 0; i < candidates.size(); i++) {
+      levels.add(new int[] { load.applyAsInt(candidates.get(i)), i });
+    }
+    int assigned = 0;
+    while (assigned < units) {
+      int[] level = levels.poll();
+      Building source = candidates.get(level[1]);
+      int current = load.applyAsInt(source);
+      if (current == level[0]) {
+        assign.accept(source);
+        assigned++;
+        current = load.applyAsInt(source);
+      }
+      level[0] = current;
+      levels.add(level);
+    }
+  }
+}
@@ -0,0 +1,625 @@
+package edu.duke.ece651.simulationserver;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Generates random simulation worlds for scale and soak testing.
+ *
+ * A world is a JsonInitializer configuration plus a script of commands that places
+ * user requests on it. The recipes form a DAG: raw materials are mined, and each
+ * level of products is made from fanIn ingredients of the levels below, at least one
+ * of them from the level right below. Buildings sit on a lattice with one free square
+ * between neighbours; every consumer takes each ingredient from the nearest buildings
+ * able to provide it.
+ *
+ * The squares between lattice points are streets. Street crossings and the squares next
+ * to a building are always two way roads: routes built by the Connector are one way,
+ * and one way roads there could cut buildings off from each other. The remaining
+ * street squares are two way roads with probability roadDensity.
+ *
+ * The output only depends on the parameters, so the same seed always gives the same
+ * world and script.
+ */
+public class WorldGenerator {
+  private static final int SPACING = 2;
+  private static final int BUCKET = 16;
+
+  private long seed;
+  private int mines;
+  private int factories;
+  private int storages;
+  private int wasteDisposals;
+  private int dronePorts;
+  private int dronesPerPort;
+  private int rawMaterials;
+  private int productsPerLevel;
+  private int depth;
+  private int fanIn;
+  private int sourcesPerIngredient;
+  private int gridSize;
+  private double roadDensity;
+  private int requests;
+  private int stepsBetweenRequests;
+
+  /**
+   * Creates a generator for a small world: 4 mines, 8 factories, a recipe DAG of depth
+   * 3 and no roads.
+   */
+  public WorldGenerator() {
+    seed = 0;
+    mines = 4;
+    factories = 8;
+    storages = 0;
+    wasteDisposals = 0;
+    dronePorts = 0;
+    dronesPerPort = 2;
+    rawMaterials = 2;
+    productsPerLevel = 2;
+    depth = 3;
+    fanIn = 2;
+    sourcesPerIngredient = 2;
+    gridSize = 0;
+    roadDensity = 0;
+    requests = 20;
+    stepsBetweenRequests = 5;
+  }
+
+  public WorldGenerator setSeed(long seed) {
+    this.seed = seed;
+    return this;
+  }
+
+  public WorldGenerator setMines(int mines) {
+    this.mines = mines;
+    return this;
+  }
+
+  public WorldGenerator setFactories(int factories) {
+    this.factories = factories;
+    return this;
+  }
+
+  public WorldGenerator setStorages(int storages) {
+    this.storages = storages;
+    return this;
+  }
+
+  /**
+   * With waste disposals, half of the products leave waste, and every factory making
+   * one of them is connected to its nearest disposal.
+   */
+  public WorldGenerator setWasteDisposals(int wasteDisposals) {
+    this.wasteDisposals = wasteDisposals;
+    return this;
+  }
+
+  public WorldGenerator setDronePorts(int dronePorts) {
+    this.dronePorts = dronePorts;
+    return this;
+  }
+
+  /**
+   * @param dronesPerPort the number of add_drone commands the script starts with for
+   *                      each drone port
+   */
+  public WorldGenerator setDronesPerPort(int dronesPerPort) {
+    this.dronesPerPort = dronesPerPort;
+    return this;
+  }
+
+  public WorldGenerator setRawMaterials(int rawMaterials) {
+    this.rawMaterials = rawMaterials;
+    return this;
+  }
+
+  public WorldGenerator setProductsPerLevel(int productsPerLevel) {
+    this.productsPerLevel = productsPerLevel;
+    return this;
+  }
+
+  /**
+   * @param depth the number of product levels above the raw materials
+   */
+  public WorldGenerator setDepth(int depth) {
+    this.depth = depth;
+    return this;
+  }
+
+  /**
+   * @param fanIn the number of different ingredients of a product, capped by the
+   *              number of items on the levels below it
+   */
+  public WorldGenerator setFanIn(int fanIn) {
+    this.fanIn = fanIn;
+    return this;
+  }
+
+  public WorldGenerator setSourcesPerIngredient(int sourcesPerIngredient) {
+    this.sourcesPerIngredient = sourcesPerIngredient;
+    return this;
+  }
+
+  /**
+   * @param gridSize the width and height of the square the buildings are placed in, 0
+   *                 to use the smallest one they fit in
+   */
+  public WorldGenerator setGridSize(int gridSize) {
+    this.gridSize = gridSize;
+    return this;
+  }
+
+  /**
+   * @param roadDensity the fraction of the street squares that are neither crossings nor
+   *                    next to a building that are roads
+   */
+  public WorldGenerator setRoadDensity(double roadDensity) {
+    this.roadDensity = roadDensity;
+    return this;
+  }
+
+  /**
+   * @param requests the number of user requests in the script
+   */
+  public WorldGenerator setRequests(int requests) {
+    this.requests = requests;
+    return this;
+  }
+
+  public WorldGenerator setStepsBetweenRequests(int stepsBetweenRequests) {
+    this.stepsBetweenRequests = stepsBetweenRequests;
+    return this;
+  }
+
+  /**
+   * @return the configuration, in the format JsonInitializer reads
+   * @throws IllegalArgumentException if the parameters do not describe a valid world
+   */
+  public ObjectNode generateConfig() {
+    return generate().config;
+  }
+
+  /**
+   * @return the commands of the script, one per line
+   * @throws IllegalArgumentException if the parameters do not describe a valid world
+   */
+  public List<String> generateScript() {
+    return generate().script;
+  }
+
+  /**
+   * Writes the configuration and the script.
+   *
+   * @param configFile the file to write the configuration to
+   * @param scriptFile the file to write the script to, or null for no script
+   * @throws IOException if a file cannot be written
+   */
+  public void write(String configFile, String scriptFile) throws IOException {
+    World world = generate();
+    File config = new File(configFile).getAbsoluteFile();
+    config.getParentFile().mkdirs();
+    new ObjectMapper().writerWithDefaultPrettyPrinter().writeValue(config, world.config);
+    if (scriptFile != null) {
+      Files.write(Paths.get(scriptFile), world.script, StandardCharsets.UTF_8);
+    }
+  }
+
+  private void checkParameters() {
+    if (rawMaterials < 1 || productsPerLevel < 1 || depth < 1 || fanIn < 1 || sourcesPerIngredient < 1) {
+      throw new IllegalArgumentException("rawMaterials, productsPerLevel, depth, fanIn and sourcesPerIngredient must be positive");
+    }
+    if (mines < rawMaterials) {
+      throw new IllegalArgumentException("need at least one mine per raw material (" + rawMaterials + ")");
+    }
+    if (factories < productsPerLevel * depth) {
+      throw new IllegalArgumentException("need at least one factory per product (" + productsPerLevel * depth + ")");
+    }
+    if (storages < 0 || wasteDisposals < 0 || dronePorts < 0 || dronesPerPort < 0 || requests < 0 || stepsBetweenRequests < 0) {
+      throw new IllegalArgumentException("building and request counts cannot be negative");
+    }
+    if (roadDensity < 0 || roadDensity > 1) {
+      throw new IllegalArgumentException("road density must be between 0 and 1");
+    }
+  }
+
+  private World generate() {
+    checkParameters();
+    Random random = new Random(seed);
+    ObjectMapper mapper = new ObjectMapper();
+    ObjectNode config = mapper.createObjectNode();
+
+    // recipes, level by level
+    List<List<String>> levels = new ArrayList<>();
+    List<String> lower = new ArrayList<>();
+    Map<String, Integer> levelOf = new HashMap<>();
+    List<String> wasteProducts = new ArrayList<>();
+    ArrayNode recipesNode = config.putArray("recipes");
+    for (int level = 0; level <= depth; level++) {
+      List<String> items = new ArrayList<>();
+      int count = level == 0 ? rawMaterials : productsPerLevel;
+      for (int i = 0; i < count; i++) {
+        String item = level == 0 ? "raw" + i : "item" + level + "_" + i;
+        ObjectNode recipeNode = recipesNode.addObject();
+        recipeNode.put("output", item);
+        ObjectNode ingredientsNode = recipeNode.putObject("ingredients");
+        if (level == 0) {
+          recipeNode.put("latency", 1 + random.nextInt(2));
+        }
+        else {
+          List<String> below = levels.get(level - 1);
+          List<String> candidates = new ArrayList<>(lower);
+          String first = below.get(random.nextInt(below.size()));
+          candidates.remove(first);
+          ingredientsNode.put(first, 1 + random.nextInt(2));
+          for (int j = 1; j < fanIn && !candidates.isEmpty(); j++) {
+            String ingredient = candidates.remove(random.nextInt(candidates.size()));
+            ingredientsNode.put(ingredient, 1 + random.nextInt(2));
+          }
+          recipeNode.put("latency", 1 + random.nextInt(2 * level + 2));
+          if (wasteDisposals > 0 && random.nextBoolean()) {
+            recipeNode.put("waste", item + "_waste");
+            recipeNode.put("wasteAmount", 1 + random.nextInt(3));
+            wasteProducts.add(item);
+          }
+        }
+        items.add(item);
+        levelOf.put(item, level);
+      }
+      levels.add(items);
+      lower.addAll(items);
+    }
+    Map<String, List<String>> ingredientsOf = new HashMap<>();
+    for (int i = 0; i < recipesNode.size(); i++) {
+      ObjectNode recipeNode = (ObjectNode) recipesNode.get(i);
+      List<String> ingredients = new ArrayList<>();
+      recipeNode.get("ingredients").fieldNames().forEachRemaining(ingredients::add);
+      ingredientsOf.put(recipeNode.get("output").asText(), ingredients);
+    }
+
+    // one factory type per product
+    List<String> products = new ArrayList<>();
+    ArrayNode typesNode = config.putArray("types");
+    for (int level = 1; level <= depth; level++) {
+      for (String item : levels.get(level)) {
+        ObjectNode typeNode = typesNode.addObject();
+        typeNode.put("name", item + "_maker");
+        typeNode.putArray("recipes").add(item);
+        products.add(item);
+      }
+    }
+
+    // places on the lattice
+    int total = mines + factories + storages + wasteDisposals + dronePorts;
+    int perRow = gridSize > 0 ? (gridSize + SPACING - 1) / SPACING : (int) Math.ceil(Math.sqrt(total));
+    long places = (long) perRow * perRow;
+    if (places < total) {
+      throw new IllegalArgumentException("grid of size " + gridSize + " is too small for " + total + " buildings");
+    }
+    int[] order = new int[(int) places];
+    for (int i = 0; i < order.length; i++) {
+      order[i] = i;
+    }
+    for (int i = 0; i < total; i++) {
+      int j = i + random.nextInt(order.length - i);
+      int swap = order[i];
+      order[i] = order[j];
+      order[j] = swap;
+    }
+
+    List<Placed> buildings = new ArrayList<>();
+    for (int i = 0; i < total; i++) {
+      Placed b = new Placed();
+      b.row = order[i] / perRow * SPACING;
+      b.col = order[i] % perRow * SPACING;
+      buildings.add(b);
+    }
+    int next = 0;
+    Index makers = new Index();
+    for (int i = 0; i < mines; i++, next++) {
+      Placed b = buildings.get(next);
+      b.name = "M" + i;
+      b.item = levels.get(0).get(i % rawMaterials);
+      b.kind = "mine";
+      makers.add(b.item, b);
+    }
+    for (int i = 0; i < factories; i++, next++) {
+      Placed b = buildings.get(next);
+      b.name = "F" + i;
+      // round robin, so every product has a factory before any gets a second one
+      b.item = products.get(i % products.size());
+      b.kind = "type";
+      makers.add(b.item, b);
+    }
+    Index suppliers = makers.copy();
+    for (int i = 0; i < storages; i++, next++) {
+      Placed b = buildings.get(next);
+      b.name = "S" + i;
+      b.item = lower.get(random.nextInt(lower.size()));
+      b.kind = "stores";
+      suppliers.add(b.item, b);
+    }
+    Index disposals = new Index();
+    for (int i = 0; i < wasteDisposals; i++, next++) {
+      Placed b = buildings.get(next);
+      b.name = "W" + i;
+      b.kind = "interval";
+      disposals.add("", b);
+    }
+    for (int i = 0; i < dronePorts; i++, next++) {
+      Placed b = buildings.get(next);
+      b.name = "P" + i;
+      b.kind = "port";
+    }
+
+    ArrayNode buildingsNode = config.putArray("buildings");
+    for (Placed b : buildings) {
+      ObjectNode node = buildingsNode.addObject();
+      node.put("name", b.name);
+      switch (b.kind) {
+        case "mine":
+          node.put("mine", b.item);
+          break;
+        case "type":
+          node.put("type", b.item + "_maker");
+          break;
+        case "stores":
+          int capacity = 10 + random.nextInt(41);
+          node.put("stores", b.item);
+          node.put("capacity", capacity);
+          node.put("remain", capacity);
+          node.put("priority", 1 + random.nextInt(4) * 0.5);
+          break;
+        case "interval":
+          // a factory stops when its waste cannot be disposed of, so disposals are large
+          node.put("capacity", 10000);
+          node.put("disposeAmount", 100);
+          node.put("disposeInterval", 1);
+          node.put("interval", 0);
+          node.put("predictedAmount", 0);
+          node.put("currentAmount", 0);
+          ArrayNode wasteTypes = node.putArray("wasteTypes");
+          wasteProducts.forEach(wasteTypes::add);
+          break;
+        default:
+          break;
+      }
+      node.putArray("coordinate").add(b.row).add(b.col);
+      if (b.kind.equals("type")) {
+        ArrayNode sourcesNode = node.putArray("sources");
+        for (String ingredient : ingredientsOf.get(b.item)) {
+          for (Placed source : suppliers.nearest(ingredient, b, sourcesPerIngredient)) {
+            sourcesNode.add(source.name);
+          }
+        }
+        if (wasteProducts.contains(b.item)) {
+          node.putArray("wasteDisposals").add(disposals.nearest("", b, 1).get(0).name);
+        }
+      }
+      else if (b.kind.equals("stores")) {
+        ArrayNode sourcesNode = node.putArray("sources");
+        for (Placed source : makers.nearest(b.item, b, sourcesPerIngredient)) {
+          sourcesNode.add(source.name);
+        }
+      }
+      else if (!b.kind.equals("port")) {
+        node.putArray("sources");
+      }
+    }
+
+    // streets cover the lattice and a border of one square around it
+    int size = (perRow - 1) * SPACING + 3;
+    boolean[] driveway = new boolean[size * size];
+    for (Placed b : buildings) {
+      driveway[(b.row + 2) * size + b.col + 1] = true;
+      driveway[b.row * size + b.col + 1] = true;
+      driveway[(b.row + 1) * size + b.col + 2] = true;
+      driveway[(b.row + 1) * size + b.col] = true;
+    }
+    ArrayNode roadsNode = config.putArray("roads");
+    for (int row = -1; row < size - 1; row++) {
+      for (int col = -1; col < size - 1; col++) {
+        boolean lattice = row >= 0 && col >= 0 && row % SPACING == 0 && col % SPACING == 0;
+        boolean crossing = Math.floorMod(row, SPACING) != 0 && Math.floorMod(col, SPACING) != 0;
+        if (!lattice && (crossing || driveway[(row + 1) * size + col + 1] || random.nextDouble() < roadDensity)) {
+          roadsNode.addObject().putArray("coordinate").add(row).add(col);
+        }
+      }
+    }
+
+    List<String> script = new ArrayList<>();
+    for (int i = 0; i < dronePorts; i++) {
+      for (int j = 0; j < dronesPerPort; j++) {
+        script.add("add_drone at 'P" + i + "'");
+      }
+    }
+    List<Placed> targets = new ArrayList<>();
+    for (Placed b : buildings) {
+      // user requests go to the upper half of the DAG, where the chains are long
+      if (b.kind.equals("type") && levelOf.get(b.item) * 2 >= depth) {
+        targets.add(b);
+      }
+    }
+    for (int i = 0; i < requests; i++) {
+      Placed target = targets.get(random.nextInt(targets.size()));
+      script.add("request '" + target.item + "' from '" + target.name + "'");
+      if (stepsBetweenRequests > 0) {
+        script.add("step " + stepsBetweenRequests);
+      }
+    }
+    script.add("finish");
+    return new World(config, script);
+  }
+
+  /**
+   * A building being generated.
+   */
+  private static class Placed {
+    private String name;
+    private String kind;
+    private String item;
+    private int row;
+    private int col;
+  }
+
+  /**
+   * Finds the buildings providing an item closest to a square, by looking at buckets of
+   * the grid in growing rings around it.
+   */
+  private static class Index {
+    private final Map<String, Map<Long, List<Placed>>> byItem = new LinkedHashMap<>();
+    private final Map<String, Integer> counts = new HashMap<>();
+
+    private static long bucket(int row, int col) {
+      return ((long) (row / BUCKET) << 32) | ((col / BUCKET) & 0xffffffffL);
+    }
+
+    void add(String item, Placed b) {
+      byItem.computeIfAbsent(item, k -> new HashMap<>()).computeIfAbsent(bucket(b.row, b.col), k -> new ArrayList<>()).add(b);
+      counts.merge(item, 1, Integer::sum);
+    }
+
+    Index copy() {
+      Index copy = new Index();
+      for (Map.Entry<String, Map<Long, List<Placed>>> e : byItem.entrySet()) {
+        for (List<Placed> list : e.getValue().values()) {
+          for (Placed b : list) {
+            copy.add(e.getKey(), b);
+          }
+        }
+      }
+      return copy;
+    }
+
+    List<Placed> nearest(String item, Placed from, int count) {
+      Map<Long, List<Placed>> buckets = byItem.get(item);
+      int available = counts.getOrDefault(item, 0);
+      List<Placed> found = new ArrayList<>();
+      if (buckets == null) {
+        return found;
+      }
+      int centerRow = from.row / BUCKET;
+      int centerCol = from.col / BUCKET;
+      // once enough are found, one more ring catches closer ones across a bucket border
+      int lastRing = Integer.MAX_VALUE;
+      for (int ring = 0; ring <= lastRing && found.size() < available; ring++) {
+        for (int r = centerRow - ring; r <= centerRow + ring; r++) {
+          for (int c = centerCol - ring; c <= centerCol + ring; c++) {
+            if (Math.max(Math.abs(r - centerRow), Math.abs(c - centerCol)) != ring) {
+              continue;
+            }
+            List<Placed> list = buckets.get(((long) r << 32) | (c & 0xffffffffL));
+            if (list != null) {
+              for (Placed b : list) {
+                if (b != from) {
+                  found.add(b);
+                }
+              }
+            }
+          }
+        }
+        if (found.size() >= count && lastRing == Integer.MAX_VALUE) {
+          lastRing = ring + 1;
+        }
+      }
+      found.sort((a, b) -> Integer.compare(distance(a, from), distance(b, from)));
+      return found.size() > count ? found.subList(0, count) : found;
+    }
+
+    private static int distance(Placed a, Placed b) {
+      return Math.abs(a.row - b.row) + Math.abs(a.col - b.col);
+    }
+  }
+
+  private static class World {
+    private final ObjectNode config;
+    private final List<String> script;
+
+    World(ObjectNode config, List<String> script) {
+      this.config = config;
+      this.script = script;
+    }
+  }
+
+  /**
+   * Writes a world: WorldGenerator configFile scriptFile [name=value ...], where the
+   * names are the setters' without "set", e.g. factories=1000 seed=7 roadDensity=0.2.
+   *
+   * @param args the command line arguments
+   * @throws IOException if a file cannot be written
+   */
+  public static void main(String[] args) throws IOException {
+    if (args.length < 2) {
+      System.err.println("usage: WorldGenerator configFile scriptFile [name=value ...]");
+      System.exit(1);
+    }
+    WorldGenerator generator = new WorldGenerator();
+    for (int i = 2; i < args.length; i++) {
+      String[] pair = args[i].split("=", 2);
+      if (pair.length != 2) {
+        throw new IllegalArgumentException("expected name=value, got '" + args[i] + "'");
+      }
+      generator.set(pair[0], pair[1]);
+    }
+    generator.write(args[0], args[1]);
+  }
+
+  /**
+   * Sets a parameter by name, as given on the command line.
+   *
+   * @param name the parameter name, e.g. "factories"
+   * @param value the value
+   * @return this generator
+   * @throws IllegalArgumentException if the name is unknown or the value is not a number
+   */
+  public WorldGenerator set(String name, String value) {
+    switch (name) {
+      case "seed":
+        return setSeed(Long.parseLong(value));
+      case "mines":
+        return setMines(Integer.parseInt(value));
+      case "factories":
+        return setFactories(Integer.parseInt(value));
+      case "storages":
+        return setStorages(Integer.parseInt(value));
+      case "wasteDisposals":
+        return setWasteDisposals(Integer.parseInt(value));
+      case "dronePorts":
+        return setDronePorts(Integer.parseInt(value));
+      case "dronesPerPort":
+        return setDronesPerPort(Integer.parseInt(value));
+      case "rawMaterials":
+        return setRawMaterials(Integer.parseInt(value));
+      case "productsPerLevel":
+        return setProductsPerLevel(Integer.parseInt(value));
+      case "depth":
+        return setDepth(Integer.parseInt(value));
+      case "fanIn":
+        return setFanIn(Integer.parseInt(value));
+      case "sourcesPerIngredient":
+        return setSourcesPerIngredient(Integer.parseInt(value));
+      case "gridSize":
+        return setGridSize(Integer.parseInt(value));
+      case "roadDensity":
+        return setRoadDensity(Double.parseDouble(value));
+      case "requests":
+        return setRequests(Integer.parseInt(value));
+      case "stepsBetweenRequests":
+        return setStepsBetweenRequests(Integer.parseInt(value));
+      default:
+        throw new IllegalArgumentException("unknown parameter '" + name + "'");
+    }
+  }
+}
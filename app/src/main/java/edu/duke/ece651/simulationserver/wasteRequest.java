@@ -13,6 +13,11 @@ public class wasteRequest extends Request {
     this.amount = amount;
   }
 
+  wasteRequest(wasteRequest other, WasteDisposal wd) {
+    super(other, wd);
+    this.amount = other.amount;
+  }
+
   public int getAmount() {
     return amount;
   }
@@ -0,0 +1,110 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class BatchRunnerTest {
+  private static final ObjectMapper mapper = new ObjectMapper();
+  private static final List<String> SCRIPT = List.of(
+      "# three doors, then a hinge",
+      "request 'door' from 'D'",
+      "request 'door' from 'D'",
+      "",
+      "step 5",
+      "request 'door' from 'D'",
+      "request 'hinge' from 'Hi'");
+
+  private static JsonNode json(String text) throws IOException {
+    return mapper.readTree(text.replace('\'', '"'));
+  }
+
+  // doors1 with a storage and a drone port
+  private static String config(Path dir) throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    simulation.createBuilding("src/test/resources/newStorage.json");
+    simulation.createBuilding("src/test/resources/newDronePort.json");
+    String file = new File(dir.toFile(), "config.json").getPath();
+    simulation.save(file);
+    return file;
+  }
+
+  @Test
+  public void test_sweep(@TempDir Path dir) throws IOException {
+    BatchRunner runner = new BatchRunner(config(dir), SCRIPT, json(
+        "{'policies': {'D': {'request': ['fifo', 'sjf']}, '*': {'source': ['qlen', 'simplelat']}},"
+        + " 'storage': {'M_S': [1, 5]}, 'drones': {'DP': [0, 2]}}"));
+    assertEquals(16, runner.size());
+    assertEquals(List.of("D.request", "*.source", "M_S.priority", "DP.drones"), runner.getKeys());
+    assertEquals(Map.of("D.request", "fifo", "*.source", "qlen", "M_S.priority", 1.0, "DP.drones", 0),
+        runner.getSettings(0));
+    assertEquals(Map.of("D.request", "fifo", "*.source", "qlen", "M_S.priority", 1.0, "DP.drones", 2),
+        runner.getSettings(1));
+    assertEquals(Map.of("D.request", "sjf", "*.source", "simplelat", "M_S.priority", 5.0, "DP.drones", 2),
+        runner.getSettings(15));
+
+    BatchRunner.Result result = runner.run(0);
+    assertNull(result.getError());
+    assertTrue(result.isCompleted());
+    assertEquals(4, result.getLatencies().size());
+    assertTrue(result.getCycles() > 5);
+    assertTrue(result.getLatency(0.5) <= result.getLatency(1));
+    assertTrue(result.getMeanLatency() <= result.getLatency(1));
+    assertTrue(result.getThroughput() > 0);
+    // each run is independent, so running it again gives the same result
+    assertEquals(result.getLatencies(), runner.run(0).getLatencies());
+
+    StringWriter csv = new StringWriter();
+    runner.runAll(4, csv, true);
+    String[] lines = csv.toString().split("\n");
+    assertEquals(17, lines.length);
+    assertTrue(lines[0].startsWith("run,D.request,*.source,M_S.priority,DP.drones,completed,cycles,orders"));
+    assertTrue(lines[1].startsWith("0,fifo,qlen,1.0,0,true," + result.getCycles() + ",4,"));
+    assertTrue(lines[16].startsWith("15,sjf,simplelat,5.0,2,true,"));
+
+    StringWriter jsonl = new StringWriter();
+    runner.runAll(2, jsonl, false);
+    lines = jsonl.toString().split("\n");
+    assertEquals(16, lines.length);
+    JsonNode first = mapper.readTree(lines[0]);
+    assertEquals(0, first.get("run").asInt());
+    assertEquals(4, first.get("latencies").size());
+    assertEquals(result.getCycles(), first.get("cycles").asInt());
+  }
+
+  @Test
+  public void test_budgetAndErrors() throws IOException {
+    BatchRunner runner = new BatchRunner("src/test/resources/doors1.json", SCRIPT,
+        json("{'maxCycles': 3, 'drones': {'D': [1]}}"));
+    BatchRunner.Result result = runner.run(0);
+    assertEquals("'D' is not a drone port", result.getError());
+
+    runner = new BatchRunner("src/test/resources/doors1.json", SCRIPT, json("{'maxCycles': 3}"));
+    assertEquals(1, runner.size());
+    result = runner.run(0);
+    assertNull(result.getError());
+    assertFalse(result.isCompleted());
+    assertEquals(8, result.getCycles());
+
+    runner = new BatchRunner("src/test/resources/doors1.json", List.of("request 'door' from 'nowhere'"), json("{}"));
+    assertNotNull(runner.run(0).getError());
+
+    assertThrows(IllegalArgumentException.class, () -> new BatchRunner("x", SCRIPT, json("[]")));
+    assertThrows(IllegalArgumentException.class, () -> new BatchRunner("x", SCRIPT, json("{'colors': {}}")));
+    assertThrows(IllegalArgumentException.class, () -> new BatchRunner("x", SCRIPT, json("{'drones': {'DP': []}}")));
+    assertThrows(IllegalArgumentException.class, () -> new BatchRunner("x", SCRIPT, json("{'maxCycles': 0}")));
+    assertThrows(IllegalArgumentException.class,
+        () -> new BatchRunner("x", SCRIPT, json("{'policies': {'D': {'recipe': ['fifo']}}}")));
+  }
+}
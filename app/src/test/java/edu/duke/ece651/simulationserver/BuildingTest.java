@@ -62,6 +62,26 @@ public class BuildingTest {
     assertEquals(13, totalLat);
   }
 
+  @Test
+  public void test_getQueuedLatency() {
+    Recipe r1 = new Recipe("item1", Collections.emptyMap(), 5);
+    Recipe r2 = new Recipe("item2", Collections.emptyMap(), 10);
+    Request req1 = new Request(r1, null, true, 3);
+    Request req2 = new Request(r2, null, true);
+    building.onlyAddRequest(req1);
+    building.onlyAddRequest(req2);
+    assertEquals(25, building.getQueuedLatency());
+    assertEquals(building.getTotalLatence(), building.getQueuedLatency());
+
+    building.startRequest(req1);
+    building.timeLeft = 3;
+    assertEquals(23, building.getQueuedLatency());
+    assertEquals(building.getTotalLatence(), building.getQueuedLatency());
+    building.shedUnit(req2);
+    assertEquals(13, building.getQueuedLatency());
+    assertEquals(13, building.getSimplelat());
+  }
+
   @Test
   public void test_addInventory() {
     assertTrue(building.getInventory().isEmpty(), "Initially, inventory should be empty.");
@@ -1,5 +1,6 @@
 package edu.duke.ece651.simulationserver;
 import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.ArgumentMatchers.anyInt;
 import static org.mockito.ArgumentMatchers.anyString;
 import static org.mockito.Mockito.*;
 import org.junit.jupiter.api.BeforeEach;
@@ -16,14 +17,19 @@ import java.util.HashMap;
 import java.util.Map;
 public class CommandControllerTest {
     @Mock
-    private SimulationTextView simulationTextView;
+    private SessionRegistry sessions;
+
+    @Mock
+    private SimulationSession session;
 
     @InjectMocks
     private CommandController commandController;
 
     @BeforeEach
-    public void setUp() {
+    public void setUp() throws IOException {
         MockitoAnnotations.openMocks(this);
+        when(sessions.get(anyInt())).thenReturn(session);
+        when(session.getSessionFile()).thenReturn("session1.json");
     }
 
     @Test
@@ -31,7 +37,7 @@ public class CommandControllerTest {
         CommandRequest request = new CommandRequest();
         request.setId(1);
         request.setCommand("verbose 2");
-        SessionObject result = commandController.wsExecuteCommand(request);
+        SessionObject result = commandController.wsExecuteCommand(1, "client1", request);
         assertNotNull(result);
         assertEquals(1, result.getId());
     }
@@ -43,7 +49,7 @@ public class CommandControllerTest {
         Map<String, Object> jsonData = new HashMap<>();
         sessionObject.setJsonData(jsonData);
         
-        SessionObject result = commandController.wsNewBuilding(sessionObject);
+        SessionObject result = commandController.wsNewBuilding(1, "client1", sessionObject);
         assertEquals(1, result.getId());
         assertNotNull(result.getJsonData());
     }
@@ -54,7 +60,7 @@ public class CommandControllerTest {
         sessionObject.setId(1);
         sessionObject.setJsonData(new HashMap<>());
         
-        SessionObject result = commandController.wsLoadCommand(sessionObject);
+        SessionObject result = commandController.wsLoadCommand(1, "client1", sessionObject);
         assertEquals(1, result.getId());
         assertNotNull(result.getJsonData());
     }
@@ -64,7 +70,7 @@ public class CommandControllerTest {
         CommandRequest request = new CommandRequest();
         request.setId(1);
         request.setCommand("verbose 2");
-        Map<String, Object> result = commandController.wsTextualExecuteCommand(request);
+        Map<String, Object> result = commandController.wsTextualExecuteCommand(1, request);
         assertNotNull(result);
         assertEquals(1, result.get("sessionID"));
     }
@@ -76,7 +82,7 @@ public class CommandControllerTest {
         String fileName = "a.json";
         textualObject.setFileName(fileName);
         
-        Map<String, Object> result = commandController.wsTextualNewBuilding(textualObject);
+        Map<String, Object> result = commandController.wsTextualNewBuilding(1, textualObject);
         assertEquals(1, result.get("sessionID"));
     }
 
@@ -87,7 +93,7 @@ public class CommandControllerTest {
         String fileName = "session1.json";
         textualObject.setFileName(fileName);
         
-        Map<String, Object> result = commandController.wsTextualLoadCommand(textualObject);
+        Map<String, Object> result = commandController.wsTextualLoadCommand(1, textualObject);
         assertEquals(1, result.get("sessionID"));
     }
     
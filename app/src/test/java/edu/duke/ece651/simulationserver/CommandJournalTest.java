@@ -0,0 +1,91 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class CommandJournalTest {
+  @Test
+  public void test_appendAndReopen(@TempDir Path tempDir) throws Exception {
+    File dir = tempDir.toFile();
+    assertFalse(CommandJournal.exists(dir, 3));
+    try (CommandJournal journal = new CommandJournal(dir, 3)) {
+      assertNull(journal.getSnapshot());
+      assertTrue(journal.getEntries().isEmpty());
+      long first = journal.append("request 'door' from 'D'", 4);
+      long second = journal.append("step 2", 7);
+      assertEquals(first + 1, second);
+      journal.sync(second);
+      journal.sync(first);
+      assertEquals(2, journal.size());
+    }
+    assertTrue(CommandJournal.exists(dir, 3));
+    try (CommandJournal journal = new CommandJournal(dir, 3)) {
+      List<CommandJournal.Entry> entries = journal.getEntries();
+      assertEquals(2, entries.size());
+      assertEquals("request 'door' from 'D'", entries.get(0).getCommand());
+      assertEquals(4, entries.get(0).getRequestId());
+      assertEquals("step 2", entries.get(1).getCommand());
+      assertEquals(7, entries.get(1).getRequestId());
+      assertEquals(entries.get(1).getSequence() + 1, journal.append("finish", 9));
+    }
+  }
+
+  @Test
+  public void test_tornTail(@TempDir Path tempDir) throws Exception {
+    File dir = tempDir.toFile();
+    try (CommandJournal journal = new CommandJournal(dir, 1)) {
+      journal.sync(journal.append("step 1", 0));
+    }
+    File file = new File(dir, "session1.journal");
+    long size = file.length();
+    try (FileOutputStream out = new FileOutputStream(file, true)) {
+      out.write(new byte[] { 0, 0, 0, 20, 1, 2, 3 });
+    }
+    try (CommandJournal journal = new CommandJournal(dir, 1)) {
+      assertEquals(1, journal.getEntries().size());
+      assertEquals(size, file.length());
+      journal.sync(journal.append("step 2", 0));
+    }
+    try (CommandJournal journal = new CommandJournal(dir, 1)) {
+      assertEquals(2, journal.getEntries().size());
+      assertEquals("step 2", journal.getEntries().get(1).getCommand());
+    }
+  }
+
+  @Test
+  public void test_snapshot(@TempDir Path tempDir) throws Exception {
+    File dir = tempDir.toFile();
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    try (CommandJournal journal = new CommandJournal(dir, 2)) {
+      journal.append("step 1", 0);
+      journal.snapshot(simulation);
+      assertEquals(0, journal.size());
+      assertEquals("session2-1.sim", journal.getSnapshot().getName());
+      journal.append("step 2", 0);
+      journal.snapshot(simulation);
+      assertEquals("session2-2.sim", journal.getSnapshot().getName());
+      assertFalse(new File(dir, "session2-1.sim").exists());
+      journal.sync(journal.append("step 3", 0));
+    }
+    try (CommandJournal journal = new CommandJournal(dir, 2)) {
+      assertEquals("session2-2.sim", journal.getSnapshot().getName());
+      assertTrue(SnapshotReader.isSnapshot(journal.getSnapshot().getPath()));
+      assertEquals(1, journal.getEntries().size());
+      assertEquals(3, journal.getEntries().get(0).getSequence());
+    }
+  }
+
+  @Test
+  public void test_notAJournal(@TempDir Path tempDir) throws Exception {
+    Files.writeString(tempDir.resolve("session5.journal"), "{\"session\": 5}");
+    assertThrows(IllegalArgumentException.class, () -> new CommandJournal(tempDir.toFile(), 5));
+  }
+}
@@ -0,0 +1,156 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class CriticalPathPolicyTest {
+  private Map<String, Recipe> recipes;
+  private Recipe ore;
+  private Recipe ingot;
+  private Mine busyMine;
+  private Mine idleMine;
+  private Factory first;
+  private Factory second;
+  private Map<Building, GraphPath> sources;
+
+  @BeforeEach
+  public void setUp() {
+    recipes = new LinkedHashMap<>();
+    ore = new Recipe("ore", new LinkedHashMap<>(), 2);
+    ingot = new Recipe("ingot", new LinkedHashMap<>(Map.of("ore", 1)), 3);
+    recipes.put("ore", ore);
+    recipes.put("ingot", ingot);
+    FactoryType smelter = new FactoryType("smelter", List.of(ingot));
+    busyMine = new Mine("M1", new ArrayList<>(), ore);
+    idleMine = new Mine("M2", new ArrayList<>(), ore);
+    first = new Factory("F1", new ArrayList<>(List.of(busyMine)), smelter);
+    second = new Factory("F2", new ArrayList<>(List.of(idleMine)), smelter);
+    for (int i = 0; i < 4; i++) {
+      busyMine.addRequest(new Request(ore, first, false));
+    }
+    sources = new LinkedHashMap<>();
+    sources.put(first, new GraphPath());
+    sources.put(second, new GraphPath());
+  }
+
+  @Test
+  public void test_upstreamBacklog() {
+    CriticalPathPolicy policy = new CriticalPathPolicy(new RecipeGraph(recipes), 5);
+    Map<String, Integer> chooseStandard = new HashMap<>();
+    assertSame(second, policy.selectSource(sources, "ingot", chooseStandard));
+    // the critical latency of ingot is 5, and F1's mine has 4 units of 2 cycles queued
+    assertEquals(Map.of("F1", 13, "F2", 5), chooseStandard);
+    // both factories are idle, so the simple latency does not tell them apart
+    assertSame(first, new SimplelatPolicy().selectSource(sources, "ingot", new HashMap<>()));
+
+    // the backlog is not measured again before the recalibration interval is over
+    for (int i = 0; i < 10; i++) {
+      idleMine.addRequest(new Request(ore, second, false));
+    }
+    assertEquals(5, policy.score(second, "ingot"));
+  }
+
+  @Test
+  public void test_noRecalibration() {
+    CriticalPathPolicy policy = new CriticalPathPolicy(new RecipeGraph(recipes), 0);
+    Map<String, Integer> chooseStandard = new HashMap<>();
+    assertSame(first, policy.selectSource(sources, "ingot", chooseStandard));
+    assertEquals(Map.of("F1", 5, "F2", 5), chooseStandard);
+    assertThrows(IllegalArgumentException.class, () -> new CriticalPathPolicy(new RecipeGraph(recipes), -1));
+  }
+
+  @Test
+  public void test_storageStock() {
+    Storage storage = new Storage("S", ingot, new ArrayList<>(List.of(second)), 10, 1.0);
+    storage.addIngredient("ingot");
+    storage.addIngredient("ingot");
+    sources.put(storage, new GraphPath());
+    CriticalPathPolicy policy = new CriticalPathPolicy(recipes);
+    assertSame(storage, policy.selectSource(sources, "ingot", new HashMap<>()));
+    assertEquals(-6, policy.score(storage, "ingot"));
+    assertNull(policy.selectSource(sources, "ore", new HashMap<>()));
+    assertEquals("criticalpath", policy.getSourcePolicyName());
+  }
+
+  @Test
+  public void test_savedName(@TempDir Path tempDir) throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    simulation.setSourcePolicy("D", "criticalpath");
+    Path saved = tempDir.resolve("critical.json");
+    Path snapshot = tempDir.resolve("critical.sim");
+    simulation.save(saved.toString());
+    simulation.saveSnapshot(snapshot.toString());
+    for (Path file : new Path[] { saved, snapshot }) {
+      SourceSelectionPolicy policy = new Simulation(file.toString()).getBuilding("D").getSourcePolicy();
+      assertEquals("criticalpath", policy.getSourcePolicyName());
+    }
+  }
+
+  private static String json(Simulation simulation) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    simulation.save(out, false);
+    return out.toString("UTF-8");
+  }
+
+  @Test
+  public void test_rewindAndReload(@TempDir Path tempDir) throws IOException {
+    SimulationTextView view = new SimulationTextView("src/test/resources/doors1.json", null,
+        new PrintStream(new ByteArrayOutputStream()));
+    view.setTimeline(new Timeline(5, 4));
+    view.parseCommand("set policy source 'criticalpath' on *");
+    Map<Integer, String> states = new LinkedHashMap<>();
+    view.parseCommand("request 'door' from 'D'");
+    view.parseCommand("request 'door' from 'D'");
+    view.parseCommand("step 3");
+    states.put(3, json(view.getSimulation()));
+    view.parseCommand("step 6");
+    view.parseCommand("request 'door' from 'D'");
+    states.put(9, json(view.getSimulation()));
+    view.parseCommand("step 20");
+    view.parseCommand("request 'door' from 'D'");
+    states.put(29, json(view.getSimulation()));
+    assertFalse(view.getSimulation().getBuilding("Hi").getUpstreamBacklogs().isEmpty());
+
+    // the measurements of the moment are saved and loaded with the rest of the state
+    Path saved = tempDir.resolve("critical.json");
+    Path snapshot = tempDir.resolve("critical.sim");
+    view.getSimulation().save(saved.toString());
+    view.getSimulation().saveSnapshot(snapshot.toString());
+    view.parseCommand("step 30");
+    // a snapshot load may order an inventory differently, so compare the trees
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode finished = mapper.readTree(json(view.getSimulation()));
+    for (Path file : new Path[] { saved, snapshot }) {
+      Simulation loaded = new Simulation(file.toString());
+      assertEquals(mapper.readTree(states.get(29)), mapper.readTree(json(loaded)), file.toString());
+      loaded.stepN(30);
+      assertEquals(finished, mapper.readTree(json(loaded)), file.toString());
+    }
+
+    // and forks copy them, so a rewind replays the same choices
+    for (int cycle : new int[] { 29, 9, 3 }) {
+      view.parseCommand("rewind " + cycle);
+      assertEquals(states.get(cycle), json(view.getSimulation()), "rewind " + cycle);
+    }
+  }
+}
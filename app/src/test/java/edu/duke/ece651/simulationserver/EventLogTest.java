@@ -0,0 +1,172 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class EventLogTest {
+  @Test
+  public void test_verbosityMask() {
+    EventLog log = new EventLog();
+    assertTrue(log.isEnabled(EventType.ORDER_COMPLETE));
+    assertFalse(log.isEnabled(EventType.INGREDIENT_ASSIGNMENT));
+    assertFalse(log.isEnabled(EventType.SOURCE_SELECTION));
+    log.setVerbosity(1);
+    assertTrue(log.isEnabled(EventType.INGREDIENT_ASSIGNMENT));
+    assertFalse(log.isEnabled(EventType.SOURCE_SELECTION));
+    log.setVerbosity(2);
+    assertTrue(log.isEnabled(EventType.SOURCE_SELECTION));
+    assertEquals(2, log.getVerbosity());
+    log.setVerbosity(3);
+    assertTrue(log.isEnabled(EventType.SIMULATION_COMPLETE));
+    assertFalse(log.isEnabled(EventType.INGREDIENT_ASSIGNMENT));
+    assertFalse(log.isEnabled(EventType.MESSAGE));
+  }
+
+  @Test
+  public void test_publishAndFlush() {
+    EventLog log = new EventLog();
+    MemoryEventSink sink = new MemoryEventSink();
+    log.addSink(sink);
+    log.publish(SimulationEvent.orderComplete(3, 0, "door"));
+    log.publish(SimulationEvent.message(3, "dropped"));
+    assertTrue(sink.getEvents().isEmpty());
+    log.flush();
+    assertEquals(1, sink.getEvents().size());
+    SimulationEvent event = sink.getEvents().get(0);
+    assertEquals(EventType.ORDER_COMPLETE, event.getType());
+    assertEquals(3, event.getCycle());
+    assertEquals(0, event.getInt("order"));
+    assertEquals("door", event.getString("item"));
+    assertNull(event.getString("missing"));
+
+    log.publish(SimulationEvent.simulationComplete(4));
+    log.clear();
+    log.flush();
+    assertEquals(1, sink.getEvents().size());
+    log.removeSink(sink);
+    assertTrue(log.getSinks().isEmpty());
+  }
+
+  @Test
+  public void test_fullRingDrainsToSinks() {
+    EventLog log = new EventLog(4);
+    MemoryEventSink sink = new MemoryEventSink();
+    log.addSink(sink);
+    for (int i = 0; i < 10; i++) {
+      log.publish(SimulationEvent.orderComplete(i, i, "bolt"));
+    }
+    log.flush();
+    assertEquals(10, sink.getEvents().size());
+    for (int i = 0; i < 10; i++) {
+      assertEquals(i, sink.getEvents().get(i).getCycle());
+    }
+    assertEquals(10, sink.getEvents(EventType.ORDER_COMPLETE).size());
+    assertEquals(0, sink.getEvents(EventType.MESSAGE).size());
+    sink.clear();
+    assertTrue(sink.getEvents().isEmpty());
+  }
+
+  @Test
+  public void test_ringBuffer() {
+    assertThrows(IllegalArgumentException.class, () -> new EventRingBuffer(0));
+    EventRingBuffer ring = new EventRingBuffer(3);
+    assertEquals(4, ring.capacity());
+    assertTrue(ring.isEmpty());
+    assertNull(ring.poll());
+    for (int i = 0; i < 4; i++) {
+      assertTrue(ring.offer(SimulationEvent.simulationComplete(i)));
+    }
+    assertFalse(ring.offer(SimulationEvent.simulationComplete(4)));
+    assertEquals(0, ring.poll().getCycle());
+    assertTrue(ring.offer(SimulationEvent.simulationComplete(4)));
+    for (int i = 1; i <= 4; i++) {
+      assertEquals(i, ring.poll().getCycle());
+    }
+    assertTrue(ring.isEmpty());
+  }
+
+  @Test
+  public void test_concurrentPublish() throws InterruptedException {
+    EventLog log = new EventLog(8);
+    MemoryEventSink sink = new MemoryEventSink();
+    log.addSink(sink);
+    List<Thread> threads = new ArrayList<>();
+    for (int t = 0; t < 4; t++) {
+      Thread thread = new Thread(() -> {
+        for (int i = 0; i < 500; i++) {
+          log.publish(SimulationEvent.orderComplete(i, i, "x"));
+        }
+      });
+      threads.add(thread);
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    log.flush();
+    assertEquals(2000, sink.getEvents().size());
+  }
+
+  @Test
+  public void test_textFormat() {
+    assertEquals("[order complete] Order 2 completed (door) at time 7" + System.lineSeparator(),
+        TextEventSink.format(SimulationEvent.orderComplete(7, 2, "door")));
+    Map<String, Integer> candidates = new LinkedHashMap<>();
+    candidates.put("W1", 3);
+    candidates.put("W2", 5);
+    String text = TextEventSink.format(SimulationEvent.sourceCandidates(1, "D", "door", "qlen", 0, "wood",
+        candidates, "W1"));
+    assertTrue(text.contains("[D:door:0] For ingredient wood"));
+    assertTrue(text.contains("    W2: 5"));
+    assertTrue(text.contains("    Selecting W1"));
+
+    Map<String, Integer> lack = new LinkedHashMap<>();
+    lack.put("wood", 2);
+    lack.put("handle", 1);
+    text = TextEventSink.format(SimulationEvent.requestStatus(1, Arrays.asList(true, false),
+        Arrays.asList(new LinkedHashMap<>(), lack), 0));
+    assertTrue(text.contains("    0: is ready"));
+    assertTrue(text.contains("    1: is not ready, waiting on {2x wood, handle}"));
+    assertTrue(text.contains("    Selecting 0"));
+    text = TextEventSink.format(SimulationEvent.readyRecipes(1, Arrays.asList("door")));
+    assertTrue(text.contains("    0: door is ready"));
+  }
+
+  @Test
+  public void test_textSinkWritesOnFlush() {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    TextEventSink sink = new TextEventSink(new PrintStream(bytes));
+    sink.accept(SimulationEvent.message(0, "hello"));
+    assertEquals("", bytes.toString());
+    sink.flush();
+    assertEquals("hello" + System.lineSeparator(), bytes.toString());
+  }
+
+  @Test
+  public void test_jsonLinesSink() {
+    StringWriter writer = new StringWriter();
+    JsonLinesEventSink sink = new JsonLinesEventSink(writer);
+    sink.accept(SimulationEvent.ingredientDelivered(5, "wood", "W", "D"));
+    sink.accept(SimulationEvent.readyRecipes(5, Arrays.asList("door")));
+    sink.flush();
+    String[] lines = writer.toString().split("\n");
+    assertEquals(2, lines.length);
+    assertEquals("{\"type\":\"ingredient_delivered\",\"cycle\":5,\"ingredient\":\"wood\",\"source\":\"W\","
+        + "\"building\":\"D\"}", lines[0]);
+    assertEquals("{\"type\":\"ready_recipes\",\"cycle\":5,\"ready\":[\"door\"]}", lines[1]);
+  }
+}
@@ -8,6 +8,7 @@ import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
@@ -81,6 +82,49 @@ public class FactoryTest {
     assertEquals(requests_2.peek().isUserRequest(), false);
   }
 
+  private static String queues(boolean bulk) {
+    Recipe ore = new Recipe("ore", new LinkedHashMap<>(), 1);
+    Mine m = new Mine("m", new ArrayList<>(), ore);
+    Map<String, Integer> partIngredients = new LinkedHashMap<>();
+    partIngredients.put("ore", 2);
+    Recipe part = new Recipe("part", partIngredients, 5);
+    Factory f1 = new Factory("f1", List.of(m), new FactoryType("f1 type", List.of(part)));
+    Map<String, Integer> productIngredients = new LinkedHashMap<>();
+    productIngredients.put("part", 3);
+    productIngredients.put("ore", 1);
+    Recipe product = new Recipe("product", productIngredients, 20);
+    Factory f2 = new Factory("f2", List.of(f1, m), new FactoryType("f2 type", List.of(product)));
+
+    Request.resetIdGenerator();
+    if (bulk) {
+      f2.addRequest(new Request(product, null, true, 2));
+    } else {
+      f2.addRequest(new Request(product, null, true));
+      f2.addRequest(new Request(product, null, true));
+    }
+    StringBuilder queues = new StringBuilder();
+    for (Building building : List.of(f1, m)) {
+      for (Request request : building.getRequests()) {
+        queues.append(building.getName()).append(' ').append(request.getRequester().getName())
+            .append(' ').append(Arrays.toString(request.getUnitIds())).append('\n');
+      }
+    }
+    return queues.toString();
+  }
+
+  @Test
+  public void test_allocateSubRequestUnitByUnit() {
+    // every part queued at f1 asks m for its ore before the next part is selected, and a bulk
+    // request allocates its units round by round, as that many requests would
+    String bulk = queues(true);
+    assertEquals("f1 f2 [2, 5, 8, 12, 15, 18]\n"
+        + "m f1 [3, 4, 6, 7, 9, 10]\n"
+        + "m f2 [11]\n"
+        + "m f1 [13, 14, 16, 17, 19, 20]\n"
+        + "m f2 [21]\n", bulk);
+    assertEquals(queues(false).replaceAll("\\d+", "#"), bulk.replaceAll("\\d+", "#"));
+  }
+
   @Test
   public void test_findRecipe() {
     Recipe r1 = new Recipe("r1", null, 10);
@@ -114,4 +158,38 @@ public class FactoryTest {
     });
   }
 
+
+  @Test
+  public void test_sendWaste() {
+    Recipe trash = new Recipe("bin", "trash", 1, new HashMap<>(), 1);
+    Recipe slag = new Recipe("ingot", "slag", 1, new HashMap<>(), 1);
+    WasteDisposal small = new WasteDisposal("small", 10, List.of(trash), 1, 1);
+    WasteDisposal large = new WasteDisposal("large", 20, List.of(trash, slag), 1, 1);
+    Factory f = new Factory("f", new ArrayList<>(), type);
+    f.addWasteDisposal(small, new GraphPath());
+    f.addWasteDisposal(large, new GraphPath());
+
+    // each waste goes to the disposal accepting it with the most room left
+    f.addWaste("trash", 5);
+    f.addWaste("slag", 3);
+    f.step();
+    assertTrue(f.getWastes().isEmpty());
+    assertEquals(8, large.getPredictedAmount());
+    f.addWaste("trash", 5);
+    f.step();
+    assertEquals(13, large.getPredictedAmount());
+    f.addWaste("trash", 8);
+    f.step();
+    assertEquals(8, small.getPredictedAmount());
+    assertEquals(2, small.getRemainingCapacity());
+
+    // waste no disposal has room for stays
+    f.addWaste("trash", 9);
+    f.step();
+    assertEquals(Map.of("trash", 9), f.getWastes());
+    f.removeWasteDisposal(large);
+    f.addWaste("slag", 1);
+    f.step();
+    assertEquals(Map.of("trash", 9, "slag", 1), f.getWastes());
+  }
 }
@@ -1,6 +1,8 @@
 package edu.duke.ece651.simulationserver;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertSame;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
 import java.util.ArrayList;
@@ -21,4 +23,16 @@ public class FactoryTypeTest {
     assertEquals(recipes, type.getRecipes());
     assertThrows(IllegalArgumentException.class, () -> new FactoryType("null_recipes", null));
   }
+
+  @Test
+  public void test_getRecipe() {
+    Recipe first = new Recipe("item1", new LinkedHashMap<>(), 10);
+    Recipe second = new Recipe("item1", new LinkedHashMap<>(), 5);
+    Recipe other = new Recipe("item2", new LinkedHashMap<>(), 1);
+    FactoryType type = new FactoryType("test", List.of(first, second, other));
+    assertSame(first, type.getRecipe("item1"));
+    assertSame(other, type.getRecipe("item2"));
+    assertNull(type.getRecipe("item3"));
+    assertSame(first, Factory.findRecipe(type.getRecipes(), "item1"));
+  }
 }
@@ -0,0 +1,75 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import jdk.jfr.Recording;
+import jdk.jfr.consumer.RecordedEvent;
+import jdk.jfr.consumer.RecordingFile;
+
+public class JfrEventsTest {
+  private static final String PREFIX = "edu.duke.ece651.simulation.";
+
+  @Test
+  public void test_eventsAreRecorded() throws IOException {
+    Path dump = Files.createTempFile("simulation", ".jfr");
+    Path saved = Files.createTempFile("simulation", ".json");
+    try (Recording recording = new Recording()) {
+      for (String name : new String[] { "Cycle", "BuildingStep", "SourceSelection", "RequestSelection", "Route",
+          "Save", "Load", "Command" }) {
+        recording.enable(PREFIX + name).withThreshold(Duration.ZERO);
+      }
+      recording.start();
+      SimulationSession session = new SimulationSession(5, "src/test/resources/doors1.json");
+      session.execute("request 'door' from 'D'");
+      session.execute("step 3");
+      session.execute("save " + saved);
+      session.execute("connect 'W' to 'Hi'");
+      recording.stop();
+      recording.dump(dump);
+
+      List<RecordedEvent> events = RecordingFile.readAllEvents(dump);
+      Map<String, Integer> counts = new HashMap<>();
+      for (RecordedEvent event : events) {
+        counts.merge(event.getEventType().getName().substring(PREFIX.length()), 1, Integer::sum);
+        switch (event.getEventType().getName().substring(PREFIX.length())) {
+        case "SourceSelection":
+          assertEquals("qlen", event.getString("policy"));
+          assertTrue(event.getInt("candidates") > 0);
+          break;
+        case "Save":
+          assertEquals(Files.size(saved), event.getLong("bytes"));
+          break;
+        case "Route":
+          assertTrue(event.getInt("expansions") > 0);
+          break;
+        case "Command":
+          assertEquals(5, event.getInt("session"));
+          break;
+        default:
+        }
+      }
+      assertEquals(3, counts.get("Cycle"));
+      assertEquals(15, counts.get("BuildingStep"));
+      assertTrue(counts.get("SourceSelection") > 0);
+      assertTrue(counts.get("RequestSelection") > 0);
+      assertTrue(counts.get("Route") > 0);
+      assertEquals(1, counts.get("Save"));
+      assertEquals(1, counts.get("Load"));
+      assertEquals(4, counts.get("Command"));
+    } finally {
+      Files.deleteIfExists(dump);
+      Files.deleteIfExists(saved);
+    }
+  }
+}
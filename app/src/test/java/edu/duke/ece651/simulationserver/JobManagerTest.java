@@ -0,0 +1,59 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.jupiter.api.Test;
+
+public class JobManagerTest {
+  private static class Latch implements SimulationJob.Listener {
+    private final CountDownLatch progress = new CountDownLatch(1);
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    @Override
+    public void progress(SimulationJob job) {
+      progress.countDown();
+    }
+
+    @Override
+    public void stopped(SimulationJob job) {
+      stopped.countDown();
+    }
+  }
+
+  @Test
+  public void test_startAndCancel() throws IOException, InterruptedException {
+    JobManager manager = new JobManager(2, Long.MAX_VALUE, 600, 0);
+    SessionRegistry sessions = new SessionRegistry("src/test/resources/doors1.json");
+    SimulationSession session = sessions.get(1);
+    Latch latch = new Latch();
+    SimulationJob job = manager.start(session, "step 2000000000", latch);
+    assertSame(job, manager.get(job.getId()));
+    assertEquals(1, manager.size());
+    // one job per session
+    assertThrows(IllegalArgumentException.class, () -> manager.start(session, "finish", new Latch()));
+
+    // other commands run between the job's steps
+    assertTrue(latch.progress.await(10, TimeUnit.SECONDS));
+    session.parseCommand("request 'door' from 'D'");
+
+    assertSame(job, manager.cancel(job.getId()));
+    assertTrue(latch.stopped.await(10, TimeUnit.SECONDS));
+    assertEquals(SimulationJob.Status.CANCELLED, job.getStatus());
+    assertNull(manager.get(job.getId()));
+    assertNull(manager.cancel(job.getId()));
+    assertEquals(0, manager.size());
+
+    // the session is free again
+    Latch second = new Latch();
+    SimulationJob finish = manager.start(session, "finish", second);
+    assertNotEquals(job.getId(), finish.getId());
+    assertTrue(second.stopped.await(10, TimeUnit.SECONDS));
+    assertEquals(SimulationJob.Status.DONE, finish.getStatus());
+    manager.shutdown();
+    assertThrows(IllegalArgumentException.class, () -> new JobManager(0, 1, 1, 1));
+  }
+}
@@ -1,13 +1,24 @@
 package edu.duke.ece651.simulationserver;
 
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
 
 public class JsonInitializerTest {
   @Test
@@ -59,4 +70,44 @@ public class JsonInitializerTest {
     assertThrows(IllegalArgumentException.class, () -> initializer.initializeSystem(new HashMap<>(), new HashMap<>(), new HashMap<>(), new LinkedHashMap<>(), new ArrayList<>()));
   }
 
+  @Test
+  public void test_missingFile() {
+    assertThrows(FileNotFoundException.class, () -> new JsonInitializer("src/test/resources/notExist.json"));
+  }
+
+  @Test
+  public void test_sectionsInAnyOrder(@TempDir Path tempDir) throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    simulation.request("D", "door");
+    simulation.stepN(5);
+    Path saved = tempDir.resolve("saved.json");
+    simulation.save(saved.toString());
+
+    // requests, then buildings, then types, then recipes
+    ObjectMapper mapper = new ObjectMapper();
+    JsonNode root = mapper.readTree(saved.toFile());
+    ObjectNode reversed = mapper.createObjectNode();
+    List<String> fields = new ArrayList<>();
+    root.fieldNames().forEachRemaining(fields::add);
+    for (int i = fields.size() - 1; i >= 0; i--) {
+      reversed.set(fields.get(i), root.get(fields.get(i)));
+    }
+    Path reordered = tempDir.resolve("reordered.json");
+    mapper.writeValue(reordered.toFile(), reversed);
+
+    Path resaved = tempDir.resolve("resaved.json");
+    new Simulation(reordered.toString()).save(resaved.toString());
+    assertEquals(root, mapper.readTree(resaved.toFile()));
+  }
+
+  @Test
+  public void test_nullWaste(@TempDir Path tempDir) throws IOException {
+    Path saved = tempDir.resolve("saved.json");
+    new Simulation("src/test/resources/doors1.json").save(saved.toString());
+    Map<String, Recipe> recipes = new LinkedHashMap<>();
+    new JsonInitializer(saved.toString()).initializeSystem(recipes, new LinkedHashMap<>(), new LinkedHashMap<>(), new LinkedHashMap<>(), new ArrayList<>());
+    assertNull(recipes.get("door").getWaste());
+    assertEquals(0, recipes.get("door").getWasteAmount());
+  }
+
 }
@@ -1,6 +1,7 @@
 package edu.duke.ece651.simulationserver;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 
 import java.io.File;
@@ -9,6 +10,7 @@ import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.nio.file.Files;
 import java.nio.file.Path;
 
 import com.fasterxml.jackson.databind.JsonNode;
@@ -91,6 +93,21 @@ public class JsonSaverTest {
    
   }
 
+  @Test
+  public void test_prettyAndCompact(@TempDir Path tempDir) throws Exception {
+    JsonSaver saver = new JsonSaver(recipes, types, buildings, requests, requestId, cycle, paths);
+    File compact = tempDir.resolve("compact.json").toFile();
+    File pretty = tempDir.resolve("pretty.json").toFile();
+    saver.saveToFile(compact.getAbsolutePath());
+    saver.saveToFile(pretty.getAbsolutePath(), true);
+
+    assertFalse(Files.readString(compact.toPath()).contains("\n"));
+    assertTrue(Files.readString(pretty.toPath()).contains("\n"));
+    assertTrue(compact.length() < pretty.length());
+    ObjectMapper mapper = new ObjectMapper();
+    assertEquals(mapper.readTree(pretty), mapper.readTree(compact));
+  }
+
   private void initialize() {
     Map<String, Integer> ingredients_door = new HashMap<>();
     ingredients_door.put("wood", 1);
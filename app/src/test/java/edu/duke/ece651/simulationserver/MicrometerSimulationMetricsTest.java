@@ -0,0 +1,51 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.IOException;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+public class MicrometerSimulationMetricsTest {
+  @AfterEach
+  public void uninstall() {
+    Simulation.setMetrics(null);
+  }
+
+  @Test
+  public void test_sessionMetrics() throws IOException {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    MicrometerSimulationMetrics metrics = new MicrometerSimulationMetrics(registry);
+    Simulation.setMetrics(metrics);
+    SimulationSession session = new SimulationSession(3, "src/test/resources/doors1.json");
+    session.parseCommand("request 'door' from 'D'");
+    session.parseCommand("step 10");
+
+    assertEquals(10, registry.get("simulation.cycle").timer().count());
+    assertTrue(registry.get("simulation.policy.selection").tags("kind", "source", "policy", "qlen").timer()
+        .count() > 0);
+    assertTrue(registry.get("simulation.persistence").tags("operation", "load").timer().count() >= 1);
+    assertEquals(10, registry.get("simulation.session.cycle").tags("session", "3").gauge().value());
+    double busy = registry.get("simulation.building.busy.cycles").tags("session", "3", "building", "W").gauge()
+        .value();
+    double idle = registry.get("simulation.building.idle.cycles").tags("session", "3", "building", "W").gauge()
+        .value();
+    assertEquals(10, busy + idle);
+    assertTrue(registry.get("simulation.building.queue.length").tags("session", "3", "building", "D").gauge()
+        .value() >= 1);
+
+    session.getView().setQueueLimits(new QueueLimits(1, 0, OverflowPolicy.REJECT));
+    assertThrows(RequestRejectedException.class, () -> session.parseCommand("request 'door' from 'D'"));
+    assertEquals(1, registry.get("simulation.requests.rejected").tags("limit", "building", "outcome", "rejected")
+        .counter().count());
+
+    metrics.sessionRemoved(3);
+    assertNull(registry.find("simulation.session.cycle").tags("session", "3").gauge());
+  }
+}
@@ -0,0 +1,77 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.jupiter.api.Test;
+
+public class RecipeGraphTest {
+  private static void put(Map<String, Recipe> recipes, String output, int latency, Object... ingredients) {
+    Map<String, Integer> map = new LinkedHashMap<>();
+    for (int i = 0; i < ingredients.length; i += 2) {
+      map.put((String) ingredients[i], (Integer) ingredients[i + 1]);
+    }
+    recipes.put(output, new Recipe(output, map, latency));
+  }
+
+  private static RecipeGraph graph() {
+    Map<String, Recipe> recipes = new LinkedHashMap<>();
+    put(recipes, "car", 5, "steel", 3, "ore", 1);
+    put(recipes, "steel", 3, "ore", 2, "coal", 1);
+    put(recipes, "ore", 1);
+    put(recipes, "coal", 4);
+    put(recipes, "a", 1, "b", 1);
+    put(recipes, "b", 1, "a", 1);
+    put(recipes, "c", 1, "a", 1);
+    put(recipes, "d", 1, "ore", 1, "gold", 1);
+    return new RecipeGraph(recipes);
+  }
+
+  @Test
+  public void test_criticalPath() {
+    RecipeGraph graph = graph();
+    assertEquals(List.of("car", "steel", "coal"), graph.getCriticalPath("car"));
+    assertEquals(12, graph.getCriticalLatency("car"));
+    assertEquals(List.of("ore"), graph.getCriticalPath("ore"));
+    assertEquals(1, graph.getCriticalLatency("ore"));
+  }
+
+  @Test
+  public void test_billOfMaterials() {
+    RecipeGraph graph = graph();
+    assertEquals(Map.of("steel", 3L, "ore", 7L, "coal", 3L), graph.getBillOfMaterials("car"));
+    assertEquals(List.of("steel", "coal", "ore"), List.copyOf(graph.getBillOfMaterials("car").keySet()));
+    assertEquals(Map.of("ore", 7L, "coal", 3L), graph.getRawMaterials("car"));
+    assertEquals(Map.of(), graph.getBillOfMaterials("coal"));
+  }
+
+  @Test
+  public void test_unreachable() {
+    RecipeGraph graph = graph();
+    assertTrue(graph.isReachable("car"));
+    assertFalse(graph.isReachable("a"));
+    assertFalse(graph.isReachable("gold"));
+    assertEquals(Set.of("a", "b", "c", "d"), graph.getUnreachable());
+    assertEquals(Set.of("a", "b"), graph.getCyclic());
+    assertEquals(Set.of("gold"), graph.getMissing());
+    assertThrows(IllegalArgumentException.class, () -> graph.getCriticalPath("c"));
+    assertThrows(IllegalArgumentException.class, () -> graph.getBillOfMaterials("d"));
+    assertThrows(IllegalArgumentException.class, () -> graph.getCriticalLatency("gold"));
+  }
+
+  @Test
+  public void test_toMap() {
+    Map<String, Object> map = graph().toMap();
+    assertEquals(Set.of("car", "steel", "ore", "coal"), ((Map<?, ?>) map.get("outputs")).keySet());
+    assertEquals(List.of("gold"), map.get("missing"));
+    Map<?, ?> steel = (Map<?, ?>) ((Map<?, ?>) map.get("outputs")).get("steel");
+    assertEquals(7L, steel.get("criticalLatency"));
+  }
+}
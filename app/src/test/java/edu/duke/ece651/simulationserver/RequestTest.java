@@ -48,6 +48,104 @@ public class RequestTest {
     assertEquals(3, request2.getId());
   }
 
+  @Test
+  public void testQuantity() {
+    assertEquals(1, userRequest.getQuantity());
+    assertArrayEquals(new int[] { 0 }, userRequest.getUnitIds());
+    Request bulk = new Request(mockRecipe, null, true, 3);
+    assertEquals(3, bulk.getQuantity());
+    assertArrayEquals(new int[] { 2, 3, 4 }, bulk.getUnitIds());
+    assertEquals(5, Request.getIdGenerator());
+    assertEquals(3, new Request(bulk, null).getQuantity());
+    Request unit = bulk.takeUnit();
+    assertEquals(1, unit.getQuantity());
+    assertEquals(2, unit.getId());
+    assertEquals(mockRecipe, unit.getRecipe());
+    assertTrue(unit.isUserRequest());
+    assertEquals(2, bulk.getQuantity());
+    assertEquals(3, bulk.getId());
+    assertEquals(List.of(3, 4), bulk.getUnits().stream().map(Request::getId).toList());
+
+    assertThrows(IllegalArgumentException.class, () -> new Request(mockRecipe, null, true, 0));
+    assertThrows(IllegalStateException.class, () -> unit.takeUnit());
+  }
+
+  @Test
+  public void testMerge() {
+    Request first = new Request(mockRecipe, mockRequester, false);
+    assertTrue(first.merge(new Request(mockRecipe, mockRequester, false)));
+    assertTrue(first.merge(new Request(mockRecipe, mockRequester, false, 2)));
+    assertFalse(first.merge(userRequest));
+    assertFalse(first.merge(new Request(new Recipe("door", doorIngredients, 10), mockRequester, false)));
+    Request working = new Request(mockRecipe, mockRequester, false);
+    working.setState(RequestState.WORKING);
+    assertFalse(first.merge(working));
+    assertEquals(4, first.getQuantity());
+    assertArrayEquals(new int[] { 2, 3, 4, 5 }, first.getUnitIds());
+    assertEquals(2, first.takeUnit().getId());
+    assertEquals(3, first.getId());
+    assertEquals(4, first.takeUnit().getId() + 1);
+  }
+
+  @Test
+  public void testIdRuns() {
+    IdRuns ids = new IdRuns();
+    for (int i = 0; i < 1000; i++) {
+      ids.add(10 + 7 * i);
+    }
+    assertEquals(1000, ids.size());
+    assertEquals(1, ids.runs());
+    ids.add(5);
+    ids.add(6);
+    ids.add(100000);
+    assertEquals(3, ids.runs());
+    IdRuns copy = new IdRuns(ids);
+    assertEquals(10, ids.poll());
+    assertEquals(17, ids.poll());
+    assertEquals(1003, copy.size());
+    assertEquals(10, copy.toArray()[0]);
+    int[] all = ids.toArray();
+    assertEquals(1001, all.length);
+    assertEquals(24, all[0]);
+    assertEquals(100000, all[1000]);
+    for (int i = 0; i < 1001; i++) {
+      ids.poll();
+    }
+    assertEquals(0, ids.size());
+    assertThrows(IllegalStateException.class, () -> ids.poll());
+    ids.add(3);
+    assertEquals(3, ids.poll());
+  }
+
+  @Test
+  public void testTakeUnits() {
+    IdRuns ids = IdRuns.range(10, 5);
+    ids.add(20);
+    ids.add(30);
+    // 10..14, 20, 30: 20 is below 25, 30 is not
+    assertEquals(6, ids.countBelow(25, 100));
+    assertEquals(4, ids.countBelow(25, 4));
+    assertEquals(2, ids.countBelow(12, 100));
+    assertEquals(0, ids.countBelow(10, 100));
+    IdRuns taken = ids.take(6);
+    assertArrayEquals(new int[] { 10, 11, 12, 13, 14, 20 }, taken.toArray());
+    assertArrayEquals(new int[] { 30 }, ids.toArray());
+    assertThrows(IllegalStateException.class, () -> ids.take(2));
+
+    Request bulk = new Request(mockRecipe, null, true, 5);
+    int first = bulk.getId();
+    assertEquals(3, bulk.countUnitsBelow(first + 3, 10));
+    assertEquals(2, bulk.countUnitsBelow(first + 3, 2));
+    assertEquals(0, bulk.countUnitsBelow(first, 10));
+    Request units = bulk.takeUnits(3);
+    assertArrayEquals(new int[] { first, first + 1, first + 2 }, units.getUnitIds());
+    assertEquals(3, units.getQuantity());
+    assertArrayEquals(new int[] { first + 3, first + 4 }, bulk.getUnitIds());
+    assertEquals(first + 3, bulk.takeUnits(1).getId());
+    assertEquals(1, bulk.getQuantity());
+    assertThrows(IllegalStateException.class, () -> bulk.takeUnits(1));
+  }
+
   @Test
   public void testStateTransitions() {
     assertEquals(RequestState.WAITING, userRequest.getState());
@@ -0,0 +1,120 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+
+public class SimulationJobTest {
+  private static final String CONFIG = "src/test/resources/doors1.json";
+
+  private static class Recorder implements SimulationJob.Listener {
+    private final List<Integer> cycles = new ArrayList<>();
+    private int stopped;
+
+    @Override
+    public void progress(SimulationJob job) {
+      cycles.add(job.getCycle());
+    }
+
+    @Override
+    public void stopped(SimulationJob job) {
+      stopped++;
+    }
+  }
+
+  private static SimulationJob job(SimulationSession session, String command, long maxCycles, Recorder recorder) {
+    return new SimulationJob(1, session, command, maxCycles, 60_000, 0, recorder);
+  }
+
+  @Test
+  public void test_step() throws IOException {
+    SimulationSession session = new SimulationSession(1, CONFIG);
+    Recorder recorder = new Recorder();
+    SimulationJob job = job(session, " step  500 ", 1_000_000, recorder);
+    assertEquals("step 500", job.getCommand());
+    assertEquals(SimulationJob.Status.RUNNING, job.getStatus());
+    job.run();
+    assertEquals(SimulationJob.Status.DONE, job.getStatus());
+    assertEquals(500, session.getView().getSimulation().getCurrentCycle());
+    assertEquals(500, job.getCycle());
+    assertEquals(500, job.getCyclesDone());
+    assertEquals(1, recorder.stopped);
+    // chunks grow, so there are fewer reports than cycles
+    assertFalse(recorder.cycles.isEmpty());
+    assertTrue(recorder.cycles.size() < 500);
+    for (int i = 1; i < recorder.cycles.size(); i++) {
+      assertTrue(recorder.cycles.get(i - 1) < recorder.cycles.get(i));
+    }
+    // each chunk is a step of the session's timeline
+    session.parseCommand("rewind 1");
+    assertEquals(1, session.getView().getSimulation().getCurrentCycle());
+  }
+
+  @Test
+  public void test_finish() throws IOException {
+    SimulationSession session = new SimulationSession(1, CONFIG);
+    session.parseCommand("request 'door' from 'D'");
+    session.parseCommand("request 'door' from 'D'");
+    Recorder recorder = new Recorder();
+    SimulationJob job = job(session, "finish", 1_000_000, recorder);
+    job.run();
+    assertEquals(SimulationJob.Status.DONE, job.getStatus());
+    assertTrue(session.getView().getSimulation().isFinished());
+    assertEquals(0, job.getOutstandingRequests());
+    assertTrue(job.getCycle() > 0);
+    assertTrue(job.getOutput().contains("Simulation completed at time-step"));
+
+    // the job ends on the cycle a finish run at once ends on
+    SimulationSession direct = new SimulationSession(2, CONFIG);
+    direct.parseCommand("request 'door' from 'D'");
+    direct.parseCommand("request 'door' from 'D'");
+    direct.parseCommand("finish");
+    int cycle = direct.getView().getSimulation().getCurrentCycle();
+    assertEquals(cycle, session.getView().getSimulation().getCurrentCycle());
+    assertEquals(cycle, job.getCycle());
+    assertEquals(cycle, job.getCyclesDone());
+  }
+
+  @Test
+  public void test_budgetAndCancel() throws IOException {
+    SimulationSession session = new SimulationSession(1, CONFIG);
+    session.parseCommand("request 'door' from 'D'");
+    SimulationJob job = job(session, "finish", 3, new Recorder());
+    job.run();
+    assertEquals(SimulationJob.Status.OUT_OF_BUDGET, job.getStatus());
+    assertEquals(3, session.getView().getSimulation().getCurrentCycle());
+    assertFalse(session.getView().getSimulation().isFinished());
+    // the door and the ingredients it asked for
+    assertTrue(job.getOutstandingRequests() > 1);
+
+    job = job(session, "step 10", 1_000_000, new Recorder());
+    job.cancel();
+    job.run();
+    assertEquals(SimulationJob.Status.CANCELLED, job.getStatus());
+    assertEquals(3, session.getView().getSimulation().getCurrentCycle());
+  }
+
+  @Test
+  public void test_invalid() throws IOException {
+    SimulationSession session = new SimulationSession(1, CONFIG);
+    assertThrows(IllegalArgumentException.class, () -> job(session, "request 'door' from 'D'", 10, null));
+    assertThrows(IllegalArgumentException.class, () -> job(session, "step", 10, null));
+    assertThrows(IllegalArgumentException.class, () -> job(session, "step x", 10, null));
+    assertThrows(IllegalArgumentException.class, () -> job(session, "step 0", 10, null));
+    assertThrows(IllegalArgumentException.class, () -> job(session, "finish 2", 10, null));
+    assertThrows(IllegalArgumentException.class, () -> job(session, "finish", 0, null));
+  }
+
+  @Test
+  public void test_nextChunk() {
+    assertEquals(2, SimulationJob.nextChunk(1, 0));
+    assertEquals(20, SimulationJob.nextChunk(10, 1_000));
+    assertEquals(5, SimulationJob.nextChunk(10, 100_000_000));
+    assertEquals(1, SimulationJob.nextChunk(10, 10_000_000_000L));
+    assertEquals(Integer.MAX_VALUE, SimulationJob.nextChunk(Integer.MAX_VALUE, 1));
+  }
+}
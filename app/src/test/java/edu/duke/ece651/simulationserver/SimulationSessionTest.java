@@ -0,0 +1,197 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class SimulationSessionTest {
+  private static final String CONFIG = "src/test/resources/doors1.json";
+
+  @Test
+  public void test_executeReturnsOnlyThatCommandsOutput() throws IOException {
+    SimulationSession session = new SimulationSession(7, CONFIG);
+    assertEquals(7, session.getId());
+    assertEquals("session7.json", session.getSessionFile());
+    session.parseCommand("verbose 1");
+    session.parseCommand("request 'door' from 'D'");
+    String output = session.execute("step 1");
+    assertTrue(output.contains("[ingredient delivered]"));
+    assertFalse(output.contains("[ingredient assignment]"));
+    output = session.execute("finish");
+    assertTrue(output.contains("completed (door)"));
+    assertTrue(output.contains("Simulation completed at time-step"));
+  }
+
+  @Test
+  public void test_registry() throws IOException {
+    SessionRegistry registry = new SessionRegistry(CONFIG);
+    SimulationSession first = registry.get(1);
+    assertSame(first, registry.get(1));
+    registry.get(2);
+    assertEquals(2, registry.size());
+    registry.remove(1);
+    assertEquals(1, registry.size());
+  }
+
+  @Test
+  public void test_registryQueueLimits() throws IOException {
+    SessionRegistry registry = new SessionRegistry(CONFIG, "", 1, 1, 0, "shed-oldest");
+    SimulationSession session = registry.get(1);
+    session.parseCommand("request 'wood' from 'W'");
+    session.parseCommand("request 'wood' from 'W'");
+    assertEquals(1, session.getView().getSimulation().getOutstandingRequests());
+    assertThrows(IllegalArgumentException.class, () -> new SessionRegistry(CONFIG, "", 1, 0, 0, "drop"));
+  }
+
+  @Test
+  public void test_durableSessionRecovers(@TempDir Path tempDir) throws IOException {
+    File dir = tempDir.toFile();
+    String expected;
+    try (SimulationSession session = new SimulationSession(8, CONFIG, dir, 3)) {
+      session.execute("request 'door' from 'D'");
+      session.execute("step 2");
+      assertThrows(IllegalArgumentException.class, () -> session.execute("request 'door' from 'nowhere'"));
+      session.execute("save " + new File(dir, "ignored.json"));
+      session.execute("request 'door' from 'D'");
+      session.execute("step 5");
+      expected = new String(session.toJson());
+    }
+    try (SimulationSession recovered = new SimulationSession(8, CONFIG, dir, 3)) {
+      assertEquals(expected, new String(recovered.toJson()));
+      String output = recovered.execute("finish");
+      assertTrue(output.contains("Simulation completed at time-step"));
+    }
+  }
+
+  @Test
+  public void test_failedCommandsNotJournaled(@TempDir Path tempDir) throws IOException {
+    File dir = tempDir.toFile();
+    try (SimulationSession session = new SimulationSession(11, CONFIG, dir, 100)) {
+      session.execute("request 'door' from 'D'");
+      assertThrows(IllegalArgumentException.class, () -> session.execute("request 'door' from 'nowhere'"));
+      assertThrows(IllegalArgumentException.class, () -> session.execute("step 0"));
+      assertEquals(1, (int) session.execute("step 1", s -> s.getView().getSimulation().getCurrentCycle()));
+    }
+    try (CommandJournal journal = new CommandJournal(dir, 11)) {
+      List<String> commands = new ArrayList<>();
+      for (CommandJournal.Entry entry : journal.getEntries()) {
+        commands.add(entry.getCommand());
+      }
+      assertEquals(List.of("request 'door' from 'D'", "step 1"), commands);
+    }
+  }
+
+  @Test
+  public void test_durableRewind(@TempDir Path tempDir) throws IOException {
+    File dir = tempDir.toFile();
+    String expected;
+    try (SimulationSession session = new SimulationSession(10, CONFIG, dir, 100)) {
+      session.execute("request 'door' from 'D'");
+      session.execute("step 4");
+      expected = new String(session.toJson());
+      session.execute("step 6");
+      session.execute("rewind 4");
+      assertEquals(expected, new String(session.toJson()));
+    }
+    try (SimulationSession recovered = new SimulationSession(10, CONFIG, dir, 100)) {
+      assertEquals(expected, new String(recovered.toJson()));
+    }
+  }
+
+  @Test
+  public void test_durablePendingRequests(@TempDir Path tempDir) throws IOException {
+    File dir = tempDir.toFile();
+    QueueLimits limits = new QueueLimits(2, 0, OverflowPolicy.BLOCK);
+    String expected;
+    try (SimulationSession session = new SimulationSession(12, CONFIG, dir, 100, limits)) {
+      for (int i = 0; i < 4; i++) {
+        session.execute("request 'wood' from 'W'");
+      }
+      // snapshots the session while requests wait for room
+      session.execute("create src/test/resources/newMine.json");
+      assertEquals(2, (int) session.read(s -> s.getView().getSimulation().getPendingRequests()));
+      session.execute("finish");
+      expected = new String(session.toJson());
+    }
+    try (SimulationSession session = new SimulationSession(13, CONFIG, dir, 100, limits)) {
+      for (int i = 0; i < 4; i++) {
+        session.execute("request 'wood' from 'W'");
+      }
+      session.execute("create src/test/resources/newMine.json");
+    }
+    try (SimulationSession recovered = new SimulationSession(13, CONFIG, dir, 100, limits)) {
+      assertEquals(2, (int) recovered.read(s -> s.getView().getSimulation().getPendingRequests()));
+      recovered.execute("finish");
+      assertEquals(expected, new String(recovered.toJson()));
+    }
+  }
+
+  @Test
+  public void test_durableRegistry(@TempDir Path tempDir) throws IOException {
+    SessionRegistry registry = new SessionRegistry(CONFIG, tempDir.toString(), 100);
+    assertFalse(registry.exists(9));
+    registry.get(9).execute("request 'door' from 'D'");
+    assertTrue(registry.exists(9));
+    String state = new String(registry.get(9).toJson());
+    registry.remove(9);
+    assertEquals(0, registry.size());
+    assertTrue(registry.exists(9));
+    assertEquals(state, new String(registry.get(9).toJson()));
+    registry.remove(9);
+  }
+
+  @Test
+  public void test_concurrentSessionsGetTheirOwnOutput() throws Exception {
+    ByteArrayOutputStream console = new ByteArrayOutputStream();
+    PrintStream originalOut = System.out;
+    System.setOut(new PrintStream(console));
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      SimulationSession verbose = new SimulationSession(1, CONFIG);
+      SimulationSession quiet = new SimulationSession(2, CONFIG);
+      Future<String> verboseOutput = executor.submit(runDoors(verbose, 2));
+      Future<String> quietOutput = executor.submit(runDoors(quiet, 0));
+
+      String v = verboseOutput.get();
+      String q = quietOutput.get();
+      assertTrue(v.contains("[source selection]: D (qlen) has request for wood on 0"));
+      assertTrue(v.contains("completed (door)"));
+      assertFalse(q.contains("[source selection]"));
+      assertFalse(q.contains("[ingredient"));
+      assertTrue(q.contains("completed (door)"));
+    } finally {
+      executor.shutdown();
+      System.setOut(originalOut);
+    }
+    assertEquals("", console.toString());
+  }
+
+  private Callable<String> runDoors(SimulationSession session, int verbosity) {
+    return () -> {
+      session.parseCommand("verbose " + verbosity);
+      StringBuilder output = new StringBuilder();
+      output.append(session.execute("request 'door' from 'D'"));
+      for (int i = 0; i < 60; i++) {
+        output.append(session.execute("step 1"));
+      }
+      return output.toString();
+    };
+  }
+}
@@ -3,13 +3,16 @@ package edu.duke.ece651.simulationserver;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
 import java.util.stream.Collectors;
 
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class SimulationTest {
   @Test
@@ -49,13 +52,72 @@ public class SimulationTest {
     
   }
 
+  @Test
+  public void test_metrics() throws IOException {
+    Map<String, Integer> counts = new java.util.HashMap<>();
+    SimulationMetrics recording = new SimulationMetrics() {
+      @Override
+      public boolean isEnabled() {
+        return true;
+      }
+
+      @Override
+      public void recordCycle(long nanos) {
+        counts.merge("cycle", 1, Integer::sum);
+      }
+
+      @Override
+      public void recordSourceSelection(String policy, long nanos) {
+        counts.merge("source:" + policy, 1, Integer::sum);
+      }
+
+      @Override
+      public void recordRequestSelection(String policy, long nanos) {
+        counts.merge("request:" + policy, 1, Integer::sum);
+      }
+
+      @Override
+      public void recordSave(long nanos) {
+        counts.merge("save", 1, Integer::sum);
+      }
+
+      @Override
+      public void recordLoad(long nanos) {
+        counts.merge("load", 1, Integer::sum);
+      }
+    };
+    Simulation.setMetrics(recording);
+    try {
+      Simulation simulation = new Simulation("src/test/resources/doors1.json");
+      simulation.request("D", "door");
+      simulation.stepN(20);
+      simulation.save("testOutput.json");
+      assertEquals(1, counts.get("load"));
+      assertEquals(20, counts.get("cycle"));
+      assertEquals(1, counts.get("save"));
+      assertTrue(counts.get("source:qlen") > 0);
+      assertTrue(counts.get("request:fifo") > 0);
+      assertEquals(0, simulation.getDronesInFlight());
+      Building w = simulation.getBuilding("W");
+      assertEquals(20, w.getBusyCycles() + w.getIdleCycles());
+      assertTrue(w.getBusyCycles() > 0);
+      assertTrue(w.getUtilization() > 0 && w.getUtilization() <= 1);
+    } finally {
+      Simulation.setMetrics(null);
+    }
+    assertSame(SimulationMetrics.NOOP, Simulation.getMetrics());
+  }
+
   @Test
   public void test_step() throws IOException {
     Simulation simulation = new Simulation("src/test/resources/doors1.json");
     assertThrows(IllegalArgumentException.class, () -> simulation.stepN(-1));
-    int cycle = Simulation.getCycle();
+    int cycle = simulation.getCurrentCycle();
     simulation.stepN(2);
-    assertEquals(Simulation.getCycle(), cycle + 2);
+    assertEquals(simulation.getCurrentCycle(), cycle + 2);
+    // the simulation is only current while it steps
+    assertNull(Simulation.current());
+    assertEquals(0, Simulation.getCycle());
   }
 
   @Test
@@ -138,8 +200,283 @@ public class SimulationTest {
     simulation.stepN(4);
     simulation.save("save_with_drone.json");
     simulation.finish();
+    Simulation previous = simulation.makeCurrent();
     assertEquals(1, Simulation.getDronePorts().size());
+    Simulation.restoreCurrent(previous);
+    assertEquals(0, Simulation.getDronePorts().size());
     simulation = new Simulation("save_with_drone.json");
-    assertEquals(4, Simulation.getCycle());
+    assertEquals(4, simulation.getCurrentCycle());
+    assertNull(Simulation.current());
+  }
+
+  private static String json(Simulation simulation) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    simulation.save(out, false);
+    return out.toString("UTF-8");
+  }
+
+  @Test
+  public void test_fork() throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    simulation.createBuilding("src/test/resources/newDronePort.json");
+    simulation.addDrone("DP");
+    simulation.request("D", "door");
+    simulation.stepN(3);
+    String before = json(simulation);
+
+    Simulation fork = simulation.fork();
+    assertEquals(before, json(fork));
+    assertSame(simulation.getRecipes(), fork.getRecipes());
+    assertSame(simulation.getRecipeGraph(), fork.getRecipeGraph());
+    assertNotSame(simulation.getBuilding("D"), fork.getBuilding("D"));
+
+    fork.setRequestAll("sjf");
+    fork.request("Hi", "hinge");
+    fork.stepN(5);
+    assertNotEquals(before, json(fork));
+    assertEquals(before, json(simulation));
+    assertEquals(FifoPolicy.class, simulation.getBuilding("D").getRequestPolicy().getClass());
+
+    simulation.stepN(5);
+    assertNotEquals(json(simulation), json(fork));
+  }
+
+  @Test
+  public void test_forkKeepsQueueEntries() throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    Building mine = simulation.getBuilding("W");
+    Recipe wood = simulation.getRecipes().get("wood");
+    // identical waiting requests, kept as separate entries as a loaded queue may be
+    mine.appendRequest(new Request(wood, null, true));
+    mine.appendRequest(new Request(wood, null, true));
+    assertEquals(2, mine.getRequests().size());
+
+    Building copy = simulation.fork().getBuilding("W");
+    assertEquals(2, copy.getRequests().size());
+    assertEquals(1, copy.getRequests().peek().getQuantity());
+    assertEquals(mine.getSimplelat(), copy.getSimplelat());
+  }
+
+  @Test
+  public void test_bulkRequest(@TempDir Path tempDir) throws IOException {
+    Simulation bulk = new Simulation("src/test/resources/doors1.json");
+    Simulation units = new Simulation("src/test/resources/doors1.json");
+    bulk.request("D", "door", 4);
+    for (int i = 0; i < 4; i++) {
+      units.request("D", "door");
+    }
+    // the identical waiting requests are merged, but each unit has its own id
+    for (Simulation simulation : List.of(bulk, units)) {
+      assertEquals(1, simulation.getBuilding("D").getRequests().size());
+      assertEquals(4, simulation.getBuilding("D").getHowManyRequests());
+      assertEquals(1, simulation.getBuilding("W").getRequests().size());
+      assertEquals(4, simulation.getBuilding("W").getRequests().peek().getUnitIds().length);
+    }
+    assertArrayEquals(new int[] { 0, 1, 2, 3 }, bulk.getBuilding("D").getRequests().peek().getUnitIds());
+    assertEquals(units.getOutstandingRequests(), bulk.getOutstandingRequests());
+    assertEquals(units.getRequestId(), bulk.getRequestId());
+
+    Path saved = tempDir.resolve("bulk.json");
+    Path snapshot = tempDir.resolve("bulk.sim");
+    bulk.save(saved.toString());
+    bulk.saveSnapshot(snapshot.toString());
+    assertEquals(json(bulk), json(new Simulation(saved.toString())));
+    Simulation loaded = new Simulation(snapshot.toString());
+    assertEquals(bulk.getOutstandingRequests(), loaded.getOutstandingRequests());
+    // a save lists every unit, loading merges them into one entry again
+    assertEquals(1, loaded.getBuilding("D").getRequests().size());
+    assertEquals(1, new Simulation(saved.toString()).getBuilding("W").getRequests().size());
+
+    bulk.finish();
+    units.finish();
+    assertEquals(units.getCurrentCycle(), bulk.getCurrentCycle());
+    assertEquals(0, bulk.getOutstandingRequests());
+    assertThrows(IllegalArgumentException.class, () -> bulk.request("D", "door", 0));
+  }
+
+  @Test
+  public void test_requestIdsPerSimulation() throws IOException {
+    Simulation first = new Simulation("src/test/resources/doors1.json");
+    Simulation second = new Simulation("src/test/resources/doors1.json");
+    assertEquals(0, first.getRequestId());
+    first.request("D", "door");
+    first.stepN(2);
+    second.request("D", "door");
+    second.stepN(2);
+    assertTrue(first.getRequestId() > 1);
+    assertEquals(first.getRequestId(), second.getRequestId());
+    assertEquals(json(first), json(second));
+
+    second.setRequestId(100);
+    second.makeCurrent();
+    assertEquals(100, Request.getIdGenerator());
+    first.makeCurrent();
+    assertEquals(first.getRequestId(), Request.getIdGenerator());
+    Simulation.restoreCurrent(null);
+  }
+
+  @Test
+  public void test_queueLimitsReject() throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    simulation.setQueueLimits(new QueueLimits(2, 3, OverflowPolicy.REJECT));
+    simulation.request("W", "wood", 2);
+    RequestRejectedException e = assertThrows(RequestRejectedException.class,
+        () -> simulation.request("W", "wood"));
+    assertEquals(RequestRejectedException.Limit.BUILDING, e.getLimit());
+    assertEquals(2, e.getCapacity());
+    assertEquals(2, e.getQueued());
+    assertEquals("W", e.toMap().get("building"));
+    assertEquals(2, simulation.getBuilding("W").getHowManyRequests());
+
+    // a building's own limit replaces the simulation's, the session limit still applies
+    simulation.setQueueLimit("W", 10);
+    simulation.request("W", "wood");
+    e = assertThrows(RequestRejectedException.class, () -> simulation.request("M", "metal"));
+    assertEquals(RequestRejectedException.Limit.SESSION, e.getLimit());
+    assertEquals(3, simulation.getOutstandingRequests());
+    assertThrows(IllegalArgumentException.class, () -> simulation.setQueueLimit("W", -1));
+  }
+
+  @Test
+  public void test_queueLimitsShedOldest() throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    simulation.setQueueLimits(new QueueLimits(2, 0, OverflowPolicy.SHED_OLDEST));
+    simulation.request("W", "wood");
+    simulation.request("W", "wood");
+    simulation.request("W", "wood", 2);
+    Building wood = simulation.getBuilding("W");
+    assertEquals(2, wood.getHowManyRequests());
+    assertArrayEquals(new int[] { 2, 3 }, wood.getRequests().peek().getUnitIds());
+    simulation.request("W", "wood");
+    assertArrayEquals(new int[] { 3, 4 }, wood.getRequests().peek().getUnitIds());
+    assertThrows(RequestRejectedException.class, () -> simulation.request("W", "wood", 3));
+
+
+    // over the session limit, the oldest user units are shed wherever they are
+    simulation.setQueueLimits(new QueueLimits(0, 3, OverflowPolicy.SHED_OLDEST));
+    simulation.request("M", "metal", 2);
+    assertEquals(1, wood.getHowManyRequests());
+    assertArrayEquals(new int[] { 4 }, wood.getRequests().peek().getUnitIds());
+    assertEquals(3, simulation.getOutstandingRequests());
+  }
+
+  @Test
+  public void test_queueLimitsShedByIds() throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    simulation.request("W", "wood", 3);
+    simulation.request("M", "metal", 2);
+    simulation.request("W", "wood", 2);
+    Building wood = simulation.getBuilding("W");
+    Building metal = simulation.getBuilding("M");
+    assertArrayEquals(new int[] { 0, 1, 2, 5, 6 }, wood.getRequests().peek().getUnitIds());
+    // the oldest units by id go first, wherever they are queued
+    simulation.setQueueLimits(new QueueLimits(0, 7, OverflowPolicy.SHED_OLDEST));
+    simulation.request("M", "metal", 4);
+    assertArrayEquals(new int[] { 5, 6 }, wood.getRequests().peek().getUnitIds());
+    assertArrayEquals(new int[] { 4, 7, 8, 9, 10 }, metal.getRequests().peek().getUnitIds());
+    assertEquals(7, simulation.getUserUnits());
+    assertEquals(2, wood.getUserUnits());
+    assertEquals(wood.getTotalLatence(), wood.getQueuedLatency());
+    assertEquals(metal.getTotalLatence(), metal.getQueuedLatency());
+  }
+
+  @Test
+  public void test_queueLimitsShedSubRequests() throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    Simulation once = new Simulation("src/test/resources/doors1.json");
+    simulation.setQueueLimits(new QueueLimits(1, 0, OverflowPolicy.SHED_OLDEST));
+    simulation.request("D", "door");
+    once.request("D", "door");
+    // the first door is shed, and so are the ingredients it was waiting for
+    simulation.request("D", "door");
+    for (String name : new String[] { "D", "W", "Ha", "Hi", "M" }) {
+      assertEquals(once.getBuilding(name).getHowManyRequests(), simulation.getBuilding(name).getHowManyRequests(),
+          name);
+    }
+    assertEquals(1, simulation.getUserUnits());
+    simulation.finish();
+    once.finish();
+    assertEquals(once.getCurrentCycle(), simulation.getCurrentCycle());
+  }
+
+  // the units of user requests in a building's queue, and how many of them are waiting
+  private static int[] countUserUnits(Building building) {
+    int[] units = new int[2];
+    for (Request request : building.getRequests()) {
+      if (request.isUserRequest()) {
+        units[0] += request.getQuantity();
+        if (request.getState() == RequestState.WAITING) {
+          units[1] += request.getQuantity();
+        }
+      }
+    }
+    return units;
+  }
+
+  private static void assertUserUnits(Simulation simulation) {
+    int units = 0;
+    for (String name : new String[] { "D", "W", "Ha", "Hi", "M" }) {
+      Building building = simulation.getBuilding(name);
+      int[] counted = countUserUnits(building);
+      assertEquals(counted[0], building.getUserUnits(), name);
+      assertEquals(counted[1], building.getWaitingUserUnits(), name);
+      units += counted[0];
+    }
+    assertEquals(units, simulation.getUserUnits());
+  }
+
+  @Test
+  public void test_userUnits() throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    simulation.request("W", "wood", 3);
+    simulation.request("D", "door");
+    Building wood = simulation.getBuilding("W");
+    assertEquals(3, wood.getUserUnits());
+    assertEquals(3, wood.getWaitingUserUnits());
+    assertEquals(4, simulation.getUserUnits());
+    for (int i = 0; i < 3; i++) {
+      simulation.stepN(1);
+      assertUserUnits(simulation);
+    }
+
+    Simulation fork = simulation.fork();
+    assertEquals(simulation.getUserUnits(), fork.getUserUnits());
+    simulation.finish();
+    assertEquals(0, simulation.getUserUnits());
+    assertUserUnits(fork);
+    fork.finish();
+    assertEquals(0, fork.getUserUnits());
+  }
+
+  @Test
+  public void test_queueLimitsBlock(@TempDir Path tempDir) throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    simulation.setQueueLimits(new QueueLimits(1, 0, OverflowPolicy.BLOCK));
+    simulation.request("W", "wood");
+    simulation.request("W", "wood");
+    assertEquals(1, simulation.getBuilding("W").getHowManyRequests());
+    assertEquals(1, simulation.getPendingRequests());
+    assertFalse(simulation.isFinished());
+    // the requests waiting for room are bounded too
+    assertThrows(RequestRejectedException.class, () -> simulation.request("W", "wood"));
+    assertThrows(RequestRejectedException.class, () -> simulation.request("W", "wood", 2));
+
+    Simulation fork = simulation.fork();
+    assertEquals(1, fork.getPendingRequests());
+    simulation.finish();
+    assertEquals(0, simulation.getPendingRequests());
+    assertEquals(2, simulation.getRequestId());
+    fork.finish();
+    assertEquals(simulation.getCurrentCycle(), fork.getCurrentCycle());
+
+    // a building's own limit is saved with it
+    simulation.setQueueLimit("W", 5);
+    Path saved = tempDir.resolve("limits.json");
+    Path snapshot = tempDir.resolve("limits.sim");
+    simulation.save(saved.toString());
+    simulation.saveSnapshot(snapshot.toString());
+    assertEquals(5, new Simulation(saved.toString()).getBuilding("W").getQueueLimit());
+    assertEquals(5, new Simulation(snapshot.toString()).getBuilding("W").getQueueLimit());
+    assertEquals(0, new Simulation(snapshot.toString()).getBuilding("D").getQueueLimit());
   }
 }
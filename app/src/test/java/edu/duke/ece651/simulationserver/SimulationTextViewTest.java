@@ -9,10 +9,15 @@ import java.io.IOException;
 import java.io.InputStreamReader;
 import java.io.PrintStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.util.ArrayList;
 
 import org.junit.jupiter.api.Disabled;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 public class SimulationTextViewTest {
   @Test
@@ -26,6 +31,11 @@ public class SimulationTextViewTest {
     assertThrows(IllegalArgumentException.class, () -> view.parseCommand("request 'door' form 'D'"));
     assertThrows(IllegalArgumentException.class, () -> view.parseCommand("request 'door' from D"));
     assertThrows(IllegalArgumentException.class, () -> view.parseCommand("request door from 'D'"));
+    view.parseCommand("request 3 'door' from 'D'");
+    assertEquals(4, view.getSimulation().getBuilding("D").getHowManyRequests());
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("request x 'door' from 'D'"));
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("request 0 'door' from 'D'"));
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("request 3 'door' 'D'"));
 
     view.parseCommand("step  1");
     assertThrows(IllegalArgumentException.class, () -> view.parseCommand("step 4 steps"));
@@ -59,9 +69,31 @@ public class SimulationTextViewTest {
     assertThrows(IOException.class, () -> view.parseCommand("load src/test/resources/notExist.json"));
 
     assertThrows(IllegalArgumentException.class, () -> view.parseCommand("finish run"));
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("finish 0"));
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("finish 1 2"));
     // view.parseCommand("finish");
     assertThrows(IllegalArgumentException.class,
         () -> view.parseCommand("save"));
+    assertThrows(IllegalArgumentException.class,
+        () -> view.parseCommand("save save_pretty_tv.json ugly"));
+  }
+
+  @Test
+  public void test_queueLimits() throws IOException {
+    SimulationTextView view = new SimulationTextView("src/test/resources/doors1.json", null);
+    view.parseCommand("set limit 1 on 'W'");
+    view.parseCommand("request 'wood' from 'W'");
+    assertThrows(RequestRejectedException.class, () -> view.parseCommand("request 'wood' from 'W'"));
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("set limit x on 'W'"));
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("set limit -1 on 'W'"));
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("set limit 1 'W'"));
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("set limit 1 on 'X'"));
+
+    // the view's limits apply to the simulations it loads
+    view.setQueueLimits(new QueueLimits(0, 2, OverflowPolicy.BLOCK));
+    view.parseCommand("load src/test/resources/doors1.json");
+    assertEquals(OverflowPolicy.BLOCK, view.getSimulation().getQueueLimits().getOverflow());
+    assertEquals(0, view.getSimulation().getBuilding("W").getQueueLimit());
   }
 
   @Test
@@ -113,7 +145,7 @@ public class SimulationTextViewTest {
     view.parseCommand("add_drone at 'DP'");
     view.parseCommand("request 'hinge' from 'Hi'");
     view.parseCommand("step 3");
-    view.parseCommand("save save_with_drone_tv.json");
+    view.parseCommand("save save_with_drone_tv.json pretty");
     for (int i = 0; i < 9; i++) {
       view.parseCommand("add_drone at 'DP'");
     }
@@ -145,4 +177,27 @@ public class SimulationTextViewTest {
     view.parseCommand("remove 'M_S'");
     view.parseCommand("remove 'Hi2'");
   }
+
+  /**
+   * Runs an input script of doors1 and compares everything printed, at verbose 2, with the
+   * transcript the script has always produced: the order sources are selected in, and the
+   * ids they number the orders by, must not change.
+   */
+  private static void assertTranscript(int script, Path tempDir) throws IOException {
+    String input = Files.readString(Paths.get("src/test/resources/doors1-input" + script + ".txt"));
+    input = input.replace("temp.json", tempDir.resolve("temp.json").toString());
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    PrintStream out = new PrintStream(bytes, true, StandardCharsets.UTF_8);
+    SimulationTextView view = new SimulationTextView("src/test/resources/doors1.json",
+        new BufferedReader(new StringReader(input)), out);
+    view.run();
+    String expected = Files.readString(Paths.get("src/test/resources/doors1-transcript" + script + ".txt"));
+    assertEquals(expected, bytes.toString(StandardCharsets.UTF_8));
+  }
+
+  @Test
+  public void test_transcripts(@TempDir Path tempDir) throws IOException {
+    assertTranscript(1, tempDir);
+    assertTranscript(2, tempDir);
+  }
 }
@@ -0,0 +1,107 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.DataOutputStream;
+import java.io.FileOutputStream;
+import java.io.PrintStream;
+import java.io.ByteArrayOutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class SnapshotReaderTest {
+  private final ObjectMapper mapper = new ObjectMapper();
+
+  /**
+   * Runs a generated world half way, so there are queued requests, deliveries, waste and
+   * roads, and returns the simulation.
+   */
+  private Simulation halfWay(Path tempDir) throws Exception {
+    Path config = tempDir.resolve("world.json");
+    Path script = tempDir.resolve("world.txt");
+    new WorldGenerator().setSeed(2).setMines(6).setFactories(16).setStorages(2).setWasteDisposals(2)
+        .setDronePorts(0).setRoadDensity(0.2).setRequests(8).write(config.toString(), script.toString());
+    SimulationTextView view = new SimulationTextView(config.toString(), null,
+        new PrintStream(new ByteArrayOutputStream()));
+    List<String> lines = Files.readAllLines(script);
+    for (String line : lines.subList(0, lines.size() / 2)) {
+      view.parseCommand(line);
+    }
+    return view.getSimulation();
+  }
+
+  @Test
+  public void test_roundTrip(@TempDir Path tempDir) throws Exception {
+    Simulation simulation = halfWay(tempDir);
+    Path json = tempDir.resolve("saved.json");
+    Path snapshot = tempDir.resolve("saved.sim");
+    simulation.save(json.toString());
+    simulation.saveSnapshot(snapshot.toString());
+    assertTrue(SnapshotReader.isSnapshot(snapshot.toString()));
+    assertFalse(SnapshotReader.isSnapshot(json.toString()));
+    assertFalse(SnapshotReader.isSnapshot(tempDir.resolve("missing.sim").toString()));
+    assertTrue(Files.size(snapshot) * 3 < Files.size(json));
+
+    // loading recomputes some state (e.g. storage frequencies), so compare with a JSON load
+    Simulation loaded = new Simulation(snapshot.toString());
+    assertEquals(simulation.getCurrentCycle(), loaded.getCurrentCycle());
+    Path fromJson = tempDir.resolve("fromJson.json");
+    Path fromSnapshot = tempDir.resolve("fromSnapshot.json");
+    new Simulation(json.toString()).save(fromJson.toString());
+    loaded.save(fromSnapshot.toString());
+
+    JsonNode expected = mapper.readTree(fromJson.toFile());
+    JsonNode actual = mapper.readTree(fromSnapshot.toFile());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void test_droneRoundTrip(@TempDir Path tempDir) throws Exception {
+    SimulationTextView view = new SimulationTextView("src/test/resources/doors1.json", null,
+        new PrintStream(new ByteArrayOutputStream()));
+    view.parseCommand("create src/test/resources/newDronePort.json");
+    view.parseCommand("add_drone at 'DP'");
+    view.parseCommand("add_drone at 'DP'");
+    view.parseCommand("request 'hinge' from 'Hi'");
+    view.parseCommand("step 3");
+    Path json = tempDir.resolve("drone.json");
+    Path snapshot = tempDir.resolve("drone.sim");
+    Path resaved = tempDir.resolve("resaved.json");
+    Path fromJson = tempDir.resolve("fromJson.json");
+    view.parseCommand("save " + json);
+    view.parseCommand("save " + snapshot + " binary");
+    view.parseCommand("load " + json);
+    view.parseCommand("save " + fromJson);
+    view.parseCommand("load " + snapshot);
+    view.parseCommand("save " + resaved);
+
+    JsonNode expected = mapper.readTree(fromJson.toFile());
+    JsonNode actual = mapper.readTree(resaved.toFile());
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  public void test_invalidSnapshot(@TempDir Path tempDir) throws Exception {
+    Path newer = tempDir.resolve("newer.sim");
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(newer.toFile()))) {
+      out.write(SnapshotReader.MAGIC);
+      out.writeByte(SnapshotReader.VERSION + 1);
+    }
+    assertThrows(IllegalArgumentException.class, () -> new Simulation(newer.toString()));
+
+    Path truncated = tempDir.resolve("truncated.sim");
+    try (DataOutputStream out = new DataOutputStream(new FileOutputStream(truncated.toFile()))) {
+      out.write(SnapshotReader.MAGIC);
+      out.writeByte(SnapshotReader.VERSION);
+      out.writeByte(3);
+    }
+    assertThrows(IllegalArgumentException.class, () -> new Simulation(truncated.toString()));
+  }
+}
@@ -0,0 +1,185 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+public class StateTrackerTest {
+  private static SimulationTextView view() throws IOException {
+    return new SimulationTextView("src/test/resources/doors1.json", null, new PrintStream(new ByteArrayOutputStream()));
+  }
+
+  private static long version(Map<String, Object> update) {
+    return ((Number) update.get("version")).longValue();
+  }
+
+  @Test
+  public void test_fullThenDelta() throws IOException {
+    SimulationTextView view = view();
+    Simulation sim = view.getSimulation();
+    StateTracker tracker = new StateTracker();
+    Map<String, Object> full = tracker.update(sim, "a", null);
+    assertEquals(true, full.get("full"));
+    assertEquals(1L, version(full));
+    assertEquals(5, ((List<?>) full.get("buildings")).size());
+    assertNotNull(full.get("recipes"));
+
+    view.parseCommand("request 'door' from 'D'");
+    view.parseCommand("step 1");
+    Map<String, Object> delta = tracker.update(sim, "a", 1L);
+    assertNull(delta.get("full"));
+    assertNull(delta.get("recipes"));
+    assertEquals(1L, ((Number) delta.get("base")).longValue());
+    assertEquals(2L, version(delta));
+    assertEquals(1, delta.get("cycle"));
+    List<?> buildings = (List<?>) delta.get("buildings");
+    assertFalse(buildings.isEmpty());
+    assertFalse(((List<?>) delta.get("requests")).isEmpty());
+    assertTrue(((List<?>) delta.get("roads")).isEmpty());
+    assertTrue(((List<?>) delta.get("removedRoads")).isEmpty());
+
+    // nothing changed
+    delta = tracker.update(sim, "a", 2L);
+    assertTrue(((List<?>) delta.get("buildings")).isEmpty());
+    assertTrue(((List<?>) delta.get("requests")).isEmpty());
+
+    // roads removed by a disconnect, and requests finished
+    view.parseCommand("finish");
+    view.parseCommand("disconnect 'Ha' to 'D'");
+    delta = tracker.update(sim, "a", 3L);
+    assertFalse(((List<?>) delta.get("removedRoads")).isEmpty());
+    assertFalse(((List<?>) delta.get("removedRequests")).isEmpty());
+    assertEquals(4L, tracker.getVersion());
+  }
+
+  // the buildings, requests and roads of an update, by the keys a delta refers to them by
+  @SuppressWarnings("unchecked")
+  private static void apply(Map<String, Map<Object, Object>> state, Map<String, Object> update) {
+    String[][] parts = { { "buildings", "removedBuildings", "name" }, { "requests", "removedRequests", "id" },
+        { "roads", "removedRoads", "coordinate" } };
+    for (String[] part : parts) {
+      Map<Object, Object> entries = state.computeIfAbsent(part[0], k -> new HashMap<>());
+      if (update.get("full") != null) {
+        entries.clear();
+      } else {
+        for (Object key : (List<Object>) update.get(part[1])) {
+          assertNotNull(entries.remove(key), part[1] + " " + key);
+        }
+      }
+      for (Object entry : (List<Object>) update.get(part[0])) {
+        entries.put(((Map<String, Object>) entry).get(part[2]), entry);
+      }
+    }
+  }
+
+  @Test
+  @SuppressWarnings("unchecked")
+  public void test_deltasMatchFullState() throws IOException {
+    SimulationTextView view = view();
+    Simulation sim = view.getSimulation();
+    StateTracker tracker = new StateTracker();
+    Map<String, Map<Object, Object>> state = new HashMap<>();
+    Map<String, Object> update = tracker.update(sim, "a", null);
+    apply(state, update);
+    String[] commands = { "request 'door' from 'D'", "step 3", "request 'door' from 'D'", "step 10", "finish",
+        "disconnect 'Ha' to 'D'", "connect 'Ha' to 'D'", "request 'door' from 'D'", "step 5", "finish" };
+    for (String command : commands) {
+      view.parseCommand(command);
+      update = tracker.update(sim, "a", version(update));
+      assertNull(update.get("full"));
+      apply(state, update);
+      Map<String, Map<Object, Object>> expected = new HashMap<>();
+      ByteArrayOutputStream out = new ByteArrayOutputStream();
+      sim.save(out, false);
+      Map<String, Object> full = new ObjectMapper().readValue(out.toByteArray(), Map.class);
+      full.put("full", true);
+      apply(expected, full);
+      assertEquals(expected, state, command);
+    }
+  }
+
+  @Test
+  public void test_versionMismatch() throws IOException {
+    SimulationTextView view = view();
+    Simulation sim = view.getSimulation();
+    StateTracker tracker = new StateTracker();
+    tracker.update(sim, "a", null);
+    view.parseCommand("step 1");
+    // a version the tracker never sent
+    Map<String, Object> update = tracker.update(sim, "a", 7L);
+    assertEquals(true, update.get("full"));
+    assertEquals(2L, version(update));
+
+    // a new building is sent on its own
+    view.parseCommand("create src/test/resources/newDronePort.json");
+    update = tracker.update(sim, "a", 2L);
+    assertNull(update.get("full"));
+    assertEquals(1, ((List<?>) update.get("buildings")).size());
+    assertTrue(((List<?>) update.get("removedBuildings")).isEmpty());
+  }
+
+  @Test
+  public void test_olderThanHistory() throws IOException {
+    SimulationTextView view = view();
+    Simulation sim = view.getSimulation();
+    StateTracker tracker = new StateTracker();
+    tracker.update(sim, "a", null);
+    for (int i = 0; i <= StateTracker.HISTORY; i++) {
+      tracker.update(sim, "b", null);
+    }
+    // a's version fell out of the history, so it is forgotten and gets the full state
+    assertFalse(tracker.getClientVersions().containsKey("a"));
+    Map<String, Object> update = tracker.update(sim, "a", 1L);
+    assertEquals(true, update.get("full"));
+  }
+
+  @Test
+  public void test_clientVersions() throws IOException {
+    SimulationTextView view = view();
+    Simulation sim = view.getSimulation();
+    StateTracker tracker = new StateTracker();
+    tracker.update(sim, "a", null);
+    view.parseCommand("request 'door' from 'D'");
+    tracker.update(sim, "b", null);
+    assertEquals(Map.of("a", 1L, "b", 2L), tracker.getClientVersions());
+
+    // b's delta covers only its own command, a's everything since version 1
+    view.parseCommand("step 1");
+    Map<String, Object> b = tracker.update(sim, "b", 2L);
+    assertEquals(2L, ((Number) b.get("base")).longValue());
+    assertEquals(3L, version(b));
+    view.parseCommand("step 1");
+    Map<String, Object> a = tracker.update(sim, "a", 1L);
+    assertEquals(1L, ((Number) a.get("base")).longValue());
+    assertEquals(4L, version(a));
+    assertTrue(((List<?>) a.get("requests")).size() >= ((List<?>) b.get("requests")).size());
+    assertEquals(Map.of("a", 4L, "b", 3L), tracker.getClientVersions());
+
+    // an update for everyone starts from the oldest version any client has
+    view.parseCommand("step 1");
+    Map<String, Object> all = tracker.update(sim);
+    assertEquals(3L, ((Number) all.get("base")).longValue());
+    assertEquals(5L, version(all));
+  }
+
+  @Test
+  public void test_newSimulation() throws IOException {
+    StateTracker tracker = new StateTracker();
+    tracker.update(view().getSimulation(), "a", null);
+    // e.g. a load replaced the session's simulation
+    Map<String, Object> update = tracker.update(view().getSimulation(), "a", 1L);
+    assertEquals(true, update.get("full"));
+    assertEquals(2L, version(update));
+    assertEquals(Map.of("a", 2L), tracker.getClientVersions());
+    assertThrows(NullPointerException.class, () -> tracker.update(null, "a", 2L));
+  }
+}
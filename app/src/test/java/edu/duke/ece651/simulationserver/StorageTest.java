@@ -2,6 +2,7 @@ package edu.duke.ece651.simulationserver;
 
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
 
@@ -66,4 +67,36 @@ public class StorageTest {
     assertEquals(1.7, s.getPriority());
     assertEquals(woodRecipe, s.getRecipe());
   }
+
+  @Test
+  public void test_scheduledRefills() throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    ArrayList<Building> sources = new ArrayList<>();
+    Recipe woodRecipe = new Recipe("wood", new HashMap<String, Integer>(), 1);
+    sources.add(new Mine("W", new ArrayList<Building>(), woodRecipe));
+    Storage s = new Storage("wood storage", woodRecipe, sources, 10, 1);
+    for (int i = 0; i < 5; i++) {
+      s.addIngredient("wood");
+    }
+    assertEquals(3, s.getFreq());
+    // refills at the cycles that are multiples of the frequency at the time
+    int[] remain = new int[6];
+    Simulation previous = simulation.makeCurrent();
+    try {
+      for (int i = 0; i < 6; i++) {
+        simulation.stepN(1);
+        s.step();
+        remain[i] = s.getRemain();
+      }
+      assertArrayEquals(new int[] { 10, 10, 9, 9, 9, 8 }, remain);
+      // a change takes effect from the next cycle
+      s.setPriority(25);
+      assertEquals(1, s.getFreq());
+      simulation.stepN(1);
+      s.step();
+      assertEquals(7, s.getRemain());
+    } finally {
+      Simulation.restoreCurrent(previous);
+    }
+  }
 }
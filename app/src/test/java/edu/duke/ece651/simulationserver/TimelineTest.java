@@ -0,0 +1,131 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+
+public class TimelineTest {
+  private static String json(SimulationTextView view) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    view.getSimulation().save(out, false);
+    return out.toString("UTF-8");
+  }
+
+  private static SimulationTextView view() throws IOException {
+    return new SimulationTextView("src/test/resources/doors1.json", null, new PrintStream(new ByteArrayOutputStream()));
+  }
+
+  @Test
+  public void test_rewind() throws IOException {
+    SimulationTextView view = view();
+    view.setTimeline(new Timeline(5, 4));
+    Map<Integer, String> states = new LinkedHashMap<>();
+    view.parseCommand("request 'door' from 'D'");
+    view.parseCommand("step 3");
+    states.put(3, json(view));
+    view.parseCommand("step 4");
+    view.parseCommand("set policy request 'sjf' on *");
+    view.parseCommand("request 'hinge' from 'Hi'");
+    states.put(7, json(view));
+    view.parseCommand("step 5");
+    // a rewind includes every command executed at the cycle
+    view.parseCommand("request 'door' from 'D'");
+    states.put(12, json(view));
+    view.parseCommand("step 15");
+    states.put(27, json(view));
+    view.parseCommand("step 40");
+    assertEquals(67, view.getSimulation().getCurrentCycle());
+    assertTrue(view.getTimeline().getCheckpoints().size() <= 4);
+
+    for (int cycle : new int[] { 27, 12, 7, 3 }) {
+      view.parseCommand("rewind " + cycle);
+      assertEquals(cycle, view.getSimulation().getCurrentCycle());
+      assertNull(Simulation.current());
+      assertEquals(states.get(cycle), json(view));
+    }
+
+    // the history after the rewind is gone, and a new one is recorded
+    view.parseCommand("step 4");
+    assertEquals(7, view.getSimulation().getCurrentCycle());
+    assertNotEquals(states.get(7), json(view));
+    view.parseCommand("rewind 3");
+    assertEquals(states.get(3), json(view));
+  }
+
+  @Test
+  public void test_rewindInvalid() throws IOException {
+    SimulationTextView view = view();
+    view.parseCommand("step 10");
+    String state = json(view);
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("rewind"));
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("rewind x"));
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("rewind 11"));
+    assertThrows(IllegalArgumentException.class, () -> view.parseCommand("rewind -1"));
+    assertEquals(state, json(view));
+
+    view.parseCommand("load src/test/resources/doors1.json");
+    assertEquals(0, view.getTimeline().getStart());
+    view.parseCommand("step 2");
+    view.parseCommand("rewind 0");
+    assertEquals(0, view.getSimulation().getCurrentCycle());
+  }
+
+  @Test
+  public void test_thinning() throws IOException {
+    Simulation simulation = new Simulation("src/test/resources/doors1.json");
+    Timeline timeline = new Timeline(1, 8);
+    timeline.reset(simulation);
+    timeline.step(simulation, 200);
+    List<Timeline.Checkpoint> checkpoints = timeline.getCheckpoints();
+    assertEquals(8, checkpoints.size());
+    assertEquals(0, checkpoints.get(0).getCycle());
+    assertEquals(200, checkpoints.get(7).getCycle());
+    // the gaps grow into the past
+    for (int i = 2; i < checkpoints.size(); i++) {
+      int older = checkpoints.get(i - 1).getCycle() - checkpoints.get(i - 2).getCycle();
+      int newer = checkpoints.get(i).getCycle() - checkpoints.get(i - 1).getCycle();
+      assertTrue(older >= newer, checkpoints.get(i - 1).getCycle() + ": " + older + " < " + newer);
+    }
+
+    assertThrows(IllegalArgumentException.class, () -> timeline.step(simulation, 0));
+    assertThrows(IllegalArgumentException.class, () -> new Timeline(0, 8));
+    assertThrows(IllegalArgumentException.class, () -> new Timeline(10, 1));
+  }
+
+  @Test
+  public void test_finishCheckpoints() throws IOException {
+    SimulationTextView view = view();
+    view.setTimeline(new Timeline(5, 100));
+    Map<Integer, String> states = new LinkedHashMap<>();
+    view.parseCommand("request 'door' from 'D'");
+    view.parseCommand("request 'door' from 'D'");
+    SimulationTextView direct = view();
+    direct.parseCommand("request 'door' from 'D'");
+    direct.parseCommand("request 'door' from 'D'");
+    for (int cycle = 1; !direct.getSimulation().isFinished(); cycle++) {
+      direct.parseCommand("step 1");
+      states.put(cycle, json(direct));
+    }
+    view.parseCommand("finish");
+    int end = view.getSimulation().getCurrentCycle();
+    assertEquals(states.size(), end);
+
+    // a plain finish takes a checkpoint at every interval, so a rewind replays at most one gap
+    List<Timeline.Checkpoint> checkpoints = view.getTimeline().getCheckpoints();
+    assertEquals(end / 5 + (end % 5 == 0 ? 1 : 2), checkpoints.size());
+    for (int i = 1; i < checkpoints.size(); i++) {
+      assertTrue(checkpoints.get(i).getCycle() - checkpoints.get(i - 1).getCycle() <= 5);
+    }
+    for (int cycle = end - 1; cycle > 0; cycle -= 7) {
+      view.parseCommand("rewind " + cycle);
+      assertEquals(states.get(cycle), json(view), "rewind " + cycle);
+    }
+  }
+}
@@ -15,9 +15,16 @@ import java.util.List;
 import java.util.Map;
 import java.util.Queue;
 
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
 
 public class VerbosityTest {
+  @BeforeEach
+  public void drainEvents() {
+    // anything buffered by an earlier test must not end up in this test's output
+    Verbosity.flush();
+  }
+
   @Test
   public void test_recipeMessageIndex() {
     Verbosity.changeVerbosity(2);
@@ -59,6 +66,7 @@ public class VerbosityTest {
     System.setOut(new PrintStream(outContent));
 
     Verbosity.recipeMessage(requests, inventory, req2);
+    Verbosity.flush();
     System.setOut(originalOut);
 
     String output = outContent.toString();
@@ -77,6 +85,7 @@ public class VerbosityTest {
     PrintStream originalOut = System.out;
     System.setOut(new PrintStream(outContent));
     Verbosity.sourceSelectionMessage("B", "qlen", "wood");
+    Verbosity.flush();
     System.setOut(originalOut);
     String output = outContent.toString();
     assertTrue(output.isEmpty());
@@ -89,6 +98,7 @@ public class VerbosityTest {
     System.setOut(new PrintStream(outContent));
     Verbosity.changeVerbosity(1);
     Verbosity.SelectMessage("This should not appear");
+    Verbosity.flush();
     String output = outContent.toString();
     assertFalse(output.contains("This should not appear"));
 
@@ -96,6 +106,7 @@ public class VerbosityTest {
 
     Verbosity.changeVerbosity(2);
     Verbosity.SelectMessage("This should appear");
+    Verbosity.flush();
     output = outContent.toString();
     assertTrue(output.contains("This should appear"));
     // Restore System.out
@@ -116,6 +127,7 @@ public class VerbosityTest {
     Map<String, Integer> inventory = new HashMap<>();
     Request selected = null;
     Verbosity.recipeMessage(requests, inventory, selected);
+    Verbosity.flush();
     System.setOut(originalOut);
     String output = outContent.toString();
     assertTrue(output.isEmpty());
@@ -131,6 +143,7 @@ public class VerbosityTest {
     // 2) Verbosity=0 => Should NOT print
     Verbosity.changeVerbosity(0);
     Verbosity.ingredientAssignmentMessage("wood", "W", "D");
+    Verbosity.flush();
     String output = outContent.toString();
     assertTrue(output.isEmpty(), "No output expected at verbosity=0");
     outContent.reset();
@@ -138,6 +151,7 @@ public class VerbosityTest {
     // 3) Verbosity=1 => Should print
     Verbosity.changeVerbosity(1);
     Verbosity.ingredientAssignmentMessage("wood", "W", "D");
+    Verbosity.flush();
     output = outContent.toString();
     assertTrue(output.contains("[ingredient assignment]: wood assigned to W to deliver to D"),
         "Expected output at verbosity=1");
@@ -146,6 +160,7 @@ public class VerbosityTest {
     // 4) Verbosity=2 => Should also print
     Verbosity.changeVerbosity(2);
     Verbosity.ingredientAssignmentMessage("metal", "M", "D");
+    Verbosity.flush();
     output = outContent.toString();
     assertTrue(output.contains("[ingredient assignment]: metal assigned to M to deliver to D"),
         "Expected output at verbosity=2");
@@ -0,0 +1,105 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+public class WaterFillingTest {
+  /**
+   * Hides a policy's selectSources, so units are selected one by one.
+   */
+  private static class UnitByUnit implements SourceSelectionPolicy {
+    private final SourceSelectionPolicy policy;
+
+    UnitByUnit(SourceSelectionPolicy policy) {
+      this.policy = policy;
+    }
+
+    @Override
+    public Building selectSource(Map<Building, GraphPath> sources, String ingredient, Map<String, Integer> chooseStandard) {
+      return policy.selectSource(sources, ingredient, chooseStandard);
+    }
+
+    @Override
+    public String getSourcePolicyName() {
+      return policy.getSourcePolicyName();
+    }
+  }
+
+  private static void unitByUnit(Simulation simulation) {
+    for (Building b : simulation.getBuildings().values()) {
+      if (!(b.getSourcePolicy() instanceof UnitByUnit)) {
+        b.setSourcePolicy(new UnitByUnit(b.getSourcePolicy()));
+      }
+    }
+  }
+
+  private static String json(Simulation simulation) throws Exception {
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    simulation.save(out, false);
+    return out.toString("UTF-8");
+  }
+
+  @Test
+  public void test_sameAsUnitByUnit(@TempDir Path tempDir) throws Exception {
+    for (String policy : new String[] { "qlen", "simplelat", "criticalpath" }) {
+      for (int seed = 1; seed <= 4; seed++) {
+        Path config = tempDir.resolve(policy + seed + ".json");
+        Path script = tempDir.resolve(policy + seed + ".txt");
+        new WorldGenerator().setSeed(seed).setMines(6).setFactories(16).setStorages(2).setWasteDisposals(0)
+            .setDronePorts(0).setSourcesPerIngredient(3).setRoadDensity(0.2).setRequests(6)
+            .write(config.toString(), script.toString());
+        SimulationTextView batched = new SimulationTextView(config.toString(), null,
+            new PrintStream(new ByteArrayOutputStream()));
+        SimulationTextView single = new SimulationTextView(config.toString(), null,
+            new PrintStream(new ByteArrayOutputStream()));
+        List<String> lines = new ArrayList<>();
+        lines.add("set policy source '" + policy + "' on *");
+        for (String line : Files.readAllLines(script)) {
+          // bulk requests make for long runs of units of an ingredient
+          lines.add(line.replaceFirst("^request ", "request 20 "));
+        }
+        for (String line : lines) {
+          batched.parseCommand(line);
+          single.parseCommand(line);
+          unitByUnit(single.getSimulation());
+          assertEquals(json(single.getSimulation()), json(batched.getSimulation()), policy + " " + seed + ": " + line);
+        }
+      }
+    }
+  }
+
+  @Test
+  public void test_fill() {
+    Map<Building, GraphPath> sources = new LinkedHashMap<>();
+    Recipe wood = new Recipe("wood", new LinkedHashMap<>(), 1);
+    Mine first = new Mine("M1", new ArrayList<>(), wood);
+    Mine second = new Mine("M2", new ArrayList<>(), wood);
+    sources.put(first, new GraphPath());
+    sources.put(second, new GraphPath());
+    first.addRequest(new Request(wood, null, true));
+    first.addRequest(new Request(wood, null, true));
+
+    List<Building> chosen = new ArrayList<>();
+    new QlenPolicy().selectSources(sources, "wood", 5, b -> {
+      chosen.add(b);
+      b.addRequest(new Request(wood, null, false));
+    });
+    assertEquals(List.of(second, second, first, second, first), chosen);
+
+    chosen.clear();
+    new QlenPolicy().selectSources(sources, "metal", 3, chosen::add);
+    assertEquals(1, chosen.size());
+    assertNull(chosen.get(0));
+  }
+}
@@ -0,0 +1,72 @@
+package edu.duke.ece651.simulationserver;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class WorldGeneratorTest {
+  private WorldGenerator mixed(long seed) {
+    return new WorldGenerator().setSeed(seed).setMines(6).setFactories(16).setStorages(2)
+        .setWasteDisposals(2).setDronePorts(1).setRoadDensity(0.2).setRequests(8);
+  }
+
+  @Test
+  public void test_sameSeedSameWorld() {
+    ObjectNode config = mixed(5).generateConfig();
+    List<String> script = mixed(5).generateScript();
+    assertEquals(config, mixed(5).generateConfig());
+    assertEquals(script, mixed(5).generateScript());
+    assertNotEquals(config, mixed(6).generateConfig());
+  }
+
+  @Test
+  public void test_config() {
+    ObjectNode config = mixed(5).generateConfig();
+    assertTrue(config.has("recipes"));
+    assertTrue(config.has("types"));
+    assertTrue(config.has("roads"));
+    assertEquals(6 + 16 + 2 + 2 + 1, config.get("buildings").size());
+    List<String> script = mixed(5).generateScript();
+    assertEquals("add_drone at 'P0'", script.get(0));
+    assertEquals("finish", script.get(script.size() - 1));
+  }
+
+  @Test
+  public void test_loadAndRun(@TempDir Path tempDir) throws Exception {
+    Path config = tempDir.resolve("world.json");
+    Path script = tempDir.resolve("world.txt");
+    // drone ports stay reachable through the thread's current simulation after the test
+    mixed(2).setDronePorts(0).write(config.toString(), script.toString());
+
+    ByteArrayOutputStream out = new ByteArrayOutputStream();
+    SimulationTextView view = new SimulationTextView(config.toString(), null, new PrintStream(out));
+    assertEquals(26, view.getSimulation().getBuildings().size());
+    for (String line : Files.readAllLines(script)) {
+      view.parseCommand(line);
+    }
+    assertTrue(out.toString().contains("Simulation completed"));
+
+    Path saved = tempDir.resolve("saved.json");
+    view.parseCommand("save " + saved);
+    Simulation reloaded = new Simulation(saved.toString());
+    assertEquals(26, reloaded.getBuildings().size());
+    assertEquals(view.getSimulation().getCurrentCycle(), reloaded.getCurrentCycle());
+  }
+
+  @Test
+  public void test_invalidParameters() {
+    assertThrows(IllegalArgumentException.class, () -> new WorldGenerator().setMines(0).generateConfig());
+    assertThrows(IllegalArgumentException.class, () -> new WorldGenerator().setRoadDensity(1.5).generateConfig());
+    assertThrows(IllegalArgumentException.class, () -> new WorldGenerator().set("trees", "3"));
+    assertThrows(IllegalArgumentException.class, () -> new WorldGenerator().set("mines", "many"));
+  }
+}
@@ -49,11 +49,14 @@ public class TextClient {
                     .get(5, TimeUnit.SECONDS);
             System.out.println("✔ Connected");
 
-            subscribe(session, "/topic/textual/command-result");
-            subscribe(session, "/topic/textual/newBuilding-result");
-            subscribe(session, "/topic/textual/loadCommand-result");
-            subscribe(session, "/topic/textual/loadSession-result");
-            subscribe(session, "/topic/textual/newSession-result");
+            // the server only sends a session's results to the clients following it
+            String topic = "/topic/session/" + sessionId;
+            String app = "/app/session/" + sessionId;
+            subscribe(session, topic + "/textual/command-result");
+            subscribe(session, topic + "/textual/newBuilding-result");
+            subscribe(session, topic + "/textual/loadCommand-result");
+            subscribe(session, topic + "/textual/loadSession-result");
+            subscribe(session, topic + "/textual/newSession-result");
 
             while (true) {
                 System.out.print("> ");
@@ -63,14 +66,14 @@ public class TextClient {
                 }
 
                 if (line.startsWith("newSession")) {
-                    session.send("/app/textual/newSession", sessionId);
+                    session.send(app + "/textual/newSession", sessionId);
                 } else if (line.startsWith("newBuilding")) {
                     String[] parts = line.split(" ", 2);
                     if (parts.length < 2) {
                         System.out.println("Usage: newBuilding <filename>");
                         continue;
                     }
-                    session.send("/app/textual/newBuilding", Map.of(
+                    session.send(app + "/textual/newBuilding", Map.of(
                             "id", sessionId,
                             "fileName", parts[1]));
                 } else if (line.startsWith("load")) {
@@ -95,16 +98,16 @@ public class TextClient {
                         ObjectMapper mapper = new ObjectMapper();
                         Map<String, Object> jsonData = mapper.readValue(file, Map.class);
 
-                        session.send("/app/loadCommand", Map.of(
+                        session.send(app + "/loadCommand", Map.of(
                                 "id", sessionId,
                                 "jsonData", jsonData));
                     } catch (Exception e) {
                         System.err.println("Failed to read or parse " + filePath + ": " + e.getMessage());
                     }
                 } else if (line.startsWith("loadSession")) {
-                    session.send("/app/textual/loadSession", sessionId);
+                    session.send(app + "/textual/loadSession", sessionId);
                 } else {
-                    session.send("/app/textual/command", Map.of(
+                    session.send(app + "/textual/command", Map.of(
                             "id", sessionId,
                             "command", line));
                 }
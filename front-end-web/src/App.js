@@ -36,6 +36,48 @@ function App() {
   const [isSaveModalOpen, setIsSaveModalOpen] = useState(false);
   const [pendingSaveFilename, setPendingSaveFilename] = useState('');
   const [errorMessage, setErrorMessage] = useState('');
+  // version of the state we have; the server sends only what changed since it
+  const versionRef = useRef(null);
+  const [resyncNeeded, setResyncNeeded] = useState(false);
+  // the step or finish job running in the background, null if there is none
+  const [job, setJob] = useState(null);
+
+  // replaces entries by key, drops removed ones and appends new ones
+  const merge = (list, changed = [], removed = [], keyOf) => {
+    const changedByKey = new Map(changed.map((item) => [keyOf(item), item]));
+    const removedKeys = new Set(removed.map(keyOf));
+    const merged = list
+      .filter((item) => !removedKeys.has(keyOf(item)))
+      .map((item) => {
+        const key = keyOf(item);
+        const replacement = changedByKey.get(key);
+        changedByKey.delete(key);
+        return replacement || item;
+      });
+    return merged.concat([...changedByKey.values()]);
+  };
+  const buildingKey = (b) => (typeof b === 'string' ? b : b.name);
+  const roadKey = (r) => String(Array.isArray(r) ? r : r.coordinate);
+
+  // applies a full state or a delta; returns false if a delta does not apply to our version.
+  // A delta holds everything that changed after its base, so it also brings a newer version up to date
+  const applyState = (data) => {
+    if (data.full || data.version === undefined) {
+      if (typeof data.cycle === 'number') setCycle(data.cycle);
+      if (data.buildings) setBuildings(data.buildings);
+      if (data.roads) setRoads(data.roads);
+      versionRef.current = data.version ?? null;
+      return true;
+    }
+    if (versionRef.current === null || data.base > versionRef.current) {
+      return false;
+    }
+    setCycle(data.cycle);
+    setBuildings((prev) => merge(prev, data.buildings, data.removedBuildings, buildingKey));
+    setRoads((prev) => merge(prev, data.roads, data.removedRoads, roadKey));
+    versionRef.current = data.version;
+    return true;
+  };
 
   // ⚡ 先定义这两个函数
   const handleSimulationUpdate = (update) => {
@@ -54,9 +96,11 @@ function App() {
         downloadSimulationJSON(data, pendingSaveFilename);
         setPendingSaveFilename('');
       }
-      if (typeof data.cycle === 'number') setCycle(data.cycle);
-      if (data.buildings) setBuildings(data.buildings);
-      if (data.roads) setRoads(data.roads);
+      if (!applyState(data)) {
+        // we missed an update
+        versionRef.current = null;
+        setResyncNeeded(true);
+      }
     }
   };
 
@@ -70,10 +114,26 @@ function App() {
       setBuildings(data.buildings || []);
       setRoads(data.roads || []);
       setCycle(data.cycle || 0);
+      versionRef.current = data.version ?? null;
       localStorage.setItem('sessionId', lastSessionIdRef.current);
     }
   };
 
+  // the background job running on the session, while it runs
+  const handleJob = (message) => {
+    if (message.status === 'error') {
+      setErrorMessage(message.details || 'The job could not run');
+    } else if (message.status === 'RUNNING') {
+      setJob(message);
+      setCycle(message.cycle);
+    } else {
+      setJob(null);
+      if (message.status === 'OUT_OF_BUDGET' || message.status === 'FAILED') {
+        setErrorMessage(`${message.command} stopped at cycle ${message.cycle}: ${message.status === 'FAILED' ? message.output : 'out of budget'}`);
+      }
+    }
+  };
+
   // 🔥 再 useWebSocket
   const {
     connected,
@@ -81,8 +141,18 @@ function App() {
     sendNewBuildingCommand,
     sendLoadCommand,
     sendLoadSession,
+    sendSync,
+    sendJob,
+    sendCancelJob,
     updates,
-  } = useWebSocket(handleSimulationUpdate, handleSessionLoad);
+  } = useWebSocket(handleSimulationUpdate, handleSessionLoad, handleJob);
+
+  useEffect(() => {
+    if (resyncNeeded && connected) {
+      sendSync(lastSessionIdRef.current);
+      setResyncNeeded(false);
+    }
+  }, [resyncNeeded, connected]);
 
   useEffect(() => {
     if (updates.length > 0) {
@@ -101,9 +171,14 @@ function App() {
 
   // 封装 send 方法
   const wrappedSendCommand = (cmdObj) =>
-    sendCommand({ id: lastSessionIdRef.current, ...cmdObj });
+    sendCommand({ id: lastSessionIdRef.current, version: versionRef.current, ...cmdObj });
+  const wrappedSendJob = (cmdObj) =>
+    sendJob({ id: lastSessionIdRef.current, ...cmdObj });
+  const handleCancelJob = () => {
+    if (job) sendCancelJob(lastSessionIdRef.current, job.jobId);
+  };
   const wrappedSendNewBuilding = (jsonData) =>
-    sendNewBuildingCommand({ id: lastSessionIdRef.current, jsonData });
+    sendNewBuildingCommand({ id: lastSessionIdRef.current, version: versionRef.current, jsonData });
   const wrappedSendLoad = (jsonData) =>
     sendLoadCommand({ id: lastSessionIdRef.current, jsonData });
   const wrappedLoadSession = (id) => {
@@ -125,7 +200,8 @@ function App() {
   const handleCloseSaveModal = () => setIsSaveModalOpen(false);
   const handleSaveData = (filename) => {
     setPendingSaveFilename(filename);
-    wrappedSendCommand({ command: `save ${filename}` });
+    // the download needs the full state, not a delta
+    wrappedSendCommand({ command: `save ${filename}`, version: null });
   };
   const handleOpenLoadModal = () => setIsLoadModalOpen(true);
   const handleCloseLoadModal = () => setIsLoadModalOpen(false);
@@ -193,7 +269,7 @@ function App() {
             buildings={buildings}
             onNewBuilding={handleNewBuildingClick}
             onStep={(n) => wrappedSendCommand({ command: `step ${n}` })}
-            onFinish={() => wrappedSendCommand({ command: 'finish' })}
+            onFinish={() => wrappedSendJob({ command: 'finish' })}
             sourcePolicy={sourcePolicy}
             requestPolicy={requestPolicy}
             requestPolicyOn={requestPolicyOn}
@@ -203,6 +279,9 @@ function App() {
             verbosity={verbosity}
             onVerbosityChange={setVerbosity}
             sendCommand={wrappedSendCommand}
+            sendJob={wrappedSendJob}
+            job={job}
+            onCancelJob={handleCancelJob}
           />
         </div>
       </div>
@@ -12,12 +12,18 @@ import {
   FormControlLabel,
 } from '@mui/material';
 
+// steps of at least this many cycles run as a background job
+const JOB_STEPS = 1000;
+
 function RightControls({
   connected,
   cycle,
   buildings = [], 
   onNewBuilding,
   sendCommand, 
+  sendJob,
+  job,
+  onCancelJob,
   sourcePolicy,
   requestPolicy,
   requestPolicyOn,
@@ -34,7 +40,9 @@ function RightControls({
   const [connectDest, setConnectDest] = useState('');
   const [requestItemName, setRequestItemName] = useState('');
   const [requestBuildingName, setRequestBuildingName] = useState('');
+  const [requestQuantity, setRequestQuantity] = useState(1);
   const [autoStep, setAutoStep] = useState(false);
+  const [rewindCycle, setRewindCycle] = useState(0);
 
   // Local state for policy dropdowns
   const [localSourcePolicy, setLocalSourcePolicy] = useState(sourcePolicy);
@@ -62,6 +70,17 @@ function RightControls({
       return;
     }
     const commandString = `step ${stepCount}`;
+    if (Number(stepCount) >= JOB_STEPS) {
+      sendJob({ command: commandString });
+    } else {
+      sendCommand({ command: commandString });
+    }
+  };
+
+  // REWIND command: "rewind 40"
+  const handleRewindCommand = () => {
+    if (!connected) return;
+    const commandString = `rewind ${rewindCycle}`;
     sendCommand({ command: commandString });
   };
 
@@ -87,18 +106,20 @@ function RightControls({
       sendCommand({ command: commandString });
     };
 
-  // REQUEST command: "request 'ITEM' from 'BUILDING'"
+  // REQUEST command: "request [QUANTITY] 'ITEM' from 'BUILDING'"
   const handleRequestCommand = () => {
     if (!connected) return;
-    const commandString = `request '${requestItemName}' from '${requestBuildingName}'`;
+    const quantity = Number(requestQuantity) > 1 ? `${requestQuantity} ` : '';
+    const commandString = `request ${quantity}'${requestItemName}' from '${requestBuildingName}'`;
     sendCommand({ command: commandString });
   };
 
   // FINISH command: "finish"
   const handleFinishCommand = () => {
     if (!connected) return;
-    sendCommand({ command: "finish" });
-    console.log("Sending finish command");
+    // finish can take long, or never end, so it runs as a job
+    sendJob({ command: "finish" });
+    console.log("Sending finish job");
   };
 
   // SET POLICY commands
@@ -169,13 +190,41 @@ function RightControls({
         </Box>
         {/* Finish Command */}
         <Box display="flex" gap={3} mt={1}>
-          <Button variant="outlined" color="secondary" onClick={handleFinishCommand} disabled={!connected}>
+          <Button variant="outlined" color="secondary" onClick={handleFinishCommand} disabled={!connected || !!job}>
             Finish
           </Button>
-          <Button variant="outlined" onClick={handleStepCommand} disabled={!connected || autoStep}>
+          <Button variant="outlined" onClick={handleStepCommand} disabled={!connected || autoStep || !!job}>
             Step
           </Button>
         </Box>
+        {/* Background Job Progress */}
+        {job && (
+          <Box display="flex" alignItems="center" gap={1} mt={1}>
+            <Typography variant="body2">
+              {job.command}: cycle {job.cycle}, {Math.round(job.cyclesPerSecond)} cycles/s,{' '}
+              {job.outstandingRequests} requests outstanding
+            </Typography>
+            <Button variant="outlined" color="error" size="small" onClick={onCancelJob}>
+              Cancel
+            </Button>
+          </Box>
+        )}
+        {/* Rewind Control */}
+        <Box display="flex" alignItems="center" gap={1} mt={1}>
+          <TextField
+            type="number"
+            label="Rewind To"
+            value={rewindCycle}
+            onChange={(e) => setRewindCycle(e.target.value)}
+            size="small"
+            disabled={autoStep}
+            inputProps={{ min: 0, max: cycle }}
+            sx={{ width: 120 }}
+          />
+          <Button variant="outlined" onClick={handleRewindCommand} disabled={!connected || autoStep}>
+            Rewind
+          </Button>
+        </Box>
       </Box>
 
       <Box mt={2}>
@@ -327,6 +376,16 @@ function RightControls({
           value={requestBuildingName}
           onChange={(e) => setRequestBuildingName(e.target.value)}
         />
+        <TextField
+          label="Quantity"
+          type="number"
+          size="small"
+          fullWidth
+          margin="dense"
+          value={requestQuantity}
+          onChange={(e) => setRequestQuantity(e.target.value)}
+          inputProps={{ min: 1 }}
+        />
         <Button
           variant="outlined"
           fullWidth
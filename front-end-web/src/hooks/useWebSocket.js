@@ -2,10 +2,47 @@ import { useState, useEffect, useRef } from 'react';
 import SockJS from 'sockjs-client';
 import { Client } from '@stomp/stompjs';
 
-export default function useWebSocket(onUpdate) {
+export default function useWebSocket(onUpdate, onSessionLoad, onJob) {
   const [connected, setConnected] = useState(false);
-  const [updates, setUpdates] = useState([]);   
+  const [updates, setUpdates] = useState([]);
   const clientRef = useRef(null);
+  // the session whose results we receive, and our subscriptions to them
+  const sessionRef = useRef(null);
+  const subscriptionsRef = useRef([]);
+
+  // The server sends a session's results to /topic/session/{id}/..., so we only
+  // receive the results of the session we are working on.
+  function follow(sessionId) {
+    if (sessionRef.current === sessionId) return;
+    subscriptionsRef.current.forEach((subscription) => subscription.unsubscribe());
+    const client = clientRef.current;
+    const topic = `/topic/session/${sessionId}`;
+    const handleUpdate = (name) => (message) => {
+      const update = JSON.parse(message.body);
+      console.log(`Received ${name} result:`, update);
+      setUpdates((prev) => [...prev, update]);
+      if (onUpdate) {
+        onUpdate(update);
+      }
+    };
+    subscriptionsRef.current = [
+      // Subscribe to the main command result topic
+      client.subscribe(`${topic}/command-result`, handleUpdate('command')),
+      // Subscribe to load command result topic
+      client.subscribe(`${topic}/loadCommand-result`, handleUpdate('loadCommand')),
+      // Subscribe to new building result topic
+      client.subscribe(`${topic}/newBuilding-result`, handleUpdate('newBuilding')),
+      // Subscribe to session‐load result topic
+      client.subscribe(`${topic}/loadSession-result`, (msg) => {
+        const sessionState = JSON.parse(msg.body);
+        onSessionLoad?.(sessionState);
+      }),
+      // Subscribe to background jobs: their start and cancel results, and their progress
+      client.subscribe(`${topic}/job-result`, (msg) => onJob?.(JSON.parse(msg.body))),
+      client.subscribe(`${topic}/job-progress`, (msg) => onJob?.(JSON.parse(msg.body))),
+    ];
+    sessionRef.current = sessionId;
+  }
 
   useEffect(() => {
     //192.168.1.254
@@ -16,42 +53,13 @@ export default function useWebSocket(onUpdate) {
         setConnected(true);
         console.log('Connected to Simulation Server');
 
-        // Subscribe to the main command result topic
-        client.subscribe('/topic/command-result', (message) => {
-          const update = JSON.parse(message.body);
-          console.log('Received command result:', update);
-          setUpdates((prev) => [...prev, update]);
-          if (onUpdate) {
-            onUpdate(update);
-          }
-        });
-
-         // Subscribe to load command result topic
-         client.subscribe('/topic/loadCommand-result', (message) => {
-          const update = JSON.parse(message.body);
-          console.log('Received loadCommand result:', update);
-          setUpdates((prev) => [...prev, update]);
-          if (onUpdate) {
-            onUpdate(update);
-          }
-        });
-
-        // Subscribe to new building result topic
-        client.subscribe('/topic/newBuilding-result', (message) => {
-          const update = JSON.parse(message.body);
-          console.log('Received newBuilding result:', update);
-          setUpdates((prev) => [...prev, update]);
-          if (onUpdate) {
-            onUpdate(update);
-          }
-        });
-        // Subscribe to session‐load result topic
-        client.subscribe('/topic/loadSession-result', msg => {
-          const sessionState = JSON.parse(msg.body);
-          onSessionLoad?.(sessionState);
-        });
-
-       
+        // subscriptions do not survive a reconnect
+        const followed = sessionRef.current;
+        sessionRef.current = null;
+        subscriptionsRef.current = [];
+        if (followed !== null) {
+          follow(followed);
+        }
       },
       onDisconnect: () => {
         setConnected(false);
@@ -70,26 +78,41 @@ export default function useWebSocket(onUpdate) {
     };
   }, []);
 
-  function safePublish(destination, body) {
+  function safePublish(sessionId, action, body) {
+    const destination = `/app/session/${sessionId}/${action}`;
     if (!connected || !clientRef.current) {
       console.warn(`Can't publish to ${destination}, socket not connected yet.`);
       return false;
     }
+    // subscribe before sending, so the result is not missed
+    follow(sessionId);
     clientRef.current.publish({ destination, body });
     return true;
   }
 
-  const sendCommand = (id, cmdObj) =>
-    safePublish('/app/command', JSON.stringify(id, cmdObj));
+  const sendCommand = (cmdObj) =>
+    safePublish(cmdObj.id, 'command', JSON.stringify(cmdObj));
 
-  const sendNewBuildingCommand = (id, cmdObj) =>
-    safePublish('/app/newBuilding', JSON.stringify(id, cmdObj));
+  const sendNewBuildingCommand = (cmdObj) =>
+    safePublish(cmdObj.id, 'newBuilding', JSON.stringify(cmdObj));
 
-  const sendLoadCommand = (id, cmdObj) =>
-    safePublish('/app/loadCommand', JSON.stringify(id, cmdObj));
+  const sendLoadCommand = (cmdObj) =>
+    safePublish(cmdObj.id, 'loadCommand', JSON.stringify(cmdObj));
 
   const sendLoadSession = sessionId =>
-  safePublish('/app/loadSession', sessionId.toString());
+  safePublish(sessionId, 'loadSession', sessionId.toString());
+
+  // asks for the full state, answered on the session's command-result topic
+  const sendSync = sessionId =>
+    safePublish(sessionId, 'sync', sessionId.toString());
+
+  // runs a step or finish command in the background; the state it leaves arrives as a
+  // command result
+  const sendJob = (cmdObj) =>
+    safePublish(cmdObj.id, 'job', JSON.stringify(cmdObj));
+
+  const sendCancelJob = (sessionId, jobId) =>
+    safePublish(sessionId, `job/${jobId}/cancel`, '');
 
-  return { connected, sendCommand, sendNewBuildingCommand, sendLoadCommand, sendLoadSession, updates };
+  return { connected, sendCommand, sendNewBuildingCommand, sendLoadCommand, sendLoadSession, sendSync, sendJob, sendCancelJob, updates };
 }